@@ -57,6 +57,7 @@ import com.android.settings.core.instrumentation.MetricsFeatureProvider;
 import com.android.settings.core.instrumentation.SharedPreferencesLogger;
 import com.android.settings.dashboard.DashboardFeatureProvider;
 import com.android.settings.dashboard.DashboardSummary;
+import com.android.settings.dashboard.suggestions.SuggestionsChecks;
 import com.android.settings.development.DevelopmentSettings;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.search.SearchActivity;
@@ -931,6 +932,10 @@ public class SettingsActivity extends SettingsDrawerActivity
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_SUGGESTION) {
+            // The suggestion may have been completed meanwhile.
+            SuggestionsChecks.invalidateCache();
+        }
         if (requestCode == REQUEST_SUGGESTION && mCurrentSuggestion != null
                 && resultCode != RESULT_CANCELED) {
             getPackageManager().setComponentEnabledSetting(mCurrentSuggestion,
@@ -651,7 +651,10 @@ public class InstalledAppDetails extends AppInfoBase
 
     @VisibleForTesting
     BatterySipper findTargetSipper(BatteryStatsHelper batteryHelper, int uid) {
-        List<BatterySipper> usageList = batteryHelper.getUsageList();
+        return findTargetSipper(batteryHelper.getUsageList(), uid);
+    }
+
+    private static BatterySipper findTargetSipper(List<BatterySipper> usageList, int uid) {
         for (int i = 0, size = usageList.size(); i < size; i++) {
             BatterySipper sipper = usageList.get(i);
             if (sipper.getUid() == uid) {
@@ -760,8 +763,15 @@ public class InstalledAppDetails extends AppInfoBase
             final int dischargeAmount = mBatteryHelper.getStats().getDischargeAmount(
                     BatteryStats.STATS_SINCE_CHARGED);
 
-            final List<BatterySipper> usageList = new ArrayList<>(mBatteryHelper.getUsageList());
+            // The screen usage is smeared on copies, as the BatteryStatsHelper is shared with the
+            // battery screens.
+            final List<BatterySipper> usageList =
+                    BatteryUtils.copyUsageList(mBatteryHelper.getUsageList());
             final double hiddenAmount = mBatteryUtils.removeHiddenBatterySippers(usageList);
+            final BatterySipper smearedSipper = findTargetSipper(usageList, mSipper.getUid());
+            if (smearedSipper != null) {
+                mSipper = smearedSipper;
+            }
             final int percentOfMax = (int) mBatteryUtils.calculateBatteryPercent(
                     mSipper.totalPowerMah, mBatteryHelper.getTotalPower(), hiddenAmount,
                     dischargeAmount);
@@ -75,6 +75,7 @@ import com.android.settings.Utils;
 import com.android.settings.applications.AppStateAppOpsBridge.PermissionState;
 import com.android.settings.applications.AppStateUsageBridge.UsageState;
 import com.android.settings.core.InstrumentedPreferenceFragment;
+import com.android.settings.dashboard.SummaryCache;
 import com.android.settings.dashboard.SummaryLoader;
 import com.android.settings.fuelgauge.HighPowerDetail;
 import com.android.settings.fuelgauge.PowerWhitelistBackend;
@@ -1504,7 +1505,8 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                     @Override
                     protected void onCountComplete(int num) {
                         mLoader.setSummary(SummaryProvider.this,
-                                mContext.getString(R.string.apps_summary, num));
+                                mContext.getString(R.string.apps_summary, num),
+                                SummaryCache.DEFAULT_TTL_MILLIS);
                     }
                 }.execute();
             }
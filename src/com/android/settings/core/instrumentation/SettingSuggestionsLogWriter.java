@@ -57,7 +57,7 @@ public class SettingSuggestionsLogWriter implements LogWriter {
     public void action(Context context, int category, String pkg,
             Pair<Integer, Object>... taggedData) {
         if (mEventStore == null) {
-            mEventStore = new EventStore(context);
+            mEventStore = EventStore.getInstance(context);
         }
         switch (category) {
             case MetricsEvent.ACTION_SHOW_SETTINGS_SUGGESTION:
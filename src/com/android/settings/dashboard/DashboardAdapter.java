@@ -20,15 +20,16 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Color;
-import android.graphics.drawable.Drawable;
 import android.graphics.drawable.Icon;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
-import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.Pair;
 import android.view.LayoutInflater;
@@ -57,6 +58,8 @@ import com.android.settingslib.suggestions.SuggestionParser;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.DashboardItemHolder>
         implements SummaryLoader.SummaryConsumer {
@@ -72,7 +75,9 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
     @VisibleForTesting
     static final int MAX_SUGGESTION_TO_SHOW = 5;
 
-    private final IconCache mCache;
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final IconLoader mIconLoader;
     private final Context mContext;
     private final MetricsFeatureProvider mMetricsFeatureProvider;
     private final DashboardFeatureProvider mDashboardFeatureProvider;
@@ -85,8 +90,19 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
     private SuggestionDismissController mSuggestionDismissHandler;
     private SuggestionDismissController.Callback mCallback;
 
+    /** The data shown by the adapter, i.e. the data the RecyclerView was last notified of. */
     @VisibleForTesting
     DashboardData mDashboardData;
+    /** The most recent data, shown once its diff with {@link #mDashboardData} is applied. */
+    private DashboardData mLatestData;
+    /** The data whose diff is being calculated, if any. */
+    private DashboardData mDiffingData;
+    /** Tiles whose summary changed since the last update. */
+    private final ArraySet<Tile> mChangedTiles = new ArraySet<>();
+    private boolean mUpdateScheduled;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    @VisibleForTesting
+    Executor mDiffExecutor = DIFF_EXECUTOR;
 
     private View.OnClickListener mTileClickListener = new View.OnClickListener() {
         @Override
@@ -121,7 +137,7 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
         mMetricsFeatureProvider = factory.getMetricsFeatureProvider();
         mDashboardFeatureProvider = factory.getDashboardFeatureProvider(context);
         mSuggestionFeatureProvider = factory.getSuggestionFeatureProvider(context);
-        mCache = new IconCache(context);
+        mIconLoader = IconLoader.getInstance(context);
         mSuggestionParser = suggestionParser;
         mCallback = callback;
 
@@ -144,25 +160,24 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
                 .setCategory(category)
                 .setSuggestionConditionMode(suggestionConditionMode)
                 .build();
+        mLatestData = mDashboardData;
     }
 
     public List<Tile> getSuggestions() {
-        return mDashboardData.getSuggestions();
+        return mLatestData.getSuggestions();
     }
 
     public void setCategoriesAndSuggestions(DashboardCategory category,
             List<Tile> suggestions) {
         tintIcons(category, suggestions);
 
-        final DashboardData prevData = mDashboardData;
-        mDashboardData = new DashboardData.Builder(prevData)
+        notifyDashboardDataChanged(new DashboardData.Builder(mLatestData)
                 .setSuggestions(suggestions.subList(0,
                         Math.min(suggestions.size(), MAX_SUGGESTION_TO_SHOW)))
                 .setCategory(category)
-                .build();
-        notifyDashboardDataChanged(prevData);
+                .build());
         List<Tile> shownSuggestions = null;
-        final int mode = mDashboardData.getSuggestionConditionMode();
+        final int mode = mLatestData.getSuggestionConditionMode();
         if (mode == DashboardData.HEADER_MODE_DEFAULT) {
             shownSuggestions = suggestions.subList(0,
                     Math.min(suggestions.size(), DashboardData.DEFAULT_SUGGESTION_COUNT));
@@ -183,36 +198,30 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
 
     public void setCategory(DashboardCategory category) {
         tintIcons(category, null);
-        final DashboardData prevData = mDashboardData;
         Log.d(TAG, "adapter setCategory called");
-        mDashboardData = new DashboardData.Builder(prevData)
+        notifyDashboardDataChanged(new DashboardData.Builder(mLatestData)
                 .setCategory(category)
-                .build();
-        notifyDashboardDataChanged(prevData);
+                .build());
     }
 
     public void setConditions(List<Condition> conditions) {
-        final DashboardData prevData = mDashboardData;
         Log.d(TAG, "adapter setConditions called");
-        mDashboardData = new DashboardData.Builder(prevData)
+        notifyDashboardDataChanged(new DashboardData.Builder(mLatestData)
                 .setConditions(conditions)
-                .build();
-        notifyDashboardDataChanged(prevData);
+                .build());
     }
 
     public void onSuggestionDismissed(Tile suggestion) {
-        final List<Tile> suggestions = mDashboardData.getSuggestions();
+        final List<Tile> suggestions = mLatestData.getSuggestions();
         if (suggestions == null || suggestions.isEmpty()) {
             return;
         }
         if (suggestions.size() == 1) {
             // The only suggestion is dismissed, and the the empty suggestion container will
             // remain as the dashboard item. Need to refresh the dashboard list.
-            final DashboardData prevData = mDashboardData;
-            mDashboardData = new DashboardData.Builder(prevData)
+            notifyDashboardDataChanged(new DashboardData.Builder(mLatestData)
                     .setSuggestions(null)
-                    .build();
-            notifyDashboardDataChanged(prevData);
+                    .build());
         } else {
             mSuggestionAdapter.removeSuggestion(suggestion);
         }
@@ -220,11 +229,14 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
 
     @Override
     public void notifySummaryChanged(Tile tile) {
-        final int position = mDashboardData.getPositionByTile(tile);
-        if (position != DashboardData.POSITION_NOT_FOUND) {
-            // Since usually tile in parameter and tile in mCategories are same instance,
-            // which is hard to be detected by DiffUtil, so we notifyItemChanged directly.
-            notifyItemChanged(position, mDashboardData.getItemTypeByPosition(position));
+        // Since usually tile in parameter and tile in mCategories are same instance,
+        // which is hard to be detected by DiffUtil, so we notifyItemChanged directly.
+        // Summaries tend to change in bursts, so they are batched until the next frame.
+        mChangedTiles.add(tile);
+        if (mRecyclerView == null) {
+            notifyChangedTiles();
+        } else {
+            scheduleUpdate();
         }
     }
 
@@ -263,10 +275,9 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
                 holder.itemView.setOnClickListener(v -> {
                     mMetricsFeatureProvider.action(mContext,
                             MetricsEvent.ACTION_SETTINGS_CONDITION_EXPAND, false);
-                    DashboardData prevData = mDashboardData;
-                    mDashboardData = new DashboardData.Builder(prevData).setSuggestionConditionMode(
-                            DashboardData.HEADER_MODE_COLLAPSED).build();
-                    notifyDashboardDataChanged(prevData);
+                    notifyDashboardDataChanged(new DashboardData.Builder(mLatestData)
+                            .setSuggestionConditionMode(DashboardData.HEADER_MODE_COLLAPSED)
+                            .build());
                     mRecyclerView.scrollToPosition(SUGGESTION_CONDITION_HEADER_POSITION);
                 });
                 break;
@@ -320,18 +331,79 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
         return mSuggestionAdapter.getSuggestion(position);
     }
 
+    /**
+     * Shows {@param data} instead of the current data.
+     *
+     * Once the dashboard is displayed, all the changes made within a frame are coalesced: the
+     * diff between the shown data and the most recent one is calculated in the background at the
+     * next frame, and then applied at once together with the pending summary changes.
+     */
     @VisibleForTesting
-    void notifyDashboardDataChanged(DashboardData prevData) {
-        if (mFirstFrameDrawn && prevData != null) {
-            final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DashboardData
-                    .ItemsDataDiffCallback(prevData.getItemList(), mDashboardData.getItemList()));
-            diffResult.dispatchUpdatesTo(this);
+    void notifyDashboardDataChanged(DashboardData data) {
+        mLatestData = data;
+        if (mFirstFrameDrawn && mRecyclerView != null) {
+            scheduleUpdate();
         } else {
+            // Nothing has been laid out against the shown data yet, no need to diff it.
             mFirstFrameDrawn = true;
+            mDashboardData = data;
+            mChangedTiles.clear();
             notifyDataSetChanged();
         }
     }
 
+    private void scheduleUpdate() {
+        if (!mUpdateScheduled) {
+            mUpdateScheduled = true;
+            mRecyclerView.postOnAnimation(this::startUpdate);
+        }
+    }
+
+    private void startUpdate() {
+        mUpdateScheduled = false;
+        if (mDiffingData != null) {
+            // Picked up once the diff being calculated is applied.
+            return;
+        }
+        if (mLatestData == mDashboardData) {
+            notifyChangedTiles();
+            return;
+        }
+        final DashboardData oldData = mDashboardData;
+        final DashboardData newData = mLatestData;
+        final DiffUtil.Callback callback = new DashboardData.ItemsSnapshotDiffCallback(
+                oldData.getItemList(), newData.getItemList());
+        mDiffingData = newData;
+        mDiffExecutor.execute(() -> {
+            final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(callback);
+            mHandler.post(() -> applyUpdate(oldData, newData, diffResult));
+        });
+    }
+
+    private void applyUpdate(DashboardData oldData, DashboardData newData,
+            DiffUtil.DiffResult diffResult) {
+        mDiffingData = null;
+        if (oldData == mDashboardData) {
+            mDashboardData = newData;
+            diffResult.dispatchUpdatesTo(this);
+            notifyChangedTiles();
+        }
+        // Otherwise the shown data was replaced meanwhile, and the diff is stale.
+        if (mLatestData != mDashboardData && mRecyclerView != null) {
+            scheduleUpdate();
+        }
+    }
+
+    private void notifyChangedTiles() {
+        for (int i = 0, size = mChangedTiles.size(); i < size; i++) {
+            final int position = mDashboardData.getPositionByTile(mChangedTiles.valueAt(i));
+            if (position != DashboardData.POSITION_NOT_FOUND) {
+                notifyItemChanged(position, mDashboardData.getItemTypeByPosition(position));
+            }
+        }
+        mChangedTiles.clear();
+    }
+
     private void logSuggestions() {
         final List<Tile> suggestions = mDashboardData.getSuggestions();
         if (suggestions == null) {
@@ -429,11 +501,9 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
                 mMetricsFeatureProvider.action(mContext,
                         MetricsEvent.ACTION_SETTINGS_CONDITION_EXPAND, true);
             }
-            DashboardData prevData = mDashboardData;
             final boolean wasCollapsed = curMode == DashboardData.HEADER_MODE_COLLAPSED;
-            mDashboardData = new DashboardData.Builder(prevData)
-                    .setSuggestionConditionMode(nextMode).build();
-            notifyDashboardDataChanged(prevData);
+            notifyDashboardDataChanged(new DashboardData.Builder(mLatestData)
+                    .setSuggestionConditionMode(nextMode).build());
             if (wasCollapsed) {
                 mRecyclerView.scrollToPosition(SUGGESTION_CONDITION_HEADER_POSITION);
             }
@@ -469,7 +539,7 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
             itemView.removeAllViews();
             itemView.addView(tile.remoteViews.apply(itemView.getContext(), itemView));
         } else {
-            holder.icon.setImageDrawable(mCache.getIcon(tile.icon));
+            mIconLoader.bindIcon(holder.icon, tile.icon);
             holder.title.setText(tile.title);
             if (!TextUtils.isEmpty(tile.summary)) {
                 holder.summary.setText(tile.summary);
@@ -492,7 +562,8 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
         if (category != null) {
             for (Tile tile : category.tiles) {
                 if (tile.isIconTintable) {
-                    // If this drawable is tintable, tint it to match the color.
+                    // If this drawable is tintable, tint it to match the color. This only
+                    // records the tint, which is applied when IconLoader decodes the icon.
                     tile.icon.setTint(tintColor);
                 }
             }
@@ -507,8 +578,8 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
     }
 
     void onSaveInstanceState(Bundle outState) {
-        final List<Tile> suggestions = mDashboardData.getSuggestions();
-        final DashboardCategory category = mDashboardData.getCategory();
+        final List<Tile> suggestions = mLatestData.getSuggestions();
+        final DashboardCategory category = mLatestData.getCategory();
         if (suggestions != null) {
             outState.putParcelableArrayList(STATE_SUGGESTION_LIST, new ArrayList<>(suggestions));
         }
@@ -517,7 +588,7 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
         }
         outState.putStringArrayList(STATE_SUGGESTIONS_SHOWN_LOGGED, mSuggestionsShownLogged);
         outState.putInt(STATE_SUGGESTION_CONDITION_MODE,
-                mDashboardData.getSuggestionConditionMode());
+                mLatestData.getSuggestionConditionMode());
     }
 
     private void updateConditionIcons(List<Icon> icons, ViewGroup parent) {
@@ -541,24 +612,6 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
                 mSuggestionFeatureProvider.isSmartSuggestionEnabled(mContext));
     }
 
-    public static class IconCache {
-        private final Context mContext;
-        private final ArrayMap<Icon, Drawable> mMap = new ArrayMap<>();
-
-        public IconCache(Context context) {
-            mContext = context;
-        }
-
-        public Drawable getIcon(Icon icon) {
-            Drawable drawable = mMap.get(icon);
-            if (drawable == null) {
-                drawable = icon.loadDrawable(mContext);
-                mMap.put(icon, drawable);
-            }
-            return drawable;
-        }
-    }
-
     public static class DashboardItemHolder extends RecyclerView.ViewHolder {
         public final ImageView icon;
         public final TextView title;
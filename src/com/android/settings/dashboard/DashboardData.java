@@ -17,9 +17,11 @@ package com.android.settings.dashboard;
 
 import android.annotation.IntDef;
 import android.graphics.drawable.Icon;
+import android.support.annotation.MainThread;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.util.DiffUtil;
 import android.text.TextUtils;
+import android.util.SparseIntArray;
 
 import com.android.settings.R;
 import com.android.settings.dashboard.conditional.Condition;
@@ -392,6 +394,64 @@ public class DashboardData {
 
     }
 
+    /**
+     * A DiffCallback equivalent to {@link ItemsDataDiffCallback}, which compares the contents of
+     * the items up front, so that the diff can be calculated off the main thread while the
+     * entities of the items keep changing.
+     */
+    public static class ItemsSnapshotDiffCallback extends DiffUtil.Callback {
+        private final int[] mOldIds;
+        private final int[] mNewIds;
+        /** Position in the new items of the item with the same id as each old item. */
+        private final int[] mNewPositions;
+        /** Whether each old item has the same contents as the new item with its id. */
+        private final boolean[] mSameContents;
+
+        @MainThread
+        public ItemsSnapshotDiffCallback(List<Item> oldItems, List<Item> newItems) {
+            final int oldSize = oldItems.size();
+            final int newSize = newItems.size();
+            mOldIds = new int[oldSize];
+            mNewIds = new int[newSize];
+            final SparseIntArray newPositionsById = new SparseIntArray(newSize);
+            for (int i = newSize - 1; i >= 0; i--) {
+                mNewIds[i] = newItems.get(i).id;
+                newPositionsById.put(mNewIds[i], i);
+            }
+            mNewPositions = new int[oldSize];
+            mSameContents = new boolean[oldSize];
+            for (int i = 0; i < oldSize; i++) {
+                final Item oldItem = oldItems.get(i);
+                mOldIds[i] = oldItem.id;
+                mNewPositions[i] = newPositionsById.get(oldItem.id, POSITION_NOT_FOUND);
+                mSameContents[i] = mNewPositions[i] != POSITION_NOT_FOUND
+                        && oldItem.equals(newItems.get(mNewPositions[i]));
+            }
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewIds.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldIds[oldItemPosition] == mNewIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            // Items sharing an id with others are not compared, and always rebound.
+            return mNewPositions[oldItemPosition] == newItemPosition
+                    && mSameContents[oldItemPosition];
+        }
+    }
+
     /**
      * An item contains the data needed in the DashboardData.
      */
@@ -50,6 +50,7 @@ import com.android.settingslib.suggestions.SuggestionList;
 import com.android.settingslib.suggestions.SuggestionParser;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class DashboardSummary extends InstrumentedFragment
@@ -58,6 +59,10 @@ public class DashboardSummary extends InstrumentedFragment
     public static final boolean DEBUG = false;
     private static final boolean DEBUG_TIMING = false;
     private static final int MAX_WAIT_MILLIS = 700;
+    /** How long suggestions wait for their completeness checks before being shown. */
+    private static final long CHECK_TIMEOUT_MILLIS = 150;
+    /** How long suggestions with slower checks wait for them before being shown anyway. */
+    private static final long DEFERRED_CHECK_TIMEOUT_MILLIS = 5000;
     private static final String TAG = "DashboardSummary";
 
 
@@ -155,7 +160,7 @@ public class DashboardSummary extends InstrumentedFragment
             Log.d(TAG, "Listening for condition changes");
             mConditionManager.addListener(this);
             Log.d(TAG, "conditions refreshed");
-            mConditionManager.refreshAll();
+            mConditionManager.refreshDirty();
         } else {
             Log.d(TAG, "Stopped listening for condition changes");
             mConditionManager.remListener(this);
@@ -266,34 +271,35 @@ public class DashboardSummary extends InstrumentedFragment
         mAdapter.onSuggestionDismissed(suggestion);
     }
 
-    private class SuggestionLoader extends AsyncTask<Void, Void, List<Tile>> {
+    private class SuggestionLoader extends AsyncTask<Void, List<Tile>, List<Tile>> {
+        private Context mContext;
+        private boolean mIsSmartSuggestionEnabled;
+
         @Override
         protected List<Tile> doInBackground(Void... params) {
-            final Context context = getContext();
-            boolean isSmartSuggestionEnabled =
-                    mSuggestionFeatureProvider.isSmartSuggestionEnabled(context);
-            final SuggestionList sl = mSuggestionParser.getSuggestions(isSmartSuggestionEnabled);
+            mContext = getContext();
+            mIsSmartSuggestionEnabled =
+                    mSuggestionFeatureProvider.isSmartSuggestionEnabled(mContext);
+            final SuggestionList sl = mSuggestionParser.getSuggestions(mIsSmartSuggestionEnabled);
             final List<Tile> suggestions = sl.getSuggestions();
 
-            if (isSmartSuggestionEnabled) {
-                List<String> suggestionIds = new ArrayList<>(suggestions.size());
-                for (Tile suggestion : suggestions) {
-                    suggestionIds.add(mSuggestionFeatureProvider.getSuggestionIdentifier(
-                            context, suggestion));
-                }
-                // TODO: create a Suggestion class to maintain the id and other info
-                mSuggestionFeatureProvider.rankSuggestions(suggestions, suggestionIds);
-            }
-            for (int i = 0; i < suggestions.size(); i++) {
-                Tile suggestion = suggestions.get(i);
-                if (mSuggestionsChecks.isSuggestionComplete(suggestion)) {
-                    suggestions.remove(i--);
-                }
+            Boolean[] complete = mSuggestionsChecks.areSuggestionsComplete(suggestions,
+                    CHECK_TIMEOUT_MILLIS);
+            if (Arrays.asList(complete).contains(null)) {
+                // Show the suggestions known to be incomplete, and add the slow ones later.
+                publishProgress(getIncompleteSuggestions(sl, suggestions, complete,
+                        false /* includeUnchecked */));
+                complete = mSuggestionsChecks.areSuggestionsComplete(suggestions,
+                        DEFERRED_CHECK_TIMEOUT_MILLIS);
             }
-            if (sl.isExclusiveSuggestionCategory()) {
-                mSuggestionFeatureProvider.filterExclusiveSuggestions(suggestions);
-            }
-            return suggestions;
+            return getIncompleteSuggestions(sl, suggestions, complete,
+                    true /* includeUnchecked */);
+        }
+
+        @Override
+        protected void onProgressUpdate(List<Tile>... tiles) {
+            mHandler.removeCallbacksAndMessages(null);
+            updateCategoryAndSuggestion(tiles[0]);
         }
 
         @Override
@@ -302,6 +308,43 @@ public class DashboardSummary extends InstrumentedFragment
             mHandler.removeCallbacksAndMessages(null);
             updateCategoryAndSuggestion(tiles);
         }
+
+        /**
+         * @param includeUnchecked whether to include the suggestions whose check did not finish,
+         *                         rather than leave them out until it does
+         */
+        private List<Tile> getIncompleteSuggestions(SuggestionList sl, List<Tile> suggestions,
+                Boolean[] complete, boolean includeUnchecked) {
+            final List<Tile> incomplete = new ArrayList<>(suggestions.size());
+            for (int i = 0; i < suggestions.size(); i++) {
+                if (Boolean.FALSE.equals(complete[i])
+                        || (includeUnchecked && complete[i] == null)) {
+                    incomplete.add(suggestions.get(i));
+                }
+            }
+            if (mIsSmartSuggestionEnabled) {
+                rankSuggestions(incomplete);
+            }
+            if (sl.isExclusiveSuggestionCategory()) {
+                mSuggestionFeatureProvider.filterExclusiveSuggestions(incomplete);
+            }
+            return incomplete;
+        }
+
+        /**
+         * Moves the most relevant of {@param suggestions}, as many as the adapter shows, to the
+         * start of the list. Only the suggestions left by the completeness checks are ranked.
+         */
+        private void rankSuggestions(List<Tile> suggestions) {
+            final List<String> suggestionIds = new ArrayList<>(suggestions.size());
+            for (Tile suggestion : suggestions) {
+                suggestionIds.add(mSuggestionFeatureProvider.getSuggestionIdentifier(
+                        mContext, suggestion));
+            }
+            // TODO: create a Suggestion class to maintain the id and other info
+            mSuggestionFeatureProvider.rankSuggestions(suggestions, suggestionIds,
+                    DashboardAdapter.MAX_SUGGESTION_TO_SHOW);
+        }
     }
 
     @VisibleForTesting
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.Icon;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.android.settings.R;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the icons of dashboard tiles, suggestions and search results, shared by all of them.
+ *
+ * Icons are decoded, and tinted, on a background thread: views show no icon until theirs is
+ * loaded, and are then swapped to it unless they have been rebound to another icon meanwhile.
+ * Loaded icons are kept in an LRU cache bounded by the size of their bitmaps, as constant states
+ * so that each view gets its own drawable. The icons of a package are dropped when it changes,
+ * and all of them when the configuration changes or memory runs low.
+ */
+public class IconLoader {
+
+    private static final String TAG = "IconLoader";
+
+    @VisibleForTesting
+    static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private static IconLoader sInstance;
+
+    private final Executor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<Object, CachedIcon> mCache =
+            new LruCache<Object, CachedIcon>(MAX_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(Object key, CachedIcon icon) {
+                    return icon.byteCount;
+                }
+            };
+    /** Views waiting for each icon being loaded. Only accessed on the main thread. */
+    private final ArrayMap<Icon, List<ImageView>> mPendingViews = new ArrayMap<>();
+    /** Bumped whenever the cache is cleared, so that icons loaded before are not cached. */
+    private volatile int mGeneration;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            if (data != null) {
+                evictPackage(data.getSchemeSpecificPart());
+            }
+        }
+    };
+
+    private final ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            clear();
+        }
+
+        @Override
+        public void onLowMemory() {
+            clear();
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_BACKGROUND) {
+                clear();
+            }
+        }
+    };
+
+    public static synchronized IconLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new IconLoader(Executors.newSingleThreadExecutor());
+            sInstance.register(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    IconLoader(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Drops cached icons whenever a package is updated or removed, or the configuration their
+     * resources were loaded with changes.
+     */
+    @VisibleForTesting
+    void register(Context context) {
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, filter);
+        context.registerComponentCallbacks(mComponentCallbacks);
+    }
+
+    /**
+     * Shows {@param icon} in {@param view}: right away if it is cached, otherwise once it has
+     * been loaded in the background with the context of the view.
+     */
+    @MainThread
+    public void bindIcon(ImageView view, Icon icon) {
+        final Object previous = view.getTag(R.id.icon_loader_key);
+        if (previous != null && previous != icon) {
+            final List<ImageView> views = mPendingViews.get(previous);
+            if (views != null) {
+                views.remove(view);
+            }
+        }
+        view.setTag(R.id.icon_loader_key, icon);
+        final Drawable cached = icon != null ? getCachedIcon(view.getResources(), icon) : null;
+        if (icon == null || cached != null) {
+            view.setImageDrawable(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+
+        List<ImageView> views = mPendingViews.get(icon);
+        if (views != null) {
+            if (!views.contains(view)) {
+                views.add(view);
+            }
+            return;
+        }
+        views = new ArrayList<>();
+        views.add(view);
+        mPendingViews.put(icon, views);
+        final Context context = view.getContext();
+        final int generation = mGeneration;
+        mExecutor.execute(() -> {
+            final Drawable drawable = loadDrawable(context, icon);
+            mHandler.post(() -> onIconLoaded(icon, drawable, generation));
+        });
+    }
+
+    /**
+     * Returns the icon cached for {@param key}, loading it on the calling thread from resource
+     * {@param resId} of {@param packageContext} if needed.
+     */
+    @WorkerThread
+    public Drawable getIcon(Context packageContext, String key, int resId) {
+        final Resources res = packageContext.getResources();
+        final Drawable cached = getCachedIcon(res, key);
+        if (cached != null) {
+            return cached;
+        }
+        final int generation = mGeneration;
+        final Drawable drawable;
+        try {
+            drawable = packageContext.getDrawable(resId);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        if (drawable == null) {
+            return null;
+        }
+        final Drawable.ConstantState state = put(key, drawable, generation);
+        return state != null ? copy(state, res) : drawable;
+    }
+
+    /**
+     * @return a new drawable of the icon cached for {@param key}, or null if it is not cached.
+     */
+    public Drawable getCachedIcon(Resources res, Object key) {
+        final CachedIcon cached = mCache.get(key);
+        return cached != null ? copy(cached.state, res) : null;
+    }
+
+    public void clear() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    /**
+     * Drops the icons of {@param packageName}.
+     */
+    @VisibleForTesting
+    void evictPackage(String packageName) {
+        final String keyPrefix = packageName + ":";
+        for (Object key : mCache.snapshot().keySet()) {
+            final boolean fromPackage;
+            if (key instanceof String) {
+                fromPackage = ((String) key).startsWith(keyPrefix);
+            } else {
+                final Icon icon = (Icon) key;
+                fromPackage = icon.getType() == Icon.TYPE_RESOURCE
+                        && packageName.equals(icon.getResPackage());
+            }
+            if (fromPackage) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static int getByteCount(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null) {
+                return Math.max(1, bitmap.getAllocationByteCount());
+            }
+        }
+        // Other drawables are estimated as an ARGB bitmap of their intrinsic size.
+        return Math.max(1, drawable.getIntrinsicWidth()) * Math.max(1,
+                drawable.getIntrinsicHeight()) * 4;
+    }
+
+    /**
+     * Caches {@param drawable} unless the cache was cleared since it started loading.
+     *
+     * @return the constant state to copy {@param drawable} from, or null if it cannot be copied
+     */
+    private Drawable.ConstantState put(Object key, Drawable drawable, int generation) {
+        final Drawable.ConstantState state = drawable.getConstantState();
+        if (state != null && generation == mGeneration) {
+            mCache.put(key, new CachedIcon(state, getByteCount(drawable)));
+        }
+        return state;
+    }
+
+    /**
+     * Returns a drawable of {@param state} of its own, so that changing its bounds, tint or
+     * alpha in one view does not change it in the others.
+     */
+    private static Drawable copy(Drawable.ConstantState state, Resources res) {
+        return state.newDrawable(res).mutate();
+    }
+
+    @WorkerThread
+    private static Drawable loadDrawable(Context context, Icon icon) {
+        try {
+            return icon.loadDrawable(context);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to load icon " + icon, e);
+            return null;
+        }
+    }
+
+    @MainThread
+    private void onIconLoaded(Icon icon, Drawable drawable, int generation) {
+        final Drawable.ConstantState state =
+                drawable != null ? put(icon, drawable, generation) : null;
+        final List<ImageView> views = mPendingViews.remove(icon);
+        if (views == null) {
+            return;
+        }
+        for (ImageView view : views) {
+            if (view.getTag(R.id.icon_loader_key) == icon) {
+                view.setImageDrawable(state != null ? copy(state, view.getResources()) : drawable);
+            }
+        }
+    }
+
+    /** The shared state of a cached icon, and the size of its bitmap. */
+    private static final class CachedIcon {
+        final Drawable.ConstantState state;
+        final int byteCount;
+
+        CachedIcon(Drawable.ConstantState state, int byteCount) {
+            this.state = state;
+            this.byteCount = byteCount;
+        }
+    }
+}
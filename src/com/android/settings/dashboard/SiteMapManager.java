@@ -19,10 +19,13 @@ package com.android.settings.dashboard;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.text.TextUtils;
+import android.util.AtomicFile;
 import android.util.Log;
+import android.util.Pair;
 
 import com.android.settings.SettingsActivity;
 import com.android.settings.overlay.FeatureFactory;
@@ -32,9 +35,20 @@ import com.android.settings.search.IndexDatabaseHelper.SiteMapColumns;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import static com.android.settings.dashboard.DashboardFragmentRegistry.CATEGORY_KEY_TO_PARENT_MAP;
@@ -42,6 +56,11 @@ import static com.android.settings.dashboard.DashboardFragmentRegistry.CATEGORY_
 /**
  * A manager class that maintains a "site map" and look up breadcrumb for a certain page on demand.
  * <p/>
+ * The pages of the search index are rebuilt in the background whenever the index changes, and
+ * saved next to the index, so that they are usually only read from that file once per process.
+ * Injected tiles come and go with packages, so they are not saved but added to the site map
+ * when it is loaded. The site map is shared by all instances, and read without locking.
+ * <p/>
  * The methods on this class can only be called on a background thread.
  */
 public class SiteMapManager {
@@ -62,9 +81,12 @@ public class SiteMapManager {
             IndexColumns.SCREEN_TITLE,
     };
 
-    private final List<SiteMapPair> mPairs = new ArrayList<>();
+    /** Saved in the directory of the search index database. */
+    @VisibleForTesting
+    static final String FILE_NAME = "search_index_site_map";
 
-    private boolean mInitialized;
+    /** The site map of the current index and tiles, loaded on first use. */
+    private static volatile SiteMap sSiteMap;
 
     /**
      * Given a fragment class name and its screen title, build a breadcrumb from Settings root to
@@ -74,50 +96,74 @@ public class SiteMapManager {
      * page in the breadcrumb path is not indexed, or it's only reachable via search.
      */
     @WorkerThread
-    public synchronized List<String> buildBreadCrumb(Context context, String clazz,
-            String screenTitle) {
-        init(context);
-        final long startTime = System.currentTimeMillis();
-        final List<String> breadcrumbs = new ArrayList<>();
-        if (!mInitialized) {
-            Log.w(TAG, "SiteMap is not initialized yet, skipping");
-            return breadcrumbs;
-        }
-        breadcrumbs.add(screenTitle);
-        String currentClass = clazz;
-        String currentTitle = screenTitle;
-        // Look up current page's parent, if found add it to breadcrumb string list, and repeat.
-        while (true) {
-            final SiteMapPair pair = lookUpParent(currentClass, currentTitle);
-            if (pair == null) {
-                if (DEBUG_TIMING) {
-                    Log.d(TAG, "BreadCrumb timing: " + (System.currentTimeMillis() - startTime));
-                }
-                return breadcrumbs;
-            }
-            breadcrumbs.add(0, pair.parentTitle);
-            currentClass = pair.parentClass;
-            currentTitle = pair.parentTitle;
+    public List<String> buildBreadCrumb(Context context, String clazz, String screenTitle) {
+        SiteMap siteMap = sSiteMap;
+        if (siteMap == null) {
+            init(context);
+            siteMap = sSiteMap;
         }
+        return siteMap.getBreadcrumb(clazz, screenTitle);
     }
 
     /**
-     * Initialize a list of {@link SiteMapPair}s. Each pair knows about a single parent-child
-     * page relationship.
-     *
-     * We get the knowledge of such mPairs from 2 sources:
-     * 1. Static indexing time: we know which page(s) a parent can open by parsing its pref xml.
-     * 2. IA: We know from {@link DashboardFeatureProvider} which page can be dynamically
-     * injected to where.
+     * Loads the site map saved for the current index, or builds it from the index if there is
+     * none, and adds the injected tiles to it.
      */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     @WorkerThread
-    synchronized void init(Context context) {
-        if (mInitialized) {
-            // Make sure only init once.
-            return;
+    void init(Context context) {
+        synchronized (SiteMapManager.class) {
+            if (sSiteMap != null) {
+                // Make sure only init once.
+                return;
+            }
+            final long startTime = System.currentTimeMillis();
+            final AtomicFile file = getSiteMapFile(context);
+            SiteMap siteMap = SiteMap.read(file, getIndexStamp());
+            if (siteMap == null) {
+                siteMap = buildIndexedSiteMap(context);
+                siteMap.write(file, getIndexStamp());
+            }
+            sSiteMap = siteMap.withTiles(getAllCategories(context));
+            if (DEBUG_TIMING) {
+                Log.d(TAG, "Init timing: " + (System.currentTimeMillis() - startTime));
+            }
         }
-        final long startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Rebuilds and saves the site map from the search index, which has just been updated.
+     */
+    @WorkerThread
+    public static void onIndexUpdated(Context context) {
+        synchronized (SiteMapManager.class) {
+            final SiteMap siteMap = buildIndexedSiteMap(context);
+            siteMap.write(getSiteMapFile(context), getIndexStamp());
+            sSiteMap = siteMap.withTiles(getAllCategories(context));
+        }
+    }
+
+    private static AtomicFile getSiteMapFile(Context context) {
+        return new AtomicFile(context.getDatabasePath(FILE_NAME));
+    }
+
+    /**
+     * @return what the index depends on, the site map is rebuilt when it changes.
+     */
+    private static String getIndexStamp() {
+        return Locale.getDefault().toString() + "/" + Build.FINGERPRINT;
+    }
+
+    /**
+     * Builds the site map of the pages of the search index from a list of {@link SiteMapPair}s.
+     * Each pair knows about a single parent-child page relationship, which we know at static
+     * indexing time by parsing the pref xml of the parent.
+     *
+     * The pages injected through IA are added by {@link SiteMap#withTiles(List)}, the site map
+     * only keeps the titles of the pages they are injected to.
+     */
+    private static SiteMap buildIndexedSiteMap(Context context) {
+        final List<SiteMapPair> pairs = new ArrayList<>();
         // First load site map from static index table.
         final Context appContext = context.getApplicationContext();
         final SQLiteDatabase db = IndexDatabaseHelper.getInstance(appContext).getReadableDatabase();
@@ -129,73 +175,361 @@ public class SiteMapManager {
                     sitemap.getString(sitemap.getColumnIndex(SiteMapColumns.PARENT_TITLE)),
                     sitemap.getString(sitemap.getColumnIndex(SiteMapColumns.CHILD_CLASS)),
                     sitemap.getString(sitemap.getColumnIndex(SiteMapColumns.CHILD_TITLE)));
-            mPairs.add(pair);
+            pairs.add(pair);
         }
         sitemap.close();
 
-        // Then prepare a local map that contains class name -> screen title mapping. This is needed
-        // to figure out the display name for any fragment if it's injected dynamically through IA.
-        final Map<String, String> classToTitleMap = new HashMap<>();
+        // Then prepare a local map that contains class name -> screen title mapping of the pages
+        // hosting IA categories. This is needed to figure out the parent display name of any
+        // fragment injected dynamically through IA.
+        final Map<String, String> hostTitles = new HashMap<>();
         final Cursor titleQuery = db.query(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX,
                 CLASS_TO_SCREEN_TITLE_COLUMNS, null, null, null, null, null);
         while (titleQuery.moveToNext()) {
-            classToTitleMap.put(
-                    titleQuery.getString(titleQuery.getColumnIndex(IndexColumns.CLASS_NAME)),
-                    titleQuery.getString(titleQuery.getColumnIndex(IndexColumns.SCREEN_TITLE)));
+            final String clazz =
+                    titleQuery.getString(titleQuery.getColumnIndex(IndexColumns.CLASS_NAME));
+            if (CATEGORY_KEY_TO_PARENT_MAP.containsValue(clazz)) {
+                hostTitles.put(clazz,
+                        titleQuery.getString(titleQuery.getColumnIndex(IndexColumns.SCREEN_TITLE)));
+            }
         }
         titleQuery.close();
+        // Done.
+        return SiteMap.build(pairs, hostTitles);
+    }
 
-        // Loop through all IA categories and pages and build additional SiteMapPairs
-        List<DashboardCategory> categories = FeatureFactory.getFactory(context)
-                .getDashboardFeatureProvider(context).getAllCategories();
-
-        for (DashboardCategory category : categories) {
-            // Find the category key first.
-            final String parentClass = CATEGORY_KEY_TO_PARENT_MAP.get(category.key);
-            if (parentClass == null) {
-                continue;
-            }
-            // Use the key to look up parent (which page hosts this key)
-            final String parentName = classToTitleMap.get(parentClass);
-            if (parentName == null) {
-                continue;
-            }
-            // Build parent-child mPairs for all children listed under this key.
-            for (Tile tile : category.tiles) {
-                final String childTitle = tile.title.toString();
-                String childClass = null;
-                if (tile.metaData != null) {
-                    childClass = tile.metaData.getString(
-                            SettingsActivity.META_DATA_KEY_FRAGMENT_CLASS);
-                }
-                if (childClass == null) {
+    private static List<DashboardCategory> getAllCategories(Context context) {
+        return FeatureFactory.getFactory(context).getDashboardFeatureProvider(context)
+                .getAllCategories();
+    }
+
+    /**
+     * The pages of the site map and their parent, as parallel arrays indexed by page.
+     * <p/>
+     * Pages are sorted by class name and screen title, so that a page is found by binary search,
+     * and its breadcrumb by following parent indices. Strings are shared between pages, e.g. the
+     * title of a page with many children is stored once. Instances are immutable.
+     */
+    @VisibleForTesting
+    static final class SiteMap {
+
+        private static final int MAGIC = 0x534d4150; // "SMAP"
+        private static final int FORMAT_VERSION = 2;
+        private static final int NO_PARENT = -1;
+
+        private final String[] mClasses;
+        private final String[] mTitles;
+        private final int[] mParents;
+        /** Screen titles of the pages hosting IA categories, by class name. */
+        private final Map<String, String> mHostTitles;
+
+        private SiteMap(String[] classes, String[] titles, int[] parents,
+                Map<String, String> hostTitles) {
+            mClasses = classes;
+            mTitles = titles;
+            mParents = parents;
+            mHostTitles = hostTitles;
+        }
+
+        /**
+         * @return this site map with the pages injected through IA as {@param categories}, under
+         * the page hosting their category.
+         */
+        SiteMap withTiles(List<DashboardCategory> categories) {
+            final List<SiteMapPair> pairs = new ArrayList<>();
+            for (int i = 0; i < mParents.length; i++) {
+                if (mParents[i] != NO_PARENT) {
+                    pairs.add(new SiteMapPair(mClasses[mParents[i]], mTitles[mParents[i]],
+                            mClasses[i], mTitles[i]));
+                }
+            }
+            // Loop through all IA categories and pages and build additional SiteMapPairs
+            for (DashboardCategory category : categories) {
+                // Find the category key first.
+                final String parentClass = CATEGORY_KEY_TO_PARENT_MAP.get(category.key);
+                if (parentClass == null) {
                     continue;
                 }
-                mPairs.add(new SiteMapPair(parentClass, parentName, childClass, childTitle));
+                // Use the key to look up parent (which page hosts this key)
+                final String parentName = mHostTitles.get(parentClass);
+                if (parentName == null) {
+                    continue;
+                }
+                // Build parent-child mPairs for all children listed under this key.
+                for (Tile tile : category.tiles) {
+                    final String childTitle = tile.title.toString();
+                    String childClass = null;
+                    if (tile.metaData != null) {
+                        childClass = tile.metaData.getString(
+                                SettingsActivity.META_DATA_KEY_FRAGMENT_CLASS);
+                    }
+                    if (childClass == null) {
+                        continue;
+                    }
+                    pairs.add(new SiteMapPair(parentClass, parentName, childClass, childTitle));
+                }
             }
+            return build(pairs, mHostTitles);
         }
-        // Done.
-        mInitialized = true;
-        if (DEBUG_TIMING) {
-            Log.d(TAG, "Init timing: " + (System.currentTimeMillis() - startTime));
+
+        /**
+         * @return the titles of the pages from the root to the page of {@param clazz} and
+         * {@param title}, or only {@param title} if the page is not in the site map.
+         */
+        List<String> getBreadcrumb(String clazz, String title) {
+            final int page = indexOf(clazz, title);
+            if (page < 0) {
+                return Collections.singletonList(title);
+            }
+            int depth = 0;
+            for (int i = page; i != NO_PARENT; i = mParents[i]) {
+                depth++;
+            }
+            final String[] breadcrumb = new String[depth];
+            for (int i = page; i != NO_PARENT; i = mParents[i]) {
+                breadcrumb[--depth] = mTitles[i];
+            }
+            return Arrays.asList(breadcrumb);
         }
-    }
 
-    @WorkerThread
-    private SiteMapPair lookUpParent(String clazz, String title) {
-        for (SiteMapPair pair : mPairs) {
-            if (TextUtils.equals(pair.childClass, clazz)
-                    && TextUtils.equals(title, pair.childTitle)) {
-                return pair;
+        int size() {
+            return mParents.length;
+        }
+
+        private int indexOf(String clazz, String title) {
+            int low = 0;
+            int high = mParents.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int result = compare(mClasses[mid], mTitles[mid], clazz, title);
+                if (result < 0) {
+                    low = mid + 1;
+                } else if (result > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
             }
+            return -1;
+        }
+
+        static SiteMap build(List<SiteMapPair> pairs) {
+            return build(pairs, Collections.emptyMap());
+        }
+
+        /**
+         * Builds the site map of {@param pairs}. When a page has several parents, the first pair
+         * wins, and cycles are broken so that every breadcrumb reaches a page without parent.
+         *
+         * @param hostTitles screen titles of the pages hosting IA categories, by class name.
+         */
+        static SiteMap build(List<SiteMapPair> pairs, Map<String, String> hostTitles) {
+            final Map<String, String> strings = new HashMap<>();
+            final Map<Pair<String, String>, Integer> pageIds = new HashMap<>();
+            final List<Pair<String, String>> pages = new ArrayList<>();
+            final List<Integer> parentIds = new ArrayList<>();
+            for (SiteMapPair pair : pairs) {
+                final int parent = getPageId(pair.parentClass, pair.parentTitle, strings, pageIds,
+                        pages, parentIds);
+                final int child = getPageId(pair.childClass, pair.childTitle, strings, pageIds,
+                        pages, parentIds);
+                if (parentIds.get(child) == NO_PARENT) {
+                    parentIds.set(child, parent);
+                }
+            }
+
+            final int count = pages.size();
+            final Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (lhs, rhs) -> compare(pages.get(lhs).first,
+                    pages.get(lhs).second, pages.get(rhs).first, pages.get(rhs).second));
+            final int[] indices = new int[count];
+            for (int i = 0; i < count; i++) {
+                indices[order[i]] = i;
+            }
+            final String[] classes = new String[count];
+            final String[] titles = new String[count];
+            final int[] parents = new int[count];
+            for (int i = 0; i < count; i++) {
+                final Pair<String, String> page = pages.get(order[i]);
+                final int parent = parentIds.get(order[i]);
+                classes[i] = page.first;
+                titles[i] = page.second;
+                parents[i] = parent == NO_PARENT ? NO_PARENT : indices[parent];
+            }
+            breakCycles(parents);
+            return new SiteMap(classes, titles, parents, hostTitles);
+        }
+
+        private static int getPageId(String clazz, String title, Map<String, String> strings,
+                Map<Pair<String, String>, Integer> pageIds, List<Pair<String, String>> pages,
+                List<Integer> parentIds) {
+            final Pair<String, String> page =
+                    Pair.create(intern(clazz, strings), intern(title, strings));
+            Integer id = pageIds.get(page);
+            if (id == null) {
+                id = pages.size();
+                pageIds.put(page, id);
+                pages.add(page);
+                parentIds.add(NO_PARENT);
+            }
+            return id;
+        }
+
+        private static String intern(String value, Map<String, String> strings) {
+            if (value == null) {
+                return null;
+            }
+            final String interned = strings.putIfAbsent(value, value);
+            return interned != null ? interned : value;
+        }
+
+        /**
+         * Removes the parent of one page of each cycle.
+         */
+        private static void breakCycles(int[] parents) {
+            final byte[] states = new byte[parents.length]; // 0: new, 1: on path, 2: done
+            final int[] path = new int[parents.length];
+            for (int i = 0; i < parents.length; i++) {
+                int length = 0;
+                int page = i;
+                while (page != NO_PARENT && states[page] == 0) {
+                    states[page] = 1;
+                    path[length++] = page;
+                    page = parents[page];
+                }
+                if (page != NO_PARENT && states[page] == 1) {
+                    parents[path[length - 1]] = NO_PARENT;
+                }
+                for (int j = 0; j < length; j++) {
+                    states[path[j]] = 2;
+                }
+            }
+        }
+
+        private static int compare(String lhsClass, String lhsTitle, String rhsClass,
+                String rhsTitle) {
+            final int result = compare(lhsClass, rhsClass);
+            return result != 0 ? result : compare(lhsTitle, rhsTitle);
+        }
+
+        private static int compare(String lhs, String rhs) {
+            if (lhs == null || rhs == null) {
+                return lhs == rhs ? 0 : (lhs == null ? -1 : 1);
+            }
+            return lhs.compareTo(rhs);
+        }
+
+        /**
+         * @return the site map saved in {@param file} for {@param stamp}, or null if there is
+         * none.
+         */
+        static SiteMap read(AtomicFile file, String stamp) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(file.openRead()))) {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                        || !TextUtils.equals(in.readUTF(), stamp)) {
+                    return null;
+                }
+                final String[] strings = new String[in.readInt()];
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = in.readUTF();
+                }
+                final int count = in.readInt();
+                final String[] classes = new String[count];
+                final String[] titles = new String[count];
+                final int[] parents = new int[count];
+                for (int i = 0; i < count; i++) {
+                    classes[i] = readString(in, strings);
+                    titles[i] = readString(in, strings);
+                    parents[i] = in.readInt();
+                    if (parents[i] < NO_PARENT || parents[i] >= count) {
+                        throw new IOException("Invalid parent " + parents[i]);
+                    }
+                }
+                breakCycles(parents);
+                final int hostCount = in.readInt();
+                final Map<String, String> hostTitles = new HashMap<>(hostCount);
+                for (int i = 0; i < hostCount; i++) {
+                    hostTitles.put(readString(in, strings), readString(in, strings));
+                }
+                return new SiteMap(classes, titles, parents, hostTitles);
+            } catch (FileNotFoundException e) {
+                return null;
+            } catch (IOException | ArrayIndexOutOfBoundsException e) {
+                Log.w(TAG, "Cannot read site map", e);
+                return null;
+            }
+        }
+
+        void write(AtomicFile file, String stamp) {
+            final Map<String, Integer> stringIds = new HashMap<>();
+            final List<String> strings = new ArrayList<>();
+            for (int i = 0; i < mParents.length; i++) {
+                addString(mClasses[i], stringIds, strings);
+                addString(mTitles[i], stringIds, strings);
+            }
+            for (Map.Entry<String, String> host : mHostTitles.entrySet()) {
+                addString(host.getKey(), stringIds, strings);
+                addString(host.getValue(), stringIds, strings);
+            }
+            FileOutputStream fos = null;
+            try {
+                fos = file.startWrite();
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(stamp);
+                out.writeInt(strings.size());
+                for (String string : strings) {
+                    out.writeUTF(string);
+                }
+                out.writeInt(mParents.length);
+                for (int i = 0; i < mParents.length; i++) {
+                    writeString(out, mClasses[i], stringIds);
+                    writeString(out, mTitles[i], stringIds);
+                    out.writeInt(mParents[i]);
+                }
+                out.writeInt(mHostTitles.size());
+                for (Map.Entry<String, String> host : mHostTitles.entrySet()) {
+                    writeString(out, host.getKey(), stringIds);
+                    writeString(out, host.getValue(), stringIds);
+                }
+                out.flush();
+                file.finishWrite(fos);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot save site map", e);
+                file.failWrite(fos);
+            }
+        }
+
+        private static void addString(String value, Map<String, Integer> stringIds,
+                List<String> strings) {
+            if (value != null && !stringIds.containsKey(value)) {
+                stringIds.put(value, strings.size());
+                strings.add(value);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String value,
+                Map<String, Integer> stringIds) throws IOException {
+            out.writeInt(value != null ? stringIds.get(value) : -1);
+        }
+
+        private static String readString(DataInputStream in, String[] strings)
+                throws IOException {
+            final int id = in.readInt();
+            return id < 0 ? null : strings[id];
         }
-        return null;
     }
 
     /**
      * Data model for a parent-child page pair.
      */
-    private static class SiteMapPair {
+    @VisibleForTesting
+    static class SiteMapPair {
         public final String parentClass;
         public final String parentTitle;
         public final String childClass;
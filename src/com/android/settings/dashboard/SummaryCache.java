@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of the last summaries reported for dashboard tiles, keyed by dashboard key, so that
+ * tiles show their last known summary before their {@link SummaryLoader.SummaryProvider}
+ * reports.
+ *
+ * Summaries are kept in memory for the life of the process, as reported. Only the summaries
+ * put with {@code persist} are also written to disk, for later launches, and only as plain
+ * text: summaries with spans are kept in memory only. The disk part is read and written on a
+ * background thread, so cached summaries from earlier launches show up once it is loaded, see
+ * {@link #runWhenLoaded(Runnable)}.
+ *
+ * Each summary expires after its own time to live. The whole cache is dropped when the locale
+ * changes, since summaries are localized.
+ */
+public class SummaryCache {
+
+    /** Time to live of the summaries which don't specify one. */
+    public static final long DEFAULT_TTL_MILLIS = DateUtils.DAY_IN_MILLIS;
+
+    @VisibleForTesting
+    static final String PREF_NAME = "dashboard_summary_cache";
+
+    private static final String KEY_LOCALES = "locales";
+    private static final String PREFIX_SUMMARY = "summary:";
+    private static final String PREFIX_EXPIRY = "expiry:";
+
+    private static final long DISK_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private static SummaryCache sInstance;
+
+    private final Context mContext;
+    /** Serial executor of all disk accesses. */
+    private final Executor mDiskExecutor;
+    /**
+     * Cached summaries, including the ones invalidated before the disk part was loaded, so
+     * that the load doesn't bring them back. Guarded by {@code this}.
+     */
+    private final ArrayMap<String, Entry> mEntries = new ArrayMap<>();
+    /** Guarded by {@code this}. */
+    private String mLocales;
+    /** Whether the disk part has been loaded into {@link #mEntries}. Guarded by {@code this}. */
+    private boolean mLoaded;
+    /** Run once the disk part is loaded. Guarded by {@code this}. */
+    private final List<Runnable> mLoadCallbacks = new ArrayList<>();
+
+    public static synchronized SummaryCache getInstance(Context context) {
+        if (sInstance == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    DISK_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            sInstance = new SummaryCache(context.getApplicationContext(), executor);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SummaryCache(Context context, Executor diskExecutor) {
+        mContext = context;
+        mDiskExecutor = diskExecutor;
+        mLocales = getLocales();
+        final String locales = mLocales;
+        mDiskExecutor.execute(() -> load(locales));
+    }
+
+    /**
+     * @return the cached summary of {@param key}, or null if there is none, it has expired, or
+     * it is only on disk and the disk part isn't loaded yet.
+     */
+    public CharSequence get(String key) {
+        return get(key, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized CharSequence get(String key, long now) {
+        checkLocalesLocked();
+        final Entry entry = key != null ? mEntries.get(key) : null;
+        return entry != null && entry.expiry > now ? entry.summary : null;
+    }
+
+    /**
+     * Caches {@param summary} for {@param key} for {@param ttlMillis}. A null summary or a
+     * non-positive time to live invalidates the cached summary instead.
+     *
+     * @param persist whether the summary may also be written to disk for later launches. Must
+     * be false for summaries that identify the user, like network or account names.
+     */
+    public void put(String key, CharSequence summary, long ttlMillis, boolean persist) {
+        put(key, summary, ttlMillis, persist, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized void put(String key, CharSequence summary, long ttlMillis, boolean persist,
+            long now) {
+        if (key == null) {
+            return;
+        }
+        checkLocalesLocked();
+        final Entry previous = mEntries.get(key);
+        final Entry entry = summary == null || ttlMillis <= 0
+                ? new Entry(null, 0, false)
+                : new Entry(summary, now + ttlMillis, persist && !hasSpans(summary));
+        if (entry.persisted && previous != null && previous.persisted
+                && TextUtils.equals(previous.summary, summary)
+                && previous.expiry - now > ttlMillis / 2) {
+            // Unchanged summaries are only written again once half of their time to live is
+            // gone.
+            return;
+        }
+        mEntries.put(key, entry);
+        if (entry.persisted) {
+            final String value = summary.toString();
+            mDiskExecutor.execute(() -> getPrefs().edit()
+                    .putString(PREFIX_SUMMARY + key, value)
+                    .putLong(PREFIX_EXPIRY + key, entry.expiry)
+                    .apply());
+        } else if (previous != null ? previous.persisted : !mLoaded) {
+            // The previous summary may be on disk.
+            mDiskExecutor.execute(() -> getPrefs().edit()
+                    .remove(PREFIX_SUMMARY + key)
+                    .remove(PREFIX_EXPIRY + key)
+                    .apply());
+        }
+    }
+
+    /**
+     * Runs {@param callback} on the disk thread once the disk part is loaded, unless it already
+     * is.
+     *
+     * @return whether the disk part is already loaded, in which case {@param callback} isn't run.
+     */
+    public synchronized boolean runWhenLoaded(Runnable callback) {
+        if (!mLoaded) {
+            mLoadCallbacks.add(callback);
+        }
+        return mLoaded;
+    }
+
+    public synchronized void removeLoadCallback(Runnable callback) {
+        mLoadCallbacks.remove(callback);
+    }
+
+    @WorkerThread
+    private void load(String locales) {
+        final SharedPreferences prefs = getPrefs();
+        final ArrayMap<String, Entry> entries = new ArrayMap<>();
+        if (!TextUtils.equals(locales, prefs.getString(KEY_LOCALES, null))) {
+            prefs.edit().clear().putString(KEY_LOCALES, locales).apply();
+        } else {
+            final long now = System.currentTimeMillis();
+            for (Map.Entry<String, ?> pref : prefs.getAll().entrySet()) {
+                if (!pref.getKey().startsWith(PREFIX_SUMMARY)
+                        || !(pref.getValue() instanceof String)) {
+                    continue;
+                }
+                final String key = pref.getKey().substring(PREFIX_SUMMARY.length());
+                final long expiry = prefs.getLong(PREFIX_EXPIRY + key, 0);
+                if (expiry > now) {
+                    entries.put(key, new Entry((String) pref.getValue(), expiry, true));
+                }
+            }
+        }
+        final List<Runnable> callbacks;
+        synchronized (this) {
+            if (TextUtils.equals(locales, mLocales)) {
+                // Summaries put since the cache was created are newer than the ones on disk.
+                for (int i = 0; i < entries.size(); i++) {
+                    if (!mEntries.containsKey(entries.keyAt(i))) {
+                        mEntries.put(entries.keyAt(i), entries.valueAt(i));
+                    }
+                }
+            }
+            mLoaded = true;
+            callbacks = new ArrayList<>(mLoadCallbacks);
+            mLoadCallbacks.clear();
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    private void checkLocalesLocked() {
+        final String locales = getLocales();
+        if (TextUtils.equals(locales, mLocales)) {
+            return;
+        }
+        mLocales = locales;
+        mEntries.clear();
+        mDiskExecutor.execute(
+                () -> getPrefs().edit().clear().putString(KEY_LOCALES, locales).apply());
+    }
+
+    private String getLocales() {
+        return mContext.getResources().getConfiguration().getLocales().toLanguageTags();
+    }
+
+    @WorkerThread
+    private SharedPreferences getPrefs() {
+        return mContext.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static boolean hasSpans(CharSequence summary) {
+        return summary instanceof Spanned
+                && ((Spanned) summary).getSpans(0, summary.length(), Object.class).length > 0;
+    }
+
+    private static final class Entry {
+        final CharSequence summary;
+        final long expiry;
+        /** Whether the summary is written to disk. */
+        final boolean persisted;
+
+        Entry(CharSequence summary, long expiry, boolean persisted) {
+            this.summary = summary;
+            this.expiry = expiry;
+            this.persisted = persisted;
+        }
+    }
+}
@@ -22,7 +22,6 @@ import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.Looper;
 import android.os.Message;
 import android.os.Process;
 import android.support.annotation.VisibleForTesting;
@@ -36,7 +35,7 @@ import com.android.settings.overlay.FeatureFactory;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
 
-import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.List;
 
 public class SummaryLoader {
@@ -45,19 +44,30 @@ public class SummaryLoader {
 
     public static final String SUMMARY_PROVIDER_FACTORY = "SUMMARY_PROVIDER_FACTORY";
 
+    /**
+     * Maximum number of worker threads. Providers are spread across the workers, so that slow
+     * providers don't hold back the others, and each provider always runs on the same worker.
+     */
+    @VisibleForTesting
+    static final int MAX_WORKER_COUNT = 3;
+
     private final Activity mActivity;
     private final ArrayMap<SummaryProvider, ComponentName> mSummaryProviderMap = new ArrayMap<>();
     private final ArrayMap<String, CharSequence> mSummaryTextMap = new ArrayMap<>();
     private final DashboardFeatureProvider mDashboardFeatureProvider;
     private final String mCategoryKey;
+    private final SummaryCache mSummaryCache;
+    /** Summaries reported since the last batch was applied. */
+    private final ArrayMap<ComponentName, PendingSummary> mPendingSummaries = new ArrayMap<>();
 
-    private final Worker mWorker;
+    private final Worker[] mWorkers;
     private final Handler mHandler;
-    private final HandlerThread mWorkerThread;
+
+    /** Run on the disk thread of the {@link SummaryCache} once it has loaded. */
+    private final Runnable mCacheLoadCallback = this::onSummaryCacheLoaded;
 
     private SummaryConsumer mSummaryConsumer;
     private boolean mListening;
-    private boolean mWorkerListening;
     private ArraySet<BroadcastReceiver> mReceivers = new ArraySet<>();
 
     public SummaryLoader(Activity activity, List<DashboardCategory> categories) {
@@ -65,17 +75,14 @@ public class SummaryLoader {
                 .getDashboardFeatureProvider(activity);
         mCategoryKey = null;
         mHandler = new Handler();
-        mWorkerThread = new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
-        mWorkerThread.start();
-        mWorker = new Worker(mWorkerThread.getLooper());
         mActivity = activity;
+        mSummaryCache = SummaryCache.getInstance(activity);
+        mSummaryCache.runWhenLoaded(mCacheLoadCallback);
+        final List<Tile> tiles = new ArrayList<>();
         for (int i = 0; i < categories.size(); i++) {
-            List<Tile> tiles = categories.get(i).tiles;
-            for (int j = 0; j < tiles.size(); j++) {
-                Tile tile = tiles.get(j);
-                mWorker.obtainMessage(Worker.MSG_GET_PROVIDER, tile).sendToTarget();
-            }
+            tiles.addAll(categories.get(i).tiles);
         }
+        mWorkers = startWorkers(tiles);
     }
 
     public SummaryLoader(Activity activity, String categoryKey) {
@@ -83,66 +90,140 @@ public class SummaryLoader {
                 .getDashboardFeatureProvider(activity);
         mCategoryKey = categoryKey;
         mHandler = new Handler();
-        mWorkerThread = new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
-        mWorkerThread.start();
-        mWorker = new Worker(mWorkerThread.getLooper());
         mActivity = activity;
+        mSummaryCache = SummaryCache.getInstance(activity);
+        mSummaryCache.runWhenLoaded(mCacheLoadCallback);
 
         final DashboardCategory category =
                 mDashboardFeatureProvider.getTilesForCategory(categoryKey);
         if (category == null || category.tiles == null) {
+            mWorkers = new Worker[0];
             return;
         }
+        mWorkers = startWorkers(category.tiles);
+    }
 
-        List<Tile> tiles = category.tiles;
+    /**
+     * Starts the workers and has them create the summary providers of {@param tiles},
+     * round-robin.
+     */
+    private Worker[] startWorkers(List<Tile> tiles) {
+        final List<Tile> providerTiles = new ArrayList<>();
         for (Tile tile : tiles) {
-            mWorker.obtainMessage(Worker.MSG_GET_PROVIDER, tile).sendToTarget();
+            if (getSummaryProviderFactory(tile) != null) {
+                providerTiles.add(tile);
+            }
+        }
+        final int workerCount = Math.min(providerTiles.size(),
+                Math.min(MAX_WORKER_COUNT, Runtime.getRuntime().availableProcessors()));
+        final Worker[] workers = new Worker[Math.max(workerCount, 1)];
+        for (int i = 0; i < workers.length; i++) {
+            final HandlerThread thread =
+                    new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            workers[i] = new Worker(thread);
+        }
+        for (int i = 0; i < providerTiles.size(); i++) {
+            workers[i % workers.length]
+                    .obtainMessage(Worker.MSG_GET_PROVIDER, providerTiles.get(i))
+                    .sendToTarget();
         }
+        return workers;
     }
 
     public void release() {
-        mWorkerThread.quitSafely();
-        // Make sure we aren't listening.
-        setListeningW(false);
+        mSummaryCache.removeLoadCallback(mCacheLoadCallback);
+        for (Worker worker : mWorkers) {
+            worker.mThread.quitSafely();
+            // Make sure we aren't listening.
+            setListeningW(worker, false);
+        }
     }
 
     public void setSummaryConsumer(SummaryConsumer summaryConsumer) {
         mSummaryConsumer = summaryConsumer;
     }
 
+    /**
+     * Reports the summary of {@param provider}. The summary is shown from the
+     * {@link SummaryCache} by dashboards created later in the same process, until the provider
+     * reports again, but isn't written to disk.
+     */
     public void setSummary(SummaryProvider provider, final CharSequence summary) {
-        final ComponentName component = mSummaryProviderMap.get(provider);
-        mHandler.post(new Runnable() {
-            @Override
-            public void run() {
+        setSummary(provider, new PendingSummary(summary, SummaryCache.DEFAULT_TTL_MILLIS, false));
+    }
 
-                final Tile tile = getTileFromCategory(
-                        mDashboardFeatureProvider.getTilesForCategory(mCategoryKey), component);
+    /**
+     * Same as {@link #setSummary(SummaryProvider, CharSequence)}, but the summary is also shown
+     * from the {@link SummaryCache} on later launches, for at most {@param cacheTtlMillis}, or
+     * not at all if 0. The summary is written to disk for this, so it must not identify the
+     * user, like network or account names do.
+     */
+    public void setSummary(SummaryProvider provider, CharSequence summary, long cacheTtlMillis) {
+        setSummary(provider, new PendingSummary(summary, cacheTtlMillis, true));
+    }
 
-                if (tile == null) {
-                    if (DEBUG) {
-                        Log.d(TAG, "Can't find tile for " + component);
-                    }
-                    return;
-                }
+    private void setSummary(SummaryProvider provider, PendingSummary summary) {
+        final ComponentName component;
+        synchronized (mSummaryProviderMap) {
+            component = mSummaryProviderMap.get(provider);
+        }
+        if (component == null) {
+            if (DEBUG) Log.d(TAG, "Summary reported by unknown provider " + provider);
+            return;
+        }
+        // Summaries reported close together are applied in a single pass on the main thread.
+        synchronized (mPendingSummaries) {
+            mPendingSummaries.put(component, summary);
+            if (mPendingSummaries.size() == 1) {
+                mHandler.post(this::applyPendingSummaries);
+            }
+        }
+    }
+
+    private void applyPendingSummaries() {
+        final ArrayMap<ComponentName, PendingSummary> summaries;
+        synchronized (mPendingSummaries) {
+            summaries = new ArrayMap<>(mPendingSummaries);
+            mPendingSummaries.clear();
+        }
+        final DashboardCategory category =
+                mDashboardFeatureProvider.getTilesForCategory(mCategoryKey);
+        for (int i = 0; i < summaries.size(); i++) {
+            final ComponentName component = summaries.keyAt(i);
+            final PendingSummary summary = summaries.valueAt(i);
+            final Tile tile = getTileFromCategory(category, component);
+            if (tile == null) {
                 if (DEBUG) {
-                    Log.d(TAG, "setSummary " + tile.title + " - " + summary);
+                    Log.d(TAG, "Can't find tile for " + component);
                 }
-
-                updateSummaryIfNeeded(tile, summary);
+                continue;
             }
-        });
+            if (DEBUG) {
+                Log.d(TAG, "setSummary " + tile.title + " - " + summary.summary);
+            }
+
+            updateSummaryIfNeeded(tile, summary.summary, summary.cacheTtlMillis,
+                    summary.persist);
+        }
     }
 
     @VisibleForTesting
     void updateSummaryIfNeeded(Tile tile, CharSequence summary) {
+        updateSummaryIfNeeded(tile, summary, SummaryCache.DEFAULT_TTL_MILLIS, false);
+    }
+
+    private void updateSummaryIfNeeded(Tile tile, CharSequence summary, long cacheTtlMillis,
+            boolean persist) {
+        final String key = mDashboardFeatureProvider.getDashboardKeyForTile(tile);
+        mSummaryCache.put(key, summary, cacheTtlMillis, persist);
         if (TextUtils.equals(tile.summary, summary)) {
             if (DEBUG) {
                 Log.d(TAG, "Summary doesn't change, skipping summary update for " + tile.title);
             }
             return;
         }
-        mSummaryTextMap.put(mDashboardFeatureProvider.getDashboardKeyForTile(tile), summary);
+        mSummaryTextMap.put(key, summary);
         tile.summary = summary;
         if (mSummaryConsumer != null) {
             mSummaryConsumer.notifySummaryChanged(tile);
@@ -165,11 +246,13 @@ public class SummaryLoader {
             mActivity.unregisterReceiver(mReceivers.valueAt(i));
         }
         mReceivers.clear();
-        mWorker.removeMessages(Worker.MSG_SET_LISTENING);
-        mWorker.obtainMessage(Worker.MSG_SET_LISTENING, listening ? 1 : 0, 0).sendToTarget();
+        for (Worker worker : mWorkers) {
+            worker.removeMessages(Worker.MSG_SET_LISTENING);
+            worker.obtainMessage(Worker.MSG_SET_LISTENING, listening ? 1 : 0, 0).sendToTarget();
+        }
     }
 
-    private SummaryProvider getSummaryProvider(Tile tile) {
+    private SummaryProviderFactory getSummaryProviderFactory(Tile tile) {
         if (!mActivity.getPackageName().equals(tile.intent.getComponent().getPackageName())) {
             // Not within Settings, can't load Summary directly.
             // TODO: Load summary indirectly.
@@ -185,21 +268,11 @@ public class SummaryLoader {
             if (DEBUG) Log.d(TAG, "No fragment specified for " + tile.intent.getComponent());
             return null;
         }
-        try {
-            Class<?> cls = Class.forName(clsName);
-            Field field = cls.getField(SUMMARY_PROVIDER_FACTORY);
-            SummaryProviderFactory factory = (SummaryProviderFactory) field.get(null);
-            return factory.createSummaryProvider(mActivity, this);
-        } catch (ClassNotFoundException e) {
-            if (DEBUG) Log.d(TAG, "Couldn't find " + clsName, e);
-        } catch (NoSuchFieldException e) {
-            if (DEBUG) Log.d(TAG, "Couldn't find " + SUMMARY_PROVIDER_FACTORY, e);
-        } catch (ClassCastException e) {
-            if (DEBUG) Log.d(TAG, "Couldn't cast " + SUMMARY_PROVIDER_FACTORY, e);
-        } catch (IllegalAccessException e) {
-            if (DEBUG) Log.d(TAG, "Couldn't get " + SUMMARY_PROVIDER_FACTORY, e);
+        final SummaryProviderFactory factory = SummaryProviderFactories.getFactory(clsName);
+        if (factory == null) {
+            if (DEBUG) Log.d(TAG, "No " + SUMMARY_PROVIDER_FACTORY + " registered for " + clsName);
         }
-        return null;
+        return factory;
     }
 
     private Bundle getMetaData(Tile tile) {
@@ -226,7 +299,8 @@ public class SummaryLoader {
 
     /**
      * Updates all tile's summary to latest cached version. This is necessary to handle the case
-     * where category is updated after summary change.
+     * where category is updated after summary change. Tiles whose provider hasn't reported yet
+     * get their summary from the {@link SummaryCache}, if it has one.
      */
     public void updateSummaryToCache(DashboardCategory category) {
         if (category == null) {
@@ -236,28 +310,76 @@ public class SummaryLoader {
             final String key = mDashboardFeatureProvider.getDashboardKeyForTile(tile);
             if (mSummaryTextMap.containsKey(key)) {
                 tile.summary = mSummaryTextMap.get(key);
+            } else {
+                final CharSequence cachedSummary = mSummaryCache.get(key);
+                if (cachedSummary != null) {
+                    tile.summary = cachedSummary;
+                }
             }
         }
     }
 
-    private synchronized void setListeningW(boolean listening) {
-        if (mWorkerListening == listening) return;
-        mWorkerListening = listening;
-        if (DEBUG) Log.d(TAG, "Listening " + listening);
-        for (SummaryProvider p : mSummaryProviderMap.keySet()) {
-            try {
-                p.setListening(listening);
-            } catch (Exception e) {
-                Log.d(TAG, "Problem in setListening", e);
+    private void onSummaryCacheLoaded() {
+        mHandler.post(this::applyCachedSummaries);
+    }
+
+    /**
+     * Shows the cached summaries on the tiles whose provider hasn't reported yet, once the
+     * {@link SummaryCache} has loaded the summaries of earlier launches. The
+     * {@link SummaryConsumer} applies the changed tiles in a single update.
+     */
+    @VisibleForTesting
+    void applyCachedSummaries() {
+        final DashboardCategory category =
+                mDashboardFeatureProvider.getTilesForCategory(mCategoryKey);
+        if (category == null) {
+            return;
+        }
+        for (Tile tile : category.tiles) {
+            final String key = mDashboardFeatureProvider.getDashboardKeyForTile(tile);
+            if (mSummaryTextMap.containsKey(key)) {
+                continue;
+            }
+            final CharSequence cachedSummary = mSummaryCache.get(key);
+            if (cachedSummary == null || TextUtils.equals(tile.summary, cachedSummary)) {
+                continue;
+            }
+            tile.summary = cachedSummary;
+            if (mSummaryConsumer != null) {
+                mSummaryConsumer.notifySummaryChanged(tile);
             }
         }
     }
 
-    private synchronized void makeProviderW(Tile tile) {
-        SummaryProvider provider = getSummaryProvider(tile);
+    private void setListeningW(Worker worker, boolean listening) {
+        synchronized (worker) {
+            if (worker.mListening == listening) return;
+            worker.mListening = listening;
+            if (DEBUG) Log.d(TAG, "Listening " + listening);
+            for (SummaryProvider p : worker.mProviders) {
+                try {
+                    p.setListening(listening);
+                } catch (Exception e) {
+                    Log.d(TAG, "Problem in setListening", e);
+                }
+            }
+        }
+    }
+
+    private void makeProviderW(Worker worker, Tile tile) {
+        final SummaryProviderFactory factory = getSummaryProviderFactory(tile);
+        if (factory == null) {
+            return;
+        }
+        final SummaryProvider provider = factory.createSummaryProvider(mActivity, this);
         if (provider != null) {
             if (DEBUG) Log.d(TAG, "Creating " + tile);
-            mSummaryProviderMap.put(provider, tile.intent.getComponent());
+            synchronized (mSummaryProviderMap) {
+                mSummaryProviderMap.put(provider, tile.intent.getComponent());
+            }
+            synchronized (worker) {
+                worker.mProviders.add(provider);
+            }
         }
     }
 
@@ -293,8 +415,14 @@ public class SummaryLoader {
         private static final int MSG_GET_PROVIDER = 1;
         private static final int MSG_SET_LISTENING = 2;
 
-        public Worker(Looper looper) {
-            super(looper);
+        private final HandlerThread mThread;
+        /** Providers created on this worker, guarded by the worker. */
+        private final List<SummaryProvider> mProviders = new ArrayList<>();
+        private boolean mListening;
+
+        public Worker(HandlerThread thread) {
+            super(thread.getLooper());
+            mThread = thread;
         }
 
         @Override
@@ -302,13 +430,26 @@ public class SummaryLoader {
             switch (msg.what) {
                 case MSG_GET_PROVIDER:
                     Tile tile = (Tile) msg.obj;
-                    makeProviderW(tile);
+                    makeProviderW(this, tile);
                     break;
                 case MSG_SET_LISTENING:
                     boolean listening = msg.arg1 != 0;
-                    setListeningW(listening);
+                    setListeningW(this, listening);
                     break;
             }
         }
     }
+
+    private static final class PendingSummary {
+        final CharSequence summary;
+        final long cacheTtlMillis;
+        /** Whether the summary may be written to disk by the {@link SummaryCache}. */
+        final boolean persist;
+
+        PendingSummary(CharSequence summary, long cacheTtlMillis, boolean persist) {
+            this.summary = summary;
+            this.cacheTtlMillis = cacheTtlMillis;
+            this.persist = persist;
+        }
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.android.settings.DateTimeSettings;
+import com.android.settings.DeviceInfoSettings;
+import com.android.settings.SecuritySettings;
+import com.android.settings.accounts.UserAndAccountDashboardFragment;
+import com.android.settings.applications.DefaultAppSettings;
+import com.android.settings.applications.ManageApplications;
+import com.android.settings.applications.NotificationApps;
+import com.android.settings.applications.ProcessStatsSummary;
+import com.android.settings.bluetooth.BluetoothSettings;
+import com.android.settings.connecteddevice.ConnectedDeviceDashboardFragment;
+import com.android.settings.dashboard.SummaryLoader.SummaryProviderFactory;
+import com.android.settings.datausage.DataPlanUsageSummary;
+import com.android.settings.datausage.DataUsageSummary;
+import com.android.settings.deviceinfo.StorageSettings;
+import com.android.settings.fuelgauge.PowerUsageSummary;
+import com.android.settings.language.LanguageAndInputSettings;
+import com.android.settings.location.LocationSettings;
+import com.android.settings.network.NetworkDashboardFragment;
+import com.android.settings.notification.ConfigureNotificationSettings;
+import com.android.settings.print.PrintSettingsFragment;
+import com.android.settings.users.UserSettings;
+import com.android.settings.wfd.WifiDisplaySettings;
+import com.android.settings.wifi.WifiSettings;
+
+import java.util.HashMap;
+
+/**
+ * Registry of the {@link SummaryProviderFactory} each fragment declares in its
+ * {@link SummaryLoader#SUMMARY_PROVIDER_FACTORY} field, keyed by fragment class name, so that
+ * {@link SummaryLoader} finds them without reflection.
+ */
+public final class SummaryProviderFactories {
+
+    @VisibleForTesting
+    static final HashMap<String, SummaryProviderFactory> sFactories = new HashMap<>();
+
+    @VisibleForTesting
+    static void addFactory(Class<?> fragmentClass, SummaryProviderFactory factory) {
+        sFactories.put(fragmentClass.getName(), factory);
+    }
+
+    static {
+        addFactory(BluetoothSettings.class, BluetoothSettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(ConfigureNotificationSettings.class,
+                ConfigureNotificationSettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(ConnectedDeviceDashboardFragment.class,
+                ConnectedDeviceDashboardFragment.SUMMARY_PROVIDER_FACTORY);
+        addFactory(DataPlanUsageSummary.class, DataPlanUsageSummary.SUMMARY_PROVIDER_FACTORY);
+        addFactory(DataUsageSummary.class, DataUsageSummary.SUMMARY_PROVIDER_FACTORY);
+        addFactory(DateTimeSettings.class, DateTimeSettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(DefaultAppSettings.class, DefaultAppSettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(DeviceInfoSettings.class, DeviceInfoSettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(LanguageAndInputSettings.class,
+                LanguageAndInputSettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(LocationSettings.class, LocationSettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(ManageApplications.class, ManageApplications.SUMMARY_PROVIDER_FACTORY);
+        addFactory(NetworkDashboardFragment.class,
+                NetworkDashboardFragment.SUMMARY_PROVIDER_FACTORY);
+        addFactory(NotificationApps.class, NotificationApps.SUMMARY_PROVIDER_FACTORY);
+        addFactory(PowerUsageSummary.class, PowerUsageSummary.SUMMARY_PROVIDER_FACTORY);
+        addFactory(PrintSettingsFragment.class, PrintSettingsFragment.SUMMARY_PROVIDER_FACTORY);
+        addFactory(ProcessStatsSummary.class, ProcessStatsSummary.SUMMARY_PROVIDER_FACTORY);
+        addFactory(SecuritySettings.class, SecuritySettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(StorageSettings.class, StorageSettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(UserAndAccountDashboardFragment.class,
+                UserAndAccountDashboardFragment.SUMMARY_PROVIDER_FACTORY);
+        addFactory(UserSettings.class, UserSettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(WifiDisplaySettings.class, WifiDisplaySettings.SUMMARY_PROVIDER_FACTORY);
+        addFactory(WifiSettings.class, WifiSettings.SUMMARY_PROVIDER_FACTORY);
+    }
+
+    private SummaryProviderFactories() {
+    }
+
+    /**
+     * @return the summary provider factory of fragment {@param className}, or null if it has none.
+     */
+    public static SummaryProviderFactory getFactory(String className) {
+        return sFactories.get(className);
+    }
+}
@@ -15,8 +15,6 @@
  */
 package com.android.settings.dashboard.conditional;
 
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
@@ -30,14 +28,11 @@ import com.android.settingslib.WirelessUtils;
 public class AirplaneModeCondition extends Condition {
     public static String TAG = "APM_Condition";
 
-    private final Receiver mReceiver;
-
     private static final IntentFilter AIRPLANE_MODE_FILTER =
         new IntentFilter(Intent.ACTION_AIRPLANE_MODE_CHANGED);
 
     public AirplaneModeCondition(ConditionManager conditionManager) {
         super(conditionManager);
-        mReceiver = new Receiver();
     }
 
     @Override
@@ -47,12 +42,7 @@ public class AirplaneModeCondition extends Condition {
     }
 
     @Override
-    protected BroadcastReceiver getReceiver() {
-        return mReceiver;
-    }
-
-    @Override
-    protected IntentFilter getIntentFilter() {
+    protected IntentFilter getRefreshFilter() {
         return AIRPLANE_MODE_FILTER;
     }
 
@@ -102,14 +92,4 @@ public class AirplaneModeCondition extends Condition {
     public int getMetricsConstant() {
         return MetricsEvent.SETTINGS_CONDITION_AIRPLANE_MODE;
     }
-
-    public static class Receiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (Intent.ACTION_AIRPLANE_MODE_CHANGED.equals(intent.getAction())) {
-                ConditionManager.get(context).getCondition(AirplaneModeCondition.class)
-                        .refreshState();
-            }
-        }
-    }
 }
@@ -16,7 +16,9 @@
 package com.android.settings.dashboard.conditional;
 
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
+import android.net.ConnectivityManager;
 import android.net.NetworkPolicyManager;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.R;
@@ -24,6 +26,9 @@ import com.android.settings.Settings;
 
 public class BackgroundDataCondition extends Condition {
 
+    private static final IntentFilter RESTRICT_BACKGROUND_FILTER =
+        new IntentFilter(ConnectivityManager.ACTION_RESTRICT_BACKGROUND_CHANGED);
+
     public BackgroundDataCondition(ConditionManager manager) {
         super(manager);
     }
@@ -33,6 +38,11 @@ public class BackgroundDataCondition extends Condition {
         setActive(NetworkPolicyManager.from(mManager.getContext()).getRestrictBackground());
     }
 
+    @Override
+    protected IntentFilter getRefreshFilter() {
+        return RESTRICT_BACKGROUND_FILTER;
+    }
+
     @Override
     public Icon getIcon() {
         return Icon.createWithResource(mManager.getContext(), R.drawable.ic_data_saver);
@@ -15,6 +15,7 @@
  */
 package com.android.settings.dashboard.conditional;
 
+import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import android.os.PowerManager;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
@@ -23,6 +24,10 @@ import com.android.settings.Utils;
 import com.android.settings.fuelgauge.BatterySaverSettings;
 
 public class BatterySaverCondition extends Condition {
+
+    private static final IntentFilter POWER_SAVE_MODE_FILTER =
+        new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+
     public BatterySaverCondition(ConditionManager manager) {
         super(manager);
     }
@@ -33,6 +38,11 @@ public class BatterySaverCondition extends Condition {
         setActive(powerManager.isPowerSaveMode());
     }
 
+    @Override
+    protected IntentFilter getRefreshFilter() {
+        return POWER_SAVE_MODE_FILTER;
+    }
+
     @Override
     public Icon getIcon() {
         return Icon.createWithResource(mManager.getContext(), R.drawable.ic_settings_battery);
@@ -10,8 +10,6 @@
 
 package com.android.settings.dashboard.conditional;
 
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
@@ -24,14 +22,15 @@ import com.android.settings.Settings;
 
 public class CellularDataCondition extends Condition {
 
-    private final Receiver mReceiver;
-
     private static final IntentFilter DATA_CONNECTION_FILTER =
         new IntentFilter(TelephonyIntents.ACTION_ANY_DATA_CONNECTION_STATE_CHANGED);
 
+    static {
+        DATA_CONNECTION_FILTER.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+    }
+
     public CellularDataCondition(ConditionManager manager) {
         super(manager);
-        mReceiver = new Receiver();
     }
 
     @Override
@@ -48,12 +47,7 @@ public class CellularDataCondition extends Condition {
     }
 
     @Override
-    protected BroadcastReceiver getReceiver() {
-        return mReceiver;
-    }
-
-    @Override
-    protected IntentFilter getIntentFilter() {
+    protected IntentFilter getRefreshFilter() {
         return DATA_CONNECTION_FILTER;
     }
 
@@ -99,18 +93,4 @@ public class CellularDataCondition extends Condition {
     public int getMetricsConstant() {
         return MetricsEvent.SETTINGS_CONDITION_CELLULAR_DATA;
     }
-
-    public static class Receiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (TelephonyIntents.ACTION_ANY_DATA_CONNECTION_STATE_CHANGED.equals(
-                    intent.getAction())) {
-                CellularDataCondition condition = ConditionManager.get(context).getCondition(
-                        CellularDataCondition.class);
-                if (condition != null) {
-                    condition.refreshState();
-                }
-            }
-        }
-    }
 }
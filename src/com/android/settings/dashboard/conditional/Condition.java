@@ -16,26 +16,30 @@
 
 package com.android.settings.dashboard.conditional;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import android.os.PersistableBundle;
 
-import android.support.annotation.VisibleForTesting;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.core.instrumentation.MetricsFeatureProvider;
 import com.android.settings.overlay.FeatureFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public abstract class Condition {
 
     private static final String KEY_SILENCE = "silence";
     private static final String KEY_ACTIVE = "active";
     private static final String KEY_LAST_STATE = "last_state";
 
+    private static final int FLAG_SILENCE = 1;
+    private static final int FLAG_ACTIVE = 1 << 1;
+
     protected final ConditionManager mManager;
     protected final MetricsFeatureProvider mMetricsFeatureProvider;
-    protected boolean mReceiverRegistered;
 
     private boolean mIsSilenced;
     private boolean mIsActive;
@@ -51,23 +55,38 @@ public abstract class Condition {
         mMetricsFeatureProvider = metricsFeatureProvider;
     }
 
+    /**
+     * Restores the state saved in the XML file used by previous versions.
+     */
     void restoreState(PersistableBundle bundle) {
         mIsSilenced = bundle.getBoolean(KEY_SILENCE);
         mIsActive = bundle.getBoolean(KEY_ACTIVE);
         mLastStateChange = bundle.getLong(KEY_LAST_STATE);
     }
 
-    boolean saveState(PersistableBundle bundle) {
-        if (mIsSilenced) {
-            bundle.putBoolean(KEY_SILENCE, mIsSilenced);
-        }
-        if (mIsActive) {
-            bundle.putBoolean(KEY_ACTIVE, mIsActive);
-            bundle.putLong(KEY_LAST_STATE, mLastStateChange);
-        }
+    void restoreState(DataInput in) throws IOException {
+        final int flags = in.readByte();
+        mIsSilenced = (flags & FLAG_SILENCE) != 0;
+        mIsActive = (flags & FLAG_ACTIVE) != 0;
+        mLastStateChange = in.readLong();
+    }
+
+    /**
+     * @return whether this condition has any state worth saving.
+     */
+    boolean hasState() {
         return mIsSilenced || mIsActive;
     }
 
+    /**
+     * Writes the state of this condition. Conditions with more state append it after calling
+     * through, and read it back the same way in {@link #restoreState(DataInput)}.
+     */
+    void saveState(DataOutput out) throws IOException {
+        out.writeByte((mIsSilenced ? FLAG_SILENCE : 0) | (mIsActive ? FLAG_ACTIVE : 0));
+        out.writeLong(mIsActive ? mLastStateChange : 0);
+    }
+
     protected void notifyChanged() {
         mManager.notifyChanged(this);
     }
@@ -88,7 +107,6 @@ public abstract class Condition {
         mLastStateChange = System.currentTimeMillis();
         if (mIsSilenced && !active) {
             mIsSilenced = false;
-            onSilenceChanged(mIsSilenced);
         }
         notifyChanged();
     }
@@ -99,36 +117,23 @@ public abstract class Condition {
             Context context = mManager.getContext();
             mMetricsFeatureProvider.action(context, MetricsEvent.ACTION_SETTINGS_CONDITION_DISMISS,
                     getMetricsConstant());
-            onSilenceChanged(mIsSilenced);
             notifyChanged();
         }
     }
 
-    @VisibleForTesting
-    void onSilenceChanged(boolean silenced) {
-        final BroadcastReceiver receiver = getReceiver();
-        if (receiver == null) {
-            return;
-        }
-        if (silenced) {
-            if (!mReceiverRegistered) {
-                mManager.getContext().registerReceiver(receiver, getIntentFilter());
-                mReceiverRegistered = true;
-            }
-        } else {
-            if (mReceiverRegistered) {
-                mManager.getContext().unregisterReceiver(receiver);
-                mReceiverRegistered = false;
-            }
-        }
-    }
-
-    protected BroadcastReceiver getReceiver() {
+    /**
+     * @return the broadcasts after which this condition needs to be refreshed, or null if it
+     * calls {@link #markDirty()} itself when its inputs change.
+     */
+    protected IntentFilter getRefreshFilter() {
         return null;
     }
 
-    protected IntentFilter getIntentFilter() {
-        return null;
+    /**
+     * Requests a {@link #refreshState()}, once the dashboard is shown.
+     */
+    protected void markDirty() {
+        mManager.markDirty(this);
     }
 
     public boolean shouldShow() {
@@ -15,9 +15,17 @@
  */
 package com.android.settings.dashboard.conditional;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.AsyncTask;
 import android.os.PersistableBundle;
+import android.support.annotation.MainThread;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.ArraySet;
+import android.util.AtomicFile;
 import android.util.Log;
 import android.util.Xml;
 
@@ -26,41 +34,111 @@ import com.android.settingslib.core.lifecycle.events.OnPause;
 import com.android.settingslib.core.lifecycle.events.OnResume;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
+/**
+ * Keeps the conditions shown on the dashboard, and their state across processes.
+ *
+ * Conditions are only refreshed when their inputs change: the broadcasts they depend on mark
+ * them dirty, and dirty conditions are refreshed right away while the dashboard listens, or when
+ * it calls {@link #refreshDirty()} otherwise.
+ *
+ * The state is stored in a small binary file, written atomically on a background thread: changes
+ * only snapshot the state in memory, and the snapshots taken while a write is pending are
+ * written at once.
+ */
 public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
 
     private static final String TAG = "ConditionManager";
 
     private static final boolean DEBUG = false;
 
-    private static final String PKG = "com.android.settings.dashboard.conditional.";
+    @VisibleForTesting
+    static final String FILE_NAME = "condition_state";
+    private static final int FILE_VERSION = 1;
 
-    private static final String FILE_NAME = "condition_state.xml";
-    private static final String TAG_CONDITIONS = "cs";
+    /** File the state was stored in by previous versions, migrated on first load. */
+    private static final String LEGACY_FILE_NAME = "condition_state.xml";
     private static final String TAG_CONDITION = "c";
     private static final String ATTR_CLASS = "cls";
 
+    /**
+     * All the conditions, in the order they are added. Their names are persisted, and must not
+     * change.
+     */
+    private static final ConditionType[] CONDITION_TYPES = {
+            new ConditionType("AirplaneModeCondition", AirplaneModeCondition.class,
+                    AirplaneModeCondition::new),
+            new ConditionType("HotspotCondition", HotspotCondition.class,
+                    HotspotCondition::new),
+            new ConditionType("DndCondition", DndCondition.class, DndCondition::new),
+            new ConditionType("BatterySaverCondition", BatterySaverCondition.class,
+                    BatterySaverCondition::new),
+            new ConditionType("CellularDataCondition", CellularDataCondition.class,
+                    CellularDataCondition::new),
+            new ConditionType("BackgroundDataCondition", BackgroundDataCondition.class,
+                    BackgroundDataCondition::new),
+            new ConditionType("WorkModeCondition", WorkModeCondition.class,
+                    WorkModeCondition::new),
+            new ConditionType("NightDisplayCondition", NightDisplayCondition.class,
+                    NightDisplayCondition::new),
+    };
+
     private static ConditionManager sInstance;
 
     private final Context mContext;
     private final ArrayList<Condition> mConditions;
-    private File mXmlFile;
+    private final AtomicFile mFile;
+    private final File mLegacyFile;
+    private final Executor mWriteExecutor;
+
+    private final Object mWriteLock = new Object();
+    /** State waiting to be written, null if no write is pending. Guarded by mWriteLock. */
+    private byte[] mPendingState;
+    /** State last written, or read. Guarded by mWriteLock. */
+    private byte[] mSavedState;
 
     private final ArrayList<ConditionListener> mListeners = new ArrayList<>();
+    /** Conditions whose inputs changed since they were refreshed. Only used on the main thread. */
+    private final ArraySet<Condition> mDirtyConditions = new ArraySet<>();
+
+    private final BroadcastReceiver mRefreshReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (isInitialStickyBroadcast()) {
+                // Conditions are refreshed after registering.
+                return;
+            }
+            final String action = intent.getAction();
+            for (int i = 0, size = mConditions.size(); i < size; i++) {
+                final Condition condition = mConditions.get(i);
+                final IntentFilter filter = condition.getRefreshFilter();
+                if (filter != null && filter.hasAction(action)) {
+                    markDirty(condition);
+                }
+            }
+        }
+    };
 
     private ConditionManager(Context context, boolean loadConditionsNow) {
-        mContext = context;
-        mConditions = new ArrayList<>();
+        this(context, new File(context.getFilesDir(), FILE_NAME),
+                Executors.newSingleThreadExecutor());
         if (loadConditionsNow) {
             Log.d(TAG, "conditions loading synchronously");
             ConditionLoader loader = new ConditionLoader();
@@ -71,18 +149,125 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
         }
     }
 
+    @VisibleForTesting
+    ConditionManager(Context context, File file, Executor writeExecutor) {
+        mContext = context;
+        mConditions = new ArrayList<>();
+        mFile = new AtomicFile(file);
+        mLegacyFile = new File(file.getParentFile(), LEGACY_FILE_NAME);
+        mWriteExecutor = writeExecutor;
+    }
+
     public void refreshAll() {
+        mDirtyConditions.clear();
         final int N = mConditions.size();
         for (int i = 0; i < N; i++) {
             mConditions.get(i).refreshState();
         }
     }
 
-    private void readFromXml(File xmlFile, ArrayList<Condition> conditions) {
-        if (DEBUG) Log.d(TAG, "Reading from " + xmlFile.toString());
+    /**
+     * Refreshes the conditions whose inputs changed since they were last refreshed.
+     */
+    @MainThread
+    public void refreshDirty() {
+        if (mDirtyConditions.isEmpty()) {
+            return;
+        }
+        final Condition[] conditions = mDirtyConditions.toArray(
+                new Condition[mDirtyConditions.size()]);
+        mDirtyConditions.clear();
+        for (Condition condition : conditions) {
+            condition.refreshState();
+        }
+    }
+
+    @MainThread
+    void markDirty(Condition condition) {
+        mDirtyConditions.add(condition);
+        if (!mListeners.isEmpty()) {
+            refreshDirty();
+        }
+    }
+
+    /**
+     * Listens to the inputs of the conditions for as long as the process lives, so that no
+     * change is missed while the dashboard is not shown.
+     */
+    private void registerRefreshReceiver() {
+        final IntentFilter filter = new IntentFilter();
+        for (int i = 0, size = mConditions.size(); i < size; i++) {
+            final IntentFilter conditionFilter = mConditions.get(i).getRefreshFilter();
+            if (conditionFilter == null) {
+                continue;
+            }
+            for (int j = 0, count = conditionFilter.countActions(); j < count; j++) {
+                final String action = conditionFilter.getAction(j);
+                if (!filter.hasAction(action)) {
+                    filter.addAction(action);
+                }
+            }
+        }
+        mContext.registerReceiver(mRefreshReceiver, filter);
+    }
+
+    /**
+     * @return the conditions with their saved state, including the ones without state.
+     */
+    @VisibleForTesting
+    @WorkerThread
+    ArrayList<Condition> loadConditions() {
+        final ArrayList<Condition> conditions = new ArrayList<>();
+        if (mFile.getBaseFile().exists()) {
+            readState(conditions);
+        } else if (mLegacyFile.exists()) {
+            readLegacyState(conditions);
+        }
+        addMissingConditions(conditions);
+        return conditions;
+    }
+
+    private void readState(ArrayList<Condition> conditions) {
+        final byte[] state;
         try {
+            state = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "Problem reading " + FILE_NAME, e);
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+            if (in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "Dropping conditions stored in an unknown format");
+                return;
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                final String name = in.readUTF();
+                final byte[] record = new byte[in.readUnsignedShort()];
+                in.readFully(record);
+                final Condition condition = createCondition(name);
+                if (condition == null) {
+                    Log.w(TAG, "Dropping unknown condition: " + name);
+                    continue;
+                }
+                condition.restoreState(new DataInputStream(new ByteArrayInputStream(record)));
+                conditions.add(condition);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Problem reading " + FILE_NAME, e);
+            conditions.clear();
+            return;
+        }
+        synchronized (mWriteLock) {
+            mSavedState = state;
+        }
+    }
+
+    private void readLegacyState(ArrayList<Condition> conditions) {
+        if (DEBUG) Log.d(TAG, "Migrating " + mLegacyFile.toString());
+        try (FileReader in = new FileReader(mLegacyFile)) {
             XmlPullParser parser = Xml.newPullParser();
-            FileReader in = new FileReader(xmlFile);
             parser.setInput(in);
             int state = parser.getEventType();
 
@@ -90,10 +275,9 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
                 if (TAG_CONDITION.equals(parser.getName())) {
                     int depth = parser.getDepth();
                     String clz = parser.getAttributeValue("", ATTR_CLASS);
-                    if (!clz.startsWith(PKG)) {
-                        clz = PKG + clz;
-                    }
-                    Condition condition = createCondition(Class.forName(clz));
+                    // Old versions stored the fully qualified class name.
+                    clz = clz.substring(clz.lastIndexOf('.') + 1);
+                    Condition condition = createCondition(clz);
                     PersistableBundle bundle = PersistableBundle.restoreFromXml(parser);
                     if (DEBUG) Log.d(TAG, "Reading " + clz + " -- " + bundle);
                     if (condition != null) {
@@ -108,84 +292,124 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
                 }
                 state = parser.next();
             }
-            in.close();
-        } catch (XmlPullParserException | IOException | ClassNotFoundException e) {
-            Log.w(TAG, "Problem reading " + FILE_NAME, e);
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(TAG, "Problem reading " + LEGACY_FILE_NAME, e);
         }
     }
 
-    private void saveToXml() {
-        if (DEBUG) Log.d(TAG, "Writing to " + mXmlFile.toString());
-        try {
-            XmlSerializer serializer = Xml.newSerializer();
-            FileWriter writer = new FileWriter(mXmlFile);
-            serializer.setOutput(writer);
-
-            serializer.startDocument("UTF-8", true);
-            serializer.startTag("", TAG_CONDITIONS);
+    /**
+     * Snapshots the state of the conditions, and schedules writing it unless it is already
+     * saved.
+     */
+    private void scheduleSave() {
+        if (mConditions.isEmpty()) {
+            // Not loaded yet, nothing to save.
+            return;
+        }
+        final byte[] state = snapshotState();
+        if (state == null) {
+            return;
+        }
+        synchronized (mWriteLock) {
+            final boolean writeScheduled = mPendingState != null;
+            mPendingState = state;
+            if (!writeScheduled) {
+                mWriteExecutor.execute(this::writePendingState);
+            }
+        }
+    }
 
+    private byte[] snapshotState() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FILE_VERSION);
             final int N = mConditions.size();
+            int count = 0;
             for (int i = 0; i < N; i++) {
-                PersistableBundle bundle = new PersistableBundle();
-                if (mConditions.get(i).saveState(bundle)) {
-                    serializer.startTag("", TAG_CONDITION);
-                    final String clz = mConditions.get(i).getClass().getSimpleName();
-                    serializer.attribute("", ATTR_CLASS, clz);
-                    bundle.saveToXml(serializer);
-                    serializer.endTag("", TAG_CONDITION);
+                if (mConditions.get(i).hasState()) {
+                    count++;
                 }
             }
+            out.writeInt(count);
+            // Each condition is stored as its name and the length of its state, so that the
+            // state of conditions which are later removed can be skipped.
+            final ByteArrayOutputStream record = new ByteArrayOutputStream();
+            final DataOutputStream recordOut = new DataOutputStream(record);
+            for (int i = 0; i < N; i++) {
+                final Condition condition = mConditions.get(i);
+                if (condition.hasState()) {
+                    record.reset();
+                    condition.saveState(recordOut);
+                    recordOut.flush();
+                    out.writeUTF(getConditionName(condition));
+                    out.writeShort(record.size());
+                    record.writeTo(out);
+                }
+            }
+        } catch (IOException e) {
+            // Not thrown when writing to memory.
+            Log.w(TAG, "Problem saving conditions", e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
 
-            serializer.endTag("", TAG_CONDITIONS);
-            serializer.flush();
-            writer.close();
-        } catch (XmlPullParserException | IOException e) {
+    @WorkerThread
+    private void writePendingState() {
+        final byte[] state;
+        synchronized (mWriteLock) {
+            state = mPendingState;
+            mPendingState = null;
+            if (Arrays.equals(state, mSavedState)) {
+                return;
+            }
+        }
+        if (DEBUG) Log.d(TAG, "Writing to " + mFile.getBaseFile().toString());
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            fos.write(state);
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
             Log.w(TAG, "Problem writing " + FILE_NAME, e);
+            mFile.failWrite(fos);
+            return;
+        }
+        synchronized (mWriteLock) {
+            mSavedState = state;
+        }
+        if (mLegacyFile.exists()) {
+            mLegacyFile.delete();
         }
     }
 
     private void addMissingConditions(ArrayList<Condition> conditions) {
-        addIfMissing(AirplaneModeCondition.class, conditions);
-        addIfMissing(HotspotCondition.class, conditions);
-        addIfMissing(DndCondition.class, conditions);
-        addIfMissing(BatterySaverCondition.class, conditions);
-        addIfMissing(CellularDataCondition.class, conditions);
-        addIfMissing(BackgroundDataCondition.class, conditions);
-        addIfMissing(WorkModeCondition.class, conditions);
-        addIfMissing(NightDisplayCondition.class, conditions);
+        for (ConditionType type : CONDITION_TYPES) {
+            if (getCondition(type.clz, conditions) == null) {
+                if (DEBUG) Log.d(TAG, "Adding missing " + type.name);
+                conditions.add(type.factory.create(this));
+            }
+        }
         Collections.sort(conditions, CONDITION_COMPARATOR);
     }
 
-    private void addIfMissing(Class<? extends Condition> clz, ArrayList<Condition> conditions) {
-        if (getCondition(clz, conditions) == null) {
-            if (DEBUG) Log.d(TAG, "Adding missing " + clz.getName());
-            Condition condition = createCondition(clz);
-            if (condition != null) {
-                conditions.add(condition);
+    private Condition createCondition(String name) {
+        for (ConditionType type : CONDITION_TYPES) {
+            if (type.name.equals(name)) {
+                return type.factory.create(this);
             }
         }
+        Log.e(TAG, "unknown condition: " + name);
+        return null;
     }
 
-    private Condition createCondition(Class<?> clz) {
-        if (AirplaneModeCondition.class == clz) {
-            return new AirplaneModeCondition(this);
-        } else if (HotspotCondition.class == clz) {
-            return new HotspotCondition(this);
-        } else if (DndCondition.class == clz) {
-            return new DndCondition(this);
-        } else if (BatterySaverCondition.class == clz) {
-            return new BatterySaverCondition(this);
-        } else if (CellularDataCondition.class == clz) {
-            return new CellularDataCondition(this);
-        } else if (BackgroundDataCondition.class == clz) {
-            return new BackgroundDataCondition(this);
-        } else if (WorkModeCondition.class == clz) {
-            return new WorkModeCondition(this);
-        } else if (NightDisplayCondition.class == clz) {
-            return new NightDisplayCondition(this);
-        }
-        Log.e(TAG, "unknown condition class: " + clz.getSimpleName());
-        return null;
+    private static String getConditionName(Condition condition) {
+        for (ConditionType type : CONDITION_TYPES) {
+            if (type.clz == condition.getClass()) {
+                return type.name;
+            }
+        }
+        return condition.getClass().getSimpleName();
     }
 
     Context getContext() {
@@ -222,7 +446,7 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
     }
 
     public void notifyChanged(Condition condition) {
-        saveToXml();
+        scheduleSave();
         Collections.sort(mConditions, CONDITION_COMPARATOR);
         final int N = mListeners.size();
         for (int i = 0; i < N; i++) {
@@ -256,21 +480,16 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
     private class ConditionLoader extends AsyncTask<Void, Void, ArrayList<Condition>> {
         @Override
         protected ArrayList<Condition> doInBackground(Void... params) {
-            Log.d(TAG, "loading conditions from xml");
-            ArrayList<Condition> conditions = new ArrayList<>();
-            mXmlFile = new File(mContext.getFilesDir(), FILE_NAME);
-            if (mXmlFile.exists()) {
-                readFromXml(mXmlFile, conditions);
-            }
-            addMissingConditions(conditions);
-            return conditions;
+            Log.d(TAG, "loading conditions");
+            return loadConditions();
         }
 
         @Override
         protected void onPostExecute(ArrayList<Condition> conditions) {
-            Log.d(TAG, "conditions loaded from xml, refreshing conditions");
+            Log.d(TAG, "conditions loaded, refreshing conditions");
             mConditions.clear();
             mConditions.addAll(conditions);
+            registerRefreshReceiver();
             refreshAll();
         }
     }
@@ -290,6 +509,22 @@ public class ConditionManager implements LifecycleObserver, OnResume, OnPause {
         void onConditionsChanged();
     }
 
+    private interface ConditionFactory {
+        Condition create(ConditionManager manager);
+    }
+
+    private static final class ConditionType {
+        final String name;
+        final Class<? extends Condition> clz;
+        final ConditionFactory factory;
+
+        ConditionType(String name, Class<? extends Condition> clz, ConditionFactory factory) {
+            this.name = name;
+            this.clz = clz;
+            this.factory = factory;
+        }
+    }
+
     private static final Comparator<Condition> CONDITION_COMPARATOR = new Comparator<Condition>() {
         @Override
         public int compare(Condition lhs, Condition rhs) {
@@ -18,9 +18,6 @@ package com.android.settings.dashboard.conditional;
 import android.app.ActivityManager;
 import android.app.NotificationManager;
 import android.app.StatusBarManager;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import android.os.PersistableBundle;
@@ -32,26 +29,24 @@ import android.support.annotation.VisibleForTesting;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.R;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class DndCondition extends Condition {
 
     private static final String TAG = "DndCondition";
     private static final String KEY_STATE = "state";
 
-    private boolean mRegistered;
-
     @VisibleForTesting
     static final IntentFilter DND_FILTER =
         new IntentFilter(NotificationManager.ACTION_INTERRUPTION_FILTER_CHANGED_INTERNAL);
 
     private int mZen;
     private ZenModeConfig mConfig;
-    private final Receiver mReceiver;
 
     public DndCondition(ConditionManager manager) {
         super(manager);
-        mReceiver = new Receiver();
-        mManager.getContext().registerReceiver(mReceiver, DND_FILTER);
-        mRegistered = true;
     }
 
     @Override
@@ -69,9 +64,20 @@ public class DndCondition extends Condition {
     }
 
     @Override
-    boolean saveState(PersistableBundle bundle) {
-        bundle.putInt(KEY_STATE, mZen);
-        return super.saveState(bundle);
+    protected IntentFilter getRefreshFilter() {
+        return DND_FILTER;
+    }
+
+    @Override
+    void saveState(DataOutput out) throws IOException {
+        super.saveState(out);
+        out.writeInt(mZen);
+    }
+
+    @Override
+    void restoreState(DataInput in) throws IOException {
+        super.restoreState(in);
+        mZen = in.readInt();
     }
 
     @Override
@@ -140,32 +146,4 @@ public class DndCondition extends Condition {
     public int getMetricsConstant() {
         return MetricsEvent.SETTINGS_CONDITION_DND;
     }
-
-    public static class Receiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (NotificationManager.ACTION_INTERRUPTION_FILTER_CHANGED_INTERNAL
-                    .equals(intent.getAction())) {
-                final Condition condition =
-                        ConditionManager.get(context).getCondition(DndCondition.class);
-                if (condition != null) {
-                    condition.refreshState();
-                }
-            }
-        }
-    }
-
-    @Override
-    public void onResume() {
-        if (!mRegistered) {
-           mManager.getContext().registerReceiver(mReceiver, DND_FILTER);
-           mRegistered = true;
-        }
-    }
-
-    @Override
-    public void onPause() {
-        mManager.getContext().unregisterReceiver(mReceiver);
-        mRegistered = false;
-    }
 }
@@ -15,9 +15,7 @@
  */
 package com.android.settings.dashboard.conditional;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import android.net.ConnectivityManager;
@@ -36,7 +34,6 @@ import com.android.settingslib.RestrictedLockUtils.EnforcedAdmin;
 public class HotspotCondition extends Condition {
 
     private final WifiManager mWifiManager;
-    private final Receiver mReceiver;
 
     private static final IntentFilter WIFI_AP_STATE_FILTER =
         new IntentFilter(WifiManager.WIFI_AP_STATE_CHANGED_ACTION);
@@ -44,7 +41,6 @@ public class HotspotCondition extends Condition {
     public HotspotCondition(ConditionManager manager) {
         super(manager);
         mWifiManager = mManager.getContext().getSystemService(WifiManager.class);
-        mReceiver = new Receiver();
     }
 
     @Override
@@ -54,12 +50,7 @@ public class HotspotCondition extends Condition {
     }
 
     @Override
-    protected BroadcastReceiver getReceiver() {
-        return mReceiver;
-    }
-
-    @Override
-    protected IntentFilter getIntentFilter() {
+    protected IntentFilter getRefreshFilter() {
         return WIFI_AP_STATE_FILTER;
     }
 
@@ -127,14 +118,4 @@ public class HotspotCondition extends Condition {
     public int getMetricsConstant() {
         return MetricsEvent.SETTINGS_CONDITION_HOTSPOT;
     }
-
-    public static class Receiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (WifiManager.WIFI_AP_STATE_CHANGED_ACTION.equals(intent.getAction())) {
-                ConditionManager.get(context).getCondition(HotspotCondition.class)
-                        .refreshState();
-            }
-        }
-    }
 }
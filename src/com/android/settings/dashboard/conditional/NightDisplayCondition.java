@@ -82,6 +82,6 @@ public final class NightDisplayCondition extends Condition
 
     @Override
     public void onActivated(boolean activated) {
-        refreshState();
+        markDirty();
     }
 }
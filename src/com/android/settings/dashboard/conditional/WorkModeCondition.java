@@ -18,6 +18,7 @@ package com.android.settings.dashboard.conditional;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.UserInfo;
 import android.graphics.drawable.Icon;
 import android.os.UserHandle;
@@ -30,6 +31,15 @@ import java.util.List;
 
 public class WorkModeCondition extends Condition {
 
+    private static final IntentFilter PROFILE_FILTER =
+        new IntentFilter(Intent.ACTION_MANAGED_PROFILE_AVAILABLE);
+
+    static {
+        PROFILE_FILTER.addAction(Intent.ACTION_MANAGED_PROFILE_UNAVAILABLE);
+        PROFILE_FILTER.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
+        PROFILE_FILTER.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+    }
+
     private UserManager mUm;
     private UserHandle mUserHandle;
 
@@ -58,6 +68,11 @@ public class WorkModeCondition extends Condition {
         setActive(mUserHandle != null && mUm.isQuietModeEnabled(mUserHandle));
     }
 
+    @Override
+    protected IntentFilter getRefreshFilter() {
+        return PROFILE_FILTER;
+    }
+
     @Override
     public Icon getIcon() {
         return Icon.createWithResource(mManager.getContext(),
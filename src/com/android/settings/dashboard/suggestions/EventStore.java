@@ -17,14 +17,35 @@ package com.android.settings.dashboard.suggestions;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Stores suggestion related statistics.
+ *
+ * The metrics of each package are kept in memory as a fixed-width record of
+ * {@link #RECORD_SIZE} longs, see {@link #getMetricIndex(String, String)}, and persisted
+ * together in a single small binary file. The file is read in the background when the store is
+ * created. Writes only update memory and schedule one write of the file, so bursts of events are
+ * persisted at once.
  */
 public class EventStore {
 
@@ -36,15 +57,63 @@ public class EventStore {
     public static final String METRIC_LAST_EVENT_TIME = "last_event_time";
     public static final String METRIC_COUNT = "count";
 
-    private static final Set<String> EVENTS = new HashSet<String>(
-            Arrays.asList(new String[] {EVENT_SHOWN, EVENT_DISMISSED, EVENT_CLICKED}));
-    private static final Set<String> METRICS = new HashSet<String>(
-            Arrays.asList(new String[] {METRIC_LAST_EVENT_TIME, METRIC_COUNT}));
+    private static final String[] EVENTS = {EVENT_SHOWN, EVENT_DISMISSED, EVENT_CLICKED};
+    private static final String[] METRICS = {METRIC_LAST_EVENT_TIME, METRIC_COUNT};
+
+    /** Number of metrics stored for each package. */
+    public static final int RECORD_SIZE = EVENTS.length * METRICS.length;
+
+    @VisibleForTesting
+    static final String FILE_NAME = "suggestion_events";
+    private static final int FILE_VERSION = 1;
+    /** Name of the shared preferences the metrics were stored in before. */
+    private static final String LEGACY_PREF_NAME = TAG;
+    private static final String LEGACY_PREF_KEY_PREFIX = "setting_suggestion_";
+    private static final long DISK_THREAD_KEEP_ALIVE_SECONDS = 10;
 
-    private final SharedPreferences mSharedPrefs;
+    private static EventStore sInstance;
+
+    private final AtomicFile mFile;
+    private final Context mContext;
+    private final Executor mDiskExecutor;
+    /** Metrics of each package, loaded on first access. Guarded by this. */
+    private ArrayMap<String, long[]> mRecords;
+    private boolean mWriteScheduled;
+
+    /**
+     * @return the store shared by the readers and writers of the process.
+     */
+    public static synchronized EventStore getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    DISK_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            executor.allowCoreThreadTimeOut(true);
+            sInstance = new EventStore(appContext, new File(appContext.getFilesDir(), FILE_NAME),
+                    executor);
+            executor.execute(sInstance::loadRecords);
+        }
+        return sInstance;
+    }
 
-    public EventStore(Context context) {
-        mSharedPrefs = context.getSharedPreferences(TAG, Context.MODE_PRIVATE);
+    @VisibleForTesting
+    EventStore(Context context, File file, Executor diskExecutor) {
+        mContext = context;
+        mFile = new AtomicFile(file);
+        mDiskExecutor = diskExecutor;
+    }
+
+    /**
+     * @return the index in a record of {@param metricType} of {@param eventType}, or -1 if either
+     * is not valid.
+     */
+    public static int getMetricIndex(String eventType, String metricType) {
+        final int event = indexOf(EVENTS, eventType);
+        final int metric = indexOf(METRICS, metricType);
+        if (event < 0 || metric < 0) {
+            return -1;
+        }
+        return event * METRICS.length + metric;
     }
 
     /**
@@ -53,14 +122,36 @@ public class EventStore {
      * @param eventType: Type of event (one of {@link #EVENTS}).
      */
     public void writeEvent(String pkgName, String eventType) {
-        if (!EVENTS.contains(eventType)) {
+        writeEvents(Arrays.asList(pkgName), eventType);
+    }
+
+    /**
+     * Writes an event of the same type for several packages at once.
+     * @param pkgNames: Packages for which this event is reported.
+     * @param eventType: Type of event (one of {@link #EVENTS}).
+     */
+    public void writeEvents(List<String> pkgNames, String eventType) {
+        final int timeIndex = getMetricIndex(eventType, METRIC_LAST_EVENT_TIME);
+        if (timeIndex < 0) {
             Log.w(TAG, "Reported event type " + eventType + " is not a valid type!");
             return;
         }
-        final String lastTimePrefKey = getPrefKey(pkgName, eventType, METRIC_LAST_EVENT_TIME);
-        final String countPrefKey = getPrefKey(pkgName, eventType, METRIC_COUNT);
-        writePref(lastTimePrefKey, System.currentTimeMillis());
-        writePref(countPrefKey, readPref(countPrefKey, (long) 0) + 1);
+        final int countIndex = getMetricIndex(eventType, METRIC_COUNT);
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            final ArrayMap<String, long[]> records = getRecordsLocked();
+            for (int i = 0, size = pkgNames.size(); i < size; i++) {
+                final String pkgName = pkgNames.get(i);
+                long[] record = records.get(pkgName);
+                if (record == null) {
+                    record = new long[RECORD_SIZE];
+                    records.put(pkgName, record);
+                }
+                record[timeIndex] = now;
+                record[countIndex]++;
+            }
+            scheduleWriteLocked();
+        }
     }
 
     /**
@@ -71,32 +162,166 @@ public class EventStore {
      * @return the corresponding metric.
      */
     public long readMetric(String pkgName, String eventType, String metricType) {
-        if (!EVENTS.contains(eventType)) {
+        if (indexOf(EVENTS, eventType) < 0) {
             Log.w(TAG, "Reported event type " + eventType + " is not a valid event!");
             return 0;
-        } else if (!METRICS.contains(metricType)) {
+        } else if (indexOf(METRICS, metricType) < 0) {
             Log.w(TAG, "Required stat type + " + metricType + " is not a valid stat!");
             return 0;
         }
-        return readPref(getPrefKey(pkgName, eventType, metricType), (long) 0);
+        synchronized (this) {
+            final long[] record = getRecordsLocked().get(pkgName);
+            return record == null ? 0 : record[getMetricIndex(eventType, metricType)];
+        }
     }
 
-    private void writePref(String prefKey, long value) {
-        mSharedPrefs.edit().putLong(prefKey, value).apply();
+    /**
+     * Reads all the metrics of several packages at once.
+     * @param pkgNames: Packages for which the metrics are queried.
+     * @return the records of the packages, in order: the metrics of the i-th package start at
+     * {@code i * RECORD_SIZE}, and are 0 for packages without events.
+     */
+    public long[] readMetrics(List<String> pkgNames) {
+        final int count = pkgNames.size();
+        final long[] metrics = new long[count * RECORD_SIZE];
+        synchronized (this) {
+            final ArrayMap<String, long[]> records = getRecordsLocked();
+            for (int i = 0; i < count; i++) {
+                final long[] record = records.get(pkgNames.get(i));
+                if (record != null) {
+                    System.arraycopy(record, 0, metrics, i * RECORD_SIZE, RECORD_SIZE);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private synchronized void loadRecords() {
+        getRecordsLocked();
+    }
+
+    private ArrayMap<String, long[]> getRecordsLocked() {
+        if (mRecords == null) {
+            mRecords = new ArrayMap<>();
+            if (mFile.getBaseFile().exists()) {
+                readRecordsLocked();
+            } else if (migrateLegacyPrefsLocked()) {
+                scheduleWriteLocked();
+            }
+        }
+        return mRecords;
+    }
+
+    private void readRecordsLocked() {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "Dropping events stored in an unknown format");
+                return;
+            }
+            final int count = in.readInt();
+            mRecords.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                final String pkgName = in.readUTF();
+                final long[] record = new long[RECORD_SIZE];
+                for (int j = 0; j < RECORD_SIZE; j++) {
+                    record[j] = in.readLong();
+                }
+                mRecords.put(pkgName, record);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing stored yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read events", e);
+            mRecords.clear();
+        }
+    }
+
+    /**
+     * Moves the metrics stored in shared preferences by previous versions to the records.
+     * @return whether any metric was found.
+     */
+    private boolean migrateLegacyPrefsLocked() {
+        final SharedPreferences prefs =
+                mContext.getSharedPreferences(LEGACY_PREF_NAME, Context.MODE_PRIVATE);
+        final Map<String, ?> values = prefs.getAll();
+        if (values.isEmpty()) {
+            return false;
+        }
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            final String key = entry.getKey();
+            if (!key.startsWith(LEGACY_PREF_KEY_PREFIX) || !(entry.getValue() instanceof Long)) {
+                continue;
+            }
+            for (String event : EVENTS) {
+                for (String metric : METRICS) {
+                    final String suffix = "_" + event + "_" + metric;
+                    if (!key.endsWith(suffix)
+                            || key.length() <= LEGACY_PREF_KEY_PREFIX.length() + suffix.length()) {
+                        continue;
+                    }
+                    final String pkgName = key.substring(LEGACY_PREF_KEY_PREFIX.length(),
+                            key.length() - suffix.length());
+                    long[] record = mRecords.get(pkgName);
+                    if (record == null) {
+                        record = new long[RECORD_SIZE];
+                        mRecords.put(pkgName, record);
+                    }
+                    record[getMetricIndex(event, metric)] = (Long) entry.getValue();
+                }
+            }
+        }
+        prefs.edit().clear().apply();
+        return true;
     }
 
-    private long readPref(String prefKey, Long defaultValue) {
-        return mSharedPrefs.getLong(prefKey, defaultValue);
+    private void scheduleWriteLocked() {
+        if (mWriteScheduled) {
+            return;
+        }
+        mWriteScheduled = true;
+        mDiskExecutor.execute(this::writeRecords);
     }
 
-    private String getPrefKey(String pkgName, String eventType, String statType) {
-        return new StringBuilder()
-                .append("setting_suggestion_")
-                .append(pkgName)
-                .append("_")
-                .append(eventType)
-                .append("_")
-                .append(statType)
-                .toString();
+    private void writeRecords() {
+        final String[] pkgNames;
+        final long[][] records;
+        synchronized (this) {
+            mWriteScheduled = false;
+            final int count = mRecords.size();
+            pkgNames = new String[count];
+            records = new long[count][];
+            for (int i = 0; i < count; i++) {
+                pkgNames[i] = mRecords.keyAt(i);
+                records[i] = mRecords.valueAt(i).clone();
+            }
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(pkgNames.length);
+            for (int i = 0; i < pkgNames.length; i++) {
+                out.writeUTF(pkgNames[i]);
+                for (long value : records[i]) {
+                    out.writeLong(value);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write events", e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
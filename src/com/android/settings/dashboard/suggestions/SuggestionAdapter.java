@@ -27,7 +27,7 @@ import com.android.settings.R;
 import com.android.settings.SettingsActivity;
 import com.android.settings.core.instrumentation.MetricsFeatureProvider;
 import com.android.settings.dashboard.DashboardAdapter.DashboardItemHolder;
-import com.android.settings.dashboard.DashboardAdapter.IconCache;
+import com.android.settings.dashboard.IconLoader;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settingslib.drawer.Tile;
 
@@ -41,7 +41,7 @@ public class SuggestionAdapter extends RecyclerView.Adapter<DashboardItemHolder>
     private final MetricsFeatureProvider mMetricsFeatureProvider;
     private final SuggestionFeatureProvider mSuggestionFeatureProvider;
     private List<Tile> mSuggestions;
-    private final IconCache mCache;
+    private final IconLoader mIconLoader;
     private final List<String> mSuggestionsShownLogged;
 
     public SuggestionAdapter(Context context, List<Tile> suggestions,
@@ -49,7 +49,7 @@ public class SuggestionAdapter extends RecyclerView.Adapter<DashboardItemHolder>
         mContext = context;
         mSuggestions = suggestions;
         mSuggestionsShownLogged = suggestionsShownLogged;
-        mCache = new IconCache(context);
+        mIconLoader = IconLoader.getInstance(context);
         final FeatureFactory factory = FeatureFactory.getFactory(context);
         mMetricsFeatureProvider = factory.getMetricsFeatureProvider();
         mSuggestionFeatureProvider = factory.getSuggestionFeatureProvider(context);
@@ -80,7 +80,7 @@ public class SuggestionAdapter extends RecyclerView.Adapter<DashboardItemHolder>
             itemView.removeAllViews();
             itemView.addView(suggestion.remoteViews.apply(itemView.getContext(), itemView));
         } else {
-            holder.icon.setImageDrawable(mCache.getIcon(suggestion.icon));
+            mIconLoader.bindIcon(holder.icon, suggestion.icon);
             holder.title.setText(suggestion.title);
             if (!TextUtils.isEmpty(suggestion.summary)) {
                 holder.summary.setText(suggestion.summary);
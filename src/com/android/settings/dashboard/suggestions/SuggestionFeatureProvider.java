@@ -52,8 +52,10 @@ public interface SuggestionFeatureProvider {
      *
      * @param suggestions   List of suggestion Tiles
      * @param suggestionIds List of suggestion ids corresponding to the suggestion tiles.
+     * @param limit         Number of suggestions to rank, the most relevant are moved to the
+     *                      start of the list and the others keep their order.
      */
-    void rankSuggestions(final List<Tile> suggestions, List<String> suggestionIds);
+    void rankSuggestions(final List<Tile> suggestions, List<String> suggestionIds, int limit);
 
     /**
      * Only keep top few suggestions from exclusive suggestions.
@@ -107,14 +107,15 @@ public class SuggestionFeatureProviderImpl implements SuggestionFeatureProvider
     public SuggestionFeatureProviderImpl(Context context) {
         final Context appContext = context.getApplicationContext();
         mSuggestionRanker = new SuggestionRanker(
-                new SuggestionFeaturizer(new EventStore(appContext)));
+                new SuggestionFeaturizer(EventStore.getInstance(appContext)));
         mMetricsFeatureProvider = FeatureFactory.getFactory(appContext)
                 .getMetricsFeatureProvider();
     }
 
     @Override
-    public void rankSuggestions(final List<Tile> suggestions, List<String> suggestionIds) {
-        mSuggestionRanker.rankSuggestions(suggestions, suggestionIds);
+    public void rankSuggestions(final List<Tile> suggestions, List<String> suggestionIds,
+            int limit) {
+        mSuggestionRanker.rankSuggestions(suggestions, suggestionIds, limit);
     }
 
     @Override
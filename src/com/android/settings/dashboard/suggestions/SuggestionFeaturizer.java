@@ -38,10 +38,41 @@ public class SuggestionFeaturizer {
     public static final String FEATURE_DISMISSED_COUNT = "dismissed_count";
     public static final String FEATURE_CLICKED_COUNT = "clicked_count";
 
+    /**
+     * Layout of the features in the arrays returned by {@link #featurizeAsArray(List)}: feature
+     * {@code FEATURES[j]} of the i-th package is at {@code i * FEATURE_COUNT + j}.
+     */
+    public static final String[] FEATURES = {
+            FEATURE_IS_SHOWN,
+            FEATURE_IS_DISMISSED,
+            FEATURE_IS_CLICKED,
+            FEATURE_TIME_FROM_LAST_SHOWN,
+            FEATURE_TIME_FROM_LAST_DISMISSED,
+            FEATURE_TIME_FROM_LAST_CLICKED,
+            FEATURE_SHOWN_COUNT,
+            FEATURE_DISMISSED_COUNT,
+            FEATURE_CLICKED_COUNT,
+    };
+    public static final int FEATURE_COUNT = FEATURES.length;
+
     // The following numbers are estimated from histograms.
     public static final double TIME_NORMALIZATION_FACTOR = 2e10;
     public static final double COUNT_NORMALIZATION_FACTOR = 500;
 
+    // Index of the metrics in the records of the event store.
+    private static final int SHOWN_TIME = EventStore.getMetricIndex(
+            EventStore.EVENT_SHOWN, EventStore.METRIC_LAST_EVENT_TIME);
+    private static final int DISMISSED_TIME = EventStore.getMetricIndex(
+            EventStore.EVENT_DISMISSED, EventStore.METRIC_LAST_EVENT_TIME);
+    private static final int CLICKED_TIME = EventStore.getMetricIndex(
+            EventStore.EVENT_CLICKED, EventStore.METRIC_LAST_EVENT_TIME);
+    private static final int SHOWN_COUNT = EventStore.getMetricIndex(
+            EventStore.EVENT_SHOWN, EventStore.METRIC_COUNT);
+    private static final int DISMISSED_COUNT = EventStore.getMetricIndex(
+            EventStore.EVENT_DISMISSED, EventStore.METRIC_COUNT);
+    private static final int CLICKED_COUNT = EventStore.getMetricIndex(
+            EventStore.EVENT_CLICKED, EventStore.METRIC_COUNT);
+
     private final EventStore mEventStore;
 
     /**
@@ -63,31 +94,45 @@ public class SuggestionFeaturizer {
      */
     public Map<String, Map<String, Double>> featurize(List<String> pkgNames) {
         Map<String, Map<String, Double>> features = new HashMap<>();
-        Long curTimeMs = System.currentTimeMillis();
-        for (String pkgName : pkgNames) {
+        final double[] values = featurizeAsArray(pkgNames);
+        for (int i = 0, size = pkgNames.size(); i < size; i++) {
             Map<String, Double> featureMap = new HashMap<>();
-            features.put(pkgName, featureMap);
-            Long lastShownTime = mEventStore
-                    .readMetric(pkgName, EventStore.EVENT_SHOWN, EventStore.METRIC_LAST_EVENT_TIME);
-            Long lastDismissedTime = mEventStore.readMetric(pkgName, EventStore.EVENT_DISMISSED,
-                    EventStore.METRIC_LAST_EVENT_TIME);
-            Long lastClickedTime = mEventStore.readMetric(pkgName, EventStore.EVENT_CLICKED,
-                    EventStore.METRIC_LAST_EVENT_TIME);
-            featureMap.put(FEATURE_IS_SHOWN, booleanToDouble(lastShownTime > 0));
-            featureMap.put(FEATURE_IS_DISMISSED, booleanToDouble(lastDismissedTime > 0));
-            featureMap.put(FEATURE_IS_CLICKED, booleanToDouble(lastClickedTime > 0));
-            featureMap.put(FEATURE_TIME_FROM_LAST_SHOWN,
-                    normalizedTimeDiff(curTimeMs, lastShownTime));
-            featureMap.put(FEATURE_TIME_FROM_LAST_DISMISSED,
-                    normalizedTimeDiff(curTimeMs, lastDismissedTime));
-            featureMap.put(FEATURE_TIME_FROM_LAST_CLICKED,
-                    normalizedTimeDiff(curTimeMs, lastClickedTime));
-            featureMap.put(FEATURE_SHOWN_COUNT, normalizedCount(mEventStore
-                    .readMetric(pkgName, EventStore.EVENT_SHOWN, EventStore.METRIC_COUNT)));
-            featureMap.put(FEATURE_DISMISSED_COUNT, normalizedCount(mEventStore
-                    .readMetric(pkgName, EventStore.EVENT_DISMISSED, EventStore.METRIC_COUNT)));
-            featureMap.put(FEATURE_CLICKED_COUNT, normalizedCount(mEventStore
-                    .readMetric(pkgName, EventStore.EVENT_CLICKED, EventStore.METRIC_COUNT)));
+            features.put(pkgNames.get(i), featureMap);
+            for (int j = 0; j < FEATURE_COUNT; j++) {
+                featureMap.put(FEATURES[j], values[i * FEATURE_COUNT + j]);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Extracts the features of all the packages at once, without boxing them.
+     *
+     * @param pkgNames: List of package names for which features are queried.
+     * @return the features of the packages, {@link #FEATURE_COUNT} per package in the order of
+     * {@code pkgNames}, laid out as {@link #FEATURES}.
+     */
+    public double[] featurizeAsArray(List<String> pkgNames) {
+        final int size = pkgNames.size();
+        final double[] features = new double[size * FEATURE_COUNT];
+        final long curTimeMs = System.currentTimeMillis();
+        // Read the metrics of all the packages at once.
+        final long[] metrics = mEventStore.readMetrics(pkgNames);
+        for (int i = 0; i < size; i++) {
+            final int in = i * EventStore.RECORD_SIZE;
+            final int out = i * FEATURE_COUNT;
+            final long lastShownTime = metrics[in + SHOWN_TIME];
+            final long lastDismissedTime = metrics[in + DISMISSED_TIME];
+            final long lastClickedTime = metrics[in + CLICKED_TIME];
+            features[out] = booleanToDouble(lastShownTime > 0);
+            features[out + 1] = booleanToDouble(lastDismissedTime > 0);
+            features[out + 2] = booleanToDouble(lastClickedTime > 0);
+            features[out + 3] = normalizedTimeDiff(curTimeMs, lastShownTime);
+            features[out + 4] = normalizedTimeDiff(curTimeMs, lastDismissedTime);
+            features[out + 5] = normalizedTimeDiff(curTimeMs, lastClickedTime);
+            features[out + 6] = normalizedCount(metrics[in + SHOWN_COUNT]);
+            features[out + 7] = normalizedCount(metrics[in + DISMISSED_COUNT]);
+            features[out + 8] = normalizedCount(metrics[in + CLICKED_COUNT]);
         }
         return features;
     }
@@ -19,8 +19,7 @@ import com.android.settingslib.drawer.Tile;
 
 import android.support.annotation.VisibleForTesting;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,40 +43,117 @@ public class SuggestionRanker {
     }};
 
     private final SuggestionFeaturizer mSuggestionFeaturizer;
-
-    private final Map<Tile, Double> relevanceMetrics;
-
-    Comparator<Tile> suggestionComparator = new Comparator<Tile>() {
-        @Override
-        public int compare(Tile suggestion1, Tile suggestion2) {
-            return relevanceMetrics.get(suggestion1) < relevanceMetrics.get(suggestion2) ? 1 : -1;
-        }
-    };
+    private final SuggestionRankingModel mModel;
 
     public SuggestionRanker(SuggestionFeaturizer suggestionFeaturizer) {
+        this(suggestionFeaturizer, new SuggestionRankingModel.LinearModel(WEIGHTS));
+    }
+
+    public SuggestionRanker(SuggestionFeaturizer suggestionFeaturizer,
+            SuggestionRankingModel model) {
         mSuggestionFeaturizer = suggestionFeaturizer;
-        relevanceMetrics = new HashMap<Tile, Double>();
+        mModel = model;
     }
 
     public void rankSuggestions(final List<Tile> suggestions, List<String> suggestionIds) {
-        relevanceMetrics.clear();
-        Map<String, Map<String, Double>> features = mSuggestionFeaturizer.featurize(suggestionIds);
-        for (int i = 0; i < suggestionIds.size(); i++) {
-            relevanceMetrics.put(suggestions.get(i),
-                    getRelevanceMetric(features.get(suggestionIds.get(i))));
+        rankSuggestions(suggestions, suggestionIds, suggestionIds.size());
+    }
+
+    /**
+     * Moves the {@param limit} most relevant suggestions to the start of {@param suggestions},
+     * most relevant first. The other suggestions follow in their original order.
+     */
+    public void rankSuggestions(final List<Tile> suggestions, List<String> suggestionIds,
+            int limit) {
+        final int size = suggestionIds.size();
+        final double[] features = mSuggestionFeaturizer.featurizeAsArray(suggestionIds);
+        final double[] scores = new double[size];
+        for (int i = 0; i < size; i++) {
+            scores[i] = mModel.score(features, i * SuggestionFeaturizer.FEATURE_COUNT);
+        }
+
+        final int[] top = getTopIndices(scores, Math.min(limit, size));
+        final List<Tile> ranked = new ArrayList<>(suggestions.size());
+        final boolean[] isTop = new boolean[suggestions.size()];
+        for (int index : top) {
+            ranked.add(suggestions.get(index));
+            isTop[index] = true;
+        }
+        for (int i = 0; i < isTop.length; i++) {
+            if (!isTop[i]) {
+                ranked.add(suggestions.get(i));
+            }
+        }
+        for (int i = 0; i < isTop.length; i++) {
+            suggestions.set(i, ranked.get(i));
         }
-        Collections.sort(suggestions, suggestionComparator);
     }
 
+    /**
+     * @return the indices of the {@param count} highest {@param scores}, highest first. Ties are
+     * broken by index.
+     */
     @VisibleForTesting
-    double getRelevanceMetric(Map<String, Double> features) {
-        double sum = 0;
-        if (features == null) {
-            return sum;
+    static int[] getTopIndices(double[] scores, int count) {
+        // A heap of the best indices so far, with the worst one at the root.
+        final int[] heap = new int[Math.max(0, count)];
+        int heapSize = 0;
+        for (int i = 0; i < scores.length && count > 0; i++) {
+            if (heapSize < count) {
+                heap[heapSize] = i;
+                siftUp(scores, heap, heapSize++);
+            } else if (isBetter(scores, i, heap[0])) {
+                heap[0] = i;
+                siftDown(scores, heap, 0, heapSize);
+            }
         }
-        for (String feature : WEIGHTS.keySet()) {
-            sum += WEIGHTS.get(feature) * features.get(feature);
+        final int[] top = new int[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            top[i] = heap[0];
+            heap[0] = heap[i];
+            siftDown(scores, heap, 0, i);
         }
-        return sum;
+        return top;
+    }
+
+    private static boolean isBetter(double[] scores, int index1, int index2) {
+        return scores[index1] > scores[index2]
+                || (scores[index1] == scores[index2] && index1 < index2);
+    }
+
+    private static void siftUp(double[] scores, int[] heap, int position) {
+        while (position > 0) {
+            final int parent = (position - 1) / 2;
+            if (!isBetter(scores, heap[parent], heap[position])) {
+                return;
+            }
+            swap(heap, parent, position);
+            position = parent;
+        }
+    }
+
+    private static void siftDown(double[] scores, int[] heap, int position, int heapSize) {
+        while (true) {
+            int worst = position;
+            final int left = 2 * position + 1;
+            final int right = left + 1;
+            if (left < heapSize && isBetter(scores, heap[worst], heap[left])) {
+                worst = left;
+            }
+            if (right < heapSize && isBetter(scores, heap[worst], heap[right])) {
+                worst = right;
+            }
+            if (worst == position) {
+                return;
+            }
+            swap(heap, position, worst);
+            position = worst;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        final int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
     }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.settings.dashboard.suggestions;
+
+import java.util.Map;
+
+/**
+ * A model scoring the relevance of suggestions from their features, used by
+ * {@link SuggestionRanker}. The higher the score, the higher the suggestion is ranked.
+ */
+public interface SuggestionRankingModel {
+
+    /**
+     * @return the relevance of the suggestion whose features start at {@param offset} in
+     * {@param features}, laid out as {@link SuggestionFeaturizer#FEATURES}.
+     */
+    double score(double[] features, int offset);
+
+    /**
+     * A model which linearly mixes the features.
+     */
+    class LinearModel implements SuggestionRankingModel {
+        private final double[] mWeights = new double[SuggestionFeaturizer.FEATURE_COUNT];
+
+        /**
+         * @param weights: Weight of each feature, keyed by feature. Missing features are ignored.
+         */
+        public LinearModel(Map<String, Double> weights) {
+            for (int i = 0; i < SuggestionFeaturizer.FEATURE_COUNT; i++) {
+                final Double weight = weights.get(SuggestionFeaturizer.FEATURES[i]);
+                mWeights[i] = weight != null ? weight : 0;
+            }
+        }
+
+        @Override
+        public double score(double[] features, int offset) {
+            double sum = 0;
+            for (int i = 0; i < mWeights.length; i++) {
+                sum += mWeights[i] * features[offset + i];
+            }
+            return sum;
+        }
+    }
+}
@@ -19,10 +19,19 @@ package com.android.settings.dashboard.suggestions;
 import android.app.KeyguardManager;
 import android.app.WallpaperManager;
 import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.hardware.fingerprint.FingerprintManager;
+import android.os.SystemClock;
 import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.telephony.CarrierConfigManager;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.Log;
 
 import com.android.ims.ImsManager;
 import com.android.settings.Settings.FingerprintEnrollSuggestionActivity;
@@ -34,12 +43,52 @@ import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.wallpaper.WallpaperSuggestionActivity;
 import com.android.settingslib.drawer.Tile;
 
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /**
  * The Home of all stupidly dynamic Settings Suggestions checks.
+ *
+ * The checks query several system services, so {@link #areSuggestionsComplete(List, long)} runs
+ * them concurrently and caches their results for {@link #CACHE_TTL_MILLIS}, or until a broadcast
+ * about the state they check is received or {@link #invalidateCache()} is called. Not all of that
+ * state is broadcast, e.g. enrolled fingerprints, so the results expire anyway.
  */
 public class SuggestionsChecks {
 
     private static final String TAG = "SuggestionsChecks";
+
+    private static final int MAX_CONCURRENT_CHECKS = 4;
+    /** How long the result of a check is reused. */
+    @VisibleForTesting
+    static final long CACHE_TTL_MILLIS = 30 * DateUtils.SECOND_IN_MILLIS;
+    private static final ThreadPoolExecutor CHECK_EXECUTOR = new ThreadPoolExecutor(
+            MAX_CONCURRENT_CHECKS, MAX_CONCURRENT_CHECKS, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>());
+
+    static {
+        CHECK_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Object sLock = new Object();
+    /** Results of the checks, by suggestion. Guarded by sLock. */
+    private static final ArrayMap<ComponentName, CheckResult> sCompleteCache = new ArrayMap<>();
+    /** Checks being run, by suggestion. Guarded by sLock. */
+    private static final ArrayMap<ComponentName, Future<Boolean>> sPendingChecks =
+            new ArrayMap<>();
+    /** Incremented when the cache is invalidated, to drop the results of older checks. */
+    private static int sCacheGeneration;
+    /**
+     * Registered on the application context for the life of the process, as the cache it
+     * invalidates is. Guarded by sLock.
+     */
+    private static boolean sReceiverRegistered;
+
     private final Context mContext;
 
     private final WallpaperManagerWrapper mWallpaperManager;
@@ -49,6 +98,114 @@ public class SuggestionsChecks {
         mWallpaperManager = new WallpaperManagerWrapper(mContext);
     }
 
+    /**
+     * Drops the cached results of all the checks, e.g. after the user went through a suggestion.
+     */
+    public static void invalidateCache() {
+        synchronized (sLock) {
+            sCacheGeneration++;
+            sCompleteCache.clear();
+            sPendingChecks.clear();
+        }
+    }
+
+    /**
+     * Checks whether each of {@param suggestions} is complete, running the checks which are not
+     * cached concurrently.
+     *
+     * @param timeoutMillis: How long to wait for the checks. The checks which take longer keep
+     * running in the background, and their results are cached for later calls. Callers must not
+     * take a suggestion whose check did not finish for complete.
+     * @return for each suggestion, whether it is complete, or null if its check did not finish
+     * within the timeout.
+     */
+    @WorkerThread
+    public Boolean[] areSuggestionsComplete(List<Tile> suggestions, long timeoutMillis) {
+        registerReceiverIfNeeded();
+        final int size = suggestions.size();
+        final Boolean[] complete = new Boolean[size];
+        final Future<Boolean>[] checks = new Future[size];
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (sLock) {
+            for (int i = 0; i < size; i++) {
+                final Tile suggestion = suggestions.get(i);
+                final ComponentName component = suggestion.intent.getComponent();
+                final CheckResult result = sCompleteCache.get(component);
+                if (result != null && now - result.time < CACHE_TTL_MILLIS) {
+                    complete[i] = result.complete;
+                } else {
+                    checks[i] = startCheckLocked(component, suggestion);
+                }
+            }
+        }
+        final long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+        for (int i = 0; i < size; i++) {
+            if (checks[i] != null) {
+                complete[i] = getResult(checks[i], deadline);
+            }
+        }
+        return complete;
+    }
+
+    private Future<Boolean> startCheckLocked(ComponentName component, Tile suggestion) {
+        Future<Boolean> check = sPendingChecks.get(component);
+        if (check == null) {
+            final int generation = sCacheGeneration;
+            check = CHECK_EXECUTOR.submit(() -> {
+                final boolean complete = isSuggestionComplete(suggestion);
+                synchronized (sLock) {
+                    if (generation == sCacheGeneration) {
+                        sPendingChecks.remove(component);
+                        sCompleteCache.put(component,
+                                new CheckResult(complete, SystemClock.elapsedRealtime()));
+                    }
+                }
+                return complete;
+            });
+            sPendingChecks.put(component, check);
+        }
+        return check;
+    }
+
+    private static Boolean getResult(Future<Boolean> check, long deadline) {
+        try {
+            return check.get(Math.max(0, deadline - SystemClock.uptimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Suggestion check failed", e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Invalidates the cache on the broadcasts about the state checked, on the application
+     * context so that no activity is kept.
+     */
+    private void registerReceiverIfNeeded() {
+        synchronized (sLock) {
+            if (sReceiverRegistered) {
+                return;
+            }
+            sReceiverRegistered = true;
+        }
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_WALLPAPER_CHANGED);
+        filter.addAction(DevicePolicyManager.ACTION_DEVICE_POLICY_MANAGER_STATE_CHANGED);
+        filter.addAction(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED);
+        filter.addAction(Intent.ACTION_USER_PRESENT);
+        mContext.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidateCache();
+            }
+        }, filter);
+    }
+
     public boolean isSuggestionComplete(Tile suggestion) {
         ComponentName component = suggestion.intent.getComponent();
         String className = component.getClassName();
@@ -107,4 +264,15 @@ public class SuggestionsChecks {
                 mContext.getUserId());
         return (dpmFlags & DevicePolicyManager.KEYGUARD_DISABLE_FINGERPRINT) == 0;
     }
+
+    private static final class CheckResult {
+        final boolean complete;
+        /** When the check finished, in {@link SystemClock#elapsedRealtime()}. */
+        final long time;
+
+        CheckResult(boolean complete, long time) {
+            this.complete = complete;
+            this.time = time;
+        }
+    }
 }
@@ -14,7 +14,6 @@
 
 package com.android.settings.fuelgauge;
 
-import android.os.BatteryStats.HistoryItem;
 import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 import com.android.settings.fuelgauge.BatteryActiveView.BatteryActiveProvider;
@@ -36,8 +35,8 @@ public class BatteryFlagParser implements BatteryInfo.BatteryDataParser, Battery
         mState2 = state2;
     }
 
-    protected boolean isSet(HistoryItem record) {
-        return ((mState2 ? record.states2 : record.states) & mFlag) != 0;
+    protected boolean isSet(int states, int states2) {
+        return ((mState2 ? states2 : states) & mFlag) != 0;
     }
 
     @Override
@@ -46,8 +45,8 @@ public class BatteryFlagParser implements BatteryInfo.BatteryDataParser, Battery
     }
 
     @Override
-    public void onDataPoint(long time, HistoryItem record) {
-        boolean isSet = isSet(record);
+    public void onDataPoint(long time, BatteryHistory history, int index) {
+        boolean isSet = isSet(history.getStates(index), history.getStates2(index));
         if (isSet != mLastSet) {
             mData.put((int) time, isSet);
             mLastSet = isSet;
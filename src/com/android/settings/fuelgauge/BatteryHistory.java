@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The battery history of a {@link BatteryStats} snapshot, decoded once into primitive columns.
+ *
+ * Each entry is either a data point, with its wall clock time, battery level and states, or a
+ * gap where the charts should break their lines. Entries after the last data point are dropped.
+ * The history of a snapshot is iterated only the first time {@link #get(BatteryStats)} is called
+ * for it, every chart and parser of the battery screens then reads the columns.
+ */
+public final class BatteryHistory {
+
+    /** Time changes larger than this one break the charts. */
+    private static final long GAP_TIME_CHANGE_MS = 60 * 60 * 1000L;
+    /** Time changes larger than this one discard the start of the history. */
+    private static final long MAX_TIME_CHANGE_MS = 180 * 24 * 60 * 60 * 1000L;
+    /** Time changes this close to the start of the history redefine it. */
+    private static final long START_TIME_NOISE_MS = 5 * 60 * 1000L;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final Map<BatteryStats, BatteryHistory> sCache = new WeakHashMap<>();
+
+    private final long mHistoryStart;
+    private final long mHistoryEnd;
+    private final long mStartWalltime;
+    private final long mEndWalltime;
+    private final int mAggregatedStates;
+    private final int mAggregatedStates2;
+
+    private final int mSize;
+    private final long[] mTimes;
+    private final byte[] mLevels;
+    private final int[] mStates;
+    private final int[] mStates2;
+    private final boolean[] mGaps;
+
+    private BatteryHistory(Decoder decoder) {
+        mHistoryStart = decoder.historyStart;
+        mHistoryEnd = decoder.historyEnd;
+        mStartWalltime = decoder.startWalltime;
+        mEndWalltime = decoder.endWalltime;
+        mAggregatedStates = decoder.aggregatedStates;
+        mAggregatedStates2 = decoder.aggregatedStates2;
+        mSize = decoder.size;
+        mTimes = decoder.times;
+        mLevels = decoder.levels;
+        mStates = decoder.states;
+        mStates2 = decoder.states2;
+        mGaps = decoder.gaps;
+    }
+
+    /**
+     * @return the decoded history of {@param stats}, decoding it if it is not cached yet.
+     */
+    public static BatteryHistory get(BatteryStats stats) {
+        synchronized (sCache) {
+            BatteryHistory history = sCache.get(stats);
+            if (history == null) {
+                history = new BatteryHistory(new Decoder().decode(stats));
+                sCache.put(stats, history);
+            }
+            return history;
+        }
+    }
+
+    @VisibleForTesting
+    static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    /** @return the elapsed realtime of the first history record. */
+    public long getHistoryStart() {
+        return mHistoryStart;
+    }
+
+    /** @return the elapsed realtime of the last data point. */
+    public long getHistoryEnd() {
+        return mHistoryEnd;
+    }
+
+    /** @return the wall clock time the history starts at. */
+    public long getStartWalltime() {
+        return mStartWalltime;
+    }
+
+    /** @return the wall clock time of the last data point. */
+    public long getEndWalltime() {
+        return mEndWalltime;
+    }
+
+    /** @return the union of {@link HistoryItem#states} of all data points. */
+    public int getAggregatedStates() {
+        return mAggregatedStates;
+    }
+
+    /** @return the union of {@link HistoryItem#states2} of all data points. */
+    public int getAggregatedStates2() {
+        return mAggregatedStates2;
+    }
+
+    /** @return whether there is anything to chart between the start and end times. */
+    public boolean hasData() {
+        return mEndWalltime > mStartWalltime;
+    }
+
+    /** @return the number of entries, data points and gaps. */
+    public int size() {
+        return mSize;
+    }
+
+    /** @return whether the entry at {@param index} is a gap rather than a data point. */
+    public boolean isGap(int index) {
+        return mGaps[index];
+    }
+
+    /** @return the wall clock time of the data point at {@param index}. */
+    public long getTime(int index) {
+        return mTimes[index];
+    }
+
+    /** @return the battery level of the data point at {@param index}. */
+    public byte getLevel(int index) {
+        return mLevels[index];
+    }
+
+    /** @return the {@link HistoryItem#states} of the data point at {@param index}. */
+    public int getStates(int index) {
+        return mStates[index];
+    }
+
+    /** @return the {@link HistoryItem#states2} of the data point at {@param index}. */
+    public int getStates2(int index) {
+        return mStates2[index];
+    }
+
+    /**
+     * Iterates the history records once, keeping the records in columns until the wall clock
+     * times can be computed, as the start time is only known once all of them are read.
+     */
+    private static final class Decoder {
+        long historyStart;
+        long historyEnd;
+        long startWalltime;
+        long endWalltime;
+        int aggregatedStates;
+        int aggregatedStates2;
+
+        int size;
+        long[] times = new long[INITIAL_CAPACITY];
+        byte[] levels = new byte[INITIAL_CAPACITY];
+        int[] states = new int[INITIAL_CAPACITY];
+        int[] states2 = new int[INITIAL_CAPACITY];
+        boolean[] gaps = new boolean[INITIAL_CAPACITY];
+        byte[] commands = new byte[INITIAL_CAPACITY];
+        /** Wall clock times of the time change records, in order. */
+        long[] currentTimes = new long[16];
+        int currentTimeCount;
+
+        Decoder decode(BatteryStats stats) {
+            long lastWalltime = 0;
+            long lastRealtime = 0;
+            int lastDataPoint = 0;
+            if (stats.startIteratingHistoryLocked()) {
+                final HistoryItem rec = new HistoryItem();
+                while (stats.getNextHistoryLocked(rec)) {
+                    if (size == 0) {
+                        historyStart = rec.time;
+                    }
+                    append(rec);
+                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
+                            || rec.cmd == HistoryItem.CMD_RESET) {
+                        // If there is a ridiculously large jump in time, then we won't be
+                        // able to create a good chart with that data, so just ignore the
+                        // times we got before and pretend like our data extends back from
+                        // the time we have now.
+                        // Also, if we are getting a time change and we are less than 5 minutes
+                        // since the start of the history real time, then also use this new
+                        // time to compute the base time, since whatever time we had before is
+                        // pretty much just noise.
+                        if (rec.currentTime > lastWalltime + MAX_TIME_CHANGE_MS
+                                || rec.time < historyStart + START_TIME_NOISE_MS) {
+                            startWalltime = 0;
+                        }
+                        lastWalltime = rec.currentTime;
+                        lastRealtime = rec.time;
+                        if (startWalltime == 0) {
+                            startWalltime = lastWalltime - (lastRealtime - historyStart);
+                        }
+                    }
+                    if (rec.isDeltaData()) {
+                        lastDataPoint = size;
+                        historyEnd = rec.time;
+                        aggregatedStates |= rec.states;
+                        aggregatedStates2 |= rec.states2;
+                    }
+                }
+            }
+            stats.finishIteratingHistoryLocked();
+            endWalltime = lastWalltime + historyEnd - lastRealtime;
+            size = lastDataPoint;
+            computeWalltimes();
+            return this;
+        }
+
+        private void append(HistoryItem rec) {
+            if (size == times.length) {
+                final int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                levels = Arrays.copyOf(levels, capacity);
+                states = Arrays.copyOf(states, capacity);
+                states2 = Arrays.copyOf(states2, capacity);
+                gaps = Arrays.copyOf(gaps, capacity);
+                commands = Arrays.copyOf(commands, capacity);
+            }
+            times[size] = rec.time;
+            levels[size] = rec.batteryLevel;
+            states[size] = rec.states;
+            states2[size] = rec.states2;
+            commands[size] = rec.cmd;
+            size++;
+            if (rec.cmd == HistoryItem.CMD_CURRENT_TIME || rec.cmd == HistoryItem.CMD_RESET) {
+                if (currentTimeCount == currentTimes.length) {
+                    currentTimes = Arrays.copyOf(currentTimes, currentTimeCount * 2);
+                }
+                currentTimes[currentTimeCount++] = rec.currentTime;
+            }
+        }
+
+        /**
+         * Replaces the elapsed realtimes by wall clock times, and compacts the columns in place
+         * to the data points and the time changes that break the charts.
+         */
+        private void computeWalltimes() {
+            long curWalltime = startWalltime;
+            long lastRealtime = 0;
+            int currentTimeIndex = 0;
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                final byte cmd = commands[i];
+                final long time = times[i];
+                if (cmd == HistoryItem.CMD_UPDATE) {
+                    curWalltime += time - lastRealtime;
+                    lastRealtime = time;
+                    times[count] = curWalltime;
+                    levels[count] = levels[i];
+                    states[count] = states[i];
+                    states2[count] = states2[i];
+                    gaps[count] = false;
+                    count++;
+                    continue;
+                }
+                final long lastWalltime = curWalltime;
+                if (cmd == HistoryItem.CMD_CURRENT_TIME || cmd == HistoryItem.CMD_RESET) {
+                    final long currentTime = currentTimes[currentTimeIndex++];
+                    if (currentTime >= startWalltime) {
+                        curWalltime = currentTime;
+                    } else {
+                        curWalltime = startWalltime + (time - historyStart);
+                    }
+                    lastRealtime = time;
+                }
+                if (cmd != HistoryItem.CMD_OVERFLOW && (cmd != HistoryItem.CMD_CURRENT_TIME
+                        || Math.abs(lastWalltime - curWalltime) > GAP_TIME_CHANGE_MS)) {
+                    gaps[count] = true;
+                    count++;
+                }
+            }
+            size = count;
+            times = Arrays.copyOf(times, count);
+            levels = Arrays.copyOf(levels, count);
+            states = Arrays.copyOf(states, count);
+            states2 = Arrays.copyOf(states2, count);
+            gaps = Arrays.copyOf(gaps, count);
+        }
+    }
+}
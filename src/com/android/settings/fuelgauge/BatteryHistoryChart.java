@@ -26,8 +26,11 @@ import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.BatteryStats;
 import android.os.BatteryStats.HistoryItem;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.telephony.ServiceState;
 import android.text.TextPaint;
@@ -35,7 +38,6 @@ import android.text.format.DateFormat;
 import android.text.format.Formatter;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.TimeUtils;
 import android.util.TypedValue;
 import android.view.View;
 import com.android.settings.R;
@@ -45,6 +47,7 @@ import libcore.icu.LocaleData;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 public class BatteryHistoryChart extends View {
     static final boolean DEBUG = false;
@@ -113,6 +116,356 @@ public class BatteryHistoryChart extends View {
         }
     }
 
+    /**
+     * The paths of the chart at one size, built from the decoded history off the UI thread.
+     *
+     * The samples are reduced to one per pixel column: the level line goes through the lowest
+     * and highest level of each column, and a state bar is on in a column when any sample of
+     * the column has the state. The paths stay small however long the history is.
+     */
+    static class ChartGeometry {
+        static final int BAR_CHARGING = 0;
+        static final int BAR_SCREEN_ON = 1;
+        static final int BAR_GPS_ON = 2;
+        static final int BAR_FLASHLIGHT_ON = 3;
+        static final int BAR_CAMERA_ON = 4;
+        static final int BAR_WIFI_RUNNING = 5;
+        static final int BAR_CPU_RUNNING = 6;
+        static final int NUM_BARS = 7;
+
+        final Path mLevelPath = new Path();
+        final Path mWarnPath = new Path();
+        final Path mCriticalPath = new Path();
+        final Path mTimeRemainPath = new Path();
+        final Path[] mBarPaths = new Path[NUM_BARS];
+        final ChartData mPhoneSignalChart = new ChartData();
+
+        private final BatteryHistory mHistory;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mLevelHeight;
+        private final int mLevelTop;
+        private final int mLevelLeft;
+        private final int mLevelRight;
+        private final long mWalltimeStart;
+        private final long mWalltimeChange;
+        private final long mEndDataWalltime;
+        private final int mBatLow;
+        private final int mBatChange;
+        private final int mBatteryWarnLevel;
+        private final int mBatteryCriticalLevel;
+        private final int mBatteryLevel;
+        private final boolean mDischarging;
+        private final boolean mLargeMode;
+        private final boolean mHavePhoneSignal;
+        private final int[] mBarOffsets = new int[NUM_BARS];
+
+        // State of the paths being built.
+        private int mX;
+        private int mStartX;
+        private int mLastX = -1;
+        private int mLastY = -1;
+        private Path mCurLevelPath;
+        private Path mLastLinePath;
+        private int mLastBars;
+
+        // Samples of the current pixel column.
+        private int mColumnSamples;
+        private int mColumnMinY;
+        private int mColumnMinLevel;
+        private int mColumnMinOrder;
+        private int mColumnMaxY;
+        private int mColumnMaxLevel;
+        private int mColumnMaxOrder;
+        private int mColumnLastY;
+        private int mColumnLastLevel;
+        private int mColumnBars;
+        private int mColumnSignal;
+
+        ChartGeometry(BatteryHistoryChart chart, int w, int h, int levelh) {
+            mHistory = chart.mHistory;
+            mWidth = w;
+            mHeight = h;
+            mLevelHeight = levelh;
+            mLevelTop = chart.mLevelTop;
+            mLevelLeft = chart.mLevelLeft;
+            mLevelRight = chart.mLevelRight;
+            mWalltimeStart = chart.mStartWallTime;
+            mWalltimeChange = chart.mEndWallTime > mWalltimeStart
+                    ? (chart.mEndWallTime-mWalltimeStart) : 1;
+            mEndDataWalltime = chart.mEndDataWallTime;
+            mBatLow = chart.mBatLow;
+            mBatChange = chart.mBatHigh-chart.mBatLow;
+            mBatteryWarnLevel = chart.mBatteryWarnLevel;
+            mBatteryCriticalLevel = chart.mBatteryCriticalLevel;
+            mBatteryLevel = chart.mInfo.batteryLevel;
+            mDischarging = chart.mInfo.discharging;
+            mLargeMode = chart.mLargeMode;
+            mHavePhoneSignal = chart.mHavePhoneSignal;
+            mBarOffsets[BAR_CHARGING] = chart.mChargingOffset;
+            mBarOffsets[BAR_SCREEN_ON] = chart.mScreenOnOffset;
+            mBarOffsets[BAR_GPS_ON] = chart.mGpsOnOffset;
+            mBarOffsets[BAR_FLASHLIGHT_ON] = chart.mFlashlightOnOffset;
+            mBarOffsets[BAR_CAMERA_ON] = chart.mCameraOnOffset;
+            mBarOffsets[BAR_WIFI_RUNNING] = chart.mWifiRunningOffset;
+            mBarOffsets[BAR_CPU_RUNNING] = chart.mCpuRunningOffset;
+            for (int i = 0; i < NUM_BARS; i++) {
+                mBarPaths[i] = new Path();
+            }
+            mPhoneSignalChart.setColors(chart.mPhoneSignalChart.mColors);
+            mPhoneSignalChart.init(mLargeMode && mHavePhoneSignal ? w : 0);
+        }
+
+        void build() {
+            final BatteryHistory history = mHistory;
+            mX = mStartX = mLevelLeft;
+            if (history != null && history.hasData()) {
+                int column = -1;
+                for (int i = 0, N = history.size(); i < N; i++) {
+                    if (history.isGap(i)) {
+                        if (column >= 0) {
+                            finishColumn(column);
+                            column = -1;
+                        }
+                        if (mCurLevelPath != null) {
+                            finishPaths(mX+1);
+                            mLastX = mLastY = -1;
+                            mCurLevelPath = null;
+                            mLastLinePath = null;
+                            mLastBars = 0;
+                        }
+                        continue;
+                    }
+                    int x = mLevelLeft + (int)(((history.getTime(i)-mWalltimeStart)
+                            * (mLevelRight-mLevelLeft))/mWalltimeChange);
+                    if (x < 0) {
+                        x = 0;
+                    }
+                    if (x != column) {
+                        if (column >= 0) {
+                            finishColumn(column);
+                        }
+                        column = x;
+                        mColumnSamples = 0;
+                        mColumnBars = 0;
+                    }
+                    addSample(history.getLevel(i), history.getStates(i), history.getStates2(i));
+                }
+                if (column >= 0) {
+                    finishColumn(column);
+                }
+            }
+
+            final int x;
+            if (mLastY < 0 || mLastX < 0) {
+                // Didn't get any data...
+                mLastX = mLevelLeft;
+                mLastY = getY(mBatteryLevel);
+                final Path path = getLinePath(mBatteryLevel);
+                if (path != null) {
+                    path.moveTo(mLastX, mLastY);
+                    mLastLinePath = path;
+                }
+                mLevelPath.moveTo(mLastX, mLastY);
+                mCurLevelPath = mLevelPath;
+                x = mWidth;
+            } else {
+                // Figure out where the actual data ends on the screen.
+                x = Math.max(0, mLevelLeft + (int)(((mEndDataWalltime-mWalltimeStart)
+                        * (mLevelRight-mLevelLeft))/mWalltimeChange));
+            }
+
+            finishPaths(x);
+
+            if (x < mWidth) {
+                // If we reserved room for the remaining time, create a final path to draw
+                // that part of the UI.
+                mTimeRemainPath.moveTo(x, mLastY);
+                int fullY = getY(100);
+                int emptyY = getY(0);
+                if (mDischarging) {
+                    mTimeRemainPath.lineTo(mLevelRight, emptyY);
+                } else {
+                    mTimeRemainPath.lineTo(mLevelRight, fullY);
+                    mTimeRemainPath.lineTo(mLevelRight, emptyY);
+                }
+                mTimeRemainPath.lineTo(x, emptyY);
+                mTimeRemainPath.close();
+            }
+        }
+
+        private void addSample(int level, int states, int states2) {
+            final int y = getY(level);
+            if (mColumnSamples == 0 || y < mColumnMinY) {
+                mColumnMinY = y;
+                mColumnMinLevel = level;
+                mColumnMinOrder = mColumnSamples;
+            }
+            if (mColumnSamples == 0 || y > mColumnMaxY) {
+                mColumnMaxY = y;
+                mColumnMaxLevel = level;
+                mColumnMaxOrder = mColumnSamples;
+            }
+            mColumnLastY = y;
+            mColumnLastLevel = level;
+            mColumnSamples++;
+            if (mLargeMode) {
+                mColumnBars |= getBars(states, states2);
+                mColumnSignal = getPhoneSignalBin(states);
+            }
+        }
+
+        private void finishColumn(int x) {
+            if (mColumnMinOrder <= mColumnMaxOrder) {
+                addLevelPoint(x, mColumnMinY, mColumnMinLevel);
+                addLevelPoint(x, mColumnMaxY, mColumnMaxLevel);
+            } else {
+                addLevelPoint(x, mColumnMaxY, mColumnMaxLevel);
+                addLevelPoint(x, mColumnMinY, mColumnMinLevel);
+            }
+            addLevelPoint(x, mColumnLastY, mColumnLastLevel);
+
+            if (mLargeMode) {
+                final int changed = mColumnBars ^ mLastBars;
+                for (int i = 0; i < NUM_BARS; i++) {
+                    if ((changed & (1 << i)) == 0) {
+                        continue;
+                    }
+                    if ((mColumnBars & (1 << i)) != 0) {
+                        mBarPaths[i].moveTo(x, mHeight-mBarOffsets[i]);
+                    } else {
+                        mBarPaths[i].lineTo(x, mHeight-mBarOffsets[i]);
+                    }
+                }
+                mLastBars = mColumnBars;
+                if (mHavePhoneSignal) {
+                    mPhoneSignalChart.addTick(x, mColumnSignal);
+                }
+            }
+            mX = x;
+        }
+
+        private void addLevelPoint(int x, int y, int level) {
+            if (y == mLastY) {
+                // Don't plot changes within a pixel.
+                return;
+            }
+            final Path path = getLinePath(level);
+            if (path != mLastLinePath) {
+                if (mLastLinePath != null) {
+                    mLastLinePath.lineTo(x, y);
+                }
+                if (path != null) {
+                    path.moveTo(x, y);
+                }
+                mLastLinePath = path;
+            } else if (path != null) {
+                path.lineTo(x, y);
+            }
+
+            if (mCurLevelPath == null) {
+                mCurLevelPath = mLevelPath;
+                mCurLevelPath.moveTo(x, y);
+                mStartX = x;
+            } else {
+                mCurLevelPath.lineTo(x, y);
+            }
+            mLastX = x;
+            mLastY = y;
+        }
+
+        private void finishPaths(int w) {
+            if (mCurLevelPath != null) {
+                if (mLastX >= 0 && mLastX < w) {
+                    if (mLastLinePath != null) {
+                        mLastLinePath.lineTo(w, mLastY);
+                    }
+                    mCurLevelPath.lineTo(w, mLastY);
+                }
+                mCurLevelPath.lineTo(w, mLevelTop+mLevelHeight);
+                mCurLevelPath.lineTo(mStartX, mLevelTop+mLevelHeight);
+                mCurLevelPath.close();
+            }
+
+            for (int i = 0; i < NUM_BARS; i++) {
+                if ((mLastBars & (1 << i)) != 0) {
+                    mBarPaths[i].lineTo(w, mHeight-mBarOffsets[i]);
+                }
+            }
+            if (mHavePhoneSignal) {
+                mPhoneSignalChart.finish(w);
+            }
+        }
+
+        private int getY(int level) {
+            return mLevelTop + mLevelHeight - ((level-mBatLow)*(mLevelHeight-1))/mBatChange;
+        }
+
+        private Path getLinePath(int level) {
+            if (level <= mBatteryCriticalLevel) return mCriticalPath;
+            else if (level <= mBatteryWarnLevel) return mWarnPath;
+            else return null;
+        }
+
+        private static int getBars(int states, int states2) {
+            int bars = 0;
+            if ((states&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0) {
+                bars |= 1 << BAR_CHARGING;
+            }
+            if ((states&HistoryItem.STATE_SCREEN_ON_FLAG) != 0) {
+                bars |= 1 << BAR_SCREEN_ON;
+            }
+            if ((states&HistoryItem.STATE_GPS_ON_FLAG) != 0) {
+                bars |= 1 << BAR_GPS_ON;
+            }
+            if ((states2&HistoryItem.STATE2_FLASHLIGHT_FLAG) != 0) {
+                bars |= 1 << BAR_FLASHLIGHT_ON;
+            }
+            if ((states2&HistoryItem.STATE2_CAMERA_FLAG) != 0) {
+                bars |= 1 << BAR_CAMERA_ON;
+            }
+            if (isWifiRunning(states, states2)) {
+                bars |= 1 << BAR_WIFI_RUNNING;
+            }
+            if ((states&HistoryItem.STATE_CPU_RUNNING_FLAG) != 0) {
+                bars |= 1 << BAR_CPU_RUNNING;
+            }
+            return bars;
+        }
+
+        private static boolean isWifiRunning(int states, int states2) {
+            if ((states&(HistoryItem.STATE_WIFI_FULL_LOCK_FLAG
+                    |HistoryItem.STATE_WIFI_MULTICAST_ON_FLAG
+                    |HistoryItem.STATE_WIFI_SCAN_FLAG)) != 0) {
+                return true;
+            }
+            switch ((states2&HistoryItem.STATE2_WIFI_SUPPL_STATE_MASK)
+                    >> HistoryItem.STATE2_WIFI_SUPPL_STATE_SHIFT) {
+                case BatteryStats.WIFI_SUPPL_STATE_DISCONNECTED:
+                case BatteryStats.WIFI_SUPPL_STATE_DORMANT:
+                case BatteryStats.WIFI_SUPPL_STATE_INACTIVE:
+                case BatteryStats.WIFI_SUPPL_STATE_INTERFACE_DISABLED:
+                case BatteryStats.WIFI_SUPPL_STATE_INVALID:
+                case BatteryStats.WIFI_SUPPL_STATE_UNINITIALIZED:
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        private static int getPhoneSignalBin(int states) {
+            if (((states&HistoryItem.STATE_PHONE_STATE_MASK)
+                    >> HistoryItem.STATE_PHONE_STATE_SHIFT)
+                    == ServiceState.STATE_POWER_OFF) {
+                return 0;
+            } else if ((states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
+                return 1;
+            }
+            return ((states&HistoryItem.STATE_PHONE_SIGNAL_STRENGTH_MASK)
+                    >> HistoryItem.STATE_PHONE_SIGNAL_STRENGTH_SHIFT) + 2;
+        }
+    }
+
     static final int SANS = 1;
     static final int SERIF = 2;
     static final int MONOSPACE = 3;
@@ -134,23 +487,23 @@ public class BatteryHistoryChart extends View {
     final Paint mWifiRunningPaint = new Paint();
     final Paint mCpuRunningPaint = new Paint();
     final Paint mDateLinePaint = new Paint();
-    final ChartData mPhoneSignalChart = new ChartData();
+    ChartData mPhoneSignalChart = new ChartData();
     final TextPaint mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
     final TextPaint mHeaderTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
     final Paint mDebugRectPaint = new Paint();
 
-    final Path mBatLevelPath = new Path();
+    Path mBatLevelPath = new Path();
     final Path mBatGoodPath = new Path();
-    final Path mBatWarnPath = new Path();
-    final Path mBatCriticalPath = new Path();
-    final Path mTimeRemainPath = new Path();
-    final Path mChargingPath = new Path();
-    final Path mScreenOnPath = new Path();
-    final Path mGpsOnPath = new Path();
-    final Path mFlashlightOnPath = new Path();
-    final Path mCameraOnPath = new Path();
-    final Path mWifiRunningPath = new Path();
-    final Path mCpuRunningPath = new Path();
+    Path mBatWarnPath = new Path();
+    Path mBatCriticalPath = new Path();
+    Path mTimeRemainPath = new Path();
+    Path mChargingPath = new Path();
+    Path mScreenOnPath = new Path();
+    Path mGpsOnPath = new Path();
+    Path mFlashlightOnPath = new Path();
+    Path mCameraOnPath = new Path();
+    Path mWifiRunningPath = new Path();
+    Path mCpuRunningPath = new Path();
     final Path mDateLinePath = new Path();
 
     BatteryStats mStats;
@@ -210,7 +563,7 @@ public class BatteryHistoryChart extends View {
     int mLevelLeft;
     int mLevelRight;
 
-    int mNumHist;
+    BatteryHistory mHistory;
     long mHistStart;
     long mHistDataEnd;
     long mHistEnd;
@@ -231,6 +584,11 @@ public class BatteryHistoryChart extends View {
     Bitmap mBitmap;
     Canvas mCanvas;
 
+    Executor mGeometryExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+    /** Applies the built geometry on the UI thread, whether the chart is attached or not. */
+    final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    int mGeometryGeneration;
+
     static class TextAttrs {
         ColorStateList textColor = null;
         int textSize = 15;
@@ -512,64 +870,17 @@ public class BatteryHistoryChart extends View {
             mChargeDurationString = "";
             setContentDescription(mInfo.chargeLabel);
 
-            int pos = 0;
-            int lastInteresting = 0;
-            byte lastLevel = -1;
             mBatLow = 0;
             mBatHigh = 100;
-            mStartWallTime = 0;
-            mEndDataWallTime = 0;
-            mEndWallTime = 0;
-            mHistStart = 0;
-            mHistEnd = 0;
-            long lastWallTime = 0;
-            long lastRealtime = 0;
-            int aggrStates = 0;
-            int aggrStates2 = 0;
-            boolean first = true;
-            if (stats.startIteratingHistoryLocked()) {
-                final HistoryItem rec = new HistoryItem();
-                while (stats.getNextHistoryLocked(rec)) {
-                    pos++;
-                    if (first) {
-                        first = false;
-                        mHistStart = rec.time;
-                    }
-                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                            || rec.cmd == HistoryItem.CMD_RESET) {
-                        // If there is a ridiculously large jump in time, then we won't be
-                        // able to create a good chart with that data, so just ignore the
-                        // times we got before and pretend like our data extends back from
-                        // the time we have now.
-                        // Also, if we are getting a time change and we are less than 5 minutes
-                        // since the start of the history real time, then also use this new
-                        // time to compute the base time, since whatever time we had before is
-                        // pretty much just noise.
-                        if (rec.currentTime > (lastWallTime+(180*24*60*60*1000L))
-                                || rec.time < (mHistStart+(5*60*1000L))) {
-                            mStartWallTime = 0;
-                        }
-                        lastWallTime = rec.currentTime;
-                        lastRealtime = rec.time;
-                        if (mStartWallTime == 0) {
-                            mStartWallTime = lastWallTime - (lastRealtime-mHistStart);
-                        }
-                    }
-                    if (rec.isDeltaData()) {
-                        if (rec.batteryLevel != lastLevel || pos == 1) {
-                            lastLevel = rec.batteryLevel;
-                        }
-                        lastInteresting = pos;
-                        mHistDataEnd = rec.time;
-                        aggrStates |= rec.states;
-                        aggrStates2 |= rec.states2;
-                    }
-                }
-            }
+            mHistory = BatteryHistory.get(stats);
+            mHistStart = mHistory.getHistoryStart();
+            mHistDataEnd = mHistory.getHistoryEnd();
+            mStartWallTime = mHistory.getStartWalltime();
+            mEndDataWallTime = mHistory.getEndWalltime();
             mHistEnd = mHistDataEnd + (mInfo.remainingTimeUs/1000);
-            mEndDataWallTime = lastWallTime + mHistDataEnd - lastRealtime;
             mEndWallTime = mEndDataWallTime + (mInfo.remainingTimeUs/1000);
-            mNumHist = lastInteresting;
+            final int aggrStates = mHistory.getAggregatedStates();
+            final int aggrStates2 = mHistory.getAggregatedStates2();
             mHaveGps = (aggrStates&HistoryItem.STATE_GPS_ON_FLAG) != 0;
             mHaveFlashlight = (aggrStates2&HistoryItem.STATE2_FLASHLIGHT_FLAG) != 0;
             mHaveCamera = (aggrStates2&HistoryItem.STATE2_CAMERA_FLAG) != 0;
@@ -602,48 +913,6 @@ public class BatteryHistoryChart extends View {
                 getDefaultSize(mChartMinHeight+mHeaderHeight, heightMeasureSpec));
     }
 
-    void finishPaths(int w, int h, int levelh, int startX, int y, Path curLevelPath,
-            int lastX, boolean lastCharging, boolean lastScreenOn, boolean lastGpsOn,
-            boolean lastFlashlightOn, boolean lastCameraOn, boolean lastWifiRunning,
-            boolean lastCpuRunning, Path lastPath) {
-        if (curLevelPath != null) {
-            if (lastX >= 0 && lastX < w) {
-                if (lastPath != null) {
-                    lastPath.lineTo(w, y);
-                }
-                curLevelPath.lineTo(w, y);
-            }
-            curLevelPath.lineTo(w, mLevelTop+levelh);
-            curLevelPath.lineTo(startX, mLevelTop+levelh);
-            curLevelPath.close();
-        }
-        
-        if (lastCharging) {
-            mChargingPath.lineTo(w, h-mChargingOffset);
-        }
-        if (lastScreenOn) {
-            mScreenOnPath.lineTo(w, h-mScreenOnOffset);
-        }
-        if (lastGpsOn) {
-            mGpsOnPath.lineTo(w, h-mGpsOnOffset);
-        }
-        if (lastFlashlightOn) {
-            mFlashlightOnPath.lineTo(w, h-mFlashlightOnOffset);
-        }
-        if (lastCameraOn) {
-            mCameraOnPath.lineTo(w, h-mCameraOnOffset);
-        }
-        if (lastWifiRunning) {
-            mWifiRunningPath.lineTo(w, h-mWifiRunningOffset);
-        }
-        if (lastCpuRunning) {
-            mCpuRunningPath.lineTo(w, h - mCpuRunningOffset);
-        }
-        if (mHavePhoneSignal) {
-            mPhoneSignalChart.finish(w);
-        }
-    }
-
     private boolean is24Hour() {
         return DateFormat.is24HourFormat(getContext());
     }
@@ -694,7 +963,6 @@ public class BatteryHistoryChart extends View {
         mLevelTop = mHeaderHeight;
         mLevelLeft = mMaxPercentLabelStringWidth + mThinLineWidth*3;
         mLevelRight = w;
-        int levelWidth = mLevelRight-mLevelLeft;
 
         mTextPaint.setStrokeWidth(mThinLineWidth);
         mBatteryGoodPaint.setStrokeWidth(mThinLineWidth);
@@ -722,17 +990,11 @@ public class BatteryHistoryChart extends View {
             mPhoneSignalOffset = mCameraOnOffset + (mHaveCamera ? fullBarOffset : 0);
             mLevelOffset = mPhoneSignalOffset + (mHavePhoneSignal ? fullBarOffset : 0)
                     + mLineWidth*2 + mLineWidth/2;
-            if (mHavePhoneSignal) {
-                mPhoneSignalChart.init(w);
-            }
         } else {
             mScreenOnOffset = mGpsOnOffset = mCameraOnOffset = mFlashlightOnOffset =
                     mWifiRunningOffset = mCpuRunningOffset = mChargingOffset =
                     mPhoneSignalOffset = 0;
             mLevelOffset = fullBarOffset + mThinLineWidth*4;
-            if (mHavePhoneSignal) {
-                mPhoneSignalChart.init(0);
-            }
         }
 
         mBatLevelPath.reset();
@@ -747,283 +1009,25 @@ public class BatteryHistoryChart extends View {
         mWifiRunningPath.reset();
         mCpuRunningPath.reset();
         mChargingPath.reset();
+        mPhoneSignalChart.init(0);
 
         mTimeLabels.clear();
         mDateLabels.clear();
 
-        final long walltimeStart = mStartWallTime;
-        final long walltimeChange = mEndWallTime > walltimeStart
-                ? (mEndWallTime-walltimeStart) : 1;
-        long curWalltime = mStartWallTime;
-        long lastRealtime = 0;
-
-        final int batLow = mBatLow;
-        final int batChange = mBatHigh-mBatLow;
-
         final int levelh = h - mLevelOffset - mLevelTop;
         mLevelBottom = mLevelTop + levelh;
 
-        int x = mLevelLeft, y = 0, startX = mLevelLeft, lastX = -1, lastY = -1;
-        int i = 0;
-        Path curLevelPath = null;
-        Path lastLinePath = null;
-        boolean lastCharging = false, lastScreenOn = false, lastGpsOn = false;
-        boolean lastFlashlightOn = false, lastCameraOn = false;
-        boolean lastWifiRunning = false, lastWifiSupplRunning = false, lastCpuRunning = false;
-        int lastWifiSupplState = BatteryStats.WIFI_SUPPL_STATE_INVALID;
-        final int N = mNumHist;
-        if (mEndDataWallTime > mStartWallTime && mStats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (mStats.getNextHistoryLocked(rec) && i < N) {
-                if (rec.isDeltaData()) {
-                    curWalltime += rec.time-lastRealtime;
-                    lastRealtime = rec.time;
-                    x = mLevelLeft + (int)(((curWalltime-walltimeStart)*levelWidth)/walltimeChange);
-                    if (x < 0) {
-                        x = 0;
-                    }
-                    if (false) {
-                        StringBuilder sb = new StringBuilder(128);
-                        sb.append("walloff=");
-                        TimeUtils.formatDuration(curWalltime - walltimeStart, sb);
-                        sb.append(" wallchange=");
-                        TimeUtils.formatDuration(walltimeChange, sb);
-                        sb.append(" x=");
-                        sb.append(x);
-                        Log.d("foo", sb.toString());
-                    }
-                    y = mLevelTop + levelh - ((rec.batteryLevel-batLow)*(levelh-1))/batChange;
-
-                    if (lastX != x) {
-                        // We have moved by at least a pixel.
-                        if (lastY != y) {
-                            // Don't plot changes within a pixel.
-                            Path path;
-                            byte value = rec.batteryLevel;
-                            if (value <= mBatteryCriticalLevel) path = mBatCriticalPath;
-                            else if (value <= mBatteryWarnLevel) path = mBatWarnPath;
-                            else path = null; //mBatGoodPath;
-
-                            if (path != lastLinePath) {
-                                if (lastLinePath != null) {
-                                    lastLinePath.lineTo(x, y);
-                                }
-                                if (path != null) {
-                                    path.moveTo(x, y);
-                                }
-                                lastLinePath = path;
-                            } else if (path != null) {
-                                path.lineTo(x, y);
-                            }
-
-                            if (curLevelPath == null) {
-                                curLevelPath = mBatLevelPath;
-                                curLevelPath.moveTo(x, y);
-                                startX = x;
-                            } else {
-                                curLevelPath.lineTo(x, y);
-                            }
-                            lastX = x;
-                            lastY = y;
-                        }
-                    }
-
-                    if (mLargeMode) {
-                        final boolean charging =
-                            (rec.states&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0;
-                        if (charging != lastCharging) {
-                            if (charging) {
-                                mChargingPath.moveTo(x, h-mChargingOffset);
-                            } else {
-                                mChargingPath.lineTo(x, h-mChargingOffset);
-                            }
-                            lastCharging = charging;
-                        }
-
-                        final boolean screenOn =
-                            (rec.states&HistoryItem.STATE_SCREEN_ON_FLAG) != 0;
-                        if (screenOn != lastScreenOn) {
-                            if (screenOn) {
-                                mScreenOnPath.moveTo(x, h-mScreenOnOffset);
-                            } else {
-                                mScreenOnPath.lineTo(x, h-mScreenOnOffset);
-                            }
-                            lastScreenOn = screenOn;
-                        }
-
-                        final boolean gpsOn =
-                            (rec.states&HistoryItem.STATE_GPS_ON_FLAG) != 0;
-                        if (gpsOn != lastGpsOn) {
-                            if (gpsOn) {
-                                mGpsOnPath.moveTo(x, h-mGpsOnOffset);
-                            } else {
-                                mGpsOnPath.lineTo(x, h-mGpsOnOffset);
-                            }
-                            lastGpsOn = gpsOn;
-                        }
-
-                        final boolean flashlightOn =
-                            (rec.states2&HistoryItem.STATE2_FLASHLIGHT_FLAG) != 0;
-                        if (flashlightOn != lastFlashlightOn) {
-                            if (flashlightOn) {
-                                mFlashlightOnPath.moveTo(x, h-mFlashlightOnOffset);
-                            } else {
-                                mFlashlightOnPath.lineTo(x, h-mFlashlightOnOffset);
-                            }
-                            lastFlashlightOn = flashlightOn;
-                        }
-
-                        final boolean cameraOn =
-                            (rec.states2&HistoryItem.STATE2_CAMERA_FLAG) != 0;
-                        if (cameraOn != lastCameraOn) {
-                            if (cameraOn) {
-                                mCameraOnPath.moveTo(x, h-mCameraOnOffset);
-                            } else {
-                                mCameraOnPath.lineTo(x, h-mCameraOnOffset);
-                            }
-                            lastCameraOn = cameraOn;
-                        }
-
-                        final int wifiSupplState =
-                            ((rec.states2&HistoryItem.STATE2_WIFI_SUPPL_STATE_MASK)
-                                    >> HistoryItem.STATE2_WIFI_SUPPL_STATE_SHIFT);
-                        boolean wifiRunning;
-                        if (lastWifiSupplState != wifiSupplState) {
-                            lastWifiSupplState = wifiSupplState;
-                            switch (wifiSupplState) {
-                                case BatteryStats.WIFI_SUPPL_STATE_DISCONNECTED:
-                                case BatteryStats.WIFI_SUPPL_STATE_DORMANT:
-                                case BatteryStats.WIFI_SUPPL_STATE_INACTIVE:
-                                case BatteryStats.WIFI_SUPPL_STATE_INTERFACE_DISABLED:
-                                case BatteryStats.WIFI_SUPPL_STATE_INVALID:
-                                case BatteryStats.WIFI_SUPPL_STATE_UNINITIALIZED:
-                                    wifiRunning = lastWifiSupplRunning = false;
-                                    break;
-                                default:
-                                    wifiRunning = lastWifiSupplRunning = true;
-                                    break;
-                            }
-                        } else {
-                            wifiRunning = lastWifiSupplRunning;
-                        }
-                        if ((rec.states&(HistoryItem.STATE_WIFI_FULL_LOCK_FLAG
-                                |HistoryItem.STATE_WIFI_MULTICAST_ON_FLAG
-                                |HistoryItem.STATE_WIFI_SCAN_FLAG)) != 0) {
-                            wifiRunning = true;
-                        }
-                        if (wifiRunning != lastWifiRunning) {
-                            if (wifiRunning) {
-                                mWifiRunningPath.moveTo(x, h-mWifiRunningOffset);
-                            } else {
-                                mWifiRunningPath.lineTo(x, h-mWifiRunningOffset);
-                            }
-                            lastWifiRunning = wifiRunning;
-                        }
-
-                        final boolean cpuRunning =
-                            (rec.states&HistoryItem.STATE_CPU_RUNNING_FLAG) != 0;
-                        if (cpuRunning != lastCpuRunning) {
-                            if (cpuRunning) {
-                                mCpuRunningPath.moveTo(x, h - mCpuRunningOffset);
-                            } else {
-                                mCpuRunningPath.lineTo(x, h - mCpuRunningOffset);
-                            }
-                            lastCpuRunning = cpuRunning;
-                        }
-
-                        if (mLargeMode && mHavePhoneSignal) {
-                            int bin;
-                            if (((rec.states&HistoryItem.STATE_PHONE_STATE_MASK)
-                                    >> HistoryItem.STATE_PHONE_STATE_SHIFT)
-                                    == ServiceState.STATE_POWER_OFF) {
-                                bin = 0;
-                            } else if ((rec.states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
-                                bin = 1;
-                            } else {
-                                bin = (rec.states&HistoryItem.STATE_PHONE_SIGNAL_STRENGTH_MASK)
-                                        >> HistoryItem.STATE_PHONE_SIGNAL_STRENGTH_SHIFT;
-                                bin += 2;
-                            }
-                            mPhoneSignalChart.addTick(x, bin);
-                        }
-                    }
-
-                } else {
-                    long lastWalltime = curWalltime;
-                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                            || rec.cmd == HistoryItem.CMD_RESET) {
-                        if (rec.currentTime >= mStartWallTime) {
-                            curWalltime = rec.currentTime;
-                        } else {
-                            curWalltime = mStartWallTime + (rec.time-mHistStart);
-                        }
-                        lastRealtime = rec.time;
-                    }
-
-                    if (rec.cmd != HistoryItem.CMD_OVERFLOW
-                            && (rec.cmd != HistoryItem.CMD_CURRENT_TIME
-                                    || Math.abs(lastWalltime-curWalltime) > (60*60*1000))) {
-                        if (curLevelPath != null) {
-                            finishPaths(x+1, h, levelh, startX, lastY, curLevelPath, lastX,
-                                    lastCharging, lastScreenOn, lastGpsOn, lastFlashlightOn,
-                                    lastCameraOn, lastWifiRunning, lastCpuRunning, lastLinePath);
-                            lastX = lastY = -1;
-                            curLevelPath = null;
-                            lastLinePath = null;
-                            lastCharging = lastScreenOn = lastGpsOn = lastFlashlightOn =
-                                    lastCameraOn = lastCpuRunning = false;
-                        }
-                    }
+        // Build the paths in the background, the chart shows them once they are ready.
+        final ChartGeometry geometry = new ChartGeometry(this, w, h, levelh);
+        final int generation = ++mGeometryGeneration;
+        mGeometryExecutor.execute(() -> {
+            geometry.build();
+            mUiHandler.post(() -> {
+                if (generation == mGeometryGeneration) {
+                    setGeometry(geometry);
                 }
-
-                i++;
-            }
-            mStats.finishIteratingHistoryLocked();
-        }
-
-        if (lastY < 0 || lastX < 0) {
-            // Didn't get any data...
-            x = lastX = mLevelLeft;
-            y = lastY = mLevelTop + levelh - ((mInfo.batteryLevel -batLow)*(levelh-1))/batChange;
-            Path path;
-            byte value = (byte)mInfo.batteryLevel;
-            if (value <= mBatteryCriticalLevel) path = mBatCriticalPath;
-            else if (value <= mBatteryWarnLevel) path = mBatWarnPath;
-            else path = null; //mBatGoodPath;
-            if (path != null) {
-                path.moveTo(x, y);
-                lastLinePath = path;
-            }
-            mBatLevelPath.moveTo(x, y);
-            curLevelPath = mBatLevelPath;
-            x = w;
-        } else {
-            // Figure out where the actual data ends on the screen.
-            x = mLevelLeft + (int)(((mEndDataWallTime-walltimeStart)*levelWidth)/walltimeChange);
-            if (x < 0) {
-                x = 0;
-            }
-        }
-
-        finishPaths(x, h, levelh, startX, lastY, curLevelPath, lastX,
-                lastCharging, lastScreenOn, lastGpsOn, lastFlashlightOn, lastCameraOn,
-                lastWifiRunning, lastCpuRunning, lastLinePath);
-
-        if (x < w) {
-            // If we reserved room for the remaining time, create a final path to draw
-            // that part of the UI.
-            mTimeRemainPath.moveTo(x, lastY);
-            int fullY = mLevelTop + levelh - ((100-batLow)*(levelh-1))/batChange;
-            int emptyY = mLevelTop + levelh - ((0-batLow)*(levelh-1))/batChange;
-            if (mInfo.discharging) {
-                mTimeRemainPath.lineTo(mLevelRight, emptyY);
-            } else {
-                mTimeRemainPath.lineTo(mLevelRight, fullY);
-                mTimeRemainPath.lineTo(mLevelRight, emptyY);
-            }
-            mTimeRemainPath.lineTo(x, emptyY);
-            mTimeRemainPath.close();
-        }
+            });
+        });
 
         if (mStartWallTime > 0 && mEndWallTime > mStartWallTime) {
             // Create the time labels at the bottom.
@@ -1101,6 +1105,22 @@ public class BatteryHistoryChart extends View {
         }
     }
 
+    void setGeometry(ChartGeometry geometry) {
+        mBatLevelPath = geometry.mLevelPath;
+        mBatWarnPath = geometry.mWarnPath;
+        mBatCriticalPath = geometry.mCriticalPath;
+        mTimeRemainPath = geometry.mTimeRemainPath;
+        mChargingPath = geometry.mBarPaths[ChartGeometry.BAR_CHARGING];
+        mScreenOnPath = geometry.mBarPaths[ChartGeometry.BAR_SCREEN_ON];
+        mGpsOnPath = geometry.mBarPaths[ChartGeometry.BAR_GPS_ON];
+        mFlashlightOnPath = geometry.mBarPaths[ChartGeometry.BAR_FLASHLIGHT_ON];
+        mCameraOnPath = geometry.mBarPaths[ChartGeometry.BAR_CAMERA_ON];
+        mWifiRunningPath = geometry.mBarPaths[ChartGeometry.BAR_WIFI_RUNNING];
+        mCpuRunningPath = geometry.mBarPaths[ChartGeometry.BAR_CPU_RUNNING];
+        mPhoneSignalChart = geometry.mPhoneSignalChart;
+        invalidate();
+    }
+
     void addTimeLabel(Calendar cal, int levelLeft, int levelRight, boolean is24hr) {
         final long walltimeStart = mStartWallTime;
         final long walltimeChange = mEndWallTime-walltimeStart;
@@ -1157,8 +1177,11 @@ public class BatteryHistoryChart extends View {
             canvas.drawRect(1, 1, width, height, mDebugRectPaint);
         }
 
-        if (DEBUG) Log.d(TAG, "Drawing level path.");
-        canvas.drawPath(mBatLevelPath, mBatteryBackgroundPaint);
+        // The paths are empty until the first geometry is built.
+        if (!mBatLevelPath.isEmpty()) {
+            if (DEBUG) Log.d(TAG, "Drawing level path.");
+            canvas.drawPath(mBatLevelPath, mBatteryBackgroundPaint);
+        }
         if (!mTimeRemainPath.isEmpty()) {
             if (DEBUG) Log.d(TAG, "Drawing time remain path.");
             canvas.drawPath(mTimeRemainPath, mTimeRemainPaint);
@@ -21,9 +21,8 @@ import android.content.res.Resources;
 import android.os.AsyncTask;
 import android.os.BatteryManager;
 import android.os.BatteryStats;
-import android.os.BatteryStats.HistoryItem;
-import android.os.Bundle;
 import android.os.SystemClock;
+import android.os.UserManager;
 import android.support.annotation.WorkerThread;
 import android.text.TextUtils;
 import android.text.format.Formatter;
@@ -71,9 +70,9 @@ public class BatteryInfo {
             }
 
             @Override
-            public void onDataPoint(long time, HistoryItem record) {
+            public void onDataPoint(long time, BatteryHistory history, int index) {
                 lastTime = (int) time;
-                lastLevel = record.batteryLevel;
+                lastLevel = history.getLevel(index);
                 points.put(lastTime, lastLevel);
             }
 
@@ -136,11 +135,30 @@ public class BatteryInfo {
 
     public static void getBatteryInfo(final Context context, final Callback callback,
             boolean shortString) {
-        final long startTime = System.currentTimeMillis();
-        BatteryStatsHelper statsHelper = new BatteryStatsHelper(context, true);
-        statsHelper.create((Bundle) null);
-        BatteryUtils.logRuntime(LOG_TAG, "time to make batteryStatsHelper", startTime);
-        BatteryInfo.getBatteryInfo(context, callback, statsHelper, shortString);
+        new AsyncTask<Void, Void, BatteryInfo>() {
+            @Override
+            protected BatteryInfo doInBackground(Void... params) {
+                final long startTime = System.currentTimeMillis();
+                final BatteryStatsHelperCache cache = BatteryStatsHelperCache.getInstance(context);
+                final UserManager userManager =
+                        (UserManager) context.getSystemService(Context.USER_SERVICE);
+                final BatteryStatsHelper statsHelper = cache.acquire(
+                        BatteryStats.STATS_SINCE_CHARGED, userManager.getUserProfiles());
+                BatteryUtils.logRuntime(LOG_TAG, "time to get batteryStatsHelper", startTime);
+                try {
+                    return loadBatteryInfo(context, statsHelper.getStats(), shortString);
+                } finally {
+                    cache.release(statsHelper);
+                }
+            }
+
+            @Override
+            protected void onPostExecute(BatteryInfo batteryInfo) {
+                final long startTime = System.currentTimeMillis();
+                callback.onBatteryInfoLoaded(batteryInfo);
+                BatteryUtils.logRuntime(LOG_TAG, "time for callback", startTime);
+            }
+        }.execute();
     }
 
     public static void getBatteryInfo(final Context context, final Callback callback,
@@ -156,32 +174,7 @@ public class BatteryInfo {
         new AsyncTask<Void, Void, BatteryInfo>() {
             @Override
             protected BatteryInfo doInBackground(Void... params) {
-                final long startTime = System.currentTimeMillis();
-                PowerUsageFeatureProvider provider =
-                        FeatureFactory.getFactory(context).getPowerUsageFeatureProvider(context);
-                final long elapsedRealtimeUs =
-                        BatteryUtils.convertMsToUs(SystemClock.elapsedRealtime());
-
-                Intent batteryBroadcast = context.registerReceiver(null,
-                        new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-                // 0 means we are discharging, anything else means charging
-                boolean discharging =
-                        batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1) == 0;
-
-                if (discharging && provider != null
-                        && provider.isEnhancedBatteryPredictionEnabled(context)) {
-                    final long prediction = provider.getEnhancedBatteryPrediction(context);
-                    BatteryUtils.logRuntime(LOG_TAG, "time for enhanced BatteryInfo", startTime);
-                    return BatteryInfo.getBatteryInfo(context, batteryBroadcast, stats,
-                            elapsedRealtimeUs, shortString, BatteryUtils.convertMsToUs(prediction),
-                            true);
-                } else {
-                    long prediction = discharging
-                            ? stats.computeBatteryTimeRemaining(elapsedRealtimeUs) : 0;
-                    BatteryUtils.logRuntime(LOG_TAG, "time for regular BatteryInfo", startTime);
-                    return BatteryInfo.getBatteryInfo(context, batteryBroadcast, stats,
-                            elapsedRealtimeUs, shortString, prediction, false);
-                }
+                return loadBatteryInfo(context, stats, shortString);
             }
 
             @Override
@@ -193,6 +186,37 @@ public class BatteryInfo {
         }.execute();
     }
 
+    @WorkerThread
+    private static BatteryInfo loadBatteryInfo(Context context, BatteryStats stats,
+            boolean shortString) {
+        final long startTime = System.currentTimeMillis();
+        PowerUsageFeatureProvider provider =
+                FeatureFactory.getFactory(context).getPowerUsageFeatureProvider(context);
+        final long elapsedRealtimeUs =
+                BatteryUtils.convertMsToUs(SystemClock.elapsedRealtime());
+
+        Intent batteryBroadcast = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        // 0 means we are discharging, anything else means charging
+        boolean discharging =
+                batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1) == 0;
+
+        if (discharging && provider != null
+                && provider.isEnhancedBatteryPredictionEnabled(context)) {
+            final long prediction = provider.getEnhancedBatteryPrediction(context);
+            BatteryUtils.logRuntime(LOG_TAG, "time for enhanced BatteryInfo", startTime);
+            return BatteryInfo.getBatteryInfo(context, batteryBroadcast, stats,
+                    elapsedRealtimeUs, shortString, BatteryUtils.convertMsToUs(prediction),
+                    true);
+        } else {
+            long prediction = discharging
+                    ? stats.computeBatteryTimeRemaining(elapsedRealtimeUs) : 0;
+            BatteryUtils.logRuntime(LOG_TAG, "time for regular BatteryInfo", startTime);
+            return BatteryInfo.getBatteryInfo(context, batteryBroadcast, stats,
+                    elapsedRealtimeUs, shortString, prediction, false);
+        }
+    }
+
     @WorkerThread
     public static BatteryInfo getBatteryInfoOld(Context context, Intent batteryBroadcast,
             BatteryStats stats, long elapsedRealtimeUs, boolean shortString) {
@@ -264,7 +288,12 @@ public class BatteryInfo {
     public interface BatteryDataParser {
         void onParsingStarted(long startTime, long endTime);
 
-        void onDataPoint(long time, HistoryItem record);
+        /**
+         * @param time the time of the data point, relative to the start of the history.
+         * @param history the decoded history, see {@link BatteryHistory#getStates(int)}.
+         * @param index the index of the data point in {@param history}.
+         */
+        void onDataPoint(long time, BatteryHistory history, int index);
 
         void onDataGap();
 
@@ -272,98 +301,26 @@ public class BatteryInfo {
     }
 
     private static void parse(BatteryStats stats, BatteryDataParser... parsers) {
-        long startWalltime = 0;
-        long endWalltime = 0;
-        long historyStart = 0;
-        long historyEnd = 0;
-        long curWalltime = startWalltime;
-        long lastWallTime = 0;
-        long lastRealtime = 0;
-        int lastInteresting = 0;
-        int pos = 0;
-        boolean first = true;
-        if (stats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (stats.getNextHistoryLocked(rec)) {
-                pos++;
-                if (first) {
-                    first = false;
-                    historyStart = rec.time;
-                }
-                if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                        || rec.cmd == HistoryItem.CMD_RESET) {
-                    // If there is a ridiculously large jump in time, then we won't be
-                    // able to create a good chart with that data, so just ignore the
-                    // times we got before and pretend like our data extends back from
-                    // the time we have now.
-                    // Also, if we are getting a time change and we are less than 5 minutes
-                    // since the start of the history real time, then also use this new
-                    // time to compute the base time, since whatever time we had before is
-                    // pretty much just noise.
-                    if (rec.currentTime > (lastWallTime + (180 * 24 * 60 * 60 * 1000L))
-                            || rec.time < (historyStart + (5 * 60 * 1000L))) {
-                        startWalltime = 0;
-                    }
-                    lastWallTime = rec.currentTime;
-                    lastRealtime = rec.time;
-                    if (startWalltime == 0) {
-                        startWalltime = lastWallTime - (lastRealtime - historyStart);
-                    }
-                }
-                if (rec.isDeltaData()) {
-                    lastInteresting = pos;
-                    historyEnd = rec.time;
-                }
-            }
-        }
-        stats.finishIteratingHistoryLocked();
-        endWalltime = lastWallTime + historyEnd - lastRealtime;
-
-        int i = 0;
-        final int N = lastInteresting;
+        final BatteryHistory history = BatteryHistory.get(stats);
+        final long startWalltime = history.getStartWalltime();
 
         for (int j = 0; j < parsers.length; j++) {
-            parsers[j].onParsingStarted(startWalltime, endWalltime);
+            parsers[j].onParsingStarted(startWalltime, history.getEndWalltime());
         }
-        if (endWalltime > startWalltime && stats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (stats.getNextHistoryLocked(rec) && i < N) {
-                if (rec.isDeltaData()) {
-                    curWalltime += rec.time - lastRealtime;
-                    lastRealtime = rec.time;
-                    long x = (curWalltime - startWalltime);
-                    if (x < 0) {
-                        x = 0;
-                    }
+        if (history.hasData()) {
+            for (int i = 0, size = history.size(); i < size; i++) {
+                if (history.isGap(i)) {
                     for (int j = 0; j < parsers.length; j++) {
-                        parsers[j].onDataPoint(x, rec);
-                    }
-                } else {
-                    long lastWalltime = curWalltime;
-                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                            || rec.cmd == HistoryItem.CMD_RESET) {
-                        if (rec.currentTime >= startWalltime) {
-                            curWalltime = rec.currentTime;
-                        } else {
-                            curWalltime = startWalltime + (rec.time - historyStart);
-                        }
-                        lastRealtime = rec.time;
-                    }
-
-                    if (rec.cmd != HistoryItem.CMD_OVERFLOW
-                            && (rec.cmd != HistoryItem.CMD_CURRENT_TIME
-                            || Math.abs(lastWalltime - curWalltime) > (60 * 60 * 1000))) {
-                        for (int j = 0; j < parsers.length; j++) {
-                            parsers[j].onDataGap();
-                        }
+                        parsers[j].onDataGap();
                     }
+                    continue;
+                }
+                final long x = Math.max(0, history.getTime(i) - startWalltime);
+                for (int j = 0; j < parsers.length; j++) {
+                    parsers[j].onDataPoint(x, history, i);
                 }
-                i++;
             }
         }
-
-        stats.finishIteratingHistoryLocked();
-
         for (int j = 0; j < parsers.length; j++) {
             parsers[j].onParsingDone();
         }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+
+import com.android.internal.os.BatteryStatsHelper;
+
+import java.util.List;
+
+/**
+ * Shares the computed {@link BatteryStatsHelper} snapshots between the battery screens.
+ *
+ * A snapshot is reused by every screen asking for the same stats type and user profiles while
+ * it is fresh: for {@link #MAX_AGE_MS}, and as long as the battery level, status and plug state
+ * of the sticky {@link Intent#ACTION_BATTERY_CHANGED} broadcast are the ones it was computed
+ * with. Screens {@link #acquire} a snapshot and {@link #release} it once they are done with it,
+ * and snapshots no screen holds any more are dropped once stale.
+ */
+public class BatteryStatsHelperCache {
+
+    @VisibleForTesting
+    static final long MAX_AGE_MS = 30 * DateUtils.SECOND_IN_MILLIS;
+
+    /** Computes a new snapshot. */
+    @VisibleForTesting
+    interface HelperFactory {
+        BatteryStatsHelper create(int statsType, List<UserHandle> profiles);
+    }
+
+    private static BatteryStatsHelperCache sInstance;
+
+    private final Context mContext;
+    private final HelperFactory mFactory;
+    private final Handler mHandler;
+    /** Serializes the computations, so concurrent requests compute one snapshot. */
+    private final Object mLoadLock = new Object();
+    /** Latest snapshot for each stats type and user profiles. Guarded by this. */
+    private final ArrayMap<String, Entry> mEntries = new ArrayMap<>();
+    private final Runnable mTrimRunnable = this::trim;
+
+    public static synchronized BatteryStatsHelperCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new BatteryStatsHelperCache(appContext, (statsType, profiles) -> {
+                final BatteryStatsHelper statsHelper = new BatteryStatsHelper(appContext,
+                        true /* collectBatteryBroadcast */);
+                statsHelper.create((Bundle) null);
+                statsHelper.clearStats();
+                statsHelper.refreshStats(statsType, profiles);
+                return statsHelper;
+            }, new Handler(Looper.getMainLooper()));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BatteryStatsHelperCache(Context context, HelperFactory factory, Handler handler) {
+        mContext = context;
+        mFactory = factory;
+        mHandler = handler;
+    }
+
+    /**
+     * @return a snapshot of {@param statsType} for {@param profiles}, computing it unless a
+     * fresh one is cached. It must be passed to {@link #release} once not needed any more.
+     */
+    @WorkerThread
+    public BatteryStatsHelper acquire(int statsType, List<UserHandle> profiles) {
+        final String key = getKey(statsType, profiles);
+        synchronized (mLoadLock) {
+            final int batteryState = getBatteryState();
+            synchronized (this) {
+                final Entry entry = mEntries.get(key);
+                if (entry != null && entry.isFresh(batteryState)) {
+                    entry.refCount++;
+                    return entry.statsHelper;
+                }
+            }
+            final Entry entry = new Entry(mFactory.create(statsType, profiles), batteryState);
+            entry.refCount++;
+            synchronized (this) {
+                // A stale snapshot still held elsewhere is simply not shared any more.
+                mEntries.put(key, entry);
+            }
+            return entry.statsHelper;
+        }
+    }
+
+    /**
+     * Releases a snapshot returned by {@link #acquire}.
+     */
+    public synchronized void release(BatteryStatsHelper statsHelper) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            final Entry entry = mEntries.valueAt(i);
+            if (entry.statsHelper == statsHelper && entry.refCount > 0) {
+                if (--entry.refCount == 0) {
+                    // Keep it for the screens opened next, until it gets stale.
+                    mHandler.removeCallbacks(mTrimRunnable);
+                    mHandler.postDelayed(mTrimRunnable, MAX_AGE_MS);
+                }
+                return;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void trim() {
+        final long now = SystemClock.elapsedRealtime();
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            final Entry entry = mEntries.valueAt(i);
+            if (entry.refCount == 0 && now - entry.createTime >= MAX_AGE_MS) {
+                mEntries.removeAt(i);
+            }
+        }
+    }
+
+    private int getBatteryState() {
+        final Intent batteryBroadcast = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryBroadcast == null) {
+            return 0;
+        }
+        return batteryBroadcast.getIntExtra(BatteryManager.EXTRA_LEVEL, 0)
+                | batteryBroadcast.getIntExtra(BatteryManager.EXTRA_STATUS, 0) << 10
+                | batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) << 20;
+    }
+
+    private static String getKey(int statsType, List<UserHandle> profiles) {
+        final StringBuilder key = new StringBuilder().append(statsType);
+        for (int i = 0, size = profiles.size(); i < size; i++) {
+            key.append(',').append(profiles.get(i).getIdentifier());
+        }
+        return key.toString();
+    }
+
+    private static final class Entry {
+        final BatteryStatsHelper statsHelper;
+        final int batteryState;
+        final long createTime = SystemClock.elapsedRealtime();
+        int refCount;
+
+        Entry(BatteryStatsHelper statsHelper, int batteryState) {
+            this.statsHelper = statsHelper;
+            this.batteryState = batteryState;
+        }
+
+        boolean isFresh(int currentBatteryState) {
+            return currentBatteryState == batteryState
+                    && SystemClock.elapsedRealtime() - createTime < MAX_AGE_MS;
+        }
+    }
+}
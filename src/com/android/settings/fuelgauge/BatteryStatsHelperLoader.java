@@ -18,41 +18,51 @@ package com.android.settings.fuelgauge;
 
 import android.content.Context;
 import android.os.BatteryStats;
-import android.os.Bundle;
 import android.os.UserManager;
 import android.support.annotation.VisibleForTesting;
+import android.util.ArraySet;
 
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.utils.AsyncLoader;
 
 /**
- * Loader to get new {@link BatteryStatsHelper} in the background
+ * Loader to get a {@link BatteryStatsHelper} in the background, shared with the other battery
+ * screens through {@link BatteryStatsHelperCache}.
  */
 public class BatteryStatsHelperLoader extends AsyncLoader<BatteryStatsHelper> {
     @VisibleForTesting
     UserManager mUserManager;
     @VisibleForTesting
-    BatteryUtils mBatteryUtils;
+    BatteryStatsHelperCache mCache;
+    /** Snapshots acquired from {@link #mCache} and not released yet. Guarded by itself. */
+    private final ArraySet<BatteryStatsHelper> mAcquiredHelpers = new ArraySet<>();
 
     public BatteryStatsHelperLoader(Context context) {
         super(context);
         mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
-        mBatteryUtils = BatteryUtils.getInstance(context);
+        mCache = BatteryStatsHelperCache.getInstance(context);
     }
 
     @Override
     public BatteryStatsHelper loadInBackground() {
-        Context context = getContext();
-        final BatteryStatsHelper statsHelper = new BatteryStatsHelper(context,
-                true /* collectBatteryBroadcast */);
-        mBatteryUtils.initBatteryStatsHelper(statsHelper, null /* bundle */, mUserManager);
-
+        final BatteryStatsHelper statsHelper = mCache.acquire(BatteryStats.STATS_SINCE_CHARGED,
+                mUserManager.getUserProfiles());
+        synchronized (mAcquiredHelpers) {
+            if (!mAcquiredHelpers.add(statsHelper)) {
+                // Loaded again while fresh, the loader only holds it once.
+                mCache.release(statsHelper);
+            }
+        }
         return statsHelper;
     }
 
     @Override
     protected void onDiscardResult(BatteryStatsHelper result) {
-
+        synchronized (mAcquiredHelpers) {
+            if (mAcquiredHelpers.remove(result)) {
+                mCache.release(result);
+            }
+        }
     }
 
 }
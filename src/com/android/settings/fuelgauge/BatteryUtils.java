@@ -20,10 +20,8 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.BatteryStats;
-import android.os.Bundle;
 import android.os.Build;
 import android.os.SystemClock;
-import android.os.UserManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
@@ -41,6 +39,7 @@ import com.android.settings.overlay.FeatureFactory;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -150,6 +149,35 @@ public class BatteryUtils {
                 + convertUsToMs(getForegroundServiceTotalTimeUs(uid, rawRealTimeUs));
     }
 
+    /**
+     * Copy the {@link BatterySipper} of {@code sippers}, so that they can be changed without
+     * changing the ones of the {@link BatteryStatsHelper} they come from, which is shared
+     * between the battery screens by {@link BatteryStatsHelperCache}.
+     *
+     * @return a new list with a copy of each of {@code sippers}
+     */
+    public static List<BatterySipper> copyUsageList(List<BatterySipper> sippers) {
+        final List<BatterySipper> copies = new ArrayList<>(sippers.size());
+        for (int i = 0, size = sippers.size(); i < size; i++) {
+            final BatterySipper sipper = sippers.get(i);
+            copies.add(copySipper(sipper, sipper.uidObj));
+        }
+        return copies;
+    }
+
+    /**
+     * @return a copy of {@code sipper} attributed to {@code uid}
+     */
+    public static BatterySipper copySipper(BatterySipper sipper, BatteryStats.Uid uid) {
+        final BatterySipper newSipper = new BatterySipper(sipper.drainType, uid, 0.0);
+        newSipper.add(sipper);
+        newSipper.userId = sipper.userId;
+        newSipper.percent = sipper.percent;
+        newSipper.packageWithHighestDrain = sipper.packageWithHighestDrain;
+        newSipper.mPackages = sipper.mPackages;
+        return newSipper;
+    }
+
     /**
      * Remove the {@link BatterySipper} that we should hide and smear the screen usage based on
      * foreground activity time.
@@ -381,13 +409,6 @@ public class BatteryUtils {
         return timeMs * 1000;
     }
 
-    public void initBatteryStatsHelper(BatteryStatsHelper statsHelper, Bundle bundle,
-            UserManager userManager) {
-        statsHelper.create(bundle);
-        statsHelper.clearStats();
-        statsHelper.refreshStats(BatteryStats.STATS_SINCE_CHARGED, userManager.getUserProfiles());
-    }
-
     private boolean isDataCorrupted() {
         return mPackageManager == null || mAppOpsManager == null;
     }
@@ -24,8 +24,8 @@ public class BatteryWifiParser extends BatteryFlagParser {
     }
 
     @Override
-    protected boolean isSet(HistoryItem record) {
-        switch ((record.states2 & HistoryItem.STATE2_WIFI_SUPPL_STATE_MASK)
+    protected boolean isSet(int states, int states2) {
+        switch ((states2 & HistoryItem.STATE2_WIFI_SUPPL_STATE_MASK)
                 >> HistoryItem.STATE2_WIFI_SUPPL_STATE_SHIFT) {
             case BatteryStats.WIFI_SUPPL_STATE_DISCONNECTED:
             case BatteryStats.WIFI_SUPPL_STATE_DORMANT:
@@ -262,7 +262,10 @@ public class PowerUsageAdvanced extends PowerUsageBase {
 
     @VisibleForTesting
     List<PowerUsageData> parsePowerUsageData(BatteryStatsHelper statusHelper) {
-        final List<BatterySipper> batterySippers = statusHelper.getUsageList();
+        // The packages and usage time of the sippers are updated below, so they are copied from
+        // the BatteryStatsHelper shared with the other battery screens.
+        final List<BatterySipper> batterySippers =
+                BatteryUtils.copyUsageList(statusHelper.getUsageList());
         final Map<Integer, PowerUsageData> batteryDataMap = new HashMap<>();
 
         for (final @UsageType Integer type : mUsageTypes) {
@@ -64,6 +64,7 @@ import com.android.settings.display.AutoBrightnessPreferenceController;
 import com.android.settings.display.BatteryPercentagePreferenceController;
 import com.android.settings.display.TimeoutPreferenceController;
 import com.android.settings.fuelgauge.anomaly.Anomaly;
+import com.android.settings.fuelgauge.anomaly.AnomalyDetectionJobService;
 import com.android.settings.fuelgauge.anomaly.AnomalyDetectionPolicy;
 import com.android.settings.fuelgauge.anomaly.AnomalyDialogFragment.AnomalyDialogListener;
 import com.android.settings.fuelgauge.anomaly.AnomalyLoader;
@@ -250,6 +251,8 @@ public class PowerUsageSummary extends PowerUsageBase implements
 
         restartBatteryInfoLoader();
         restoreSavedInstance(icicle);
+        AnomalyDetectionJobService.updateAnomalyDetectionJob(getContext(),
+                getAnomalyDetectionPolicy());
     }
 
     @Override
@@ -471,12 +474,7 @@ public class PowerUsageSummary extends PowerUsageBase implements
 
                 if (realUid != sipper.getUid()) {
                     // Replace the BatterySipper with a new one with the real UID set.
-                    BatterySipper newSipper = new BatterySipper(sipper.drainType,
-                            new FakeUid(realUid), 0.0);
-                    newSipper.add(sipper);
-                    newSipper.packageWithHighestDrain = sipper.packageWithHighestDrain;
-                    newSipper.mPackages = sipper.mPackages;
-                    sipper = newSipper;
+                    sipper = BatteryUtils.copySipper(sipper, new FakeUid(realUid));
                 }
 
                 int index = uidList.indexOfKey(realUid);
@@ -565,8 +563,11 @@ public class PowerUsageSummary extends PowerUsageBase implements
         mAppListGroup.setOrderingAsAdded(false);
 
         if (averagePower >= MIN_AVERAGE_POWER_THRESHOLD_MILLI_AMP || USE_FAKE_DATA) {
+            // The sippers are combined, smeared and removed below, so they are copied from the
+            // BatteryStatsHelper shared with the other battery screens.
             final List<BatterySipper> usageList = getCoalescedUsageList(
-                    USE_FAKE_DATA ? getFakeStats() : mStatsHelper.getUsageList());
+                    USE_FAKE_DATA ? getFakeStats()
+                            : BatteryUtils.copyUsageList(mStatsHelper.getUsageList()));
             double hiddenPowerMah = mShowAllApps ? 0 :
                     mBatteryUtils.removeHiddenBatterySippers(usageList);
             mBatteryUtils.sortUsageList(usageList);
@@ -878,6 +879,9 @@ public class PowerUsageSummary extends PowerUsageBase implements
     }
 
     private static class SummaryProvider implements SummaryLoader.SummaryProvider {
+        /** The battery level goes stale quickly, so it is only shown briefly from the cache. */
+        private static final long SUMMARY_CACHE_TTL_MILLIS = 15 * DateUtils.MINUTE_IN_MILLIS;
+
         private final Context mContext;
         private final SummaryLoader mLoader;
         private final BatteryBroadcastReceiver mBatteryBroadcastReceiver;
@@ -890,7 +894,8 @@ public class PowerUsageSummary extends PowerUsageBase implements
                 BatteryInfo.getBatteryInfo(mContext, new BatteryInfo.Callback() {
                     @Override
                     public void onBatteryInfoLoaded(BatteryInfo info) {
-                        mLoader.setSummary(SummaryProvider.this, info.chargeLabel);
+                        mLoader.setSummary(SummaryProvider.this, info.chargeLabel,
+                                SUMMARY_CACHE_TTL_MILLIS);
                     }
                 }, true /* shortString */);
             });
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly;
+
+import android.util.SparseArray;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The counters of each application at the last anomaly detection, for each
+ * {@link Anomaly.AnomalyType}, and whether the application had that anomaly.
+ *
+ * The counters are only comparable within the since-charged period they were read in, which is
+ * identified by the start clock time of the battery stats, and whether an application had an
+ * anomaly only holds for the {@link AnomalyDetectionPolicy} it was checked with.
+ *
+ * @see com.android.settings.fuelgauge.anomaly.checker.AnomalyDetector#getCounter
+ */
+public final class AnomalyCounters {
+    private static final int TYPE_COUNT = Anomaly.ANOMALY_TYPE_LIST.length;
+    private static final long UNKNOWN = -1;
+
+    private final long mStatsStartTime;
+    private final int mPolicyFingerprint;
+    /** For each uid, the counter of each type, followed by the bitmask of its anomaly types. */
+    private final SparseArray<long[]> mCounters = new SparseArray<>();
+
+    public AnomalyCounters(long statsStartTime, int policyFingerprint) {
+        mStatsStartTime = statsStartTime;
+        mPolicyFingerprint = policyFingerprint;
+    }
+
+    /**
+     * @return the start clock time of the battery stats the counters were read from
+     */
+    public long getStatsStartTime() {
+        return mStatsStartTime;
+    }
+
+    /**
+     * @return the {@link AnomalyDetectionPolicy#getDetectionFingerprint()} the applications were
+     * checked with
+     */
+    public int getPolicyFingerprint() {
+        return mPolicyFingerprint;
+    }
+
+    /**
+     * @return {@code true} if application with {@code uid} had {@code counter} and no anomaly
+     * of {@code type} at the last detection, so it does not need to be checked again.
+     */
+    public boolean isSettled(int uid, @Anomaly.AnomalyType int type, long counter) {
+        final long[] counters = mCounters.get(uid);
+        return counters != null
+                && counters[type] == counter
+                && (counters[TYPE_COUNT] & (1 << type)) == 0;
+    }
+
+    /**
+     * Record {@code counter} of application with {@code uid} for {@code type}.
+     *
+     * @param anomaly whether the application has anomaly of {@code type}
+     */
+    public void put(int uid, @Anomaly.AnomalyType int type, long counter, boolean anomaly) {
+        long[] counters = mCounters.get(uid);
+        if (counters == null) {
+            counters = new long[TYPE_COUNT + 1];
+            for (int i = 0; i < TYPE_COUNT; i++) {
+                counters[i] = UNKNOWN;
+            }
+            mCounters.put(uid, counters);
+        }
+        counters[type] = counter;
+        if (anomaly) {
+            counters[TYPE_COUNT] |= 1 << type;
+        } else {
+            counters[TYPE_COUNT] &= ~(1 << type);
+        }
+    }
+
+    /**
+     * @return the number of applications with counters
+     */
+    public int size() {
+        return mCounters.size();
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(mStatsStartTime);
+        out.writeInt(mPolicyFingerprint);
+        out.writeInt(TYPE_COUNT);
+        out.writeInt(mCounters.size());
+        for (int i = 0, size = mCounters.size(); i < size; i++) {
+            out.writeInt(mCounters.keyAt(i));
+            final long[] counters = mCounters.valueAt(i);
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                out.writeLong(counters[type]);
+            }
+            out.writeByte((int) counters[TYPE_COUNT]);
+        }
+    }
+
+    static AnomalyCounters readFrom(DataInputStream in) throws IOException {
+        final AnomalyCounters anomalyCounters = new AnomalyCounters(in.readLong(), in.readInt());
+        if (in.readInt() != TYPE_COUNT) {
+            throw new IOException("Unexpected number of anomaly types");
+        }
+        for (int i = 0, size = in.readInt(); i < size; i++) {
+            final long[] counters = new long[TYPE_COUNT + 1];
+            final int uid = in.readInt();
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                counters[type] = in.readLong();
+            }
+            counters[TYPE_COUNT] = in.readUnsignedByte();
+            // Uids are written in increasing order.
+            anomalyCounters.mCounters.append(uid, counters);
+        }
+        return anomalyCounters;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.BatteryStats;
+import android.os.UserManager;
+import android.text.format.DateUtils;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.fuelgauge.BatteryStatsHelperCache;
+
+/**
+ * Job that periodically detects anomalies among all the applications in the background, keeping
+ * the counters of {@link AnomalyStore} recent so that the battery screens only check again the
+ * few applications which changed since. It only runs while the device is idle, a few times a day,
+ * as refreshing the battery stats is not free.
+ *
+ * @see AnomalyUtils#updateAnomalies
+ */
+public class AnomalyDetectionJobService extends JobService {
+    private static final int JOB_ID = 0x414e4f4d; // "ANOM"
+    private static final long PERIOD_MS = 6 * DateUtils.HOUR_IN_MILLIS;
+
+    private AsyncTask<Void, Void, Void> mTask;
+
+    /**
+     * Schedule the periodic detection if {@code policy} enables it and it is not scheduled yet,
+     * otherwise cancel it.
+     */
+    public static void updateAnomalyDetectionJob(Context context, AnomalyDetectionPolicy policy) {
+        final JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler == null) {
+            return;
+        }
+        if (!policy.isAnomalyDetectionEnabled()) {
+            jobScheduler.cancel(JOB_ID);
+            return;
+        }
+        if (jobScheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, AnomalyDetectionJobService.class))
+                .setPeriodic(PERIOD_MS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresBatteryNotLow(true)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        final AnomalyDetectionPolicy policy = new AnomalyDetectionPolicy(this);
+        if (!policy.isAnomalyDetectionEnabled()) {
+            // Disabled since the job was scheduled.
+            updateAnomalyDetectionJob(this, policy);
+            return false;
+        }
+        mTask = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                if (isCancelled()) {
+                    return null;
+                }
+                final Context context = AnomalyDetectionJobService.this;
+                final BatteryStatsHelperCache cache = BatteryStatsHelperCache.getInstance(context);
+                final BatteryStatsHelper statsHelper = cache.acquire(
+                        BatteryStats.STATS_SINCE_CHARGED,
+                        context.getSystemService(UserManager.class).getUserProfiles());
+                try {
+                    AnomalyUtils.getInstance(context).updateAnomalies(statsHelper, policy);
+                } finally {
+                    cache.release(statsHelper);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                jobFinished(params, false /* wantsReschedule */);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mTask != null) {
+            mTask.cancel(false /* mayInterruptIfRunning */);
+        }
+        // The next period detects them again.
+        return false;
+    }
+}
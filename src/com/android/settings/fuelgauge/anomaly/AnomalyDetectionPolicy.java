@@ -25,6 +25,7 @@ import android.util.KeyValueListParser;
 import android.util.Log;
 
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -150,6 +151,17 @@ public class AnomalyDetectionPolicy {
                 30 * DateUtils.MINUTE_IN_MILLIS);
     }
 
+    /**
+     * @return a fingerprint of the detectors enabled, their thresholds and the blacklisted tags,
+     * which changes whenever they may find other anomalies for the same counters
+     * @see AnomalyCounters#getPolicyFingerprint()
+     */
+    public int getDetectionFingerprint() {
+        return Objects.hash(wakeLockDetectionEnabled, wakeupAlarmDetectionEnabled,
+                bluetoothScanDetectionEnabled, wakeLockThreshold, wakeupAlarmThreshold,
+                wakeupBlacklistedTags, bluetoothScanThreshold);
+    }
+
     public boolean isAnomalyDetectionEnabled() {
         return anomalyDetectionEnabled;
     }
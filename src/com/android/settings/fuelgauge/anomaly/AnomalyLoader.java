@@ -19,13 +19,13 @@ package com.android.settings.fuelgauge.anomaly;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.BatteryStats;
-import android.os.Bundle;
 import android.os.UserManager;
 import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.internal.util.ArrayUtils;
+import com.android.settings.fuelgauge.BatteryStatsHelperCache;
 import com.android.settings.utils.AsyncLoader;
 
 import java.io.FileDescriptor;
@@ -48,6 +48,8 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
     AnomalyUtils mAnomalyUtils;
     @VisibleForTesting
     AnomalyDetectionPolicy mPolicy;
+    @VisibleForTesting
+    BatteryStatsHelperCache mCache;
 
     /**
      * Create {@link AnomalyLoader} that runs anomaly check for all apps.
@@ -62,7 +64,8 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
      * detect anomalies related to {@code packageName}, or check all apps if {@code packageName}
      * is {@code null}.
      *
-     * This constructor will create {@link BatteryStatsHelper} in background thread.
+     * This constructor will get the {@link BatteryStatsHelper} from
+     * {@link BatteryStatsHelperCache} in background thread.
      *
      * @param packageName if set, only finds anomalies for this package. If {@code null},
      *                    detects all anomalies of this type.
@@ -80,6 +83,7 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
         mAnomalyUtils = AnomalyUtils.getInstance(context);
         mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
         mPolicy = policy;
+        mCache = BatteryStatsHelperCache.getInstance(context);
     }
 
     @Override
@@ -91,14 +95,29 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
         if (USE_FAKE_DATA) {
             return generateFakeData();
         }
-        if (mBatteryStatsHelper == null) {
-            mBatteryStatsHelper = new BatteryStatsHelper(getContext());
-            mBatteryStatsHelper.create((Bundle) null);
-            mBatteryStatsHelper.refreshStats(BatteryStats.STATS_SINCE_CHARGED,
-                    mUserManager.getUserProfiles());
+        final List<Anomaly> precomputedAnomalies =
+                mAnomalyUtils.getPrecomputedAnomalies(mPackageName);
+        if (precomputedAnomalies != null) {
+            return precomputedAnomalies;
+        }
+        if (mBatteryStatsHelper != null) {
+            return detectAnomalies(mBatteryStatsHelper);
+        }
+        final BatteryStatsHelper statsHelper = mCache.acquire(BatteryStats.STATS_SINCE_CHARGED,
+                mUserManager.getUserProfiles());
+        try {
+            return detectAnomalies(statsHelper);
+        } finally {
+            mCache.release(statsHelper);
         }
+    }
 
-        return mAnomalyUtils.detectAnomalies(mBatteryStatsHelper, mPolicy, mPackageName);
+    private List<Anomaly> detectAnomalies(BatteryStatsHelper statsHelper) {
+        if (mPackageName == null) {
+            // Keep the anomalies of all apps for the next screens that need them.
+            return mAnomalyUtils.updateAnomalies(statsHelper, mPolicy);
+        }
+        return mAnomalyUtils.detectAnomalies(statsHelper, mPolicy, mPackageName);
     }
 
     @VisibleForTesting
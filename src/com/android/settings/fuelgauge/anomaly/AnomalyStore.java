@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.format.DateUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.settings.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The anomalies found by the last detection among all the applications, with the
+ * {@link AnomalyCounters} they were found from, kept in a small binary file.
+ *
+ * The battery screens show these anomalies while they are fresh instead of detecting them
+ * again, and the next detection only checks again the applications whose counters changed.
+ */
+public class AnomalyStore {
+    private static final String TAG = "AnomalyStore";
+
+    private static final String FILE_NAME = "anomaly_store";
+    private static final int MAGIC = 0x414e4f4d; // "ANOM"
+    private static final int VERSION = 2;
+
+    /** The anomalies are shown for this long after they were detected. */
+    @VisibleForTesting
+    static final long MAX_AGE_MS = 30 * DateUtils.MINUTE_IN_MILLIS;
+
+    private static AnomalyStore sInstance;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private boolean mLoaded;
+    /** Wall clock time of the last detection. */
+    private long mDetectionTime;
+    private AnomalyCounters mCounters;
+    private List<Anomaly> mAnomalies = Collections.emptyList();
+
+    public static synchronized AnomalyStore getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new AnomalyStore(appContext,
+                    new AtomicFile(new File(appContext.getFilesDir(), FILE_NAME)));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AnomalyStore(Context context, AtomicFile file) {
+        mContext = context;
+        mFile = file;
+    }
+
+    /**
+     * @return the anomalies of the last detection if it happened less than {@link #MAX_AGE_MS}
+     * ago, otherwise {@code null}
+     */
+    @WorkerThread
+    public synchronized List<Anomaly> getFreshAnomalies() {
+        ensureLoaded();
+        final long age = System.currentTimeMillis() - mDetectionTime;
+        return age >= 0 && age < MAX_AGE_MS ? mAnomalies : null;
+    }
+
+    /**
+     * @return the counters of the last detection, or {@code null} if there is none
+     */
+    @WorkerThread
+    public synchronized AnomalyCounters getCounters() {
+        ensureLoaded();
+        return mCounters;
+    }
+
+    /**
+     * Replace the last detection by the one that just found {@code anomalies} from
+     * {@code counters}, and save it.
+     */
+    @WorkerThread
+    public synchronized void update(AnomalyCounters counters, List<Anomaly> anomalies) {
+        mLoaded = true;
+        mDetectionTime = System.currentTimeMillis();
+        mCounters = counters;
+        mAnomalies = Collections.unmodifiableList(new ArrayList<>(anomalies));
+
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mDetectionTime);
+            counters.writeTo(out);
+            out.writeInt(anomalies.size());
+            for (int i = 0, size = anomalies.size(); i < size; i++) {
+                writeAnomaly(out, anomalies.get(i));
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save anomalies", e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            final long detectionTime = in.readLong();
+            final AnomalyCounters counters = AnomalyCounters.readFrom(in);
+            final int count = in.readInt();
+            final List<Anomaly> anomalies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                anomalies.add(readAnomaly(in));
+            }
+            mDetectionTime = detectionTime;
+            mCounters = counters;
+            mAnomalies = Collections.unmodifiableList(anomalies);
+        } catch (FileNotFoundException e) {
+            // Nothing detected yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read anomalies", e);
+        }
+    }
+
+    private static void writeAnomaly(DataOutputStream out, Anomaly anomaly) throws IOException {
+        out.writeByte(anomaly.type);
+        out.writeInt(anomaly.uid);
+        out.writeBoolean(anomaly.packageName != null);
+        if (anomaly.packageName != null) {
+            out.writeUTF(anomaly.packageName);
+        }
+        out.writeInt(anomaly.targetSdkVersion);
+        out.writeBoolean(anomaly.backgroundRestrictionEnabled);
+        out.writeLong(anomaly.wakelockTimeMs);
+        out.writeInt(anomaly.wakeupAlarmCount);
+        out.writeLong(anomaly.bluetoothScanningTimeMs);
+    }
+
+    /** Reads an anomaly, looking up its display name as it is not saved. */
+    private Anomaly readAnomaly(DataInputStream in) throws IOException {
+        final int type = in.readUnsignedByte();
+        final int uid = in.readInt();
+        final String packageName = in.readBoolean() ? in.readUTF() : null;
+        return new Anomaly.Builder()
+                .setType(type)
+                .setUid(uid)
+                .setPackageName(packageName)
+                .setDisplayName(packageName != null
+                        ? Utils.getApplicationLabel(mContext, packageName) : null)
+                .setTargetSdkVersion(in.readInt())
+                .setBackgroundRestrictionEnabled(in.readBoolean())
+                .setWakeLockTimeMs(in.readLong())
+                .setWakeupAlarmCount(in.readInt())
+                .setBluetoothScanningTimeMs(in.readLong())
+                .build();
+    }
+}
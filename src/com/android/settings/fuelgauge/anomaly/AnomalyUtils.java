@@ -19,16 +19,19 @@ package com.android.settings.fuelgauge.anomaly;
 import android.content.Context;
 import android.os.Build;
 import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
 import android.util.Pair;
 import android.util.SparseIntArray;
 
 import com.android.internal.logging.nano.MetricsProto;
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.core.instrumentation.MetricsFeatureProvider;
+import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.anomaly.action.AnomalyAction;
 import com.android.settings.fuelgauge.anomaly.action.ForceStopAction;
 import com.android.settings.fuelgauge.anomaly.action.LocationCheckAction;
 import com.android.settings.fuelgauge.anomaly.action.StopAndBackgroundCheckAction;
+import com.android.settings.fuelgauge.anomaly.checker.AnomalyDetectionEngine;
 import com.android.settings.fuelgauge.anomaly.checker.AnomalyDetector;
 import com.android.settings.fuelgauge.anomaly.checker.BluetoothScanAnomalyDetector;
 import com.android.settings.fuelgauge.anomaly.checker.WakeLockAnomalyDetector;
@@ -119,18 +122,98 @@ public class AnomalyUtils {
      * @param policy             contains configuration about anomaly check
      * @param targetPackageName  represents the app need to be detected
      * @return the list of anomalies
+     * @see AnomalyDetectionEngine
      */
     public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             AnomalyDetectionPolicy policy, String targetPackageName) {
+        return getAnomalyDetectionEngine().detectAnomalies(batteryStatsHelper,
+                getAnomalyDetectors(policy), targetPackageName);
+    }
+
+    /**
+     * Detect anomalies among all the applications, and keep them in {@link AnomalyStore}. Only
+     * the applications whose counters changed since the last detection in the same
+     * since-charged period, and with the same {@code policy}, are checked again.
+     *
+     * @param batteryStatsHelper contains battery stats, used to detect anomaly
+     * @param policy             contains configuration about anomaly check
+     * @return the list of anomalies
+     * @see #getPrecomputedAnomalies(String)
+     */
+    @WorkerThread
+    public List<Anomaly> updateAnomalies(BatteryStatsHelper batteryStatsHelper,
+            AnomalyDetectionPolicy policy) {
+        final AnomalyStore anomalyStore = getAnomalyStore();
+        final long statsStartTime = batteryStatsHelper.getStats().getStartClockTime();
+        final int policyFingerprint = policy.getDetectionFingerprint();
+        AnomalyCounters previousCounters = anomalyStore.getCounters();
+        if (previousCounters != null
+                && (previousCounters.getStatsStartTime() != statsStartTime
+                        || previousCounters.getPolicyFingerprint() != policyFingerprint)) {
+            // The counters were reset by a charge, or the thresholds changed, since the last
+            // detection, so all the applications are checked again.
+            previousCounters = null;
+        }
+        final AnomalyCounters counters = new AnomalyCounters(statsStartTime, policyFingerprint);
+
+        final List<Anomaly> anomalies = getAnomalyDetectionEngine().detectAnomalies(
+                batteryStatsHelper, getAnomalyDetectors(policy), null /* targetPackageName */,
+                previousCounters, counters);
+        anomalyStore.update(counters, anomalies);
+        return anomalies;
+    }
+
+    /**
+     * Return the anomalies of the last {@link #updateAnomalies} if it is recent enough, without
+     * the ones whose action is not active any more, e.g. apps force stopped since then.
+     *
+     * @param targetPackageName if not null, only return the anomalies of the uid of this app, as
+     *                          {@link #detectAnomalies} does
+     * @return the list of anomalies, or null if they need to be detected again
+     */
+    @WorkerThread
+    public List<Anomaly> getPrecomputedAnomalies(String targetPackageName) {
+        final List<Anomaly> precomputedAnomalies = getAnomalyStore().getFreshAnomalies();
+        if (precomputedAnomalies == null) {
+            return null;
+        }
+        // Anomalies are found per uid, and named after the first package of their uid, which may
+        // not be the target one when the uid is shared.
+        final int targetUid = getBatteryUtils().getPackageUid(targetPackageName);
         final List<Anomaly> anomalies = new ArrayList<>();
+        for (int i = 0, size = precomputedAnomalies.size(); i < size; i++) {
+            final Anomaly anomaly = precomputedAnomalies.get(i);
+            if ((targetUid == BatteryUtils.UID_NULL || targetUid == anomaly.uid)
+                    && getAnomalyAction(anomaly).isActionActive(anomaly)) {
+                anomalies.add(anomaly);
+            }
+        }
+        return anomalies;
+    }
+
+    private List<AnomalyDetector> getAnomalyDetectors(AnomalyDetectionPolicy policy) {
+        final List<AnomalyDetector> detectors = new ArrayList<>();
         for (@Anomaly.AnomalyType int type : Anomaly.ANOMALY_TYPE_LIST) {
             if (policy.isAnomalyDetectorEnabled(type)) {
-                anomalies.addAll(getAnomalyDetector(type).detectAnomalies(
-                        batteryStatsHelper, targetPackageName));
+                detectors.add(getAnomalyDetector(type));
             }
         }
+        return detectors;
+    }
 
-        return anomalies;
+    @VisibleForTesting
+    AnomalyDetectionEngine getAnomalyDetectionEngine() {
+        return new AnomalyDetectionEngine(mContext, getBatteryUtils(), this);
+    }
+
+    @VisibleForTesting
+    BatteryUtils getBatteryUtils() {
+        return BatteryUtils.getInstance(mContext);
+    }
+
+    @VisibleForTesting
+    AnomalyStore getAnomalyStore() {
+        return AnomalyStore.getInstance(mContext);
     }
 
     /**
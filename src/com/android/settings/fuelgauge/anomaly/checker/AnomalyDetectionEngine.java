@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly.checker;
+
+import android.annotation.Nullable;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.BatteryStats;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.ArrayMap;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
+
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.Utils;
+import com.android.settings.fuelgauge.BatteryUtils;
+import com.android.settings.fuelgauge.anomaly.Anomaly;
+import com.android.settings.fuelgauge.anomaly.AnomalyCounters;
+import com.android.settings.fuelgauge.anomaly.AnomalyUtils;
+import com.android.settings.fuelgauge.anomaly.action.AnomalyAction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs several {@link AnomalyDetector} over the applications of a {@link BatteryStatsHelper}.
+ *
+ * The applications are scanned once, every detector checking each of them, and large lists are
+ * split into shards scanned in parallel. The package names, display names and action states of
+ * the anomalies found are then resolved once per application.
+ *
+ * Given the {@link AnomalyCounters} of a previous detection, the applications whose counters did
+ * not change since then and had no anomaly are not checked again.
+ */
+public class AnomalyDetectionEngine {
+    /** Below this number of applications per shard, the scan is not worth splitting. */
+    @VisibleForTesting
+    static final int MIN_SHARD_SIZE = 128;
+    private static final int MAX_SHARD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private final Context mContext;
+    private final BatteryUtils mBatteryUtils;
+    private final AnomalyUtils mAnomalyUtils;
+    @VisibleForTesting
+    Executor mExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+
+    public AnomalyDetectionEngine(Context context, BatteryUtils batteryUtils,
+            AnomalyUtils anomalyUtils) {
+        mContext = context;
+        mBatteryUtils = batteryUtils;
+        mAnomalyUtils = anomalyUtils;
+    }
+
+    /**
+     * Detect whether application with {@code targetPackageName} has any of the anomalies of
+     * {@code detectors}. When {@code targetPackageName} is null, start detection among all the
+     * applications.
+     *
+     * @param batteryStatsHelper used to detect the anomalies
+     * @param detectors          the anomalies to detect
+     * @param targetPackageName  represents the app need to be detected
+     * @return the anomalies, grouped by detector in the order of {@code detectors}
+     */
+    @WorkerThread
+    public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+            List<AnomalyDetector> detectors, @Nullable String targetPackageName) {
+        return detectAnomalies(batteryStatsHelper, detectors, targetPackageName,
+                null /* previousCounters */, null /* counters */);
+    }
+
+    /**
+     * Detect anomalies like {@link #detectAnomalies(BatteryStatsHelper, List, String)}, without
+     * checking again the applications settled in {@code previousCounters}.
+     *
+     * @param previousCounters the counters of a previous detection in the same since-charged
+     *                         period, or {@code null} to check all the applications
+     * @param counters         receives the counters read by this detection, or {@code null}
+     * @return the anomalies, grouped by detector in the order of {@code detectors}
+     */
+    @WorkerThread
+    public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+            List<AnomalyDetector> detectors, @Nullable String targetPackageName,
+            @Nullable AnomalyCounters previousCounters, @Nullable AnomalyCounters counters) {
+        final long elapsedRealtimeMs = SystemClock.elapsedRealtime();
+        final List<AnomalyDetector> activeDetectors = new ArrayList<>();
+        for (int i = 0, size = detectors.size(); i < size; i++) {
+            final AnomalyDetector detector = detectors.get(i);
+            if (detector.prepare(batteryStatsHelper, elapsedRealtimeMs)) {
+                activeDetectors.add(detector);
+            }
+        }
+        if (activeDetectors.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        final List<BatterySipper> sippers = batteryStatsHelper.getUsageList();
+        final int targetUid = mBatteryUtils.getPackageUid(targetPackageName);
+        final Shard[] shards = createShards(sippers.size(), activeDetectors.size());
+        scan(sippers, activeDetectors, targetUid, previousCounters, shards);
+        if (counters != null) {
+            for (Shard shard : shards) {
+                shard.recordCounters(activeDetectors, counters);
+            }
+        }
+
+        return resolve(activeDetectors, shards);
+    }
+
+    private Shard[] createShards(int sipperCount, int detectorCount) {
+        final int shardCount = Math.max(1,
+                Math.min(MAX_SHARD_COUNT, sipperCount / MIN_SHARD_SIZE));
+        final Shard[] shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(sipperCount * i / shardCount,
+                    sipperCount * (i + 1) / shardCount, detectorCount);
+        }
+        return shards;
+    }
+
+    /**
+     * Scans the shards, on the calling thread and on {@link #mExecutor}. Whichever thread is
+     * free claims the next shard, so the calling thread never waits on a shard nobody started.
+     */
+    private void scan(List<BatterySipper> sippers, List<AnomalyDetector> detectors,
+            int targetUid, @Nullable AnomalyCounters previousCounters, Shard[] shards) {
+        final AtomicInteger nextShard = new AtomicInteger();
+        final CountDownLatch scanned = new CountDownLatch(shards.length);
+        final Runnable worker = () -> {
+            for (int i = nextShard.getAndIncrement(); i < shards.length;
+                    i = nextShard.getAndIncrement()) {
+                try {
+                    shards[i].scan(sippers, detectors, targetUid, previousCounters);
+                } catch (RuntimeException e) {
+                    shards[i].error = e;
+                } finally {
+                    scanned.countDown();
+                }
+            }
+        };
+        for (int i = 1; i < shards.length; i++) {
+            mExecutor.execute(worker);
+        }
+        worker.run();
+
+        try {
+            scanned.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while detecting anomalies", e);
+        }
+        for (Shard shard : shards) {
+            if (shard.error != null) {
+                throw shard.error;
+            }
+        }
+    }
+
+    /**
+     * Completes the anomalies found, looking up the package and display name of each
+     * application and the state of each of its actions only once.
+     */
+    private List<Anomaly> resolve(List<AnomalyDetector> detectors, Shard[] shards) {
+        final List<Anomaly> anomalies = new ArrayList<>();
+        final SparseArray<String> packageNames = new SparseArray<>();
+        final ArrayMap<String, CharSequence> displayNames = new ArrayMap<>();
+        final LongSparseArray<Boolean> activeActions = new LongSparseArray<>();
+
+        for (int i = 0, size = detectors.size(); i < size; i++) {
+            final AnomalyDetector detector = detectors.get(i);
+            for (Shard shard : shards) {
+                final List<Hit> hits = shard.hits[i];
+                for (int j = 0, hitCount = hits.size(); j < hitCount; j++) {
+                    final Hit hit = hits.get(j);
+                    final int index = packageNames.indexOfKey(hit.uid);
+                    final String packageName;
+                    if (index >= 0) {
+                        packageName = packageNames.valueAt(index);
+                    } else {
+                        packageName = mBatteryUtils.getPackageName(hit.uid);
+                        packageNames.put(hit.uid, packageName);
+                    }
+                    CharSequence displayName = displayNames.get(packageName);
+                    if (displayName == null && !displayNames.containsKey(packageName)) {
+                        displayName = Utils.getApplicationLabel(mContext, packageName);
+                        displayNames.put(packageName, displayName);
+                    }
+
+                    hit.builder.setPackageName(packageName).setDisplayName(displayName);
+                    detector.completeAnomaly(hit.builder, hit.uid, packageName);
+                    final Anomaly anomaly = hit.builder.build();
+
+                    final AnomalyAction action = mAnomalyUtils.getAnomalyAction(anomaly);
+                    final long actionKey = (long) action.getActionType() << 32 | hit.uid;
+                    Boolean active = activeActions.get(actionKey);
+                    if (active == null) {
+                        active = action.isActionActive(anomaly);
+                        activeActions.put(actionKey, active);
+                    }
+                    if (active) {
+                        anomalies.add(anomaly);
+                    }
+                }
+            }
+        }
+        return anomalies;
+    }
+
+    /** An anomaly found for an application, waiting for its package to be resolved. */
+    private static final class Hit {
+        final int uid;
+        final Anomaly.Builder builder;
+
+        Hit(int uid, Anomaly.Builder builder) {
+            this.uid = uid;
+            this.builder = builder;
+        }
+    }
+
+    /**
+     * A range of applications to scan, and what was found there: the counters of each application
+     * for each detector, whether it has its anomaly, and the anomalies found by each detector.
+     */
+    private final class Shard {
+        final int start;
+        final int end;
+        final List<Hit>[] hits;
+        /** The uid of each application, or {@link BatteryUtils#UID_NULL} if it was skipped. */
+        final int[] uids;
+        final long[] counters;
+        final boolean[] anomalies;
+        RuntimeException error;
+
+        @SuppressWarnings("unchecked")
+        Shard(int start, int end, int detectorCount) {
+            this.start = start;
+            this.end = end;
+            hits = new List[detectorCount];
+            for (int i = 0; i < detectorCount; i++) {
+                hits[i] = new ArrayList<>();
+            }
+            uids = new int[end - start];
+            counters = new long[(end - start) * detectorCount];
+            anomalies = new boolean[(end - start) * detectorCount];
+        }
+
+        void scan(List<BatterySipper> sippers, List<AnomalyDetector> detectors, int targetUid,
+                @Nullable AnomalyCounters previousCounters) {
+            final int detectorCount = detectors.size();
+            for (int i = start; i < end; i++) {
+                final int index = i - start;
+                final BatterySipper sipper = sippers.get(i);
+                final BatteryStats.Uid uid = sipper.uidObj;
+                if (uid == null
+                        || mBatteryUtils.shouldHideSipper(sipper)
+                        || (targetUid != BatteryUtils.UID_NULL && targetUid != uid.getUid())) {
+                    uids[index] = BatteryUtils.UID_NULL;
+                    continue;
+                }
+                uids[index] = uid.getUid();
+                for (int j = 0; j < detectorCount; j++) {
+                    final AnomalyDetector detector = detectors.get(j);
+                    final long counter = detector.getCounter(uid);
+                    counters[index * detectorCount + j] = counter;
+                    if (previousCounters != null && previousCounters.isSettled(uids[index],
+                            detector.getAnomalyType(), counter)) {
+                        continue;
+                    }
+                    final Anomaly.Builder builder = detector.checkUid(uid, counter);
+                    if (builder != null) {
+                        anomalies[index * detectorCount + j] = true;
+                        hits[j].add(new Hit(uids[index], builder));
+                    }
+                }
+            }
+        }
+
+        void recordCounters(List<AnomalyDetector> detectors, AnomalyCounters anomalyCounters) {
+            final int detectorCount = detectors.size();
+            for (int index = 0; index < uids.length; index++) {
+                if (uids[index] == BatteryUtils.UID_NULL) {
+                    continue;
+                }
+                for (int j = 0; j < detectorCount; j++) {
+                    anomalyCounters.put(uids[index], detectors.get(j).getAnomalyType(),
+                            counters[index * detectorCount + j],
+                            anomalies[index * detectorCount + j]);
+                }
+            }
+        }
+    }
+}
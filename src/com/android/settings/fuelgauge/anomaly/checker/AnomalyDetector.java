@@ -18,6 +18,7 @@
 package com.android.settings.fuelgauge.anomaly.checker;
 
 import android.annotation.Nullable;
+import android.os.BatteryStats;
 
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.fuelgauge.anomaly.Anomaly;
@@ -43,4 +44,52 @@ public interface AnomalyDetector {
      */
     List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             @Nullable String targetPackageName);
+
+    /**
+     * Prepare to check the applications of {@code batteryStatsHelper} with
+     * {@link #checkUid(BatteryStats.Uid)}
+     *
+     * @param batteryStatsHelper used to detect the anomaly
+     * @param elapsedRealtimeMs  the time the applications are checked at
+     * @return {@code false} if no application can have this anomaly, so none has to be checked
+     */
+    boolean prepare(BatteryStatsHelper batteryStatsHelper, long elapsedRealtimeMs);
+
+    /**
+     * @return the type of the anomaly this detector detects
+     */
+    @Anomaly.AnomalyType
+    int getAnomalyType();
+
+    /**
+     * Read the counter of application with {@code uid} that this anomaly is detected from. It
+     * never decreases during a since-charged period, and an application whose counter did not
+     * change since it was last checked cannot have become an anomaly. It only reads the battery
+     * stats, so it may be called from several threads at once after {@link #prepare} returned.
+     *
+     * @param uid represents the app need to be detected
+     * @return the counter, e.g. a duration or a count
+     */
+    long getCounter(BatteryStats.Uid uid);
+
+    /**
+     * Check whether application with {@code uid} has anomaly. It only reads the battery stats,
+     * so it may be called from several threads at once after {@link #prepare} returned.
+     *
+     * @param uid     represents the app need to be detected
+     * @param counter the counter of the app, as returned by {@link #getCounter}
+     * @return the anomaly found, without its package and display names, or {@code null}
+     */
+    @Nullable
+    Anomaly.Builder checkUid(BatteryStats.Uid uid, long counter);
+
+    /**
+     * Complete the anomaly found by {@link #checkUid(BatteryStats.Uid)} with what depends on
+     * the package of the application.
+     *
+     * @param builder     the anomaly found
+     * @param uid         represents the app that has the anomaly
+     * @param packageName the package of the app, or {@code null} if it cannot be found
+     */
+    void completeAnomaly(Anomaly.Builder builder, int uid, @Nullable String packageName);
 }
@@ -18,21 +18,18 @@ package com.android.settings.fuelgauge.anomaly.checker;
 
 import android.content.Context;
 import android.os.BatteryStats;
-import android.os.SystemClock;
 import android.support.annotation.VisibleForTesting;
 import android.text.format.DateUtils;
 import android.util.ArrayMap;
 
-import com.android.internal.os.BatterySipper;
 import com.android.internal.os.BatteryStatsHelper;
-import com.android.settings.Utils;
 import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.anomaly.Anomaly;
 import com.android.settings.fuelgauge.anomaly.AnomalyDetectionPolicy;
 import com.android.settings.fuelgauge.anomaly.AnomalyUtils;
 import com.android.settings.fuelgauge.anomaly.action.AnomalyAction;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -45,6 +42,7 @@ public class BluetoothScanAnomalyDetector implements AnomalyDetector {
     private long mBluetoothScanningThreshold;
     private Context mContext;
     private AnomalyUtils mAnomalyUtils;
+    private long mElapsedRealtimeMs;
 
     public BluetoothScanAnomalyDetector(Context context) {
         this(context, new AnomalyDetectionPolicy(context), AnomalyUtils.getInstance(context));
@@ -68,41 +66,40 @@ public class BluetoothScanAnomalyDetector implements AnomalyDetector {
     @Override
     public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             String targetPackageName) {
-        final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
-        final List<Anomaly> anomalies = new ArrayList<>();
-        final int targetUid = mBatteryUtils.getPackageUid(targetPackageName);
-        final long elapsedRealtimeMs = SystemClock.elapsedRealtime();
-
-        for (int i = 0, size = batterySippers.size(); i < size; i++) {
-            final BatterySipper sipper = batterySippers.get(i);
-            final BatteryStats.Uid uid = sipper.uidObj;
-            if (uid == null
-                    || mBatteryUtils.shouldHideSipper(sipper)
-                    || (targetUid != BatteryUtils.UID_NULL && targetUid != uid.getUid())) {
-                continue;
-            }
-
-            final long bluetoothTimeMs = getBluetoothUnoptimizedBgTimeMs(uid, elapsedRealtimeMs);
-            if (bluetoothTimeMs > mBluetoothScanningThreshold) {
-                final String packageName = mBatteryUtils.getPackageName(uid.getUid());
-                final CharSequence displayName = Utils.getApplicationLabel(mContext,
-                        packageName);
-
-                Anomaly anomaly = new Anomaly.Builder()
-                        .setUid(uid.getUid())
-                        .setType(Anomaly.AnomalyType.BLUETOOTH_SCAN)
-                        .setDisplayName(displayName)
-                        .setPackageName(packageName)
-                        .setBluetoothScanningTimeMs(bluetoothTimeMs)
-                        .build();
-
-                if (mAnomalyUtils.getAnomalyAction(anomaly).isActionActive(anomaly)) {
-                    anomalies.add(anomaly);
-                }
-            }
+        return new AnomalyDetectionEngine(mContext, mBatteryUtils, mAnomalyUtils)
+                .detectAnomalies(batteryStatsHelper, Collections.singletonList(this),
+                        targetPackageName);
+    }
+
+    @Override
+    public boolean prepare(BatteryStatsHelper batteryStatsHelper, long elapsedRealtimeMs) {
+        mElapsedRealtimeMs = elapsedRealtimeMs;
+        return true;
+    }
+
+    @Override
+    public int getAnomalyType() {
+        return Anomaly.AnomalyType.BLUETOOTH_SCAN;
+    }
+
+    @Override
+    public long getCounter(BatteryStats.Uid uid) {
+        return getBluetoothUnoptimizedBgTimeMs(uid, mElapsedRealtimeMs);
+    }
+
+    @Override
+    public Anomaly.Builder checkUid(BatteryStats.Uid uid, long bluetoothTimeMs) {
+        if (bluetoothTimeMs > mBluetoothScanningThreshold) {
+            return new Anomaly.Builder()
+                    .setUid(uid.getUid())
+                    .setType(Anomaly.AnomalyType.BLUETOOTH_SCAN)
+                    .setBluetoothScanningTimeMs(bluetoothTimeMs);
         }
+        return null;
+    }
 
-        return anomalies;
+    @Override
+    public void completeAnomaly(Anomaly.Builder builder, int uid, String packageName) {
     }
 
     @VisibleForTesting
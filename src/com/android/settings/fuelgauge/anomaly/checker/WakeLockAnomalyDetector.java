@@ -19,18 +19,15 @@ package com.android.settings.fuelgauge.anomaly.checker;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.BatteryStats;
-import android.os.SystemClock;
 import android.support.annotation.VisibleForTesting;
 
-import com.android.internal.os.BatterySipper;
 import com.android.internal.os.BatteryStatsHelper;
-import com.android.settings.Utils;
 import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.anomaly.Anomaly;
 import com.android.settings.fuelgauge.anomaly.AnomalyDetectionPolicy;
 import com.android.settings.fuelgauge.anomaly.AnomalyUtils;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -45,6 +42,7 @@ public class WakeLockAnomalyDetector implements AnomalyDetector {
     private PackageManager mPackageManager;
     private Context mContext;
     private AnomalyUtils mAnomalyUtils;
+    private long mRawRealtime;
 
     public WakeLockAnomalyDetector(Context context) {
         this(context, new AnomalyDetectionPolicy(context), AnomalyUtils.getInstance(context));
@@ -69,43 +67,43 @@ public class WakeLockAnomalyDetector implements AnomalyDetector {
     @Override
     public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             String targetPackageName) {
-        final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
-        final List<Anomaly> anomalies = new ArrayList<>();
-        final long rawRealtime = SystemClock.elapsedRealtime();
-        final int targetUid = mBatteryUtils.getPackageUid(targetPackageName);
-
-        // Check the app one by one
-        for (int i = 0, size = batterySippers.size(); i < size; i++) {
-            final BatterySipper sipper = batterySippers.get(i);
-            final BatteryStats.Uid uid = sipper.uidObj;
-            if (uid == null
-                    || mBatteryUtils.shouldHideSipper(sipper)
-                    || (targetUid != BatteryUtils.UID_NULL && targetUid != uid.getUid())) {
-                continue;
-            }
-
-            final long currentDurationMs = getCurrentDurationMs(uid, rawRealtime);
-            final long backgroundDurationMs = getBackgroundTotalDurationMs(uid, rawRealtime);
-
-            if (backgroundDurationMs > mWakeLockThresholdMs && currentDurationMs != 0) {
-                final String packageName = mBatteryUtils.getPackageName(uid.getUid());
-                final CharSequence displayName = Utils.getApplicationLabel(mContext,
-                        packageName);
-
-                Anomaly anomaly = new Anomaly.Builder()
-                        .setUid(uid.getUid())
-                        .setType(Anomaly.AnomalyType.WAKE_LOCK)
-                        .setDisplayName(displayName)
-                        .setPackageName(packageName)
-                        .setWakeLockTimeMs(backgroundDurationMs)
-                        .build();
-
-                if (mAnomalyUtils.getAnomalyAction(anomaly).isActionActive(anomaly)) {
-                    anomalies.add(anomaly);
-                }
-            }
+        return new AnomalyDetectionEngine(mContext, mBatteryUtils, mAnomalyUtils)
+                .detectAnomalies(batteryStatsHelper, Collections.singletonList(this),
+                        targetPackageName);
+    }
+
+    @Override
+    public boolean prepare(BatteryStatsHelper batteryStatsHelper, long elapsedRealtimeMs) {
+        mRawRealtime = elapsedRealtimeMs;
+        return true;
+    }
+
+    @Override
+    public int getAnomalyType() {
+        return Anomaly.AnomalyType.WAKE_LOCK;
+    }
+
+    @Override
+    public long getCounter(BatteryStats.Uid uid) {
+        // The total duration grows as long as the wakelock is held, in background or not.
+        return getTotalDurationMs(uid, mRawRealtime);
+    }
+
+    @Override
+    public Anomaly.Builder checkUid(BatteryStats.Uid uid, long totalDurationMs) {
+        final long backgroundDurationMs = getBackgroundTotalDurationMs(uid, mRawRealtime);
+        if (backgroundDurationMs > mWakeLockThresholdMs
+                && getCurrentDurationMs(uid, mRawRealtime) != 0) {
+            return new Anomaly.Builder()
+                    .setUid(uid.getUid())
+                    .setType(Anomaly.AnomalyType.WAKE_LOCK)
+                    .setWakeLockTimeMs(backgroundDurationMs);
         }
-        return anomalies;
+        return null;
+    }
+
+    @Override
+    public void completeAnomaly(Anomaly.Builder builder, int uid, String packageName) {
     }
 
     @VisibleForTesting
@@ -115,6 +113,13 @@ public class WakeLockAnomalyDetector implements AnomalyDetector {
         return timer != null ? timer.getCurrentDurationMsLocked(elapsedRealtimeMs) : 0;
     }
 
+    @VisibleForTesting
+    long getTotalDurationMs(BatteryStats.Uid uid, long elapsedRealtimeMs) {
+        BatteryStats.Timer timer = uid.getAggregatedPartialWakelockTimer();
+
+        return timer != null ? timer.getTotalDurationMsLocked(elapsedRealtimeMs) : 0;
+    }
+
     @VisibleForTesting
     long getBackgroundTotalDurationMs(BatteryStats.Uid uid, long elapsedRealtimeMs) {
         BatteryStats.Timer timer = uid.getAggregatedPartialWakelockTimer();
@@ -22,15 +22,13 @@ import android.support.annotation.VisibleForTesting;
 import android.text.format.DateUtils;
 import android.util.ArrayMap;
 
-import com.android.internal.os.BatterySipper;
 import com.android.internal.os.BatteryStatsHelper;
-import com.android.settings.Utils;
 import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.anomaly.Anomaly;
 import com.android.settings.fuelgauge.anomaly.AnomalyDetectionPolicy;
 import com.android.settings.fuelgauge.anomaly.AnomalyUtils;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,6 +44,7 @@ public class WakeupAlarmAnomalyDetector implements AnomalyDetector {
     private Set<String> mWakeupBlacklistedTags;
     private Context mContext;
     private AnomalyUtils mAnomalyUtils;
+    private double mTotalRunningHours;
 
     public WakeupAlarmAnomalyDetector(Context context) {
         this(context, new AnomalyDetectionPolicy(context), AnomalyUtils.getInstance(context));
@@ -70,51 +69,47 @@ public class WakeupAlarmAnomalyDetector implements AnomalyDetector {
     @Override
     public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             String targetPackageName) {
-        final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
-        final List<Anomaly> anomalies = new ArrayList<>();
-        final double totalRunningHours = mBatteryUtils.calculateRunningTimeBasedOnStatsType(
+        return new AnomalyDetectionEngine(mContext, mBatteryUtils, mAnomalyUtils)
+                .detectAnomalies(batteryStatsHelper, Collections.singletonList(this),
+                        targetPackageName);
+    }
+
+    @Override
+    public boolean prepare(BatteryStatsHelper batteryStatsHelper, long elapsedRealtimeMs) {
+        mTotalRunningHours = mBatteryUtils.calculateRunningTimeBasedOnStatsType(
                 batteryStatsHelper, BatteryStats.STATS_SINCE_CHARGED)
                 / (double) DateUtils.HOUR_IN_MILLIS;
-        final int targetUid = mBatteryUtils.getPackageUid(targetPackageName);
-
-        if (totalRunningHours >= 1) {
-            for (int i = 0, size = batterySippers.size(); i < size; i++) {
-                final BatterySipper sipper = batterySippers.get(i);
-                final BatteryStats.Uid uid = sipper.uidObj;
-                if (uid == null
-                        || mBatteryUtils.shouldHideSipper(sipper)
-                        || (targetUid != BatteryUtils.UID_NULL && targetUid != uid.getUid())) {
-                    continue;
-                }
+        return mTotalRunningHours >= 1;
+    }
 
-                final int wakeupAlarmCount = (int) (getWakeupAlarmCountFromUid(uid)
-                        / totalRunningHours);
-                if (wakeupAlarmCount > mWakeupAlarmThreshold) {
-                    final String packageName = mBatteryUtils.getPackageName(uid.getUid());
-                    final CharSequence displayName = Utils.getApplicationLabel(mContext,
-                            packageName);
-                    final int targetSdkVersion = mBatteryUtils.getTargetSdkVersion(packageName);
-
-                    Anomaly anomaly = new Anomaly.Builder()
-                            .setUid(uid.getUid())
-                            .setType(Anomaly.AnomalyType.WAKEUP_ALARM)
-                            .setDisplayName(displayName)
-                            .setPackageName(packageName)
-                            .setTargetSdkVersion(targetSdkVersion)
-                            .setBackgroundRestrictionEnabled(
-                                    mBatteryUtils.isBackgroundRestrictionEnabled(targetSdkVersion,
-                                            uid.getUid(), packageName))
-                            .setWakeupAlarmCount(wakeupAlarmCount)
-                            .build();
-
-                    if (mAnomalyUtils.getAnomalyAction(anomaly).isActionActive(anomaly)) {
-                        anomalies.add(anomaly);
-                    }
-                }
-            }
+    @Override
+    public int getAnomalyType() {
+        return Anomaly.AnomalyType.WAKEUP_ALARM;
+    }
+
+    @Override
+    public long getCounter(BatteryStats.Uid uid) {
+        return getWakeupAlarmCountFromUid(uid);
+    }
+
+    @Override
+    public Anomaly.Builder checkUid(BatteryStats.Uid uid, long wakeupAlarms) {
+        final int wakeupAlarmCount = (int) (wakeupAlarms / mTotalRunningHours);
+        if (wakeupAlarmCount > mWakeupAlarmThreshold) {
+            return new Anomaly.Builder()
+                    .setUid(uid.getUid())
+                    .setType(Anomaly.AnomalyType.WAKEUP_ALARM)
+                    .setWakeupAlarmCount(wakeupAlarmCount);
         }
+        return null;
+    }
 
-        return anomalies;
+    @Override
+    public void completeAnomaly(Anomaly.Builder builder, int uid, String packageName) {
+        final int targetSdkVersion = mBatteryUtils.getTargetSdkVersion(packageName);
+        builder.setTargetSdkVersion(targetSdkVersion)
+                .setBackgroundRestrictionEnabled(mBatteryUtils.isBackgroundRestrictionEnabled(
+                        targetSdkVersion, uid, packageName));
     }
 
     @VisibleForTesting
@@ -19,13 +19,14 @@ package com.android.settings.search;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.os.BadParcelableException;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.settings.dashboard.IconLoader;
 import com.android.settings.dashboard.SiteMapManager;
 
 import java.util.Arrays;
@@ -36,6 +37,7 @@ import java.util.Map;
 import java.util.Set;
 
 import static com.android.settings.search.DatabaseResultLoader.BASE_RANKS;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_BASE_RANK;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_CLASS_NAME;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ICON;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ID;
@@ -64,7 +66,15 @@ public class CursorToSearchResultConverter {
 
     private final Context mContext;
 
-    private final int LONG_TITLE_LENGTH = 20;
+    /** Time spent building breadcrumbs since the start of the current conversion. */
+    private long mBreadcrumbNanos;
+
+    private static final int LONG_TITLE_LENGTH = 20;
+
+    /**
+     * Shared by all converters, since a new converter is created for every query.
+     */
+    private static final ResultPayloadCache sPayloadCache = new ResultPayloadCache();
 
     private static final String[] whiteList = {
             "main_toggle_wifi",
@@ -85,24 +95,51 @@ public class CursorToSearchResultConverter {
         mContext = context;
     }
 
-    public Set<SearchResult> convertCursor(SiteMapManager sitemapManager,
-            Cursor cursorResults, int baseRank) {
+    /**
+     * Converts a cursor whose rows each carry their own base rank in
+     * {@link DatabaseResultLoader#COLUMN_INDEX_BASE_RANK}, so that every row is converted once
+     * regardless of how many ranking tiers it matched.
+     */
+    public Set<SearchResult> convertRankedCursor(SiteMapManager sitemapManager,
+            Cursor cursorResults) {
         if (cursorResults == null) {
             return null;
         }
+        final long startNanos = System.nanoTime();
+        mBreadcrumbNanos = 0;
         final Map<String, Context> contextMap = new HashMap<>();
         final Set<SearchResult> results = new HashSet<>();
 
         while (cursorResults.moveToNext()) {
+            final int baseRank = cursorResults.getInt(COLUMN_INDEX_BASE_RANK);
             SearchResult result = buildSingleSearchResultFromCursor(sitemapManager,
                     contextMap, cursorResults, baseRank);
             if (result != null) {
                 results.add(result);
             }
         }
+        SearchLatencyLogger.logSince(mContext, SearchLatencyLogger.RESULT_CONVERSION, startNanos);
+        SearchLatencyLogger.log(mContext, SearchLatencyLogger.BREADCRUMBS, mBreadcrumbNanos);
         return results;
     }
 
+    /**
+     * Same as {@link #getUnmarshalledPayload(byte[], int)}, but reuses the payload last
+     * unmarshalled for {@param docId} if the marshalled payload has not changed.
+     */
+    @VisibleForTesting
+    static ResultPayload getUnmarshalledPayload(int docId, byte[] marshalledPayload,
+            int payloadType) {
+        ResultPayload payload = sPayloadCache.get(docId, payloadType, marshalledPayload);
+        if (payload == null) {
+            payload = getUnmarshalledPayload(marshalledPayload, payloadType);
+            if (payload != null) {
+                sPayloadCache.put(docId, payloadType, marshalledPayload, payload);
+            }
+        }
+        return payload;
+    }
+
     public static ResultPayload getUnmarshalledPayload(byte[] marshalledPayload,
             int payloadType) {
         try {
@@ -134,7 +171,8 @@ public class CursorToSearchResultConverter {
         final String iconResStr = cursor.getString(COLUMN_INDEX_ICON);
         final int payloadType = cursor.getInt(COLUMN_INDEX_PAYLOAD_TYPE);
         final byte[] marshalledPayload = cursor.getBlob(COLUMN_INDEX_PAYLOAD);
-        final ResultPayload payload = getUnmarshalledPayload(marshalledPayload, payloadType);
+        final ResultPayload payload = getUnmarshalledPayload(docId, marshalledPayload,
+                payloadType);
 
         final List<String> breadcrumbs = getBreadcrumbs(sitemapManager, cursor);
         final int rank = getRank(title, baseRank, key);
@@ -154,39 +192,45 @@ public class CursorToSearchResultConverter {
             String className, String iconResStr) {
         final int iconId = TextUtils.isEmpty(iconResStr)
                 ? 0 : Integer.parseInt(iconResStr);
-        Drawable icon;
-        Context packageContext;
         if (iconId == 0) {
-            icon = null;
-        } else {
-            if (TextUtils.isEmpty(className) && !TextUtils.isEmpty(pkgName)) {
-                packageContext = contextMap.get(pkgName);
-                if (packageContext == null) {
-                    try {
-                        packageContext = mContext.createPackageContext(pkgName, 0);
-                    } catch (PackageManager.NameNotFoundException e) {
-                        Log.e(TAG, "Cannot create Context for package: " + pkgName);
-                        return null;
-                    }
-                    contextMap.put(pkgName, packageContext);
-                }
-            } else {
-                packageContext = mContext;
+            return null;
+        }
+        final IconLoader iconLoader = IconLoader.getInstance(mContext);
+        Context packageContext;
+        if (TextUtils.isEmpty(className) && !TextUtils.isEmpty(pkgName)) {
+            final String iconKey = pkgName + ":" + iconId;
+            final Drawable icon = iconLoader.getCachedIcon(mContext.getResources(), iconKey);
+            if (icon != null) {
+                return icon;
             }
-            try {
-                icon = packageContext.getDrawable(iconId);
-            } catch (Resources.NotFoundException nfe) {
-                icon = null;
+            packageContext = contextMap.get(pkgName);
+            if (packageContext == null) {
+                try {
+                    packageContext = mContext.createPackageContext(pkgName, 0);
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.e(TAG, "Cannot create Context for package: " + pkgName);
+                    return null;
+                }
+                contextMap.put(pkgName, packageContext);
             }
+            return iconLoader.getIcon(packageContext, iconKey, iconId);
         }
-        return icon;
+        packageContext = mContext;
+        return iconLoader.getIcon(packageContext, packageContext.getPackageName() + ":" + iconId,
+                iconId);
     }
 
     private List<String> getBreadcrumbs(SiteMapManager siteMapManager, Cursor cursor) {
         final String screenTitle = cursor.getString(COLUMN_INDEX_SCREEN_TITLE);
         final String screenClass = cursor.getString(COLUMN_INDEX_CLASS_NAME);
-        return siteMapManager == null ? null : siteMapManager.buildBreadCrumb(mContext, screenClass,
-                screenTitle);
+        if (siteMapManager == null) {
+            return null;
+        }
+        final long startNanos = System.nanoTime();
+        final List<String> breadcrumbs =
+                siteMapManager.buildBreadCrumb(mContext, screenClass, screenTitle);
+        mBreadcrumbNanos += System.nanoTime() - startNanos;
+        return breadcrumbs;
     }
 
     /** Uses the breadcrumbs to determine the offset to the base rank.
@@ -203,7 +247,7 @@ public class CursorToSearchResultConverter {
      * @param baseRank of the result. Lower if it's a better result.
      * @return
      */
-    private int getRank(String title, int baseRank, String key) {
+    static int getRank(String title, int baseRank, String key) {
         // The result can only be prioritized if it is a top ranked result.
         if (prioritySettings.contains(key) && baseRank < BASE_RANKS[1]) {
             return TOP_RANK;
@@ -47,6 +47,7 @@ import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.CLASS
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_ENTRIES;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_KEYWORDS;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_KEY_REF;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_PACKAGE;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_RANK;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_OFF;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns
@@ -83,6 +84,7 @@ import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Process;
 import android.provider.SearchIndexableData;
 import android.provider.SearchIndexableResource;
 import android.provider.SearchIndexablesContract;
@@ -96,6 +98,7 @@ import android.util.Xml;
 
 import com.android.settings.SettingsActivity;
 import com.android.settings.core.PreferenceControllerMixin;
+import com.android.settings.dashboard.SiteMapManager;
 import com.android.settings.overlay.FeatureFactory;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -110,6 +113,14 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -134,6 +145,14 @@ public class DatabaseIndexingManager {
 
     private static final List<String> EMPTY_LIST = Collections.emptyList();
 
+    /**
+     * Upper bound on the number of threads querying providers and parsing resources. In-process
+     * indexables are only ever called from the indexing thread.
+     */
+    @VisibleForTesting
+    static final int MAX_INDEXING_THREADS = 4;
+    private static final long INDEXING_THREAD_KEEP_ALIVE_SECONDS = 5;
+
     private final String mBaseAuthority;
 
     @VisibleForTesting
@@ -142,6 +161,17 @@ public class DatabaseIndexingManager {
     @VisibleForTesting
     final UpdateData mDataToProcess = new UpdateData();
     private Context mContext;
+    private ExecutorService mIndexingExecutor;
+    /**
+     * Package whose rows the current full index restored from a snapshot. Only the dynamic raw
+     * data of its indexables is indexed again.
+     */
+    private volatile String mRestoredPackage;
+    /**
+     * Doc ids of the rows built from dynamic raw data during the current full index, which are
+     * left out of the snapshot.
+     */
+    private final Set<Integer> mDynamicDocIds = Collections.synchronizedSet(new ArraySet<>());
 
     public DatabaseIndexingManager(Context context, String baseAuthority) {
         mContext = context;
@@ -178,12 +208,29 @@ public class DatabaseIndexingManager {
                 IndexDatabaseHelper.buildProviderVersionedNames(providers);
 
         final boolean isFullIndex = IndexDatabaseHelper.isFullIndex(mContext, localeStr,
-                fingerprint, providerVersionedNames);
-
+                fingerprint);
+        // Providers which have been added, removed or updated since the last index are
+        // reindexed on their own, without rebuilding the rest of the database.
+        final Set<String> changedProviders = isFullIndex
+                ? Collections.emptySet()
+                : IndexDatabaseHelper.getChangedProviders(mContext, providerVersionedNames);
+
+        // Settings' own rows only depend on the build and locale, and may have been saved by an
+        // earlier full index. Their dynamic raw data is indexed again though.
+        final String ownPackage = mContext.getPackageName();
+        boolean isSnapshotRestored = false;
+        mDynamicDocIds.clear();
         if (isFullIndex) {
             rebuildDatabase();
+            isSnapshotRestored = restoreSnapshot(localeStr, fingerprint);
+        } else if (!changedProviders.isEmpty()) {
+            addStalePackages(changedProviders);
         }
+        mRestoredPackage = isSnapshotRestored ? ownPackage : null;
 
+        // Each provider lives in its own process, so they are queried concurrently. Results are
+        // accumulated in mDataToProcess, which is safe to update from any thread.
+        final List<Callable<Void>> providerTasks = new ArrayList<>();
         for (final ResolveInfo info : providers) {
             if (!DatabaseIndexingUtils.isWellKnownProvider(info, mContext)) {
                 continue;
@@ -191,23 +238,43 @@ public class DatabaseIndexingManager {
             final String authority = info.providerInfo.authority;
             final String packageName = info.providerInfo.packageName;
 
-            if (isFullIndex) {
-                addIndexablesFromRemoteProvider(packageName, authority);
-            }
-            final long nonIndexableStartTime = System.currentTimeMillis();
-            addNonIndexablesKeysFromRemoteProvider(packageName, authority);
-            if (SettingsSearchIndexablesProvider.DEBUG) {
-                final long nonIndextableTime = System.currentTimeMillis() - nonIndexableStartTime;
-                Log.d(LOG_TAG, "performIndexing update non-indexable for package " + packageName
-                        + " took time: " + nonIndextableTime);
-            }
+            providerTasks.add(() -> {
+                if (isFullIndex || changedProviders.contains(packageName)) {
+                    addIndexablesFromRemoteProvider(packageName, authority);
+                }
+                final long nonIndexableStartTime = System.currentTimeMillis();
+                addNonIndexablesKeysFromRemoteProvider(packageName, authority);
+                if (SettingsSearchIndexablesProvider.DEBUG) {
+                    final long nonIndextableTime =
+                            System.currentTimeMillis() - nonIndexableStartTime;
+                    Log.d(LOG_TAG, "performIndexing update non-indexable for package "
+                            + packageName + " took time: " + nonIndextableTime);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> future : submitIndexingTasks(providerTasks)) {
+            getIndexingResult(future);
+        }
+        if (isSnapshotRestored) {
+            // The snapshot may have been saved with different non-indexable keys.
+            updateSnapshotEnabledState();
         }
         final long updateDatabaseStartTime = System.currentTimeMillis();
         updateDatabase(isFullIndex, localeStr);
+        mRestoredPackage = null;
         if (SettingsSearchIndexablesProvider.DEBUG) {
             final long updateDatabaseTime = System.currentTimeMillis() - updateDatabaseStartTime;
             Log.d(LOG_TAG, "performIndexing updateDatabase took time: " + updateDatabaseTime);
         }
+        if (isFullIndex && !isSnapshotRestored) {
+            saveSnapshot(localeStr, fingerprint, ownPackage);
+        }
+        if (isFullIndex || !changedProviders.isEmpty()) {
+            // The site map only changes with the indexed rows, rebuild it while still in the
+            // background.
+            SiteMapManager.onIndexUpdated(mContext);
+        }
 
         //TODO(63922686): Setting indexed should be a single method, not 3 separate setters.
         IndexDatabaseHelper.setLocaleIndexed(mContext, localeStr);
@@ -217,7 +284,8 @@ public class DatabaseIndexingManager {
         if (SettingsSearchIndexablesProvider.DEBUG) {
             final long indexingTime = System.currentTimeMillis() - startTime;
             Log.d(LOG_TAG, "performIndexing took time: " + indexingTime
-                    + "ms. Full index? " + isFullIndex);
+                    + "ms. Full index? " + isFullIndex + ", from snapshot? " + isSnapshotRestored
+                    + ", changed providers: " + changedProviders);
         }
     }
 
@@ -233,10 +301,50 @@ public class DatabaseIndexingManager {
         IndexDatabaseHelper.getInstance(mContext).reconstruct(db);
     }
 
+    private boolean restoreSnapshot(String localeStr, String fingerprint) {
+        final SQLiteDatabase database = getWritableDatabase();
+        return database != null
+                && IndexSnapshot.restore(mContext, database, localeStr, fingerprint);
+    }
+
+    private void saveSnapshot(String localeStr, String fingerprint, String packageName) {
+        final SQLiteDatabase database = getWritableDatabase();
+        if (database != null) {
+            final List<Integer> dynamicDocIds;
+            synchronized (mDynamicDocIds) {
+                dynamicDocIds = new ArrayList<>(mDynamicDocIds);
+            }
+            IndexSnapshot.save(mContext, database, localeStr, fingerprint, packageName,
+                    dynamicDocIds);
+        }
+    }
+
+    /**
+     * Applies the non-indexable keys gathered so far to the rows restored from a snapshot, which
+     * are the only rows in the database at this point of a full index.
+     */
+    private void updateSnapshotEnabledState() {
+        final Map<String, Set<String>> nonIndexableKeys;
+        synchronized (mDataToProcess) {
+            nonIndexableKeys = new HashMap<>(mDataToProcess.nonIndexableKeys);
+        }
+        final SQLiteDatabase database = getWritableDatabase();
+        if (database == null) {
+            return;
+        }
+        try {
+            database.beginTransaction();
+            updateDataInDatabase(database, nonIndexableKeys);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
     /**
      * Adds new data to the database and verifies the correctness of the ENABLED column.
      * First, the data to be updated and all non-indexable keys are copied locally.
-     * Then all new data to be added is inserted.
+     * Then the data of stale packages is deleted, and all new data to be added is inserted.
      * Then search results are verified to have the correct value of enabled.
      * Finally, we record that the locale has been indexed.
      *
@@ -254,6 +362,7 @@ public class DatabaseIndexingManager {
 
         final List<SearchIndexableData> dataToUpdate = copy.dataToUpdate;
         final Map<String, Set<String>> nonIndexableKeys = copy.nonIndexableKeys;
+        final Set<String> stalePackages = copy.stalePackages;
 
         final SQLiteDatabase database = getWritableDatabase();
         if (database == null) {
@@ -264,6 +373,11 @@ public class DatabaseIndexingManager {
         try {
             database.beginTransaction();
 
+            // Remove the data of providers which are being reindexed.
+            if (stalePackages.size() > 0) {
+                deleteDataFromPackages(database, stalePackages);
+            }
+
             // Add new data from Providers at initial index time, or inserted later.
             if (dataToUpdate.size() > 0) {
                 addDataToDatabase(database, localeStr, dataToUpdate, nonIndexableKeys);
@@ -295,12 +409,43 @@ public class DatabaseIndexingManager {
             List<SearchIndexableData> dataToUpdate, Map<String, Set<String>> nonIndexableKeys) {
         final long current = System.currentTimeMillis();
 
-        for (SearchIndexableData data : dataToUpdate) {
+        // The in-process indexable providers and preference controllers are called from this
+        // thread, one at a time, as they were never written to be called concurrently. Only the
+        // parsing of the XML resources is spread over the indexing pool. The rows are written
+        // from this thread, which owns the transaction, in the order of dataToUpdate, so that
+        // later data still replaces earlier data with the same doc id.
+        final int size = dataToUpdate.size();
+        final List<List<DatabaseRow>> providerRows = new ArrayList<>(size);
+        final List<Callable<List<DatabaseRow>>> parseTasks = new ArrayList<>();
+        final int[] parseTaskEnds = new int[size];
+        for (int i = 0; i < size; i++) {
+            final SearchIndexableData data = dataToUpdate.get(i);
+            final int parseTaskStart = parseTasks.size();
+            List<DatabaseRow> rows = new ArrayList<>();
             try {
-                indexOneSearchIndexableData(database, localeStr, data, nonIndexableKeys);
+                buildRows(rows, parseTasks, localeStr, data, nonIndexableKeys);
             } catch (Exception e) {
                 Log.e(LOG_TAG, "Cannot index: " + (data != null ? data.className : data)
                         + " for locale: " + localeStr, e);
+                rows = null;
+                parseTasks.subList(parseTaskStart, parseTasks.size()).clear();
+            }
+            providerRows.add(rows);
+            parseTaskEnds[i] = parseTasks.size();
+        }
+
+        final List<Future<List<DatabaseRow>>> futures = submitIndexingTasks(parseTasks);
+        int parseTask = 0;
+        for (int i = 0; i < size; i++) {
+            final List<DatabaseRow> rows = providerRows.get(i);
+            if (rows != null) {
+                insertRows(database, rows);
+            }
+            for (; parseTask < parseTaskEnds[i]; parseTask++) {
+                final List<DatabaseRow> parsedRows = getIndexingResult(futures.get(parseTask));
+                if (parsedRows != null) {
+                    insertRows(database, parsedRows);
+                }
             }
         }
 
@@ -309,6 +454,19 @@ public class DatabaseIndexingManager {
                 (now - current) + " millis");
     }
 
+    /**
+     * Deletes the rows which were indexed from the given packages.
+     *
+     * @param database     The database to delete from.
+     * @param packageNames The packages whose providers are being reindexed.
+     */
+    @VisibleForTesting
+    void deleteDataFromPackages(SQLiteDatabase database, Set<String> packageNames) {
+        for (String packageName : packageNames) {
+            database.delete(TABLE_PREFS_INDEX, DATA_PACKAGE + " = ?", new String[] {packageName});
+        }
+    }
+
     /**
      * Upholds the validity of enabled data for the user.
      * All rows which are enabled but are now flagged with non-indexable keys will become disabled.
@@ -462,6 +620,16 @@ public class DatabaseIndexingManager {
         }
     }
 
+    /**
+     * Marks the data of {@param packageNames} to be deleted on the next database update, before
+     * any new data is inserted.
+     */
+    private void addStalePackages(Set<String> packageNames) {
+        synchronized (mDataToProcess) {
+            mDataToProcess.stalePackages.addAll(packageNames);
+        }
+    }
+
     public void addNonIndexableKeys(String authority, List<String> keys) {
         synchronized (mDataToProcess) {
             if (keys != null && !keys.isEmpty()) {
@@ -498,6 +666,61 @@ public class DatabaseIndexingManager {
         });
     }
 
+    /**
+     * Submits {@param tasks} to the indexing pool, or runs it on the calling thread if there is
+     * at most one task.
+     *
+     * @return the futures of the tasks, in the same order.
+     */
+    private <T> List<Future<T>> submitIndexingTasks(List<Callable<T>> tasks) {
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        if (tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                final FutureTask<T> future = new FutureTask<>(task);
+                future.run();
+                futures.add(future);
+            }
+            return futures;
+        }
+        final ExecutorService executor = getIndexingExecutor();
+        for (Callable<T> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        return futures;
+    }
+
+    /**
+     * Waits for {@param future}, returning its result or null if the task failed.
+     */
+    private <T> T getIndexingResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true /* mayInterruptIfRunning */);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Indexing task failed", e.getCause());
+        }
+        return null;
+    }
+
+    private synchronized ExecutorService getIndexingExecutor() {
+        if (mIndexingExecutor == null) {
+            final int threads = Math.max(1,
+                    Math.min(MAX_INDEXING_THREADS, Runtime.getRuntime().availableProcessors()));
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                    INDEXING_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, "SearchIndexing"));
+            // Indexing is infrequent, don't keep the threads around in between.
+            executor.allowCoreThreadTimeOut(true);
+            mIndexingExecutor = executor;
+        }
+        return mIndexingExecutor;
+    }
+
     private SQLiteDatabase getWritableDatabase() {
         try {
             return IndexDatabaseHelper.getInstance(mContext).getWritableDatabase();
@@ -628,14 +851,49 @@ public class DatabaseIndexingManager {
 
     public void indexOneSearchIndexableData(SQLiteDatabase database, String localeStr,
             SearchIndexableData data, Map<String, Set<String>> nonIndexableKeys) {
+        insertRows(database, buildRows(localeStr, data, nonIndexableKeys));
+    }
+
+    /**
+     * Builds the rows for {@param data} without touching the database.
+     */
+    @VisibleForTesting
+    List<DatabaseRow> buildRows(String localeStr, SearchIndexableData data,
+            Map<String, Set<String>> nonIndexableKeys) {
+        final List<DatabaseRow> rows = new ArrayList<>();
+        final List<Callable<List<DatabaseRow>>> parseTasks = new ArrayList<>();
+        buildRows(rows, parseTasks, localeStr, data, nonIndexableKeys);
+        for (Callable<List<DatabaseRow>> parseTask : parseTasks) {
+            final List<DatabaseRow> parsedRows;
+            try {
+                parsedRows = parseTask.call();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            if (parsedRows != null) {
+                rows.addAll(parsedRows);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Adds the rows for {@param data} to {@param rows}, calling its in-process provider if any,
+     * and the tasks parsing its XML resources to {@param parseTasks}. The parse tasks don't call
+     * into indexables, so they can run on any thread, and their rows come after {@param rows}.
+     */
+    private void buildRows(List<DatabaseRow> rows, List<Callable<List<DatabaseRow>>> parseTasks,
+            String localeStr, SearchIndexableData data,
+            Map<String, Set<String>> nonIndexableKeys) {
         if (data instanceof SearchIndexableResource) {
-            indexOneResource(database, localeStr, (SearchIndexableResource) data, nonIndexableKeys);
+            indexOneResource(rows, parseTasks, localeStr, (SearchIndexableResource) data,
+                    nonIndexableKeys);
         } else if (data instanceof SearchIndexableRaw) {
-            indexOneRaw(database, localeStr, (SearchIndexableRaw) data, nonIndexableKeys);
+            indexOneRaw(rows, localeStr, (SearchIndexableRaw) data, nonIndexableKeys);
         }
     }
 
-    private void indexOneRaw(SQLiteDatabase database, String localeStr,
+    private void indexOneRaw(List<DatabaseRow> rows, String localeStr,
             SearchIndexableRaw raw, Map<String, Set<String>> nonIndexableKeysFromResource) {
         // Should be the same locale as the one we are processing
         if (!raw.locale.toString().equalsIgnoreCase(localeStr)) {
@@ -661,13 +919,15 @@ public class DatabaseIndexingManager {
                 .setIntentTargetClass(raw.intentTargetClass)
                 .setEnabled(enabled)
                 .setKey(raw.key)
-                .setUserId(raw.userId);
+                .setUserId(raw.userId)
+                .setPackageName(raw.packageName);
 
-        updateOneRowWithFilteredData(database, builder, raw.title, raw.summaryOn, raw.summaryOff,
+        updateOneRowWithFilteredData(rows, builder, raw.title, raw.summaryOn, raw.summaryOff,
                 raw.keywords);
     }
 
-    private void indexOneResource(SQLiteDatabase database, String localeStr,
+    private void indexOneResource(List<DatabaseRow> rows,
+            List<Callable<List<DatabaseRow>>> parseTasks, String localeStr,
             SearchIndexableResource sir, Map<String, Set<String>> nonIndexableKeysFromResource) {
 
         if (sir == null) {
@@ -676,14 +936,19 @@ public class DatabaseIndexingManager {
         }
 
         final List<String> nonIndexableKeys = new ArrayList<String>();
+        // The rows of the resources of a restored package are already in the database.
+        final boolean isRestored = TextUtils.equals(sir.packageName, mRestoredPackage);
 
         if (sir.xmlResId > SearchIndexableResources.NO_DATA_RES_ID) {
+            if (isRestored) {
+                return;
+            }
             Set<String> resNonIndexableKeys = nonIndexableKeysFromResource.get(sir.packageName);
             if (resNonIndexableKeys != null && resNonIndexableKeys.size() > 0) {
                 nonIndexableKeys.addAll(resNonIndexableKeys);
             }
 
-            indexFromResource(database, localeStr, sir, nonIndexableKeys);
+            parseTasks.add(newParseTask(localeStr, sir, nonIndexableKeys));
         } else {
             if (TextUtils.isEmpty(sir.className)) {
                 Log.w(LOG_TAG, "Cannot index an empty Search Provider name!");
@@ -707,7 +972,8 @@ public class DatabaseIndexingManager {
                     nonIndexableKeys.addAll(providerNonIndexableKeys);
                 }
 
-                indexFromProvider(database, localeStr, provider, sir, nonIndexableKeys);
+                indexFromProvider(rows, parseTasks, localeStr, provider, sir, nonIndexableKeys,
+                        isRestored /* rawDataOnly */);
             }
         }
     }
@@ -715,6 +981,40 @@ public class DatabaseIndexingManager {
     @VisibleForTesting
     void indexFromResource(SQLiteDatabase database, String localeStr,
             SearchIndexableResource sir, List<String> nonIndexableKeys) {
+        final List<DatabaseRow> rows = new ArrayList<>();
+        indexFromResource(rows, localeStr, sir, nonIndexableKeys, getControllerUriMap(sir));
+        insertRows(database, rows);
+    }
+
+    /**
+     * Returns a task parsing {@param sir}. The preference controllers of its fragment are built
+     * right away, on the calling thread, so that the task itself only parses XML.
+     */
+    private Callable<List<DatabaseRow>> newParseTask(String localeStr,
+            SearchIndexableResource sir, List<String> nonIndexableKeys) {
+        final Map<String, PreferenceControllerMixin> controllerUriMap = getControllerUriMap(sir);
+        return () -> {
+            final List<DatabaseRow> rows = new ArrayList<>();
+            try {
+                indexFromResource(rows, localeStr, sir, nonIndexableKeys, controllerUriMap);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Cannot index: " + sir.className + " for locale: " + localeStr, e);
+                return null;
+            }
+            return rows;
+        };
+    }
+
+    private Map<String, PreferenceControllerMixin> getControllerUriMap(
+            SearchIndexableResource sir) {
+        return sir.className != null
+                ? DatabaseIndexingUtils.getPreferenceControllerUriMap(sir.className, sir.context)
+                : null;
+    }
+
+    private void indexFromResource(List<DatabaseRow> rows, String localeStr,
+            SearchIndexableResource sir, List<String> nonIndexableKeys,
+            Map<String, PreferenceControllerMixin> controllerUriMap) {
         final Context context = sir.context;
         XmlResourceParser parser = null;
         try {
@@ -755,13 +1055,7 @@ public class DatabaseIndexingManager {
             final String intentAction = sir.intentAction;
             final String intentTargetPackage = sir.intentTargetPackage;
             final String intentTargetClass = sir.intentTargetClass;
-
-            Map<String, PreferenceControllerMixin> controllerUriMap = null;
-
-            if (fragmentName != null) {
-                controllerUriMap = DatabaseIndexingUtils
-                        .getPreferenceControllerUriMap(fragmentName, context);
-            }
+            final String packageName = sir.packageName;
 
             // Insert rows for the main PreferenceScreen node. Rewrite the data for removing
             // hyphens.
@@ -783,7 +1077,8 @@ public class DatabaseIndexingManager {
                     .setIntentTargetClass(intentTargetClass)
                     .setEnabled(enabled)
                     .setKey(key)
-                    .setUserId(-1 /* default user id */);
+                    .setUserId(-1 /* default user id */)
+                    .setPackageName(packageName);
 
             // Flag for XML headers which a child element's title.
             boolean isHeaderUnique = true;
@@ -818,7 +1113,8 @@ public class DatabaseIndexingManager {
                         .setIntentTargetClass(intentTargetClass)
                         .setEnabled(enabled)
                         .setKey(key)
-                        .setUserId(-1 /* default user id */);
+                        .setUserId(-1 /* default user id */)
+                        .setPackageName(packageName);
 
                 if (!nodeName.equals(NODE_NAME_CHECK_BOX_PREFERENCE)) {
                     summary = XmlParserUtils.getDataSummary(context, attrs);
@@ -838,7 +1134,7 @@ public class DatabaseIndexingManager {
                             .setPayload(payload);
 
                     // Insert rows for the child nodes of PreferenceScreen
-                    updateOneRowWithFilteredData(database, builder, title, summary,
+                    updateOneRowWithFilteredData(rows, builder, title, summary,
                             null /* summary off */, keywords);
                 } else {
                     String summaryOn = XmlParserUtils.getDataSummaryOn(context, attrs);
@@ -848,14 +1144,14 @@ public class DatabaseIndexingManager {
                         summaryOn = XmlParserUtils.getDataSummary(context, attrs);
                     }
 
-                    updateOneRowWithFilteredData(database, builder, title, summaryOn, summaryOff,
+                    updateOneRowWithFilteredData(rows, builder, title, summaryOn, summaryOff,
                             keywords);
                 }
             }
 
             // The xml header's title does not match the title of one of the child settings.
             if (isHeaderUnique) {
-                updateOneRowWithFilteredData(database, headerBuilder, headerTitle, headerSummary,
+                updateOneRowWithFilteredData(rows, headerBuilder, headerTitle, headerSummary,
                         null /* summary off */, headerKeywords);
             }
         } catch (XmlPullParserException e) {
@@ -867,13 +1163,15 @@ public class DatabaseIndexingManager {
         }
     }
 
-    private void indexFromProvider(SQLiteDatabase database, String localeStr,
+    private void indexFromProvider(List<DatabaseRow> rows,
+            List<Callable<List<DatabaseRow>>> parseTasks, String localeStr,
             Indexable.SearchIndexProvider provider, SearchIndexableResource sir,
-            List<String> nonIndexableKeys) {
+            List<String> nonIndexableKeys, boolean rawDataOnly) {
 
         final String className = sir.className;
         final String intentAction = sir.intentAction;
         final String intentTargetPackage = sir.intentTargetPackage;
+        final String packageName = sir.packageName;
 
         if (provider == null) {
             Log.w(LOG_TAG, "Cannot find provider: " + className);
@@ -906,12 +1204,17 @@ public class DatabaseIndexingManager {
                         .setIntentTargetClass(raw.intentTargetClass)
                         .setEnabled(enabled)
                         .setKey(raw.key)
-                        .setUserId(raw.userId);
+                        .setUserId(raw.userId)
+                        .setPackageName(packageName);
 
-                updateOneRowWithFilteredData(database, builder, raw.title, raw.summaryOn,
+                updateOneRowWithFilteredData(rows, builder, raw.title, raw.summaryOn,
                         raw.summaryOff, raw.keywords);
+                mDynamicDocIds.add(rows.get(rows.size() - 1).getDocId());
             }
         }
+        if (rawDataOnly) {
+            return;
+        }
 
         final List<SearchIndexableResource> resList =
                 provider.getXmlResourcesToIndex(mContext, true);
@@ -934,13 +1237,14 @@ public class DatabaseIndexingManager {
                 item.intentTargetPackage = TextUtils.isEmpty(item.intentTargetPackage)
                         ? intentTargetPackage
                         : item.intentTargetPackage;
+                item.packageName = packageName;
 
-                indexFromResource(database, localeStr, item, nonIndexableKeys);
+                parseTasks.add(newParseTask(localeStr, item, nonIndexableKeys));
             }
         }
     }
 
-    private void updateOneRowWithFilteredData(SQLiteDatabase database, DatabaseRow.Builder builder,
+    private void updateOneRowWithFilteredData(List<DatabaseRow> rows, DatabaseRow.Builder builder,
             String title, String summaryOn, String summaryOff, String keywords) {
 
         final String updatedTitle = DatabaseIndexingUtils.normalizeHyphen(title);
@@ -962,7 +1266,14 @@ public class DatabaseIndexingManager {
                 .setNormalizedSummaryOff(normalizedSummaryOff)
                 .setSpaceDelimitedKeywords(spaceDelimitedKeywords);
 
-        updateOneRow(database, builder.build(mContext));
+        rows.add(builder.build(mContext));
+    }
+
+    private void insertRows(SQLiteDatabase database, List<DatabaseRow> rows) {
+        final int size = rows.size();
+        for (int i = 0; i < size; i++) {
+            updateOneRow(database, rows.get(i));
+        }
     }
 
     private void updateOneRow(SQLiteDatabase database, DatabaseRow row) {
@@ -994,6 +1305,10 @@ public class DatabaseIndexingManager {
         values.put(USER_ID, row.userId);
         values.put(PAYLOAD_TYPE, row.payloadType);
         values.put(PAYLOAD, row.payload);
+        // Data added directly by Settings, e.g. from updateFromClassNameResource(), has no
+        // package, but must still be deleted when the provider of Settings is reindexed.
+        values.put(DATA_PACKAGE,
+                row.packageName != null ? row.packageName : mContext.getPackageName());
 
         database.replaceOrThrow(TABLE_PREFS_INDEX, null, values);
 
@@ -1018,17 +1333,20 @@ public class DatabaseIndexingManager {
         public List<SearchIndexableData> dataToUpdate;
         public List<SearchIndexableData> dataToDisable;
         public Map<String, Set<String>> nonIndexableKeys;
+        public Set<String> stalePackages;
 
         public UpdateData() {
             dataToUpdate = new ArrayList<>();
             dataToDisable = new ArrayList<>();
             nonIndexableKeys = new HashMap<>();
+            stalePackages = new ArraySet<>();
         }
 
         public UpdateData(UpdateData other) {
             dataToUpdate = new ArrayList<>(other.dataToUpdate);
             dataToDisable = new ArrayList<>(other.dataToDisable);
             nonIndexableKeys = new HashMap<>(other.nonIndexableKeys);
+            stalePackages = new ArraySet<>(other.stalePackages);
         }
 
         public UpdateData copy() {
@@ -1039,6 +1357,7 @@ public class DatabaseIndexingManager {
             dataToUpdate.clear();
             dataToDisable.clear();
             nonIndexableKeys.clear();
+            stalePackages.clear();
         }
     }
 
@@ -1065,6 +1384,7 @@ public class DatabaseIndexingManager {
         public final int userId;
         public final int payloadType;
         public final byte[] payload;
+        public final String packageName;
 
         private DatabaseRow(Builder builder) {
             locale = builder.mLocale;
@@ -1090,6 +1410,7 @@ public class DatabaseIndexingManager {
             payloadType = builder.mPayloadType;
             payload = builder.mPayload != null ? ResultPayloadUtils.marshall(builder.mPayload)
                     : null;
+            packageName = builder.mPackageName;
         }
 
         /**
@@ -1127,6 +1448,7 @@ public class DatabaseIndexingManager {
             @ResultPayload.PayloadType
             private int mPayloadType;
             private ResultPayload mPayload;
+            private String mPackageName;
 
             public Builder setLocale(String locale) {
                 mLocale = locale;
@@ -1228,6 +1550,14 @@ public class DatabaseIndexingManager {
                 return this;
             }
 
+            /**
+             * Sets the package of the provider this row was indexed from.
+             */
+            public Builder setPackageName(String packageName) {
+                mPackageName = packageName;
+                return this;
+            }
+
             public Builder setPayload(ResultPayload payload) {
                 mPayload = payload;
 
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.android.settings.search.DatabaseResultLoader.BASE_RANKS;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ENTRIES;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ID;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_KEY;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_KEYWORDS;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_SUMMARY_OFF;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_SUMMARY_OFF_NORMALIZED;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_SUMMARY_ON;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_SUMMARY_ON_NORMALIZED;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_TITLE;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_TITLE_NORMALIZED;
+
+import android.database.Cursor;
+import android.support.annotation.VisibleForTesting;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the database results of the last query, along with the text they were matched on.
+ *
+ * While the user is typing, each query usually extends the previous one ("blu" -> "blue"), and
+ * every row matching the new query also matched the old one. In that case the results are
+ * narrowed and re-ranked in memory, reproducing the matching rules of
+ * {@link DatabaseResultLoader}, instead of querying the index again. Any other query misses the
+ * cache and must be loaded from the database.
+ */
+public class DatabaseResultCache {
+
+    private String mQuery;
+    private boolean mUseFtsMatch;
+    private List<Entry> mEntries;
+
+    /**
+     * Returns the results for {@param query} narrowed from the cached results, or null when the
+     * query does not refine the cached query. On a hit, the cache is re-keyed to {@param query}.
+     */
+    public synchronized Set<SearchResult> getRefinedResults(String query, boolean useFtsMatch) {
+        if (mEntries == null || useFtsMatch != mUseFtsMatch || !isRefinement(query)) {
+            return null;
+        }
+        final String[] phrase = useFtsMatch ? tokenize(query) : null;
+        final List<Entry> entries = new ArrayList<>();
+        final Set<SearchResult> results = new HashSet<>();
+
+        for (Entry entry : mEntries) {
+            final int baseRank = useFtsMatch
+                    ? getFtsBaseRank(entry, phrase)
+                    : getLikeBaseRank(entry, query);
+            if (baseRank < 0) {
+                continue;
+            }
+            final Entry refined = entry.withBaseRank(baseRank);
+            entries.add(refined);
+            results.add(refined.result);
+        }
+
+        mQuery = query;
+        mEntries = entries;
+        return results;
+    }
+
+    /**
+     * Replaces the cached results with those loaded from the database for {@param query}.
+     *
+     * @param cursor the ranked cursor the results were converted from. It is rewound and read
+     *               again for the columns used to match refined queries.
+     */
+    public synchronized void put(String query, boolean useFtsMatch,
+            Set<? extends SearchResult> results, Cursor cursor) {
+        final SparseArray<SearchResult> resultsById = new SparseArray<>(results.size());
+        for (SearchResult result : results) {
+            resultsById.put(result.stableId, result);
+        }
+
+        final List<Entry> entries = new ArrayList<>(results.size());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final SearchResult result = resultsById.get(cursor.getInt(COLUMN_INDEX_ID));
+            if (result != null) {
+                entries.add(new Entry(result, cursor));
+            }
+        }
+
+        mQuery = query;
+        mUseFtsMatch = useFtsMatch;
+        mEntries = entries;
+    }
+
+    /**
+     * Drops the cached results, e.g. because the index has changed.
+     */
+    public synchronized void clear() {
+        mQuery = null;
+        mEntries = null;
+    }
+
+    private boolean isRefinement(String query) {
+        if (query == null || mQuery == null || !query.startsWith(mQuery)) {
+            return false;
+        }
+        // LIKE wildcards in the query cannot be reproduced in memory.
+        return mUseFtsMatch || (query.indexOf('%') < 0 && query.indexOf('_') < 0);
+    }
+
+    /**
+     * Mirrors the tiers of the LIKE query: the query is a prefix of the first word, or of any
+     * subsequent word, of the matched columns. Like SQLite, only ASCII is case-insensitive.
+     */
+    @VisibleForTesting
+    static int getLikeBaseRank(Entry entry, String query) {
+        final String firstWord = toLowerAscii(query);
+        final String otherWord = " " + firstWord;
+
+        if (anyStartsWith(entry.primary, firstWord)) {
+            return BASE_RANKS[0];
+        }
+        if (anyContains(entry.primary, otherWord)) {
+            return BASE_RANKS[1];
+        }
+        if (anyStartsWith(entry.secondary, firstWord) || anyContains(entry.secondary, otherWord)) {
+            return BASE_RANKS[2];
+        }
+        if (anyStartsWith(entry.tertiary, firstWord) || anyContains(entry.tertiary, otherWord)) {
+            return BASE_RANKS[3];
+        }
+        return -1;
+    }
+
+    /**
+     * Mirrors the tiers of the FTS query: the phrase, whose last token is a prefix, starts at the
+     * first token or at any token of the matched columns.
+     */
+    @VisibleForTesting
+    static int getFtsBaseRank(Entry entry, String[] phrase) {
+        if (phrase.length == 0) {
+            return -1;
+        }
+        if (anyMatchesPhrase(entry.primary, phrase, true /* firstToken */)) {
+            return BASE_RANKS[0];
+        }
+        if (anyMatchesPhrase(entry.primary, phrase, false /* firstToken */)) {
+            return BASE_RANKS[1];
+        }
+        if (anyMatchesPhrase(entry.secondary, phrase, false /* firstToken */)) {
+            return BASE_RANKS[2];
+        }
+        if (anyMatchesPhrase(entry.tertiary, phrase, false /* firstToken */)) {
+            return BASE_RANKS[3];
+        }
+        return -1;
+    }
+
+    private static boolean anyStartsWith(String[] columns, String query) {
+        for (String column : columns) {
+            if (column.startsWith(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyContains(String[] columns, String query) {
+        for (String column : columns) {
+            if (column.contains(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyMatchesPhrase(String[] columns, String[] phrase,
+            boolean firstToken) {
+        for (String column : columns) {
+            final String[] tokens = tokenize(column);
+            final int lastStart = firstToken ? 0 : tokens.length - phrase.length;
+            for (int start = 0; start <= lastStart; start++) {
+                if (matchesPhraseAt(tokens, start, phrase)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesPhraseAt(String[] tokens, int start, String[] phrase) {
+        if (start + phrase.length > tokens.length) {
+            return false;
+        }
+        final int last = phrase.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (!tokens[start + i].equals(phrase[i])) {
+                return false;
+            }
+        }
+        return tokens[start + last].startsWith(phrase[last]);
+    }
+
+    /**
+     * Splits text into lower-cased tokens the same way as the FTS "simple" tokenizer.
+     */
+    @VisibleForTesting
+    static String[] tokenize(String text) {
+        final List<String> tokens = new ArrayList<>();
+        final int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            final boolean tokenChar = i < length
+                    && DatabaseResultLoader.isFtsTokenChar(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(toLowerAscii(text.substring(start, i)));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private static String toLowerAscii(String text) {
+        final char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * A cached result with the lower-cased text of each matched column, grouped by tier.
+     */
+    @VisibleForTesting
+    static class Entry {
+        final SearchResult result;
+        final String key;
+        final String[] primary;
+        final String[] secondary;
+        final String[] tertiary;
+
+        private Entry(SearchResult result, Cursor cursor) {
+            this.result = result;
+            key = cursor.getString(COLUMN_INDEX_KEY);
+            primary = new String[] {
+                    getLowerAscii(cursor, COLUMN_INDEX_TITLE),
+                    getLowerAscii(cursor, COLUMN_INDEX_TITLE_NORMALIZED)
+            };
+            secondary = new String[] {
+                    getLowerAscii(cursor, COLUMN_INDEX_SUMMARY_ON),
+                    getLowerAscii(cursor, COLUMN_INDEX_SUMMARY_ON_NORMALIZED),
+                    getLowerAscii(cursor, COLUMN_INDEX_SUMMARY_OFF),
+                    getLowerAscii(cursor, COLUMN_INDEX_SUMMARY_OFF_NORMALIZED)
+            };
+            tertiary = new String[] {
+                    getLowerAscii(cursor, COLUMN_INDEX_KEYWORDS),
+                    getLowerAscii(cursor, COLUMN_INDEX_ENTRIES)
+            };
+        }
+
+        private Entry(Entry entry, SearchResult result) {
+            this.result = result;
+            key = entry.key;
+            primary = entry.primary;
+            secondary = entry.secondary;
+            tertiary = entry.tertiary;
+        }
+
+        @VisibleForTesting
+        Entry(SearchResult result, String key, String[] primary, String[] secondary,
+                String[] tertiary) {
+            this.result = result;
+            this.key = key;
+            this.primary = primary;
+            this.secondary = secondary;
+            this.tertiary = tertiary;
+        }
+
+        /**
+         * Returns this entry with its result re-ranked for a new base rank.
+         */
+        Entry withBaseRank(int baseRank) {
+            final int rank = CursorToSearchResultConverter.getRank(
+                    result.title.toString(), baseRank, key);
+            if (rank == result.rank) {
+                return this;
+            }
+            final SearchResult reranked = new SearchResult.Builder()
+                    .setStableId(result.stableId)
+                    .setTitle(result.title)
+                    .setSummary(result.summary)
+                    .addBreadcrumbs(result.breadcrumbs)
+                    .setRank(rank)
+                    .setIcon(result.icon)
+                    .setPayload(result.payload)
+                    .build();
+            return new Entry(this, reranked);
+        }
+
+        private static String getLowerAscii(Cursor cursor, int index) {
+            final String value = cursor.getString(index);
+            return value == null ? "" : toLowerAscii(value);
+        }
+    }
+}
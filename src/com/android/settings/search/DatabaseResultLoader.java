@@ -23,12 +23,17 @@ import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_PREFS
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
 
 import com.android.settings.dashboard.SiteMapManager;
 import com.android.settings.utils.AsyncLoader;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -53,6 +58,13 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
     static final int COLUMN_INDEX_KEY = 10;
     static final int COLUMN_INDEX_PAYLOAD_TYPE = 11;
     static final int COLUMN_INDEX_PAYLOAD = 12;
+    /* Only present in the single-pass ranked queries built by this loader. */
+    static final int COLUMN_INDEX_BASE_RANK = 13;
+    static final int COLUMN_INDEX_TITLE_NORMALIZED = 14;
+    static final int COLUMN_INDEX_SUMMARY_ON_NORMALIZED = 15;
+    static final int COLUMN_INDEX_SUMMARY_OFF_NORMALIZED = 16;
+    static final int COLUMN_INDEX_ENTRIES = 17;
+    static final int COLUMN_INDEX_KEYWORDS = 18;
 
     public static final String[] SELECT_COLUMNS = {
             IndexColumns.DOCID,
@@ -70,6 +82,18 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
             IndexColumns.PAYLOAD
     };
 
+    /**
+     * Columns selected after the base rank by the ranked queries, so that
+     * {@link DatabaseResultCache} can match refined queries against them in memory.
+     */
+    private static final String[] REFINEMENT_COLUMNS = {
+            IndexColumns.DATA_TITLE_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_ON_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_OFF_NORMALIZED,
+            IndexColumns.DATA_ENTRIES,
+            IndexColumns.DATA_KEYWORDS
+    };
+
     public static final String[] MATCH_COLUMNS_PRIMARY = {
             IndexColumns.DATA_TITLE,
             IndexColumns.DATA_TITLE_NORMALIZED,
@@ -97,17 +121,65 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
      */
     public static final int[] BASE_RANKS = {1, 3, 7, 9};
 
+    /**
+     * Token prefix operator for FTS MATCH expressions.
+     */
+    private static final char FTS_PREFIX = '*';
+
+    /**
+     * FTS4 operator which restricts a phrase to the first token of a column.
+     */
+    private static final char FTS_FIRST_TOKEN = '^';
+
+    /**
+     * Computed column holding the best base rank achieved by a row.
+     */
+    private static final String COLUMN_BASE_RANK = "base_rank";
+
+    /**
+     * Computed column holding the base rank of the tier which matched a row in the FTS query.
+     */
+    private static final String COLUMN_TIER = "tier";
+
+    private static final String LIKE_RANKED_QUERY = buildLikeRankedQuery();
+
+    private static final String FTS_RANKED_QUERY = buildFtsRankedQuery();
+
     @VisibleForTesting
     final String mQueryText;
+    @VisibleForTesting
+    final boolean mUseFtsMatch;
     private final Context mContext;
     private final CursorToSearchResultConverter mConverter;
     private final SiteMapManager mSiteMapManager;
+    private final DatabaseResultCache mResultCache;
+    private CancellationSignal mCancellationSignal;
 
     public DatabaseResultLoader(Context context, String queryText, SiteMapManager mapManager) {
+        this(context, queryText, mapManager, false /* useFtsMatch */);
+    }
+
+    /**
+     * @param useFtsMatch When true, the index is queried with FTS {@code MATCH} token-prefix
+     *                    lookups instead of {@code LIKE} scans.
+     */
+    public DatabaseResultLoader(Context context, String queryText, SiteMapManager mapManager,
+            boolean useFtsMatch) {
+        this(context, queryText, mapManager, useFtsMatch, null /* resultCache */);
+    }
+
+    /**
+     * @param resultCache When not null, queries which refine the previous query are answered
+     *                    from this cache, and results loaded from the database are stored in it.
+     */
+    public DatabaseResultLoader(Context context, String queryText, SiteMapManager mapManager,
+            boolean useFtsMatch, DatabaseResultCache resultCache) {
         super(context);
         mSiteMapManager = mapManager;
         mContext = context;
         mQueryText = queryText;
+        mUseFtsMatch = useFtsMatch;
+        mResultCache = resultCache;
         mConverter = new CursorToSearchResultConverter(context);
     }
 
@@ -122,155 +194,270 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
             return null;
         }
 
-        final Set<SearchResult> results = new HashSet<>();
-
-        results.addAll(firstWordQuery(MATCH_COLUMNS_PRIMARY, BASE_RANKS[0]));
-        results.addAll(secondaryWordQuery(MATCH_COLUMNS_PRIMARY, BASE_RANKS[1]));
-        results.addAll(anyWordQuery(MATCH_COLUMNS_SECONDARY, BASE_RANKS[2]));
-        results.addAll(anyWordQuery(MATCH_COLUMNS_TERTIARY, BASE_RANKS[3]));
-        return results;
-    }
-
-    @Override
-    protected boolean onCancelLoad() {
-        // TODO
-        return super.onCancelLoad();
-    }
+        if (mResultCache != null) {
+            final Set<SearchResult> refinedResults =
+                    mResultCache.getRefinedResults(mQueryText, mUseFtsMatch);
+            if (refinedResults != null) {
+                return refinedResults;
+            }
+        }
 
-    /**
-     * Creates and executes the query which matches prefixes of the first word of the given columns.
-     *
-     * @param matchColumns The columns to match on
-     * @param baseRank The highest rank achievable by these results
-     * @return A set of the matching results.
-     */
-    private Set<SearchResult> firstWordQuery(String[] matchColumns, int baseRank) {
-        final String whereClause = buildSingleWordWhereClause(matchColumns);
-        final String query = mQueryText + "%";
-        final String[] selection = buildSingleWordSelection(query, matchColumns.length);
+        final String query;
+        final String[] selection;
+        if (mUseFtsMatch) {
+            final String phrase = buildFtsPhrase(mQueryText);
+            if (phrase == null) {
+                return new HashSet<>();
+            }
+            query = FTS_RANKED_QUERY;
+            selection = buildFtsSelection(phrase);
+        } else {
+            query = LIKE_RANKED_QUERY;
+            selection = buildLikeSelection();
+        }
 
-        return query(whereClause, selection, baseRank);
+        final CancellationSignal cancellationSignal;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mCancellationSignal = cancellationSignal = new CancellationSignal();
+        }
+        final SQLiteDatabase database =
+                IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
+        final long queryStartNanos = System.nanoTime();
+        try (Cursor resultCursor = database.rawQuery(query, selection, cancellationSignal)) {
+            // Fills the cursor window, so the query is timed separately from the conversion.
+            resultCursor.getCount();
+            SearchLatencyLogger.logSince(mContext, SearchLatencyLogger.DATABASE_QUERY,
+                    queryStartNanos);
+            final Set<SearchResult> results =
+                    mConverter.convertRankedCursor(mSiteMapManager, resultCursor);
+            cancellationSignal.throwIfCanceled();
+            if (mResultCache != null && results != null) {
+                mResultCache.put(mQueryText, mUseFtsMatch, results, resultCursor);
+            }
+            return results;
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
     }
 
     /**
-     * Creates and executes the query which matches prefixes of the non-first words of the
-     * given columns.
-     *
-     * @param matchColumns The columns to match on
-     * @param baseRank The highest rank achievable by these results
-     * @return A set of the matching results.
+     * Interrupts the SQLite query of a load which is in progress, e.g. because the user has
+     * already typed a new query.
      */
-    private Set<SearchResult> secondaryWordQuery(String[] matchColumns, int baseRank) {
-        final String whereClause = buildSingleWordWhereClause(matchColumns);
-        final String query = "% " + mQueryText + "%";
-        final String[] selection = buildSingleWordSelection(query, matchColumns.length);
-
-        return query(whereClause, selection, baseRank);
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
     }
 
     /**
-     * Creates and executes the query which matches prefixes of the any word of the given columns.
+     * Builds the single-pass LIKE query. Every row is matched against the union of all tiers in
+     * one scan, and its base rank is the first tier it satisfies, computed by a CASE expression:
      *
-     * @param matchColumns The columns to match on
-     * @param baseRank The highest rank achievable by these results
-     * @return A set of the matching results.
+     * SELECT ..., CASE WHEN (primary first word) THEN 1 WHEN (primary other word) THEN 3
+     *         WHEN (secondary any word) THEN 7 ELSE 9 END AS base_rank, ...
+     * FROM prefs_index WHERE (all tiers) AND enabled = 1
      */
-    private Set<SearchResult> anyWordQuery(String[] matchColumns, int baseRank) {
-        final String whereClause = buildTwoWordWhereClause(matchColumns);
-        final String[] selection = buildAnyWordSelection(matchColumns.length * 2);
-
-        return query(whereClause, selection, baseRank);
+    private static String buildLikeRankedQuery() {
+        final String primaryFirstWord = buildLikeClause(MATCH_COLUMNS_PRIMARY, false);
+        final String primaryOtherWord = buildLikeClause(MATCH_COLUMNS_PRIMARY, false);
+        final String secondaryAnyWord = buildLikeClause(MATCH_COLUMNS_SECONDARY, true);
+        final String tertiaryAnyWord = buildLikeClause(MATCH_COLUMNS_TERTIARY, true);
+
+        return new StringBuilder("SELECT ")
+                .append(TextUtils.join(", ", SELECT_COLUMNS))
+                .append(", CASE WHEN ").append(primaryFirstWord)
+                .append(" THEN ").append(BASE_RANKS[0])
+                .append(" WHEN ").append(primaryOtherWord)
+                .append(" THEN ").append(BASE_RANKS[1])
+                .append(" WHEN ").append(secondaryAnyWord)
+                .append(" THEN ").append(BASE_RANKS[2])
+                .append(" ELSE ").append(BASE_RANKS[3])
+                .append(" END AS ").append(COLUMN_BASE_RANK)
+                .append(", ").append(TextUtils.join(", ", REFINEMENT_COLUMNS))
+                .append(" FROM ").append(TABLE_PREFS_INDEX)
+                .append(" WHERE (").append(primaryFirstWord)
+                .append(" OR ").append(primaryOtherWord)
+                .append(" OR ").append(secondaryAnyWord)
+                .append(" OR ").append(tertiaryAnyWord)
+                .append(") AND ").append(IndexColumns.ENABLED).append(" = 1")
+                .toString();
     }
 
     /**
-     * Generic method used by all of the query methods above to execute a query.
+     * Builds the single-pass FTS query. Each tier is an index lookup; the tiers are combined
+     * with UNION ALL and grouped by docid so that every row is returned once, with the best base
+     * rank it achieved:
      *
-     * @param whereClause Where clause for the SQL query which uses bindings.
-     * @param selection List of the transformed query to match each bind in the whereClause
-     * @param baseRank The highest rank achievable by these results.
-     * @return A set of the matching results.
+     * SELECT ..., MIN(tier) AS base_rank, ... FROM (
+     *     SELECT ..., 1 AS tier FROM prefs_index WHERE prefs_index MATCH ? AND enabled = 1
+     *     UNION ALL ...) GROUP BY docid
      */
-    private Set<SearchResult> query(String whereClause, String[] selection, int baseRank) {
-        final SQLiteDatabase database =
-                IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
-        try (Cursor resultCursor = database.query(TABLE_PREFS_INDEX, SELECT_COLUMNS, whereClause,
-                selection, null, null, null)) {
-            return mConverter.convertCursor(mSiteMapManager, resultCursor, baseRank);
+    private static String buildFtsRankedQuery() {
+        final String columns = TextUtils.join(", ", SELECT_COLUMNS);
+        final String refinementColumns = TextUtils.join(", ", REFINEMENT_COLUMNS);
+        final StringBuilder sb = new StringBuilder("SELECT ")
+                .append(columns)
+                .append(", MIN(").append(COLUMN_TIER).append(") AS ").append(COLUMN_BASE_RANK)
+                .append(", ").append(refinementColumns)
+                .append(" FROM (");
+        for (int i = 0; i < BASE_RANKS.length; i++) {
+            if (i > 0) {
+                sb.append(" UNION ALL ");
+            }
+            sb.append("SELECT ").append(columns)
+                    .append(", ").append(refinementColumns)
+                    .append(", ").append(BASE_RANKS[i]).append(" AS ").append(COLUMN_TIER)
+                    .append(" FROM ").append(TABLE_PREFS_INDEX)
+                    .append(" WHERE ").append(TABLE_PREFS_INDEX).append(" MATCH ? AND ")
+                    .append(IndexColumns.ENABLED).append(" = 1");
         }
+        return sb.append(") GROUP BY ").append(IndexColumns.DOCID).toString();
     }
 
     /**
-     * Builds the SQLite WHERE clause that matches all matchColumns for a single query.
+     * Builds the SQLite clause that matches the query against all matchColumns.
      *
      * @param matchColumns List of columns that will be used for matching.
-     * @return The constructed WHERE clause.
+     * @param anyWord When true, each column is bound twice, once for its first word and once for
+     *                any subsequent word.
+     * @return The constructed clause.
      */
-    private static String buildSingleWordWhereClause(String[] matchColumns) {
-        StringBuilder sb = new StringBuilder(" (");
+    private static String buildLikeClause(String[] matchColumns, boolean anyWord) {
+        StringBuilder sb = new StringBuilder("(");
         final int count = matchColumns.length;
         for (int n = 0; n < count; n++) {
             sb.append(matchColumns[n]);
-            sb.append(" like ? ");
+            sb.append(" like ?");
+            if (anyWord) {
+                sb.append(" OR ");
+                sb.append(matchColumns[n]);
+                sb.append(" like ?");
+            }
             if (n < count - 1) {
                 sb.append(" OR ");
             }
         }
-        sb.append(") AND enabled = 1");
+        sb.append(")");
         return sb.toString();
     }
 
     /**
-     * Builds the SQLite WHERE clause that matches all matchColumns to two different queries.
+     * Fills out the selection array for {@link #LIKE_RANKED_QUERY}, first for the CASE
+     * expression and then for the WHERE clause, in the same tier order.
+     */
+    private String[] buildLikeSelection() {
+        final String firstWord = mQueryText + "%";
+        final String otherWord = "% " + mQueryText + "%";
+        final List<String> tiers = new ArrayList<>();
+
+        for (int i = 0; i < MATCH_COLUMNS_PRIMARY.length; i++) {
+            tiers.add(firstWord);
+        }
+        for (int i = 0; i < MATCH_COLUMNS_PRIMARY.length; i++) {
+            tiers.add(otherWord);
+        }
+        for (int i = 0; i < MATCH_COLUMNS_SECONDARY.length; i++) {
+            tiers.add(firstWord);
+            tiers.add(otherWord);
+        }
+        final int caseSize = tiers.size();
+        for (int i = 0; i < MATCH_COLUMNS_TERTIARY.length; i++) {
+            tiers.add(firstWord);
+            tiers.add(otherWord);
+        }
+
+        final List<String> selection = new ArrayList<>(caseSize + tiers.size());
+        selection.addAll(tiers.subList(0, caseSize));
+        selection.addAll(tiers);
+        return selection.toArray(new String[selection.size()]);
+    }
+
+    /**
+     * Fills out the selection array for {@link #FTS_RANKED_QUERY}, one MATCH expression per tier.
+     */
+    @VisibleForTesting
+    static String[] buildFtsSelection(String phrase) {
+        return new String[] {
+                buildFtsMatchExpression(MATCH_COLUMNS_PRIMARY, phrase, true /* firstToken */),
+                buildFtsMatchExpression(MATCH_COLUMNS_PRIMARY, phrase, false /* firstToken */),
+                buildFtsMatchExpression(MATCH_COLUMNS_SECONDARY, phrase, false /* firstToken */),
+                buildFtsMatchExpression(MATCH_COLUMNS_TERTIARY, phrase, false /* firstToken */)
+        };
+    }
+
+    /**
+     * Builds an FTS expression matching {@param phrase} in any of the given columns, e.g.
+     * {@code data_title:"wi fi*" OR data_title_normalized:"wi fi*"}.
      *
-     * @param matchColumns List of columns that will be used for matching.
-     * @return The constructed WHERE clause.
+     * @param firstToken When true, the phrase must start at the first token of the column.
      */
-    private static String buildTwoWordWhereClause(String[] matchColumns) {
-        StringBuilder sb = new StringBuilder(" (");
+    @VisibleForTesting
+    static String buildFtsMatchExpression(String[] matchColumns, String phrase,
+            boolean firstToken) {
+        final StringBuilder sb = new StringBuilder();
         final int count = matchColumns.length;
         for (int n = 0; n < count; n++) {
-            sb.append(matchColumns[n]);
-            sb.append(" like ? OR ");
-            sb.append(matchColumns[n]);
-            sb.append(" like ?");
+            sb.append(matchColumns[n]).append(":\"");
+            if (firstToken) {
+                sb.append(FTS_FIRST_TOKEN);
+            }
+            sb.append(phrase).append('"');
             if (n < count - 1) {
                 sb.append(" OR ");
             }
         }
-        sb.append(") AND enabled = 1");
         return sb.toString();
     }
 
     /**
-     * Fills out the selection array to match the query as the prefix of a single word.
+     * Splits the query into the tokens seen by the FTS "simple" tokenizer and joins them into a
+     * phrase whose last token is a prefix, e.g. {@code "Wi-Fi cal"} becomes {@code "Wi Fi cal*"}.
+     * Every character the tokenizer treats as a separator is dropped, so the result never
+     * contains FTS syntax from the user's input.
      *
-     * @param size is the number of columns to be matched.
+     * @return the phrase, or null when the query has no indexable tokens.
      */
-    private String[] buildSingleWordSelection(String query, int size) {
-        String[] selection = new String[size];
-
-        for(int i = 0; i < size; i ++) {
-            selection[i] = query;
+    @VisibleForTesting
+    static String buildFtsPhrase(String query) {
+        final StringBuilder sb = new StringBuilder();
+        boolean inToken = false;
+        final int length = query.length();
+        for (int i = 0; i < length; i++) {
+            final char c = query.charAt(i);
+            if (isFtsTokenChar(c)) {
+                if (!inToken && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(c);
+                inToken = true;
+            } else {
+                inToken = false;
+            }
+        }
+        if (sb.length() == 0) {
+            return null;
         }
-        return selection;
+        return sb.append(FTS_PREFIX).toString();
     }
 
     /**
-     * Fills out the selection array to match the query as the prefix of a word.
-     *
-     * @param size is twice the number of columns to be matched. The first match is for the prefix
-     *             of the first word in the column. The second match is for any subsequent word
-     *             prefix match.
+     * Mirrors the FTS "simple" tokenizer: ASCII letters and digits, and every non-ASCII
+     * character, are part of a token.
      */
-    private String[] buildAnyWordSelection(int size) {
-        String[] selection = new String[size];
-        final String query = mQueryText + "%";
-        final String subStringQuery = "% " + mQueryText + "%";
-
-        for(int i = 0; i < (size - 1); i += 2) {
-            selection[i] = query;
-            selection[i + 1] = subStringQuery;
-        }
-        return selection;
+    static boolean isFtsTokenChar(char c) {
+        return c >= 0x80
+                || (c >= '0' && c <= '9')
+                || (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z');
     }
-}
\ No newline at end of file
+}
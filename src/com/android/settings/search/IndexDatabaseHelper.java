@@ -24,16 +24,20 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "IndexDatabaseHelper";
 
     private static final String DATABASE_NAME = "search_index.db";
-    private static final int DATABASE_VERSION = 117;
+    static final int DATABASE_VERSION = 118;
 
     private static final String INDEX = "index";
 
@@ -69,6 +73,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         String USER_ID = "user_id";
         String PAYLOAD_TYPE = "payload_type";
         String PAYLOAD = "payload";
+        String DATA_PACKAGE = "data_package";
     }
 
     public interface MetaColumns {
@@ -132,6 +137,8 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     IndexColumns.PAYLOAD_TYPE +
                     ", " +
                     IndexColumns.PAYLOAD +
+                    ", " +
+                    IndexColumns.DATA_PACKAGE +
                     ");";
 
     private static final String CREATE_META_TABLE =
@@ -253,21 +260,69 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Perform a full index on an OTA or when the locale has changed
+     * Perform a full index on an OTA or when the locale has changed. Providers which have been
+     * updated since the last index are reindexed separately, see
+     * {@link #getChangedProviders(Context, String)}.
      *
      * @param locale      is the default for the device
      * @param fingerprint id for the current build.
      * @return true when the locale or build has changed since last index.
      */
     @VisibleForTesting
-    static boolean isFullIndex(Context context, String locale, String fingerprint,
-            String providerVersionedNames) {
+    static boolean isFullIndex(Context context, String locale, String fingerprint) {
         final boolean isLocaleIndexed = IndexDatabaseHelper.isLocaleAlreadyIndexed(context, locale);
         final boolean isBuildIndexed = IndexDatabaseHelper.isBuildIndexed(context, fingerprint);
-        final boolean areProvidersIndexed = IndexDatabaseHelper
-                .areProvidersIndexed(context, providerVersionedNames);
 
-        return !(isLocaleIndexed && isBuildIndexed && areProvidersIndexed);
+        return !(isLocaleIndexed && isBuildIndexed);
+    }
+
+    /**
+     * Compares the providers of the last index with the current ones.
+     *
+     * @param providerVersionedNames the current providers, from
+     *                               {@link #buildProviderVersionedNames(List)}.
+     * @return the packages which have been added, removed, or whose version has changed since
+     * the last index.
+     */
+    static Set<String> getChangedProviders(Context context, String providerVersionedNames) {
+        final String indexedProviders = context.getSharedPreferences(INDEX, Context.MODE_PRIVATE)
+                .getString(PREF_KEY_INDEXED_PROVIDERS, null);
+        return getChangedProviders(indexedProviders, providerVersionedNames);
+    }
+
+    @VisibleForTesting
+    static Set<String> getChangedProviders(String indexedProviders,
+            String providerVersionedNames) {
+        final Map<String, String> indexed = parseProviderVersionedNames(indexedProviders);
+        final Map<String, String> current = parseProviderVersionedNames(providerVersionedNames);
+
+        final Set<String> changed = new ArraySet<>();
+        for (Map.Entry<String, String> provider : current.entrySet()) {
+            if (!TextUtils.equals(provider.getValue(), indexed.get(provider.getKey()))) {
+                changed.add(provider.getKey());
+            }
+        }
+        for (String packageName : indexed.keySet()) {
+            if (!current.containsKey(packageName)) {
+                changed.add(packageName);
+            }
+        }
+        return changed;
+    }
+
+    private static Map<String, String> parseProviderVersionedNames(
+            String providerVersionedNames) {
+        final Map<String, String> versions = new ArrayMap<>();
+        if (TextUtils.isEmpty(providerVersionedNames)) {
+            return versions;
+        }
+        for (String provider : providerVersionedNames.split(",")) {
+            final int separator = provider.lastIndexOf(':');
+            if (separator > 0) {
+                versions.put(provider.substring(0, separator), provider.substring(separator + 1));
+            }
+        }
+        return versions;
     }
 
     @VisibleForTesting
@@ -304,12 +359,6 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         return context.getSharedPreferences(INDEX, Context.MODE_PRIVATE).getBoolean(locale, false);
     }
 
-    static boolean areProvidersIndexed(Context context, String providerVersionedNames) {
-        final String indexedProviders = context.getSharedPreferences(INDEX, Context.MODE_PRIVATE)
-                .getString(PREF_KEY_INDEXED_PROVIDERS, null);
-        return TextUtils.equals(indexedProviders, providerVersionedNames);
-    }
-
     static boolean isBuildIndexed(Context context, String buildNo) {
         return context.getSharedPreferences(INDEX, Context.MODE_PRIVATE).getBoolean(buildNo, false);
     }
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_PACKAGE;
+import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DOCID;
+import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
+import static com.android.settings.search.IndexDatabaseHelper.Tables.TABLE_SITE_MAP;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A binary copy of the rows Settings indexes for itself, one file per locale.
+ *
+ * Indexing Settings' own screens means loading every class of {@link SearchIndexableResources}
+ * reflectively and parsing each preference screen, while the result only depends on the build
+ * and the locale. The rows are saved after a full index, and restored on the next full index for
+ * the same build and locale, e.g. when switching back to a previous language, instead of being
+ * indexed again. Rows of other providers, and the rows built from the dynamic raw data of
+ * Settings' indexables, which depend on the device state, are always indexed.
+ *
+ * Only the snapshots of the current build are kept, for the {@link #MAX_SNAPSHOT_COUNT} most
+ * recently indexed locales.
+ */
+public class IndexSnapshot {
+
+    private static final String TAG = "IndexSnapshot";
+
+    private static final String SNAPSHOT_DIR = "search_index_snapshots";
+
+    /** The current locale and the previous one, to switch back to it. */
+    @VisibleForTesting
+    static final int MAX_SNAPSHOT_COUNT = 2;
+
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int MAX_FINGERPRINT_LENGTH = 1024;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_FLOAT = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_BLOB = 4;
+
+    private static final String[] SNAPSHOT_TABLES = {TABLE_PREFS_INDEX, TABLE_SITE_MAP};
+
+    private IndexSnapshot() {
+    }
+
+    /**
+     * Saves the rows of {@param packageName}, except {@param excludedDocIds}, along with the site
+     * map, to the snapshot of {@param locale}, and deletes the snapshots which are not kept.
+     */
+    public static void save(Context context, SQLiteDatabase database, String locale,
+            String fingerprint, String packageName, Collection<Integer> excludedDocIds) {
+        final AtomicFile file = getSnapshotFile(context, locale);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(IndexDatabaseHelper.DATABASE_VERSION);
+            writeString(out, fingerprint);
+            for (String table : SNAPSHOT_TABLES) {
+                final String selection = !TABLE_PREFS_INDEX.equals(table) ? null
+                        : excludedDocIds.isEmpty() ? DATA_PACKAGE + " = ?"
+                        : DATA_PACKAGE + " = ? AND " + DOCID + " NOT IN ("
+                                + TextUtils.join(",", excludedDocIds) + ")";
+                final String[] selectionArgs = selection != null
+                        ? new String[] {packageName}
+                        : null;
+                try (Cursor cursor = database.rawQuery("SELECT docid, * FROM " + table
+                        + (selection != null ? " WHERE " + selection : ""), selectionArgs)) {
+                    writeTable(out, cursor);
+                }
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save index snapshot for " + locale, e);
+            file.failWrite(fos);
+        }
+        prune(context, locale, fingerprint);
+    }
+
+    /**
+     * Inserts the rows of the snapshot of {@param locale} into {@param database}.
+     *
+     * @return true if the snapshot was restored, false if there is no snapshot for this build.
+     */
+    public static boolean restore(Context context, SQLiteDatabase database, String locale,
+            String fingerprint) {
+        final File file = getSnapshotFile(context, locale).getBaseFile();
+        if (!file.exists()) {
+            return false;
+        }
+        try (FileInputStream in = new FileInputStream(file);
+             FileChannel channel = in.getChannel()) {
+            final ByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC
+                    || buffer.getInt() != IndexDatabaseHelper.DATABASE_VERSION
+                    || !fingerprint.equals(readString(buffer))) {
+                return false;
+            }
+            database.beginTransaction();
+            try {
+                for (String table : SNAPSHOT_TABLES) {
+                    readTable(buffer, database, table);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            return true;
+        } catch (IOException | BufferUnderflowException e) {
+            Log.w(TAG, "Cannot restore index snapshot for " + locale, e);
+            return false;
+        }
+    }
+
+    @VisibleForTesting
+    static AtomicFile getSnapshotFile(Context context, String locale) {
+        final File dir = getSnapshotDir(context);
+        dir.mkdirs();
+        return new AtomicFile(new File(dir, locale));
+    }
+
+    private static File getSnapshotDir(Context context) {
+        return new File(context.getFilesDir(), SNAPSHOT_DIR);
+    }
+
+    /**
+     * Deletes the snapshots of other builds, which can't be restored, and the least recently
+     * saved snapshots of other locales beyond {@link #MAX_SNAPSHOT_COUNT}.
+     */
+    private static void prune(Context context, String locale, String fingerprint) {
+        final File[] files = getSnapshotDir(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        final List<File> others = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().equals(locale)) {
+                continue;
+            }
+            // Left over files of atomic writes are deleted along with old snapshots.
+            if (file.getName().indexOf('.') < 0 && fingerprint.equals(readFingerprint(file))) {
+                others.add(file);
+            } else {
+                file.delete();
+            }
+        }
+        others.sort((lhs, rhs) -> Long.compare(rhs.lastModified(), lhs.lastModified()));
+        for (int i = MAX_SNAPSHOT_COUNT - 1; i < others.size(); i++) {
+            others.get(i).delete();
+        }
+    }
+
+    /**
+     * @return the build fingerprint {@param file} was saved for, or null if it is not a snapshot
+     * of the current format.
+     */
+    private static String readFingerprint(File file) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC
+                    || in.readInt() != IndexDatabaseHelper.DATABASE_VERSION) {
+                return null;
+            }
+            final int length = in.readInt();
+            if (length < 0 || length > MAX_FINGERPRINT_LENGTH) {
+                return null;
+            }
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeTable(DataOutputStream out, Cursor cursor) throws IOException {
+        final int columnCount = cursor.getColumnCount();
+        out.writeInt(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            writeString(out, cursor.getColumnName(i));
+        }
+        out.writeInt(cursor.getCount());
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < columnCount; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        out.writeByte(TYPE_INTEGER);
+                        out.writeLong(cursor.getLong(i));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        out.writeByte(TYPE_FLOAT);
+                        out.writeDouble(cursor.getDouble(i));
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        out.writeByte(TYPE_STRING);
+                        writeString(out, cursor.getString(i));
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        final byte[] blob = cursor.getBlob(i);
+                        out.writeByte(TYPE_BLOB);
+                        out.writeInt(blob.length);
+                        out.write(blob);
+                        break;
+                    default:
+                        out.writeByte(TYPE_NULL);
+                }
+            }
+        }
+    }
+
+    private static void readTable(ByteBuffer buffer, SQLiteDatabase database, String table)
+            throws IOException {
+        final String[] columns = new String[buffer.getInt()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = readString(buffer);
+        }
+        final int rowCount = buffer.getInt();
+        final ContentValues values = new ContentValues(columns.length);
+        for (int row = 0; row < rowCount; row++) {
+            values.clear();
+            for (int i = 0; i < columns.length; i++) {
+                final byte type = buffer.get();
+                switch (type) {
+                    case TYPE_NULL:
+                        values.putNull(columns[i]);
+                        break;
+                    case TYPE_INTEGER:
+                        values.put(columns[i], buffer.getLong());
+                        break;
+                    case TYPE_FLOAT:
+                        values.put(columns[i], buffer.getDouble());
+                        break;
+                    case TYPE_STRING:
+                        values.put(columns[i], readString(buffer));
+                        break;
+                    case TYPE_BLOB:
+                        final byte[] blob = new byte[buffer.getInt()];
+                        buffer.get(blob);
+                        values.put(columns[i], blob);
+                        break;
+                    default:
+                        throw new IOException("Unknown value type " + type);
+                }
+            }
+            database.replaceOrThrow(table, null, values);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.UserInfo;
+import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.android.settings.applications.PackageManagerWrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An in-memory index of the apps searched by {@link InstalledAppResultLoader}, one per user.
+ *
+ * Listing the apps of a user, loading their labels and checking which of them show up in the
+ * launcher is expensive, and only changes when packages do. The index is built on the first
+ * query for a user and kept across queries until a package or the locale changes, see
+ * {@link #registerReceiver(Context)}. Each index keeps a sorted array of the word suffixes of
+ * every label, so finding the apps with a word starting with the query is a binary search.
+ */
+public class InstalledAppIndex {
+
+    private static final Intent LAUNCHER_PROBE = new Intent(Intent.ACTION_MAIN)
+            .addCategory(Intent.CATEGORY_LAUNCHER);
+
+    private final PackageManagerWrapper mPackageManager;
+    private final SparseArray<UserApps> mUserApps = new SparseArray<>();
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    public InstalledAppIndex(PackageManagerWrapper packageManager) {
+        mPackageManager = packageManager;
+    }
+
+    /**
+     * Drops the index whenever packages of any user, or the locale of app labels, change.
+     */
+    public void registerReceiver(Context context) {
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiverAsUser(mReceiver, UserHandle.ALL, packageFilter, null, null);
+
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        filter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        context.registerReceiverAsUser(mReceiver, UserHandle.ALL, filter, null, null);
+    }
+
+    public synchronized void invalidate() {
+        mUserApps.clear();
+    }
+
+    /**
+     * Returns the searchable apps of {@param user}, building them if needed.
+     */
+    @WorkerThread
+    synchronized UserApps getApps(UserInfo user) {
+        UserApps apps = mUserApps.get(user.id);
+        if (apps == null) {
+            apps = buildUserApps(user);
+            mUserApps.put(user.id, apps);
+        }
+        return apps;
+    }
+
+    private UserApps buildUserApps(UserInfo user) {
+        final PackageManager pm = mPackageManager.getPackageManager();
+        final List<ResolveInfo> homeActivities = new ArrayList<>();
+        mPackageManager.getHomeActivities(homeActivities);
+
+        final List<ApplicationInfo> installedApps = mPackageManager.getInstalledApplicationsAsUser(
+                PackageManager.MATCH_DISABLED_COMPONENTS
+                        | PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS
+                        | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
+                user.id);
+        final List<ApplicationInfo> apps = new ArrayList<>();
+        final List<CharSequence> labels = new ArrayList<>();
+        for (ApplicationInfo info : installedApps) {
+            if (shouldIncludeAsCandidate(info, user, homeActivities)) {
+                apps.add(info);
+                labels.add(info.loadLabel(pm));
+            }
+        }
+        return new UserApps(apps.toArray(new ApplicationInfo[apps.size()]),
+                labels.toArray(new CharSequence[labels.size()]));
+    }
+
+    /**
+     * Returns true if the candidate should be included in candidate list
+     * <p/>
+     * This method matches logic in {@code ApplicationState#FILTER_DOWNLOADED_AND_LAUNCHER}.
+     */
+    private boolean shouldIncludeAsCandidate(ApplicationInfo info, UserInfo user,
+            List<ResolveInfo> homeActivities) {
+        // Not system app
+        if ((info.flags & ApplicationInfo.FLAG_UPDATED_SYSTEM_APP) != 0
+                || (info.flags & ApplicationInfo.FLAG_SYSTEM) == 0) {
+            return true;
+        }
+        // Shows up in launcher
+        final Intent launchIntent = new Intent(LAUNCHER_PROBE)
+                .setPackage(info.packageName);
+        final List<ResolveInfo> intents = mPackageManager.queryIntentActivitiesAsUser(
+                launchIntent,
+                PackageManager.MATCH_DISABLED_COMPONENTS
+                        | PackageManager.MATCH_DIRECT_BOOT_AWARE
+                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE,
+                user.id);
+        if (intents != null && intents.size() != 0) {
+            return true;
+        }
+        // Is launcher app itself
+        return isPackageInList(homeActivities, info.packageName);
+    }
+
+    private static boolean isPackageInList(List<ResolveInfo> resolveInfos, String pkg) {
+        for (ResolveInfo info : resolveInfos) {
+            if (TextUtils.equals(info.activityInfo.packageName, pkg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the offsets of the words of {@param label}: its start, and the first letter or
+     * digit following each whitespace.
+     */
+    @VisibleForTesting
+    static int[] getWordStarts(String label) {
+        final int length = label.length();
+        final int[] starts = new int[length];
+        int count = 0;
+        int lastStart = -1;
+        for (int i = 0; i < length; i++) {
+            int start = -1;
+            if (i == 0) {
+                start = 0;
+            } else if (Character.isWhitespace(label.charAt(i - 1))) {
+                start = i;
+                while (start < length && !Character.isLetterOrDigit(label.charAt(start))) {
+                    start++;
+                }
+            }
+            if (start >= 0 && start < length && start != lastStart) {
+                starts[count++] = start;
+                lastStart = start;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * The searchable apps of a user, immutable once built.
+     */
+    static class UserApps {
+        final ApplicationInfo[] apps;
+        final CharSequence[] labels;
+        /** Length of each lower-cased label. */
+        final int[] labelLengths;
+        /** The lower-cased suffix of each label from each word start, sorted. */
+        private final String[] mWordSuffixes;
+        /** Index in {@link #apps} of each suffix. */
+        private final int[] mWordSuffixApps;
+
+        @VisibleForTesting
+        UserApps(ApplicationInfo[] apps, CharSequence[] labels) {
+            this.apps = apps;
+            this.labels = labels;
+            labelLengths = new int[apps.length];
+
+            final List<String> suffixes = new ArrayList<>();
+            final List<Integer> suffixApps = new ArrayList<>();
+            for (int i = 0; i < apps.length; i++) {
+                if (TextUtils.isEmpty(labels[i])) {
+                    continue;
+                }
+                final String label = labels[i].toString().toLowerCase();
+                labelLengths[i] = label.length();
+                for (int start : getWordStarts(label)) {
+                    suffixes.add(label.substring(start));
+                    suffixApps.add(i);
+                }
+            }
+
+            final Integer[] order = new Integer[suffixes.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> suffixes.get(a).compareTo(suffixes.get(b)));
+            mWordSuffixes = new String[order.length];
+            mWordSuffixApps = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                mWordSuffixes[i] = suffixes.get(order[i]);
+                mWordSuffixApps[i] = suffixApps.get(order[i]);
+            }
+        }
+
+        /**
+         * Returns the indices in {@link #apps} of the apps which have a word starting with
+         * {@param query}, ignoring case.
+         */
+        int[] match(String query) {
+            if (TextUtils.isEmpty(query)) {
+                return new int[0];
+            }
+            final String prefix = query.toLowerCase();
+            // Lower bound of the suffixes starting with the prefix.
+            int low = 0;
+            int high = mWordSuffixes.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (mWordSuffixes[mid].compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            final boolean[] matched = new boolean[apps.length];
+            final int[] matches = new int[apps.length];
+            int count = 0;
+            for (int i = low; i < mWordSuffixes.length && mWordSuffixes[i].startsWith(prefix);
+                    i++) {
+                final int app = mWordSuffixApps[i];
+                if (!matched[app]) {
+                    matched[app] = true;
+                    matches[count++] = app;
+                }
+            }
+            return Arrays.copyOf(matches, count);
+        }
+    }
+}
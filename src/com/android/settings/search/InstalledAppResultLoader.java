@@ -20,8 +20,6 @@ package com.android.settings.search;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.pm.UserInfo;
 import android.net.Uri;
 import android.os.UserHandle;
@@ -38,7 +36,6 @@ import com.android.settings.applications.PackageManagerWrapper;
 import com.android.settings.dashboard.SiteMapManager;
 import com.android.settings.utils.AsyncLoader;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -50,50 +47,44 @@ import java.util.Set;
 public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchResult>> {
 
     private static final int NAME_NO_MATCH = -1;
-    private static final Intent LAUNCHER_PROBE = new Intent(Intent.ACTION_MAIN)
-            .addCategory(Intent.CATEGORY_LAUNCHER);
 
     private List<String> mBreadcrumb;
     private SiteMapManager mSiteMapManager;
     @VisibleForTesting
     final String mQuery;
     private final UserManager mUserManager;
-    private final PackageManagerWrapper mPackageManager;
-    private final List<ResolveInfo> mHomeActivities = new ArrayList<>();
+    private final InstalledAppIndex mAppIndex;
 
     public InstalledAppResultLoader(Context context, PackageManagerWrapper pmWrapper,
             String query, SiteMapManager mapManager) {
+        this(context, new InstalledAppIndex(pmWrapper), query, mapManager);
+    }
+
+    /**
+     * @param appIndex index of the installed apps, shared across queries.
+     */
+    public InstalledAppResultLoader(Context context, InstalledAppIndex appIndex,
+            String query, SiteMapManager mapManager) {
         super(context);
         mSiteMapManager = mapManager;
         mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
-        mPackageManager = pmWrapper;
+        mAppIndex = appIndex;
         mQuery = query;
     }
 
     @Override
     public Set<? extends SearchResult> loadInBackground() {
         final Set<AppSearchResult> results = new HashSet<>();
-        final PackageManager pm = mPackageManager.getPackageManager();
-
-        mHomeActivities.clear();
-        mPackageManager.getHomeActivities(mHomeActivities);
+        if (TextUtils.isEmpty(mQuery)) {
+            return results;
+        }
+        final int queryLength = mQuery.toLowerCase().length();
 
         for (UserInfo user : getUsersToCount()) {
-            final List<ApplicationInfo> apps =
-                    mPackageManager.getInstalledApplicationsAsUser(
-                            PackageManager.MATCH_DISABLED_COMPONENTS
-                                    | PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS
-                                    | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
-                            user.id);
-            for (ApplicationInfo info : apps) {
-                if (!shouldIncludeAsCandidate(info, user)) {
-                    continue;
-                }
-                final CharSequence label = info.loadLabel(pm);
-                final int wordDiff = getWordDifference(label.toString(), mQuery);
-                if (wordDiff == NAME_NO_MATCH) {
-                    continue;
-                }
+            final InstalledAppIndex.UserApps apps = mAppIndex.getApps(user);
+            for (int index : apps.match(mQuery)) {
+                final ApplicationInfo info = apps.apps[index];
+                final int wordDiff = apps.labelLengths[index] - queryLength;
                 final Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS)
                         .setAction(Settings.ACTION_APPLICATION_DETAILS_SETTINGS)
                         .setData(Uri.fromParts("package", info.packageName, null))
@@ -103,7 +94,7 @@ public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchRe
                 final AppSearchResult.Builder builder = new AppSearchResult.Builder();
                 builder.setAppInfo(info)
                         .setStableId(Objects.hash(info.packageName, user.id))
-                        .setTitle(info.loadLabel(pm))
+                        .setTitle(apps.labels[index])
                         .setRank(getRank(wordDiff))
                         .addBreadcrumbs(getBreadCrumb())
                         .setPayload(new ResultPayload(intent));
@@ -113,33 +104,6 @@ public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchRe
         return results;
     }
 
-    /**
-     * Returns true if the candidate should be included in candidate list
-     * <p/>
-     * This method matches logic in {@code ApplicationState#FILTER_DOWNLOADED_AND_LAUNCHER}.
-     */
-    private boolean shouldIncludeAsCandidate(ApplicationInfo info, UserInfo user) {
-        // Not system app
-        if ((info.flags & ApplicationInfo.FLAG_UPDATED_SYSTEM_APP) != 0
-                || (info.flags & ApplicationInfo.FLAG_SYSTEM) == 0) {
-            return true;
-        }
-        // Shows up in launcher
-        final Intent launchIntent = new Intent(LAUNCHER_PROBE)
-                .setPackage(info.packageName);
-        final List<ResolveInfo> intents = mPackageManager.queryIntentActivitiesAsUser(
-                launchIntent,
-                PackageManager.MATCH_DISABLED_COMPONENTS
-                        | PackageManager.MATCH_DIRECT_BOOT_AWARE
-                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE,
-                user.id);
-        if (intents != null && intents.size() != 0) {
-            return true;
-        }
-        // Is launcher app itself
-        return isPackageInList(mHomeActivities, info.packageName);
-    }
-
     @Override
     protected void onDiscardResult(Set<? extends SearchResult> result) {
 
@@ -213,15 +177,6 @@ public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchRe
         return NAME_NO_MATCH;
     }
 
-    private boolean isPackageInList(List<ResolveInfo> resolveInfos, String pkg) {
-        for (ResolveInfo info : resolveInfos) {
-            if (TextUtils.equals(info.activityInfo.packageName, pkg)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private List<String> getBreadCrumb() {
         if (mBreadcrumb == null || mBreadcrumb.isEmpty()) {
             final Context context = getContext();
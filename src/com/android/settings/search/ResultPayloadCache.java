@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of unmarshalled {@link ResultPayload}s, keyed by doc id.
+ *
+ * A cached payload is only returned when the marshalled payload of the row is unchanged, so
+ * rows which have been reindexed with a different payload are unmarshalled again.
+ */
+class ResultPayloadCache {
+
+    @VisibleForTesting
+    static final int MAX_SIZE = 256;
+
+    private final LruCache<Integer, Entry> mCache = new LruCache<>(MAX_SIZE);
+
+    /**
+     * @return the cached payload of {@param docId}, or null if it is not cached or was cached
+     * for a different marshalled payload.
+     */
+    ResultPayload get(int docId, int payloadType, byte[] marshalledPayload) {
+        final Entry entry = mCache.get(docId);
+        if (entry == null
+                || entry.payloadType != payloadType
+                || !Arrays.equals(entry.marshalledPayload, marshalledPayload)) {
+            return null;
+        }
+        return entry.payload;
+    }
+
+    void put(int docId, int payloadType, byte[] marshalledPayload, ResultPayload payload) {
+        mCache.put(docId, new Entry(payloadType, marshalledPayload, payload));
+    }
+
+    private static class Entry {
+        final int payloadType;
+        final byte[] marshalledPayload;
+        final ResultPayload payload;
+
+        Entry(int payloadType, byte[] marshalledPayload, ResultPayload payload) {
+            this.payloadType = payloadType;
+            this.marshalledPayload = marshalledPayload;
+            this.payload = payload;
+        }
+    }
+}
@@ -37,6 +37,14 @@ public interface SearchFeatureProvider {
      */
     DatabaseResultLoader getDatabaseSearchLoader(Context context, String query);
 
+    /**
+     * @return true to query the index with FTS {@code MATCH} token-prefix lookups instead of
+     * {@code LIKE} scans.
+     */
+    default boolean isFtsMatchQueryEnabled(Context context) {
+        return false;
+    }
+
     /**
      * Returns a new loader to search installed apps.
      */
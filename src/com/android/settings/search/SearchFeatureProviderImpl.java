@@ -34,8 +34,10 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
 
     private static final String METRICS_ACTION_SETTINGS_INDEX = "search_synchronous_indexing";
 
+    private final DatabaseResultCache mDatabaseResultCache = new DatabaseResultCache();
     private DatabaseIndexingManager mDatabaseIndexingManager;
     private SiteMapManager mSiteMapManager;
+    private InstalledAppIndex mInstalledAppIndex;
 
     @Override
     public boolean isEnabled(Context context) {
@@ -44,16 +46,31 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
 
     @Override
     public DatabaseResultLoader getDatabaseSearchLoader(Context context, String query) {
-        return new DatabaseResultLoader(context, cleanQuery(query), getSiteMapManager());
+        return new DatabaseResultLoader(context, cleanQuery(query), getSiteMapManager(),
+                isFtsMatchQueryEnabled(context), mDatabaseResultCache);
+    }
+
+    @Override
+    public boolean isFtsMatchQueryEnabled(Context context) {
+        return true;
     }
 
     @Override
     public InstalledAppResultLoader getInstalledAppSearchLoader(Context context, String query) {
-        return new InstalledAppResultLoader(
-                context, new PackageManagerWrapperImpl(context.getPackageManager()),
+        return new InstalledAppResultLoader(context, getInstalledAppIndex(context),
                 cleanQuery(query), getSiteMapManager());
     }
 
+    private synchronized InstalledAppIndex getInstalledAppIndex(Context context) {
+        if (mInstalledAppIndex == null) {
+            final Context appContext = context.getApplicationContext();
+            mInstalledAppIndex = new InstalledAppIndex(
+                    new PackageManagerWrapperImpl(appContext.getPackageManager()));
+            mInstalledAppIndex.registerReceiver(appContext);
+        }
+        return mInstalledAppIndex;
+    }
+
     @Override
     public AccessibilityServiceResultLoader getAccessibilityServiceResultLoader(Context context,
             String query) {
@@ -97,6 +114,8 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
         if (SettingsSearchIndexablesProvider.DEBUG) {
             Log.d(TAG, "updating index async");
         }
+        // Searches are blocked until indexing completes, so no stale results are cached after this.
+        mDatabaseResultCache.clear();
         getIndexingManager(context).indexDatabase(callback);
     }
 
@@ -104,6 +123,7 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
     public void updateIndex(Context context) {
         long indexStartTime = System.currentTimeMillis();
         getIndexingManager(context).performIndexing();
+        mDatabaseResultCache.clear();
         int indexingTime = (int) (System.currentTimeMillis() - indexStartTime);
         FeatureFactory.getFactory(context).getMetricsFeatureProvider()
                 .histogram(context, METRICS_ACTION_SETTINGS_INDEX, indexingTime);
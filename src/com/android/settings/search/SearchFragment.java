@@ -55,7 +55,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This fragment manages the lifecycle of indexing and searching.
@@ -90,11 +89,8 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
         public static final int SAVED_QUERIES = 7;
     }
 
-
-    private static final int NUM_QUERY_LOADERS = 4;
-
     @VisibleForTesting
-    AtomicInteger mUnfinishedLoadersCount = new AtomicInteger(NUM_QUERY_LOADERS);
+    final SearchLoaderScheduler mLoaderScheduler = new SearchLoaderScheduler();
 
     // Logging
     @VisibleForTesting
@@ -252,6 +248,12 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
         }
     }
 
+    @Override
+    public void onDestroy() {
+        mLoaderScheduler.cancel();
+        super.onDestroy();
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -286,6 +288,7 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
         }
 
         if (isEmptyQuery) {
+            mLoaderScheduler.cancel();
             final LoaderManager loaderManager = getLoaderManager();
             loaderManager.destroyLoader(SearchLoaderId.DATABASE);
             loaderManager.destroyLoader(SearchLoaderId.INSTALLED_APPS);
@@ -295,8 +298,7 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
             mSavedQueryController.loadSavedQueries();
             mSearchFeatureProvider.hideFeedbackButton();
         } else {
-            mSearchAdapter.initializeSearch(mQuery);
-            restartLoaders();
+            mLoaderScheduler.schedule(this::restartLoaders);
         }
 
         return true;
@@ -331,8 +333,12 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
     @Override
     public void onLoadFinished(Loader<Set<? extends SearchResult>> loader,
             Set<? extends SearchResult> data) {
+        if (!mLoaderScheduler.onLoaderFinished(loader)) {
+            // Results of a stale query.
+            return;
+        }
         mSearchAdapter.addSearchResults(data, loader.getClass().getName());
-        if (mUnfinishedLoadersCount.decrementAndGet() != 0) {
+        if (!mLoaderScheduler.isGenerationFinished()) {
             return;
         }
 
@@ -396,17 +402,22 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
     }
 
     private void restartLoaders() {
+        if (getActivity() == null || TextUtils.isEmpty(mQuery)) {
+            return;
+        }
         mShowingSavedQuery = false;
+        mSearchAdapter.initializeSearch(mQuery);
         final LoaderManager loaderManager = getLoaderManager();
-        mUnfinishedLoadersCount.set(NUM_QUERY_LOADERS);
-        loaderManager.restartLoader(
-                SearchLoaderId.DATABASE, null /* args */, this /* callback */);
-        loaderManager.restartLoader(
-                SearchLoaderId.INSTALLED_APPS, null /* args */, this /* callback */);
-        loaderManager.restartLoader(
-                SearchLoaderId.ACCESSIBILITY_SERVICES, null /* args */, this /* callback */);
-        loaderManager.restartLoader(
-                SearchLoaderId.INPUT_DEVICES, null /* args */, this /* callback */);
+        final List<Loader<Set<? extends SearchResult>>> loaders = new ArrayList<>();
+        loaders.add(loaderManager.restartLoader(
+                SearchLoaderId.DATABASE, null /* args */, this /* callback */));
+        loaders.add(loaderManager.restartLoader(
+                SearchLoaderId.INSTALLED_APPS, null /* args */, this /* callback */));
+        loaders.add(loaderManager.restartLoader(
+                SearchLoaderId.ACCESSIBILITY_SERVICES, null /* args */, this /* callback */));
+        loaders.add(loaderManager.restartLoader(
+                SearchLoaderId.INPUT_DEVICES, null /* args */, this /* callback */));
+        mLoaderScheduler.startGeneration(loaders);
     }
 
     public String getQuery() {
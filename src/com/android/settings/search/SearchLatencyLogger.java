@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import android.content.Context;
+
+import com.android.settings.overlay.FeatureFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports how long each stage of a search takes, as
+ * {@link com.android.settings.core.instrumentation.MetricsFeatureProvider} histograms in
+ * milliseconds.
+ */
+public class SearchLatencyLogger {
+
+    /** Running the SQLite query of {@link DatabaseResultLoader}, until its cursor is filled. */
+    public static final String DATABASE_QUERY = "search_latency_database_query";
+
+    /** Converting the rows of a query into results, in {@link CursorToSearchResultConverter}. */
+    public static final String RESULT_CONVERSION = "search_latency_result_conversion";
+
+    /** Building the breadcrumbs of all the results of a query, as part of the conversion. */
+    public static final String BREADCRUMBS = "search_latency_breadcrumbs";
+
+    /** Diffing the displayed results with new ones, in {@link SearchResultsAdapter}. */
+    public static final String RESULT_DIFF = "search_latency_result_diff";
+
+    private SearchLatencyLogger() {
+    }
+
+    /**
+     * Reports the time elapsed since {@param startNanos}, as returned by
+     * {@link System#nanoTime()}.
+     */
+    public static void logSince(Context context, String stage, long startNanos) {
+        log(context, stage, System.nanoTime() - startNanos);
+    }
+
+    public static void log(Context context, String stage, long durationNanos) {
+        FeatureFactory.getFactory(context).getMetricsFeatureProvider().histogram(context, stage,
+                (int) TimeUnit.NANOSECONDS.toMillis(durationNanos));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import android.content.Loader;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArraySet;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Schedules the query loaders of {@link SearchFragment}, one generation of loaders per query.
+ *
+ * - Input is debounced. The first query after a pause in typing starts right away, and queries
+ *   typed within {@link #DEBOUNCE_DELAY_MS} of the previous one start once typing pauses.
+ * - As soon as a new query is scheduled, loaders of the previous generation which are still
+ *   running are cancelled, since their results are already stale.
+ * - Only loaders of the current generation report results, so the adapter can be updated once
+ *   when all of them have finished.
+ */
+class SearchLoaderScheduler {
+
+    @VisibleForTesting
+    static final long DEBOUNCE_DELAY_MS = 100L;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Set<Loader<?>> mPendingLoaders = new ArraySet<>();
+    private final Runnable mStartPendingGeneration = this::startPendingGeneration;
+
+    private Runnable mStartGeneration;
+    private long mLastScheduleTimeMs = -1;
+
+    /**
+     * Schedules a new query generation, cancelling the loaders of the current one.
+     *
+     * @param startGeneration restarts the query loaders and reports them through
+     *                        {@link #startGeneration(Collection)}.
+     */
+    @MainThread
+    void schedule(Runnable startGeneration) {
+        cancel();
+        final long now = SystemClock.uptimeMillis();
+        final boolean typing = mLastScheduleTimeMs >= 0
+                && now - mLastScheduleTimeMs < DEBOUNCE_DELAY_MS;
+        mLastScheduleTimeMs = now;
+
+        mStartGeneration = startGeneration;
+        if (typing) {
+            mHandler.postDelayed(mStartPendingGeneration, DEBOUNCE_DELAY_MS);
+        } else {
+            startPendingGeneration();
+        }
+    }
+
+    /**
+     * Drops the scheduled generation, if any, and cancels the loaders of the current one.
+     */
+    @MainThread
+    void cancel() {
+        mHandler.removeCallbacks(mStartPendingGeneration);
+        mStartGeneration = null;
+        for (Loader<?> loader : mPendingLoaders) {
+            loader.cancelLoad();
+        }
+        mPendingLoaders.clear();
+    }
+
+    /**
+     * Records the loaders of the generation which has just started.
+     */
+    @MainThread
+    void startGeneration(Collection<? extends Loader<?>> loaders) {
+        mPendingLoaders.clear();
+        for (Loader<?> loader : loaders) {
+            if (loader != null) {
+                mPendingLoaders.add(loader);
+            }
+        }
+    }
+
+    /**
+     * @return true if {@param loader} belongs to the current generation, in which case its
+     * results should be used.
+     */
+    @MainThread
+    boolean onLoaderFinished(Loader<?> loader) {
+        return mPendingLoaders.remove(loader);
+    }
+
+    /**
+     * @return true when every loader of the current generation has finished.
+     */
+    @MainThread
+    boolean isGenerationFinished() {
+        return mPendingLoaders.isEmpty();
+    }
+
+    private void startPendingGeneration() {
+        final Runnable startGeneration = mStartGeneration;
+        mStartGeneration = null;
+        if (startGeneration != null) {
+            startGeneration.run();
+        }
+    }
+}
@@ -235,7 +235,10 @@ public class SearchResultsAdapter extends RecyclerView.Adapter<SearchViewHolder>
 
     @MainThread
     public void initializeSearch(String query) {
-        clearResults();
+        // The displayed results are kept until the results of this query replace them in a
+        // single diff, instead of clearing the list for every query.
+        mStaticallyRankedSearchResults.clear();
+        mResultsMap.clear();
         mSearchResultsLoaded = false;
         mSearchResultsUpdated = false;
         if (mSearchFeatureProvider.isSmartSearchRankingEnabled(mContext)) {
@@ -435,8 +438,10 @@ public class SearchResultsAdapter extends RecyclerView.Adapter<SearchViewHolder>
 
     @VisibleForTesting
     public void postSearchResults(List<SearchResult> newSearchResults, boolean detectMoves) {
+        final long diffStartNanos = System.nanoTime();
         final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
                 new SearchResultDiffCallback(mSearchResults, newSearchResults), detectMoves);
+        SearchLatencyLogger.logSince(mContext, SearchLatencyLogger.RESULT_DIFF, diffStartNanos);
         mSearchResults.clear();
         mSearchResults.addAll(newSearchResults);
         diffResult.dispatchUpdatesTo(this);
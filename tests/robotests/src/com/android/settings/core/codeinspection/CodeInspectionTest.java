@@ -18,6 +18,7 @@ package com.android.settings.core.codeinspection;
 
 import com.android.settings.TestConfig;
 import com.android.settings.core.instrumentation.InstrumentableFragmentCodeInspector;
+import com.android.settings.dashboard.SummaryProviderCodeInspector;
 import com.android.settings.search.SearchIndexProviderCodeInspector;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 
@@ -48,5 +49,6 @@ public class CodeInspectionTest {
     public void runCodeInspections() {
         new InstrumentableFragmentCodeInspector(mClasses).run();
         new SearchIndexProviderCodeInspector(mClasses).run();
+        new SummaryProviderCodeInspector(mClasses).run();
     }
 }
@@ -414,6 +414,29 @@ public class DashboardAdapterTest {
         // no crash
     }
 
+    @Test
+    public void testNotifyDashboardDataChanged_attached_shouldCoalesceChangesInAFrame() {
+        final DashboardAdapter adapter = new DashboardAdapter(mContext, null, null, null, null);
+        adapter.mDiffExecutor = Runnable::run;
+        final RecyclerView recyclerView = mock(RecyclerView.class);
+        adapter.onAttachedToRecyclerView(recyclerView);
+        adapter.setCategory(makeCategory());
+        final DashboardData shownData = adapter.mDashboardData;
+
+        final DashboardCategory category = makeCategory();
+        adapter.setConditions(mConditionList);
+        adapter.setCategory(category);
+
+        assertThat(adapter.mDashboardData).isSameAs(shownData);
+        final ArgumentCaptor<Runnable> frameCallback = ArgumentCaptor.forClass(Runnable.class);
+        verify(recyclerView).postOnAnimation(frameCallback.capture());
+
+        frameCallback.getValue().run();
+
+        assertThat(adapter.mDashboardData.getCategory()).isSameAs(category);
+        assertThat(adapter.mDashboardData.getConditions()).isSameAs(mConditionList);
+    }
+
     @Test
     public void testSuggestionDismissed_notOnlySuggestion_updateSuggestionOnly() {
         final DashboardAdapter adapter =
@@ -587,6 +610,15 @@ public class DashboardAdapterTest {
         verify(data).setAdapter(any(ConditionAdapter.class));
     }
 
+    private DashboardCategory makeCategory() {
+        final DashboardCategory category = new DashboardCategory();
+        final Tile tile = new Tile();
+        tile.title = "title";
+        category.tiles = new ArrayList<>();
+        category.tiles.add(tile);
+        return category;
+    }
+
     private List<Tile> makeSuggestions(String... pkgNames) {
         final List<Tile> suggestions = new ArrayList<>();
         for (String pkgName : pkgNames) {
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.Icon;
+import android.widget.ImageView;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class IconLoaderTest {
+
+    private static final String PACKAGE_NAME = "com.android.app";
+
+    private Context mContext;
+    private List<Runnable> mTasks;
+    private IconLoader mIconLoader;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mTasks = new ArrayList<>();
+        mIconLoader = new IconLoader(mTasks::add);
+    }
+
+    @Test
+    public void bindIcon_showsIconOnceLoaded() {
+        final Drawable drawable = new ColorDrawable(Color.RED);
+        final Icon icon = mockIcon(drawable);
+        final ImageView view = new ImageView(mContext);
+
+        mIconLoader.bindIcon(view, icon);
+        assertThat(view.getDrawable()).isNull();
+
+        runTasks();
+        assertThat(getColor(view)).isEqualTo(Color.RED);
+    }
+
+    @Test
+    public void bindIcon_cachedIcon_shouldNotLoadAgain() {
+        final Drawable drawable = new ColorDrawable(Color.RED);
+        final Icon icon = mockIcon(drawable);
+
+        mIconLoader.bindIcon(new ImageView(mContext), icon);
+        runTasks();
+        final ImageView view = new ImageView(mContext);
+        mIconLoader.bindIcon(view, icon);
+
+        assertThat(mTasks).isEmpty();
+        assertThat(getColor(view)).isEqualTo(Color.RED);
+        verify(icon, times(1)).loadDrawable(any(Context.class));
+    }
+
+    @Test
+    public void bindIcon_pendingIcon_shouldLoadOnce() {
+        final Drawable drawable = new ColorDrawable(Color.RED);
+        final Icon icon = mockIcon(drawable);
+        final ImageView view1 = new ImageView(mContext);
+        final ImageView view2 = new ImageView(mContext);
+
+        mIconLoader.bindIcon(view1, icon);
+        mIconLoader.bindIcon(view2, icon);
+        runTasks();
+
+        verify(icon, times(1)).loadDrawable(any(Context.class));
+        assertThat(getColor(view1)).isEqualTo(Color.RED);
+        assertThat(getColor(view2)).isEqualTo(Color.RED);
+    }
+
+    @Test
+    public void bindIcon_shouldGiveEachViewItsOwnDrawable() {
+        final Drawable drawable = new ColorDrawable(Color.RED);
+        final Icon icon = mockIcon(drawable);
+        final ImageView view1 = new ImageView(mContext);
+        final ImageView view2 = new ImageView(mContext);
+        mIconLoader.bindIcon(view1, icon);
+        runTasks();
+        mIconLoader.bindIcon(view2, icon);
+
+        view1.getDrawable().setAlpha(0);
+
+        assertThat(view1.getDrawable()).isNotSameAs(drawable);
+        assertThat(view2.getDrawable()).isNotSameAs(view1.getDrawable());
+        assertThat(view2.getDrawable().getAlpha()).isEqualTo(255);
+    }
+
+    @Test
+    public void evictPackage_shouldLoadIconsOfPackageAgain() {
+        final Icon icon = mockIcon(new ColorDrawable(Color.RED));
+        when(icon.getType()).thenReturn(Icon.TYPE_RESOURCE);
+        when(icon.getResPackage()).thenReturn(PACKAGE_NAME);
+        final Icon otherIcon = mockIcon(new ColorDrawable(Color.BLUE));
+        mIconLoader.bindIcon(new ImageView(mContext), icon);
+        mIconLoader.bindIcon(new ImageView(mContext), otherIcon);
+        runTasks();
+
+        mIconLoader.evictPackage(PACKAGE_NAME);
+
+        assertThat(mIconLoader.getCachedIcon(mContext.getResources(), icon)).isNull();
+        assertThat(mIconLoader.getCachedIcon(mContext.getResources(), otherIcon)).isNotNull();
+    }
+
+    @Test
+    public void clear_whileLoading_shouldNotCacheIcon() {
+        final Icon icon = mockIcon(new ColorDrawable(Color.RED));
+        final ImageView view = new ImageView(mContext);
+        mIconLoader.bindIcon(view, icon);
+
+        mIconLoader.clear();
+        runTasks();
+
+        assertThat(getColor(view)).isEqualTo(Color.RED);
+        assertThat(mIconLoader.getCachedIcon(mContext.getResources(), icon)).isNull();
+    }
+
+    @Test
+    public void bindIcon_viewReboundBeforeLoaded_shouldKeepNewIcon() {
+        final Drawable oldDrawable = new ColorDrawable(Color.RED);
+        final Drawable newDrawable = new ColorDrawable(Color.BLUE);
+        final Icon oldIcon = mockIcon(oldDrawable);
+        final Icon newIcon = mockIcon(newDrawable);
+        final ImageView view = new ImageView(mContext);
+
+        mIconLoader.bindIcon(view, oldIcon);
+        mIconLoader.bindIcon(view, newIcon);
+        runTasks();
+
+        assertThat(getColor(view)).isEqualTo(Color.BLUE);
+    }
+
+    @Test
+    public void getByteCount_noIntrinsicSize_shouldCountOnePixel() {
+        assertThat(IconLoader.getByteCount(new ColorDrawable(Color.RED))).isEqualTo(4);
+    }
+
+    private static int getColor(ImageView view) {
+        return ((ColorDrawable) view.getDrawable()).getColor();
+    }
+
+    private Icon mockIcon(Drawable drawable) {
+        final Icon icon = mock(Icon.class);
+        when(icon.loadDrawable(any(Context.class))).thenReturn(drawable);
+        return icon;
+    }
+
+    private void runTasks() {
+        while (!mTasks.isEmpty()) {
+            mTasks.remove(0).run();
+        }
+    }
+}
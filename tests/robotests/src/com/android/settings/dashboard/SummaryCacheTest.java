@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.text.SpannableString;
+import android.text.style.StyleSpan;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SummaryCacheTest {
+
+    private static final String KEY = "key";
+    private static final long NOW = 1000000L;
+    private static final long TTL = 1000L;
+
+    private Context mContext;
+    private SummaryCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mCache = newCache();
+    }
+
+    @Test
+    public void get_beforeExpiry_shouldReturnSummary() {
+        mCache.put(KEY, "summary", TTL, true /* persist */, NOW);
+
+        assertThat(mCache.get(KEY, NOW + TTL - 1)).isEqualTo("summary");
+        assertThat(newCache().get(KEY, NOW)).isEqualTo("summary");
+    }
+
+    @Test
+    public void get_afterExpiry_shouldReturnNull() {
+        mCache.put(KEY, "summary", TTL, true /* persist */, NOW);
+
+        assertThat(mCache.get(KEY, NOW + TTL)).isNull();
+    }
+
+    @Test
+    public void put_notPersisted_shouldOnlyKeepSummaryInMemory() {
+        mCache.put(KEY, "summary", TTL, false /* persist */, NOW);
+
+        assertThat(mCache.get(KEY, NOW)).isEqualTo("summary");
+        assertThat(newCache().get(KEY, NOW)).isNull();
+    }
+
+    @Test
+    public void put_notPersisted_shouldDropPersistedSummary() {
+        mCache.put(KEY, "summary", TTL, true /* persist */, NOW);
+        mCache.put(KEY, "ssid", TTL, false /* persist */, NOW);
+
+        assertThat(newCache().get(KEY, NOW)).isNull();
+    }
+
+    @Test
+    public void put_spannedSummary_shouldKeepSpansAndNotPersist() {
+        final SpannableString summary = new SpannableString("summary");
+        summary.setSpan(new StyleSpan(0), 0, summary.length(), 0);
+
+        mCache.put(KEY, summary, TTL, true /* persist */, NOW);
+
+        assertThat(mCache.get(KEY, NOW)).isSameAs(summary);
+        assertThat(newCache().get(KEY, NOW)).isNull();
+    }
+
+    @Test
+    public void put_nullSummaryOrNoTtl_shouldInvalidate() {
+        mCache.put(KEY, "summary", TTL, true /* persist */, NOW);
+        mCache.put(KEY, null, TTL, true /* persist */, NOW);
+        assertThat(mCache.get(KEY, NOW)).isNull();
+        assertThat(newCache().get(KEY, NOW)).isNull();
+
+        mCache.put(KEY, "summary", TTL, true /* persist */, NOW);
+        mCache.put(KEY, "summary", 0 /* ttlMillis */, true /* persist */, NOW);
+        assertThat(mCache.get(KEY, NOW)).isNull();
+        assertThat(newCache().get(KEY, NOW)).isNull();
+    }
+
+    @Test
+    public void put_sameSummary_shouldExtendExpiryOnceHalfExpired() {
+        mCache.put(KEY, "summary", TTL, true /* persist */, NOW);
+        mCache.put(KEY, "summary", TTL, true /* persist */, NOW + TTL / 4);
+        assertThat(mCache.get(KEY, NOW + TTL)).isNull();
+
+        mCache.put(KEY, "summary", TTL, true /* persist */, NOW + TTL * 3 / 4);
+        assertThat(mCache.get(KEY, NOW + TTL)).isEqualTo("summary");
+        assertThat(newCache().get(KEY, NOW + TTL)).isEqualTo("summary");
+    }
+
+    @Test
+    public void newCache_localeChanged_shouldDropSummaries() {
+        mCache.put(KEY, "summary", TTL, true /* persist */, NOW);
+        mContext.getSharedPreferences(SummaryCache.PREF_NAME, Context.MODE_PRIVATE).edit()
+                .putString("locales", "fr-FR")
+                .commit();
+
+        assertThat(newCache().get(KEY, NOW)).isNull();
+    }
+
+    @Test
+    public void runWhenLoaded_notLoaded_shouldRunAfterLoad() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final SummaryCache cache = new SummaryCache(mContext, tasks::add);
+        final Runnable callback = mock(Runnable.class);
+
+        assertThat(cache.runWhenLoaded(callback)).isFalse();
+        verify(callback, never()).run();
+
+        tasks.get(0).run();
+        verify(callback).run();
+    }
+
+    @Test
+    public void runWhenLoaded_loaded_shouldNotRun() {
+        final Runnable callback = mock(Runnable.class);
+
+        assertThat(mCache.runWhenLoaded(callback)).isTrue();
+        verify(callback, never()).run();
+    }
+
+    @Test
+    public void removeLoadCallback_shouldNotRunAfterLoad() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final SummaryCache cache = new SummaryCache(mContext, tasks::add);
+        final Runnable callback = mock(Runnable.class);
+        cache.runWhenLoaded(callback);
+
+        cache.removeLoadCallback(callback);
+        tasks.get(0).run();
+
+        verify(callback, never()).run();
+    }
+
+    /**
+     * @return a cache which loads and writes the disk part on the calling thread, like one
+     * created on a later launch.
+     */
+    private SummaryCache newCache() {
+        return new SummaryCache(mContext, Runnable::run);
+    }
+}
@@ -107,4 +107,51 @@ public class SummaryLoaderTest {
 
         assertThat(tile.summary).isEqualTo(testSummary);
     }
+
+    @Test
+    public void testUpdateSummaryToCache_summaryFromEarlierDashboard_shouldUpdate() {
+        final DashboardCategory category = new DashboardCategory();
+        final Tile tile = new Tile();
+        tile.key = "456";
+        tile.intent = new Intent();
+        category.addTile(tile);
+        when(mFeatureFactory.dashboardFeatureProvider.getDashboardKeyForTile(tile))
+                .thenReturn(tile.key);
+        mSummaryLoader.updateSummaryIfNeeded(tile, SUMMARY_2);
+        mSummaryLoader.release();
+
+        tile.summary = SUMMARY_1;
+        final SummaryLoader summaryLoader = new SummaryLoader(
+                Robolectric.buildActivity(Activity.class).get(), new ArrayList<>());
+        summaryLoader.updateSummaryToCache(category);
+        summaryLoader.release();
+
+        assertThat(tile.summary).isEqualTo(SUMMARY_2);
+    }
+
+    @Test
+    public void testApplyCachedSummaries_notReported_shouldUpdateAndNotify() {
+        final DashboardCategory category = new DashboardCategory();
+        final Tile tile = new Tile();
+        tile.key = "789";
+        tile.intent = new Intent();
+        category.addTile(tile);
+        when(mFeatureFactory.dashboardFeatureProvider.getDashboardKeyForTile(tile))
+                .thenReturn(tile.key);
+        when(mFeatureFactory.dashboardFeatureProvider.getTilesForCategory(null))
+                .thenReturn(category);
+        mSummaryLoader.updateSummaryIfNeeded(tile, SUMMARY_2);
+        mSummaryLoader.release();
+        tile.summary = SUMMARY_1;
+        final SummaryLoader summaryLoader = new SummaryLoader(
+                Robolectric.buildActivity(Activity.class).get(), new ArrayList<>());
+        summaryLoader.setSummaryConsumer(changedTile -> mCallbackInvoked = true);
+        mCallbackInvoked = false;
+
+        summaryLoader.applyCachedSummaries();
+        summaryLoader.release();
+
+        assertThat(tile.summary).isEqualTo(SUMMARY_2);
+        assertThat(mCallbackInvoked).isTrue();
+    }
 }
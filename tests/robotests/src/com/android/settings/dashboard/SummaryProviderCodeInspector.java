@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import android.util.ArraySet;
+
+import com.android.settings.core.codeinspection.CodeInspector;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link CodeInspector} to ensure every summary provider factory is registered in
+ * {@link SummaryProviderFactories}.
+ */
+public class SummaryProviderCodeInspector extends CodeInspector {
+
+    private static final String NOT_IN_SUMMARY_PROVIDER_REGISTRY =
+            "Class containing " + SummaryLoader.SUMMARY_PROVIDER_FACTORY
+                    + " must be added to " + SummaryProviderFactories.class.getName()
+                    + " but these are not: \n";
+
+    public SummaryProviderCodeInspector(List<Class<?>> classes) {
+        super(classes);
+    }
+
+    @Override
+    public void run() {
+        final Set<String> notInRegistry = new ArraySet<>();
+
+        for (Class clazz : mClasses) {
+            if (!isConcreteSettingsClass(clazz)) {
+                continue;
+            }
+            if (!hasSummaryProviderFactory(clazz)) {
+                continue;
+            }
+            final String className = clazz.getName();
+            if (SummaryProviderFactories.getFactory(className) == null) {
+                notInRegistry.add(className);
+            }
+        }
+
+        final StringBuilder error = new StringBuilder(NOT_IN_SUMMARY_PROVIDER_REGISTRY);
+        for (String c : notInRegistry) {
+            error.append(c).append("\n");
+        }
+        assertWithMessage(error.toString())
+                .that(notInRegistry)
+                .isEmpty();
+    }
+
+    private boolean hasSummaryProviderFactory(Class clazz) {
+        try {
+            final Field f = clazz.getDeclaredField(SummaryLoader.SUMMARY_PROVIDER_FACTORY);
+            return f != null;
+        } catch (NoClassDefFoundError | NoSuchFieldException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.settings.dashboard.conditional;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class ConditionManagerTest {
+
+    private ConditionManager mConditionManager;
+
+    @Before
+    public void setUp() {
+        final Context context = RuntimeEnvironment.application;
+        mConditionManager = new ConditionManager(context,
+                new File(context.getFilesDir(), ConditionManager.FILE_NAME), Runnable::run);
+    }
+
+    @Test
+    public void markDirty_notListening_shouldRefreshOnlyWhenDrained() {
+        final Condition condition = mock(Condition.class);
+
+        mConditionManager.markDirty(condition);
+        mConditionManager.markDirty(condition);
+        verify(condition, never()).refreshState();
+
+        mConditionManager.refreshDirty();
+        mConditionManager.refreshDirty();
+        verify(condition, times(1)).refreshState();
+    }
+
+    @Test
+    public void markDirty_listening_shouldRefreshRightAway() {
+        final Condition condition = mock(Condition.class);
+        mConditionManager.addListener(mock(ConditionManager.ConditionListener.class));
+
+        mConditionManager.markDirty(condition);
+
+        verify(condition).refreshState();
+    }
+}
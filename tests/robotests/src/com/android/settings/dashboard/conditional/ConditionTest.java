@@ -15,9 +15,7 @@
  */
 package com.android.settings.dashboard.conditional;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import com.android.internal.logging.nano.MetricsProto;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
@@ -31,11 +29,15 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.annotation.Config;
 import org.robolectric.RuntimeEnvironment;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -77,35 +79,26 @@ public class ConditionTest {
     }
 
     @Test
-    public void onSilenceChanged_silenced_shouldRegisterReceiver() {
-        mCondition.onSilenceChanged(true);
-
-        verify(mContext).registerReceiver(
-            TestCondition.mReceiver, TestCondition.TESTS_INTENT_FILTER);
-    }
-
-    @Test
-    public void onSilenceChanged_notSilenced_registered_shouldUnregisterReceiver() {
-        mCondition.onSilenceChanged(true);
-
-        mCondition.onSilenceChanged(false);
-
-        verify(mContext).unregisterReceiver(TestCondition.mReceiver);
-    }
-
-    @Test
-    public void onSilenceChanged_notSilenced_notRegistered_shouldNotCrash() {
-        mCondition.onSilenceChanged(false);
-
-        verify(mContext, never()).unregisterReceiver(TestCondition.mReceiver);
-        // no crash
+    public void saveState_shouldRestoreSameState() throws IOException {
+        mCondition.setActive(true);
+        mCondition.silence();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mCondition.saveState(new DataOutputStream(bytes));
+
+        final TestCondition restored =
+                new TestCondition(mConditionManager, mMetricsFeatureProvider);
+        restored.restoreState(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(restored.hasState()).isTrue();
+        assertThat(restored.isActive()).isTrue();
+        assertThat(restored.isSilenced()).isTrue();
+        assertThat(restored.getLastChange()).isEqualTo(mCondition.getLastChange());
     }
 
     private static final class TestCondition extends Condition {
 
         private static final int TEST_METRIC_CONSTANT = 1234;
-        private static final IntentFilter TESTS_INTENT_FILTER = new IntentFilter("TestIntent");
-        private static final BroadcastReceiver mReceiver = mock(BroadcastReceiver.class);
 
         TestCondition(ConditionManager manager,
                 MetricsFeatureProvider metricsFeatureProvider) {
@@ -152,15 +145,5 @@ public class ConditionTest {
 
         }
 
-        @Override
-        public BroadcastReceiver getReceiver() {
-            return mReceiver;
-        }
-
-        @Override
-        public IntentFilter getIntentFilter() {
-            return TESTS_INTENT_FILTER;
-        }
-
     }
 }
@@ -15,8 +15,11 @@
  */
 package com.android.settings.dashboard.conditional;
 
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settings.TestConfig;
@@ -27,10 +30,10 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.annotation.Config;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -60,37 +63,25 @@ public class DndConditionTest {
     }
 
     @Test
-    public void constructor_shouldRegisterReceiver() {
+    public void constructor_shouldNotRegisterReceiver() {
         DndCondition condition = new DndCondition(mConditionManager);
-        verify(mContext).registerReceiver(any(DndCondition.Receiver.class),
-            eq(DndCondition.DND_FILTER));
+        verify(mContext, never()).registerReceiver(any(BroadcastReceiver.class),
+            any(IntentFilter.class));
     }
 
     @Test
-    public void silence_shouldNotDisableReceiver() {
-        DndCondition condition = new DndCondition(mConditionManager);
-        condition.silence();
-
-        verify(mPackageManager, never()).setComponentEnabledSetting(any(ComponentName.class),
-            eq(PackageManager.COMPONENT_ENABLED_STATE_DISABLED), eq(PackageManager.DONT_KILL_APP));
-    }
-
-    @Test
-    public void onResume_shouldRegisterReceiver() {
+    public void getRefreshFilter_shouldMatchInterruptionFilterChanges() {
         DndCondition condition = new DndCondition(mConditionManager);
-        condition.onPause();
-        condition.onResume();
-
-        // one from constructor, one from onResume()
-        verify(mContext, times(2)).registerReceiver(any(DndCondition.Receiver.class),
-            eq(DndCondition.DND_FILTER));
+        assertThat(condition.getRefreshFilter().hasAction(
+            NotificationManager.ACTION_INTERRUPTION_FILTER_CHANGED_INTERNAL)).isTrue();
     }
 
     @Test
-    public void onPause_shouldUnregisterReceiver() {
+    public void silence_shouldNotDisableReceiver() {
         DndCondition condition = new DndCondition(mConditionManager);
-        condition.onPause();
+        condition.silence();
 
-        verify(mContext).unregisterReceiver(any(DndCondition.Receiver.class));
+        verify(mPackageManager, never()).setComponentEnabledSetting(any(ComponentName.class),
+            eq(PackageManager.COMPONENT_ENABLED_STATE_DISABLED), eq(PackageManager.DONT_KILL_APP));
     }
 }
@@ -16,6 +16,8 @@
 
 package com.android.settings.dashboard.suggestions;
 
+import android.content.Context;
+
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settings.TestConfig;
 
@@ -28,15 +30,26 @@ import static com.google.common.truth.Truth.assertThat;
 
 import org.robolectric.RuntimeEnvironment;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
 @RunWith(SettingsRobolectricTestRunner.class)
 @Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
 public class EventStoreTest {
 
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    private Context mContext;
+    private File mFile;
     private EventStore mEventStore;
 
     @Before
     public void setUp() {
-        mEventStore = new EventStore(RuntimeEnvironment.application);
+        mContext = RuntimeEnvironment.application;
+        mFile = new File(mContext.getFilesDir(), EventStore.FILE_NAME);
+        mFile.delete();
+        mEventStore = new EventStore(mContext, mFile, DIRECT_EXECUTOR);
     }
 
     @Test
@@ -69,4 +82,48 @@ public class EventStoreTest {
             .isEqualTo(0);
     }
 
+    @Test
+    public void testReadMetrics_shouldReturnRecordsInOrder() {
+        mEventStore.writeEvents(Arrays.asList("pkg1", "pkg2"), EventStore.EVENT_SHOWN);
+        mEventStore.writeEvent("pkg2", EventStore.EVENT_CLICKED);
+
+        final long[] metrics = mEventStore.readMetrics(Arrays.asList("pkg2", "none", "pkg1"));
+
+        final int shownCount =
+                EventStore.getMetricIndex(EventStore.EVENT_SHOWN, EventStore.METRIC_COUNT);
+        final int clickedCount =
+                EventStore.getMetricIndex(EventStore.EVENT_CLICKED, EventStore.METRIC_COUNT);
+        assertThat(metrics.length).isEqualTo(3 * EventStore.RECORD_SIZE);
+        assertThat(metrics[shownCount]).isEqualTo(1);
+        assertThat(metrics[clickedCount]).isEqualTo(1);
+        assertThat(metrics[EventStore.RECORD_SIZE + shownCount]).isEqualTo(0);
+        assertThat(metrics[2 * EventStore.RECORD_SIZE + shownCount]).isEqualTo(1);
+        assertThat(metrics[2 * EventStore.RECORD_SIZE + clickedCount]).isEqualTo(0);
+    }
+
+    @Test
+    public void testWriteEvent_shouldPersistAcrossInstances() {
+        mEventStore.writeEvent("pkg", EventStore.EVENT_DISMISSED);
+        mEventStore.writeEvent("pkg", EventStore.EVENT_DISMISSED);
+
+        final EventStore eventStore = new EventStore(mContext, mFile, DIRECT_EXECUTOR);
+
+        assertThat(
+            eventStore.readMetric("pkg", EventStore.EVENT_DISMISSED, EventStore.METRIC_COUNT))
+            .isEqualTo(2);
+    }
+
+    @Test
+    public void testRead_legacyPrefs_shouldMigrate() {
+        mContext.getSharedPreferences(EventStore.TAG, Context.MODE_PRIVATE).edit()
+            .putLong("setting_suggestion_com.pkg_shown_count", 3)
+            .putLong("setting_suggestion_com.pkg_clicked_last_event_time", 42)
+            .commit();
+
+        assertThat(mEventStore.readMetric("com.pkg", EventStore.EVENT_SHOWN,
+            EventStore.METRIC_COUNT)).isEqualTo(3);
+        assertThat(mEventStore.readMetric("com.pkg", EventStore.EVENT_CLICKED,
+            EventStore.METRIC_LAST_EVENT_TIME)).isEqualTo(42);
+        assertThat(mFile.exists()).isTrue();
+    }
 }
@@ -16,6 +16,7 @@
 
 package com.android.settings.dashboard.suggestions;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -40,7 +41,10 @@ public class SuggestionFeaturizerTest {
 
     @Before
     public void setUp() {
-        mEventStore = new EventStore(RuntimeEnvironment.application);
+        final File file =
+                new File(RuntimeEnvironment.application.getFilesDir(), EventStore.FILE_NAME);
+        file.delete();
+        mEventStore = new EventStore(RuntimeEnvironment.application, file, Runnable::run);
         mSuggestionFeaturizer = new SuggestionFeaturizer(mEventStore);
     }
 
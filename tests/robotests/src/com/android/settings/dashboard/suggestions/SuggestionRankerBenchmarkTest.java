@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.settings.dashboard.suggestions;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.drawer.Tile;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the latency of ranking 1,000 synthetic suggestions.
+ *
+ * Skipped unless enabled with {@code -Dsettings.suggestion.benchmark=true}. Reports the p50 and
+ * p99 latency of a full ranking and of a top-5 ranking on stdout.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SuggestionRankerBenchmarkTest {
+
+    private static final String ENABLED_PROPERTY = "settings.suggestion.benchmark";
+    private static final int SUGGESTION_COUNT = 1000;
+    private static final int TOP_COUNT = 5;
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+    private static final long SEED = 42;
+
+    private List<Tile> mSuggestions;
+    private List<String> mSuggestionIds;
+    private SuggestionRanker mSuggestionRanker;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean(ENABLED_PROPERTY));
+
+        final Context context = RuntimeEnvironment.application;
+        final File file = new File(context.getFilesDir(), EventStore.FILE_NAME);
+        file.delete();
+        final EventStore eventStore = new EventStore(context, file, Runnable::run);
+        mSuggestions = new ArrayList<>(SUGGESTION_COUNT);
+        mSuggestionIds = new ArrayList<>(SUGGESTION_COUNT);
+        final Random random = new Random(SEED);
+        for (int i = 0; i < SUGGESTION_COUNT; i++) {
+            final String pkgName = "com.example.suggestion" + i;
+            mSuggestions.add(new Tile());
+            mSuggestionIds.add(pkgName);
+            final List<String> pkgNames = Collections.singletonList(pkgName);
+            for (int j = random.nextInt(5); j > 0; j--) {
+                eventStore.writeEvents(pkgNames, EventStore.EVENT_SHOWN);
+            }
+            if (random.nextInt(4) == 0) {
+                eventStore.writeEvents(pkgNames, EventStore.EVENT_DISMISSED);
+            }
+            if (random.nextInt(8) == 0) {
+                eventStore.writeEvents(pkgNames, EventStore.EVENT_CLICKED);
+            }
+        }
+        mSuggestionRanker = new SuggestionRanker(new SuggestionFeaturizer(eventStore));
+    }
+
+    @Test
+    public void benchmarkRankAll() {
+        runBenchmark("all", SUGGESTION_COUNT);
+    }
+
+    @Test
+    public void benchmarkRankTop() {
+        runBenchmark("top" + TOP_COUNT, TOP_COUNT);
+    }
+
+    private void runBenchmark(String name, int limit) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            mSuggestionRanker.rankSuggestions(new ArrayList<>(mSuggestions), mSuggestionIds,
+                    limit);
+        }
+        final long[] latencies = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            final List<Tile> suggestions = new ArrayList<>(mSuggestions);
+            final long startNanos = System.nanoTime();
+            mSuggestionRanker.rankSuggestions(suggestions, mSuggestionIds, limit);
+            latencies[i] = System.nanoTime() - startNanos;
+            assertThat(suggestions).hasSize(SUGGESTION_COUNT);
+        }
+        Arrays.sort(latencies);
+
+        System.out.println(String.format(Locale.US,
+                "SuggestionRankerBenchmark %s suggestions=%d p50=%.3fms p99=%.3fms", name,
+                SUGGESTION_COUNT, percentile(latencies, 50) / 1e6,
+                percentile(latencies, 99) / 1e6));
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        final int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+}
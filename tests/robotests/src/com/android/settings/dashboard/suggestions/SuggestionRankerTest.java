@@ -35,20 +35,15 @@ import org.robolectric.annotation.Config;
 
 import static com.google.common.truth.Truth.assertThat;
 
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
-import static org.mockito.Mockito.same;
-import static org.mockito.Mockito.spy;
 
 @RunWith(SettingsRobolectricTestRunner.class)
 @Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
 public class SuggestionRankerTest {
 
-    @Mock
     private SuggestionRanker mSuggestionRanker;
     @Mock
     private SuggestionFeaturizer mSuggestionFeaturizer;
-    private Map<String, Map<String, Double>> mFeatures;
     private List<String> mPkgNames;
     private List<Tile> mSuggestions;
 
@@ -56,10 +51,6 @@ public class SuggestionRankerTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         mPkgNames = Arrays.asList("pkg1", "pkg2", "pkg3");
-        mFeatures = new HashMap<String, Map<String, Double>>();
-        mFeatures.put("pkg1", new HashMap<String, Double>());
-        mFeatures.put("pkg2", new HashMap<String, Double>());
-        mFeatures.put("pkg3", new HashMap<String, Double>());
         mSuggestions = new ArrayList<Tile>() {
             {
                 add(new Tile());
@@ -67,13 +58,14 @@ public class SuggestionRankerTest {
                 add(new Tile());
             }
         };
-        mSuggestionFeaturizer = mock(SuggestionFeaturizer.class);
-        mSuggestionRanker = new SuggestionRanker(mSuggestionFeaturizer);
-        when(mSuggestionFeaturizer.featurize(mPkgNames)).thenReturn(mFeatures);
-        mSuggestionRanker = spy(mSuggestionRanker);
-        when(mSuggestionRanker.getRelevanceMetric(same(mFeatures.get("pkg1")))).thenReturn(0.9);
-        when(mSuggestionRanker.getRelevanceMetric(same(mFeatures.get("pkg2")))).thenReturn(0.1);
-        when(mSuggestionRanker.getRelevanceMetric(same(mFeatures.get("pkg3")))).thenReturn(0.5);
+        // The model scores each suggestion with its first feature.
+        final double[] features = new double[3 * SuggestionFeaturizer.FEATURE_COUNT];
+        features[0] = 0.9;
+        features[SuggestionFeaturizer.FEATURE_COUNT] = 0.1;
+        features[2 * SuggestionFeaturizer.FEATURE_COUNT] = 0.5;
+        when(mSuggestionFeaturizer.featurizeAsArray(mPkgNames)).thenReturn(features);
+        mSuggestionRanker = new SuggestionRanker(mSuggestionFeaturizer,
+                (values, offset) -> values[offset]);
     }
 
     @Test
@@ -88,5 +80,42 @@ public class SuggestionRankerTest {
         mSuggestionRanker.rankSuggestions(mSuggestions, mPkgNames);
         assertThat(mSuggestions).isEqualTo(expectedOrderdList);
     }
-}
 
+    @Test
+    public void testRank_withLimit_shouldKeepOrderOfOthers() {
+        List<Tile> expectedOrderdList = new ArrayList<Tile>() {
+            {
+                add(mSuggestions.get(0)); // relevance = 0.9
+                add(mSuggestions.get(1)); // not ranked
+                add(mSuggestions.get(2)); // not ranked
+            }
+        };
+        mSuggestionRanker.rankSuggestions(mSuggestions, mPkgNames, 1 /* limit */);
+        assertThat(mSuggestions).isEqualTo(expectedOrderdList);
+    }
+
+    @Test
+    public void testGetTopIndices_shouldBreakTiesByIndex() {
+        final double[] scores = {0.3, 0.7, 0.3, 0.9, 0.1, 0.7};
+
+        assertThat(SuggestionRanker.getTopIndices(scores, 4)).asList()
+                .containsExactly(3, 1, 5, 0).inOrder();
+        assertThat(SuggestionRanker.getTopIndices(scores, 10)).asList()
+                .containsExactly(3, 1, 5, 0, 2, 4).inOrder();
+        assertThat(SuggestionRanker.getTopIndices(scores, 0)).isEmpty();
+    }
+
+    @Test
+    public void testLinearModel_shouldMixFeatures() {
+        final Map<String, Double> weights = new HashMap<>();
+        weights.put(SuggestionFeaturizer.FEATURE_IS_SHOWN, 2.0);
+        weights.put(SuggestionFeaturizer.FEATURE_CLICKED_COUNT, -1.0);
+        final SuggestionRankingModel model = new SuggestionRankingModel.LinearModel(weights);
+        final double[] features = new double[2 * SuggestionFeaturizer.FEATURE_COUNT];
+        final int offset = SuggestionFeaturizer.FEATURE_COUNT;
+        Arrays.fill(features, offset, features.length, 1);
+        features[offset + SuggestionFeaturizer.FEATURE_COUNT - 1] = 0.5;
+
+        assertThat(model.score(features, offset)).isWithin(1e-9).of(1.5);
+    }
+}
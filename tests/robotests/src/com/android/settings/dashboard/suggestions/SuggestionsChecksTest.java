@@ -29,6 +29,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.hardware.fingerprint.FingerprintManager;
+import android.os.SystemClock;
 
 import com.android.settings.Settings;
 import com.android.settings.TestConfig;
@@ -43,11 +44,16 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.annotation.Config;
 import org.robolectric.util.ReflectionHelpers;
 
+import java.util.Arrays;
+import java.util.List;
+
 
 @RunWith(SettingsRobolectricTestRunner.class)
 @Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
 public class SuggestionsChecksTest {
 
+    private static final long TIMEOUT_MILLIS = 5000;
+
     @Mock
     private Context mContext;
     @Mock
@@ -120,6 +126,45 @@ public class SuggestionsChecksTest {
         assertThat(mSuggestionsChecks.isSuggestionComplete(tile)).isTrue();
     }
 
+    @Test
+    public void testAreSuggestionsComplete_shouldCacheUntilInvalidated() {
+        SuggestionsChecks.invalidateCache();
+        when(mContext.getPackageName()).thenReturn("com.android.settings");
+        stubFingerprintSupported(true);
+        when(mFingerprintManager.hasEnrolledFingerprints()).thenReturn(true);
+        when(mFingerprintManager.isHardwareDetected()).thenReturn(true);
+        final List<Tile> tiles = Arrays.asList(createFingerprintTile());
+
+        assertThat(mSuggestionsChecks.areSuggestionsComplete(tiles, TIMEOUT_MILLIS))
+                .asList().containsExactly(true);
+
+        when(mFingerprintManager.hasEnrolledFingerprints()).thenReturn(false);
+        assertThat(mSuggestionsChecks.areSuggestionsComplete(tiles, TIMEOUT_MILLIS))
+                .asList().containsExactly(true);
+
+        SuggestionsChecks.invalidateCache();
+        assertThat(mSuggestionsChecks.areSuggestionsComplete(tiles, TIMEOUT_MILLIS))
+                .asList().containsExactly(false);
+    }
+
+    @Test
+    public void testAreSuggestionsComplete_cacheExpired_shouldCheckAgain() {
+        SuggestionsChecks.invalidateCache();
+        when(mContext.getPackageName()).thenReturn("com.android.settings");
+        stubFingerprintSupported(true);
+        when(mFingerprintManager.hasEnrolledFingerprints()).thenReturn(true);
+        when(mFingerprintManager.isHardwareDetected()).thenReturn(true);
+        final List<Tile> tiles = Arrays.asList(createFingerprintTile());
+        assertThat(mSuggestionsChecks.areSuggestionsComplete(tiles, TIMEOUT_MILLIS))
+                .asList().containsExactly(true);
+
+        when(mFingerprintManager.hasEnrolledFingerprints()).thenReturn(false);
+        SystemClock.sleep(SuggestionsChecks.CACHE_TTL_MILLIS);
+
+        assertThat(mSuggestionsChecks.areSuggestionsComplete(tiles, TIMEOUT_MILLIS))
+                .asList().containsExactly(false);
+    }
+
     private void stubFingerprintSupported(boolean enabled) {
         when(mPackageManager.hasSystemFeature(PackageManager.FEATURE_FINGERPRINT))
                 .thenReturn(enabled);
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.graphics.Canvas;
+import android.graphics.Path;
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowPath;
+import org.robolectric.shadows.ShadowPath.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class BatteryHistoryChartTest {
+
+    private static final long WALLTIME = 1500000000000L;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long CHART_DURATION_MS = 4 * HOUR_MS;
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 800;
+
+    private List<HistoryItem> mRecords;
+    private BatteryStats mStats;
+    private BatteryHistoryChart mChart;
+
+    @Before
+    public void setUp() {
+        BatteryHistory.clearCache();
+        mRecords = new ArrayList<>();
+        mStats = mock(BatteryStats.class);
+        doReturn(true).when(mStats).startIteratingHistoryLocked();
+        doAnswer(invocation -> {
+            if (mRecords.isEmpty()) {
+                return false;
+            }
+            final HistoryItem record = invocation.getArgument(0);
+            record.setTo(mRecords.remove(0));
+            return true;
+        }).when(mStats).getNextHistoryLocked(any(HistoryItem.class));
+
+        mChart = new BatteryHistoryChart(RuntimeEnvironment.application, null);
+        mChart.mInfo = new BatteryInfo();
+        mChart.mInfo.chargeLabel = "50%";
+        mChart.mInfo.batteryLevel = 50;
+        addTimeRecord(HistoryItem.CMD_RESET, 0, WALLTIME);
+    }
+
+    @Test
+    public void buildGeometry_samplesInOneColumn_shouldKeepLowestAndHighestLevel() {
+        for (int i = 0; i < 200; i++) {
+            addDataRecord(i, i % 2 == 0 ? 40 : 60, 0, 0);
+        }
+        addDataRecord(HOUR_MS, 50, 0, 0);
+
+        buildGeometry(Runnable::run);
+
+        final List<Point> points = getPoints(mChart.mBatLevelPath);
+        final int x = getX(0);
+        assertThat(points.subList(0, 3)).containsExactly(
+                new Point(x, getY(40), Point.Type.MOVE_TO),
+                new Point(x, getY(60), Point.Type.LINE_TO),
+                new Point(getX(HOUR_MS), getY(50), Point.Type.LINE_TO)).inOrder();
+        // The closing points of the path, not one point per sample.
+        assertThat(points.size()).isLessThan(10);
+    }
+
+    @Test
+    public void buildGeometry_gap_shouldStartNewLevelPath() {
+        addDataRecord(100000, 90, 0, 0);
+        addDataRecord(200000, 80, 0, 0);
+        addTimeRecord(HistoryItem.CMD_CURRENT_TIME, 300000, WALLTIME + 300000 + 2 * HOUR_MS);
+        addDataRecord(400000, 70, 0, 0);
+        addDataRecord(500000, 60, 0, 0);
+
+        buildGeometry(Runnable::run);
+
+        final List<Point> moves = new ArrayList<>();
+        for (Point point : getPoints(mChart.mBatLevelPath)) {
+            if (point.type == Point.Type.MOVE_TO) {
+                moves.add(point);
+            }
+        }
+        assertThat(moves).containsExactly(
+                new Point(getX(100000), getY(90), Point.Type.MOVE_TO),
+                new Point(getX(400000 + 2 * HOUR_MS), getY(70), Point.Type.MOVE_TO)).inOrder();
+    }
+
+    @Test
+    public void buildGeometry_stateOnTwice_shouldDrawTwoBarRuns() {
+        addDataRecord(HOUR_MS / 4, 50, HistoryItem.STATE_SCREEN_ON_FLAG, 0);
+        addDataRecord(HOUR_MS / 2, 50, HistoryItem.STATE_SCREEN_ON_FLAG, 0);
+        addDataRecord(HOUR_MS, 50, 0, 0);
+        addDataRecord(2 * HOUR_MS, 50, HistoryItem.STATE_SCREEN_ON_FLAG, 0);
+        addDataRecord(3 * HOUR_MS, 50, 0, 0);
+
+        buildGeometry(Runnable::run);
+
+        final int y = HEIGHT - mChart.mScreenOnOffset;
+        assertThat(getPoints(mChart.mScreenOnPath)).containsExactly(
+                new Point(getX(HOUR_MS / 4), y, Point.Type.MOVE_TO),
+                new Point(getX(HOUR_MS), y, Point.Type.LINE_TO),
+                new Point(getX(2 * HOUR_MS), y, Point.Type.MOVE_TO),
+                new Point(getX(3 * HOUR_MS), y, Point.Type.LINE_TO)).inOrder();
+        assertThat(mChart.mChargingPath.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void drawChart_beforeGeometryBuilt_shouldNotDrawPaths() {
+        addDataRecord(HOUR_MS, 50, HistoryItem.STATE_SCREEN_ON_FLAG, 0);
+        addDataRecord(2 * HOUR_MS, 40, 0, 0);
+        final List<Runnable> tasks = new ArrayList<>();
+        buildGeometry(tasks::add);
+        final Canvas canvas = mock(Canvas.class);
+
+        mChart.drawChart(canvas, WIDTH, HEIGHT);
+        verify(canvas, never()).drawPath(any(Path.class), eq(mChart.mBatteryBackgroundPaint));
+        verify(canvas, never()).drawPath(any(Path.class), eq(mChart.mScreenOnPaint));
+
+        tasks.get(0).run();
+        mChart.drawChart(canvas, WIDTH, HEIGHT);
+        verify(canvas).drawPath(mChart.mBatLevelPath, mChart.mBatteryBackgroundPaint);
+        verify(canvas).drawPath(mChart.mScreenOnPath, mChart.mScreenOnPaint);
+    }
+
+    @Test
+    public void buildGeometry_resizedWhileBuilding_shouldOnlyApplyLatestGeometry() {
+        addDataRecord(HOUR_MS, 50, 0, 0);
+        final List<Runnable> tasks = new ArrayList<>();
+        buildGeometry(tasks::add);
+        mChart.onSizeChanged(WIDTH / 2, HEIGHT, WIDTH, HEIGHT);
+
+        tasks.get(0).run();
+        assertThat(mChart.mBatLevelPath.isEmpty()).isTrue();
+
+        tasks.get(1).run();
+        assertThat(mChart.mBatLevelPath.isEmpty()).isFalse();
+    }
+
+    /**
+     * Sets the history up like {@link BatteryHistoryChart#setStats} does, and lays the chart
+     * out, which builds its geometry on {@param executor}.
+     */
+    private void buildGeometry(Executor executor) {
+        final BatteryHistory history = BatteryHistory.get(mStats);
+        mChart.mHistory = history;
+        mChart.mBatLow = 0;
+        mChart.mBatHigh = 100;
+        mChart.mStartWallTime = history.getStartWalltime();
+        mChart.mEndDataWallTime = history.getEndWalltime();
+        mChart.mEndWallTime = mChart.mStartWallTime + CHART_DURATION_MS;
+        mChart.mGeometryExecutor = executor;
+        mChart.onSizeChanged(WIDTH, HEIGHT, 0, 0);
+    }
+
+    /** @return the pixel column of the time {@param time} after the start of the chart. */
+    private int getX(long time) {
+        return mChart.mLevelLeft
+                + (int) ((time * (mChart.mLevelRight - mChart.mLevelLeft)) / CHART_DURATION_MS);
+    }
+
+    private int getY(int level) {
+        final int levelHeight = mChart.mLevelBottom - mChart.mLevelTop;
+        return mChart.mLevelTop + levelHeight - (level * (levelHeight - 1)) / 100;
+    }
+
+    private static List<Point> getPoints(Path path) {
+        final ShadowPath shadowPath = shadowOf(path);
+        return shadowPath.getPoints();
+    }
+
+    private void addDataRecord(long time, int level, int states, int states2) {
+        final HistoryItem record = new HistoryItem();
+        record.cmd = HistoryItem.CMD_UPDATE;
+        record.time = time;
+        record.batteryLevel = (byte) level;
+        record.states = states;
+        record.states2 = states2;
+        mRecords.add(record);
+    }
+
+    private void addTimeRecord(byte cmd, long time, long currentTime) {
+        final HistoryItem record = new HistoryItem();
+        record.cmd = cmd;
+        record.time = time;
+        record.currentTime = currentTime;
+        mRecords.add(record);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class BatteryHistoryTest {
+
+    private static final long WALLTIME = 1500000000000L;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    private List<HistoryItem> mRecords;
+    private BatteryStats mStats;
+
+    @Before
+    public void setUp() {
+        BatteryHistory.clearCache();
+        mRecords = new ArrayList<>();
+        mStats = mock(BatteryStats.class);
+        doReturn(true).when(mStats).startIteratingHistoryLocked();
+        doAnswer(invocation -> {
+            if (mRecords.isEmpty()) {
+                return false;
+            }
+            final HistoryItem record = invocation.getArgument(0);
+            record.setTo(mRecords.remove(0));
+            return true;
+        }).when(mStats).getNextHistoryLocked(any(HistoryItem.class));
+    }
+
+    @Test
+    public void get_shouldDecodeDataPointsInWalltime() {
+        addTimeRecord(HistoryItem.CMD_RESET, 1000, WALLTIME);
+        addDataRecord(2000, 99, HistoryItem.STATE_GPS_ON_FLAG, 0);
+        addDataRecord(3000, 98, 0, HistoryItem.STATE2_CAMERA_FLAG);
+        addTimeRecord(HistoryItem.CMD_CURRENT_TIME, 3500, WALLTIME + 2500);
+
+        final BatteryHistory history = BatteryHistory.get(mStats);
+
+        assertThat(history.getHistoryStart()).isEqualTo(1000);
+        assertThat(history.getHistoryEnd()).isEqualTo(3000);
+        assertThat(history.getStartWalltime()).isEqualTo(WALLTIME);
+        assertThat(history.getEndWalltime()).isEqualTo(WALLTIME + 2000);
+        assertThat(history.getAggregatedStates()).isEqualTo(HistoryItem.STATE_GPS_ON_FLAG);
+        assertThat(history.getAggregatedStates2()).isEqualTo(HistoryItem.STATE2_CAMERA_FLAG);
+        // The reset and the data points, the trailing time change is dropped.
+        assertThat(history.size()).isEqualTo(3);
+        assertThat(history.isGap(0)).isTrue();
+        assertThat(history.getTime(1)).isEqualTo(WALLTIME + 1000);
+        assertThat(history.getLevel(1)).isEqualTo((byte) 99);
+        assertThat(history.getStates(1)).isEqualTo(HistoryItem.STATE_GPS_ON_FLAG);
+        assertThat(history.getTime(2)).isEqualTo(WALLTIME + 2000);
+        assertThat(history.getStates2(2)).isEqualTo(HistoryItem.STATE2_CAMERA_FLAG);
+    }
+
+    @Test
+    public void get_largeTimeChange_shouldAddGap() {
+        addTimeRecord(HistoryItem.CMD_RESET, 1000, WALLTIME);
+        addDataRecord(2000, 99, 0, 0);
+        // A small correction of the clock ten minutes later.
+        addTimeRecord(HistoryItem.CMD_CURRENT_TIME, 601000, WALLTIME + 600500);
+        addDataRecord(602000, 98, 0, 0);
+        addTimeRecord(HistoryItem.CMD_CURRENT_TIME, 603000, WALLTIME + 2 * HOUR_MS);
+        addDataRecord(604000, 97, 0, 0);
+
+        final BatteryHistory history = BatteryHistory.get(mStats);
+
+        assertThat(history.getStartWalltime()).isEqualTo(WALLTIME);
+        assertThat(history.getEndWalltime()).isEqualTo(WALLTIME + 2 * HOUR_MS + 1000);
+        assertThat(history.size()).isEqualTo(5);
+        assertThat(history.isGap(2)).isFalse();
+        assertThat(history.getTime(2)).isEqualTo(WALLTIME + 601500);
+        assertThat(history.isGap(3)).isTrue();
+        assertThat(history.getTime(4)).isEqualTo(WALLTIME + 2 * HOUR_MS + 1000);
+    }
+
+    @Test
+    public void get_sameStats_shouldIterateHistoryOnce() {
+        addDataRecord(2000, 99, 0, 0);
+
+        final BatteryHistory history = BatteryHistory.get(mStats);
+
+        assertThat(BatteryHistory.get(mStats)).isSameAs(history);
+        verify(mStats, times(1)).startIteratingHistoryLocked();
+    }
+
+    private void addDataRecord(long time, int level, int states, int states2) {
+        final HistoryItem record = new HistoryItem();
+        record.cmd = HistoryItem.CMD_UPDATE;
+        record.time = time;
+        record.batteryLevel = (byte) level;
+        record.states = states;
+        record.states2 = states2;
+        mRecords.add(record);
+    }
+
+    private void addTimeRecord(byte cmd, long time, long currentTime) {
+        final HistoryItem record = new HistoryItem();
+        record.cmd = cmd;
+        record.time = time;
+        record.currentTime = currentTime;
+        mRecords.add(record);
+    }
+}
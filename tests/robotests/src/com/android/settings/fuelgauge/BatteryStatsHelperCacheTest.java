@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.BatteryManager;
+import android.os.BatteryStats;
+import android.os.Handler;
+import android.os.UserHandle;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class BatteryStatsHelperCacheTest {
+
+    private static final List<UserHandle> PROFILES = Collections.singletonList(UserHandle.OWNER);
+
+    private Context mContext;
+    private int mCreateCount;
+    private BatteryStatsHelperCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        sendBatteryBroadcast(50);
+        mCache = new BatteryStatsHelperCache(mContext, (statsType, profiles) -> {
+            mCreateCount++;
+            return mock(BatteryStatsHelper.class);
+        }, mock(Handler.class));
+    }
+
+    @Test
+    public void acquire_freshSnapshot_shouldReuseIt() {
+        final BatteryStatsHelper statsHelper =
+                mCache.acquire(BatteryStats.STATS_SINCE_CHARGED, PROFILES);
+        mCache.release(statsHelper);
+
+        assertThat(mCache.acquire(BatteryStats.STATS_SINCE_CHARGED, PROFILES))
+                .isSameAs(statsHelper);
+        assertThat(mCreateCount).isEqualTo(1);
+    }
+
+    @Test
+    public void acquire_otherProfiles_shouldComputeNewSnapshot() {
+        final BatteryStatsHelper statsHelper =
+                mCache.acquire(BatteryStats.STATS_SINCE_CHARGED, PROFILES);
+
+        assertThat(mCache.acquire(BatteryStats.STATS_SINCE_CHARGED,
+                Arrays.asList(UserHandle.OWNER, new UserHandle(10)))).isNotSameAs(statsHelper);
+        assertThat(mCreateCount).isEqualTo(2);
+    }
+
+    @Test
+    public void acquire_batteryLevelChanged_shouldComputeNewSnapshot() {
+        final BatteryStatsHelper statsHelper =
+                mCache.acquire(BatteryStats.STATS_SINCE_CHARGED, PROFILES);
+
+        sendBatteryBroadcast(49);
+
+        assertThat(mCache.acquire(BatteryStats.STATS_SINCE_CHARGED, PROFILES))
+                .isNotSameAs(statsHelper);
+        assertThat(mCreateCount).isEqualTo(2);
+    }
+
+    private void sendBatteryBroadcast(int level) {
+        final Intent intent = new Intent(Intent.ACTION_BATTERY_CHANGED);
+        intent.putExtra(BatteryManager.EXTRA_LEVEL, level);
+        mContext.sendStickyBroadcast(intent);
+    }
+}
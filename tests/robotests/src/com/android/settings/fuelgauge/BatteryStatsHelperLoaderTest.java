@@ -15,14 +15,20 @@
  */
 package com.android.settings.fuelgauge;
 
-import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.eq;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import android.content.Context;
 import android.net.ConnectivityManager;
+import android.os.BatteryStats;
+
+import com.android.internal.os.BatteryStatsHelper;
 
 import com.android.settings.TestConfig;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
@@ -39,7 +45,7 @@ import org.robolectric.annotation.Config;
 @Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
 public class BatteryStatsHelperLoaderTest {
     @Mock
-    private BatteryUtils mBatteryUtils;
+    private BatteryStatsHelperCache mCache;
     @Mock
     private ConnectivityManager mConnectivityManager;
 
@@ -54,15 +60,31 @@ public class BatteryStatsHelperLoaderTest {
                 Context.CONNECTIVITY_SERVICE);
 
         mBatteryStatsHelperLoader = spy(new BatteryStatsHelperLoader(mContext));
-        mBatteryStatsHelperLoader.mBatteryUtils = mBatteryUtils;
+        mBatteryStatsHelperLoader.mCache = mCache;
+    }
+
+    @Test
+    public void testLoadInBackground_acquireFromCache() {
+        final BatteryStatsHelper statsHelper = mock(BatteryStatsHelper.class);
+        doReturn(statsHelper).when(mCache).acquire(anyInt(), anyList());
+
+        assertThat(mBatteryStatsHelperLoader.loadInBackground()).isSameAs(statsHelper);
+
+        verify(mCache).acquire(BatteryStats.STATS_SINCE_CHARGED,
+                mBatteryStatsHelperLoader.mUserManager.getUserProfiles());
     }
 
     @Test
-    public void testLoadInBackground_loadWithoutBundle() {
-        doReturn(mContext).when(mBatteryStatsHelperLoader).getContext();
+    public void testOnDiscardResult_sameHelperLoadedTwice_releaseEachAcquire() {
+        final BatteryStatsHelper statsHelper = mock(BatteryStatsHelper.class);
+        doReturn(statsHelper).when(mCache).acquire(anyInt(), anyList());
+
+        mBatteryStatsHelperLoader.loadInBackground();
         mBatteryStatsHelperLoader.loadInBackground();
+        mBatteryStatsHelperLoader.onDiscardResult(statsHelper);
+        mBatteryStatsHelperLoader.onDiscardResult(statsHelper);
 
-        verify(mBatteryUtils).initBatteryStatsHelper(any(), eq(null), any());
+        verify(mCache, times(2)).release(statsHelper);
     }
 
 }
@@ -20,11 +20,9 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.BatteryStats;
-import android.os.Bundle;
 import android.os.Build;
 import android.os.Process;
 import android.os.SystemClock;
-import android.os.UserManager;
 import android.text.format.DateUtils;
 
 import com.android.internal.os.BatterySipper;
@@ -64,7 +62,6 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.spy;
 
@@ -127,10 +124,6 @@ public class BatteryUtilsTest {
     @Mock
     private BatterySipper mIdleBatterySipper;
     @Mock
-    private Bundle mBundle;
-    @Mock
-    private UserManager mUserManager;
-    @Mock
     private PackageManager mPackageManager;
     @Mock
     private AppOpsManager mAppOpsManager;
@@ -358,6 +351,26 @@ public class BatteryUtilsTest {
                 BATTERY_APP_USAGE + BATTERY_SCREEN_USAGE / 2);
     }
 
+    @Test
+    public void testCopyUsageList_changeCopies_originalsUnchanged() {
+        final BatterySipper sipper = new BatterySipper(BatterySipper.DrainType.APP,
+                new FakeUid(UID), BATTERY_APP_USAGE);
+        sipper.packageWithHighestDrain = PACKAGE_NAME;
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(sipper);
+
+        final List<BatterySipper> copies = BatteryUtils.copyUsageList(sippers);
+        copies.get(0).totalPowerMah += BATTERY_SCREEN_USAGE;
+        copies.get(0).usageTimeMs = TIME_FOREGROUND;
+
+        assertThat(copies).hasSize(1);
+        assertThat(copies.get(0)).isNotSameAs(sipper);
+        assertThat(copies.get(0).getUid()).isEqualTo(UID);
+        assertThat(copies.get(0).packageWithHighestDrain).isEqualTo(PACKAGE_NAME);
+        assertThat(sipper.totalPowerMah).isWithin(PRECISION).of(BATTERY_APP_USAGE);
+        assertThat(sipper.usageTimeMs).isEqualTo(0);
+    }
+
     @Test
     public void testCalculateRunningTimeBasedOnStatsType() {
         assertThat(mBatteryUtils.calculateRunningTimeBasedOnStatsType(mBatteryStatsHelper,
@@ -462,13 +475,4 @@ public class BatteryUtilsTest {
 
         return sipper;
     }
-
-    @Test
-    public void testInitBatteryStatsHelper_init() {
-        mBatteryUtils.initBatteryStatsHelper(mBatteryStatsHelper, mBundle, mUserManager);
-
-        verify(mBatteryStatsHelper).create(mBundle);
-        verify(mBatteryStatsHelper).refreshStats(BatteryStats.STATS_SINCE_CHARGED,
-                mUserManager.getUserProfiles());
-    }
 }
@@ -76,6 +76,7 @@ public class PowerUsageAdvancedTest {
     private static final double TOTAL_POWER = 500;
     private static final double PRECISION = 0.001;
     private static final String STUB_STRING = "stub_string";
+    private static final long USAGE_TIME_MS = 1000;
     @Mock
     private BatterySipper mNormalBatterySipper;
     @Mock
@@ -188,6 +189,18 @@ public class PowerUsageAdvancedTest {
                 .isEqualTo(UsageType.SYSTEM);
     }
 
+    @Test
+    public void testParsePowerUsageData_sharedSippersUnchanged() {
+        final List<BatterySipper> sippers = mBatteryStatsHelper.getUsageList();
+        sippers.get(0).usageTimeMs = USAGE_TIME_MS;
+        when(mPackageManager.getPackagesForUid(anyInt())).thenReturn(new String[]{STUB_STRING});
+
+        mPowerUsageAdvanced.parsePowerUsageData(mBatteryStatsHelper);
+
+        assertThat(sippers.get(0).usageTimeMs).isEqualTo(USAGE_TIME_MS);
+        assertThat(sippers.get(0).mPackages).isNull();
+    }
+
     @Test
     public void testParsePowerUsageData_PercentageCalculatedCorrectly() {
         final double percentApp = TYPE_APP_USAGE * 2 / TOTAL_USAGE * DISCHARGE_AMOUNT;
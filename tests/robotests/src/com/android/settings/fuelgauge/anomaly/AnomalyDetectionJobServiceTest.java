@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.Context;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AnomalyDetectionJobServiceTest {
+    @Mock
+    private Context mContext;
+    @Mock
+    private JobScheduler mJobScheduler;
+    @Mock
+    private AnomalyDetectionPolicy mPolicy;
+    @Mock
+    private JobInfo mPendingJob;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        doReturn(mJobScheduler).when(mContext).getSystemService(JobScheduler.class);
+        doReturn(RuntimeEnvironment.application.getPackageName()).when(mContext)
+                .getPackageName();
+    }
+
+    @Test
+    public void testUpdateAnomalyDetectionJob_enabled_scheduleIdleJob() {
+        doReturn(true).when(mPolicy).isAnomalyDetectionEnabled();
+
+        AnomalyDetectionJobService.updateAnomalyDetectionJob(mContext, mPolicy);
+
+        final ArgumentCaptor<JobInfo> captor = ArgumentCaptor.forClass(JobInfo.class);
+        verify(mJobScheduler).schedule(captor.capture());
+        final JobInfo jobInfo = captor.getValue();
+        assertThat(jobInfo.isPeriodic()).isTrue();
+        assertThat(jobInfo.isRequireDeviceIdle()).isTrue();
+        assertThat(jobInfo.isPersisted()).isTrue();
+    }
+
+    @Test
+    public void testUpdateAnomalyDetectionJob_alreadyScheduled_doNotScheduleAgain() {
+        doReturn(true).when(mPolicy).isAnomalyDetectionEnabled();
+        doReturn(mPendingJob).when(mJobScheduler).getPendingJob(anyInt());
+
+        AnomalyDetectionJobService.updateAnomalyDetectionJob(mContext, mPolicy);
+
+        verify(mJobScheduler, never()).schedule(any());
+    }
+
+    @Test
+    public void testUpdateAnomalyDetectionJob_disabled_cancelJob() {
+        doReturn(false).when(mPolicy).isAnomalyDetectionEnabled();
+
+        AnomalyDetectionJobService.updateAnomalyDetectionJob(mContext, mPolicy);
+
+        verify(mJobScheduler).cancel(anyInt());
+        verify(mJobScheduler, never()).schedule(any());
+    }
+}
@@ -127,6 +127,19 @@ public class AnomalyDetectionPolicyTest {
                 Anomaly.AnomalyType.BLUETOOTH_SCAN)).isFalse();
     }
 
+    @Test
+    public void testGetDetectionFingerprint_thresholdChanged_fingerprintChanged() {
+        final int fingerprint = createAnomalyPolicyWithConfig().getDetectionFingerprint();
+        assertThat(createAnomalyPolicyWithConfig().getDetectionFingerprint())
+                .isEqualTo(fingerprint);
+
+        doReturn(1000L).when(mKeyValueListParserWrapper).getLong(
+                AnomalyDetectionPolicy.KEY_WAKEUP_ALARM_THRESHOLD, 10);
+
+        assertThat(createAnomalyPolicyWithConfig().getDetectionFingerprint())
+                .isNotEqualTo(fingerprint);
+    }
+
     private AnomalyDetectionPolicy createAnomalyPolicyWithConfig() {
         Settings.Global.putString(mContext.getContentResolver(),
                 Settings.Global.ANOMALY_DETECTION_CONSTANTS, ANOMALY_DETECTION_CONSTANTS_VALUE);
@@ -18,18 +18,26 @@ package com.android.settings.fuelgauge.anomaly;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.BatteryStats;
 import android.os.UserManager;
 
 import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.fuelgauge.BatteryUtils;
+import com.android.settings.fuelgauge.anomaly.action.AnomalyAction;
+import com.android.settings.fuelgauge.anomaly.checker.AnomalyDetectionEngine;
 import com.android.settings.fuelgauge.anomaly.checker.BluetoothScanAnomalyDetector;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settings.TestConfig;
@@ -45,7 +53,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.annotation.Config;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @RunWith(SettingsRobolectricTestRunner.class)
@@ -53,7 +61,11 @@ import java.util.List;
 public class AnomalyLoaderTest {
     private static final String PACKAGE_NAME = "com.android.settings";
     private static final CharSequence DISPLAY_NAME = "Settings";
+    private static final String SHARED_UID_PACKAGE_NAME = "com.android.providers.settings";
     private static final int UID = 0;
+    private static final int OTHER_UID = 1234;
+    private static final long STATS_START_TIME = 1500000000000L;
+    private static final int POLICY_FINGERPRINT = 42;
     @Mock(answer = Answers.RETURNS_DEEP_STUBS)
     private Context mContext;
     @Mock
@@ -68,12 +80,20 @@ public class AnomalyLoaderTest {
     private AnomalyDetectionPolicy mAnomalyDetectionPolicy;
     @Mock
     private UserManager mUserManager;
+    @Mock
+    private AnomalyDetectionEngine mAnomalyDetectionEngine;
+    @Mock
+    private AnomalyStore mAnomalyStore;
+    @Mock
+    private AnomalyAction mAnomalyAction;
+    @Mock
+    private BatteryStats mBatteryStats;
+    @Mock
+    private BatteryUtils mBatteryUtils;
     private Anomaly mWakeLockAnomaly;
     private Anomaly mWakeupAlarmAnomaly;
     private Anomaly mBluetoothScanAnomaly;
-    private List<Anomaly> mWakeLockAnomalies;
-    private List<Anomaly> mWakeupAlarmAnomalies;
-    private List<Anomaly> mBluetoothScanAnomalies;
+    private List<Anomaly> mAnomalies;
     private AnomalyLoader mAnomalyLoader;
 
     @Before
@@ -85,26 +105,16 @@ public class AnomalyLoaderTest {
         doReturn(mUserManager).when(mContext).getSystemService(Context.USER_SERVICE);
         when(mContext.getPackageManager().getPackageUid(anyString(), anyInt())).thenReturn(UID);
 
-        mWakeLockAnomalies = new ArrayList<>();
         mWakeLockAnomaly = createAnomaly(Anomaly.AnomalyType.WAKE_LOCK);
-        mWakeLockAnomalies.add(mWakeLockAnomaly);
-        doReturn(mWakeLockAnomalies).when(mWakeLockAnomalyDetector).detectAnomalies(any(), any());
-
-        mWakeupAlarmAnomalies = new ArrayList<>();
         mWakeupAlarmAnomaly = createAnomaly(Anomaly.AnomalyType.WAKEUP_ALARM);
-        mWakeupAlarmAnomalies.add(mWakeupAlarmAnomaly);
-        doReturn(mWakeupAlarmAnomalies).when(mWakeupAlarmAnomalyDetector).detectAnomalies(any(),
-                any());
-
-        mBluetoothScanAnomalies = new ArrayList<>();
         mBluetoothScanAnomaly = createAnomaly(Anomaly.AnomalyType.BLUETOOTH_SCAN);
-        mBluetoothScanAnomalies.add(mBluetoothScanAnomaly);
-        doReturn(mBluetoothScanAnomalies).when(mBluetoothScanAnomalyDetector).detectAnomalies(any(),
-                any());
+        mAnomalies = Arrays.asList(mWakeLockAnomaly, mWakeupAlarmAnomaly, mBluetoothScanAnomaly);
 
         mAnomalyLoader = new AnomalyLoader(mContext, mBatteryStatsHelper, null,
                 mAnomalyDetectionPolicy);
         mAnomalyLoader.mAnomalyUtils = spy(new AnomalyUtils(mContext));
+        doReturn(mAnomalyStore).when(mAnomalyLoader.mAnomalyUtils).getAnomalyStore();
+        doReturn(mBatteryStats).when(mBatteryStatsHelper).getStats();
     }
 
     @Test
@@ -116,11 +126,83 @@ public class AnomalyLoaderTest {
         doReturn(mBluetoothScanAnomalyDetector).when(
                 mAnomalyLoader.mAnomalyUtils).getAnomalyDetector(
                 Anomaly.AnomalyType.BLUETOOTH_SCAN);
+        doReturn(mAnomalyDetectionEngine).when(
+                mAnomalyLoader.mAnomalyUtils).getAnomalyDetectionEngine();
+        doReturn(mAnomalies).when(mAnomalyDetectionEngine).detectAnomalies(eq(mBatteryStatsHelper),
+                eq(Arrays.asList(mWakeLockAnomalyDetector, mWakeupAlarmAnomalyDetector,
+                        mBluetoothScanAnomalyDetector)), isNull(), isNull(), any());
 
         List<Anomaly> anomalies = mAnomalyLoader.loadInBackground();
 
         assertThat(anomalies).containsExactly(mWakeLockAnomaly, mWakeupAlarmAnomaly,
                 mBluetoothScanAnomaly);
+        verify(mAnomalyStore).update(any(), eq(mAnomalies));
+    }
+
+    @Test
+    public void testLoadInBackground_samePolicy_reusePreviousCounters() {
+        final AnomalyCounters previousCounters = new AnomalyCounters(STATS_START_TIME,
+                POLICY_FINGERPRINT);
+        doReturn(previousCounters).when(mAnomalyStore).getCounters();
+        doReturn(STATS_START_TIME).when(mBatteryStats).getStartClockTime();
+        doReturn(POLICY_FINGERPRINT).when(mAnomalyDetectionPolicy).getDetectionFingerprint();
+        doReturn(mAnomalyDetectionEngine).when(
+                mAnomalyLoader.mAnomalyUtils).getAnomalyDetectionEngine();
+
+        mAnomalyLoader.loadInBackground();
+
+        verify(mAnomalyDetectionEngine).detectAnomalies(eq(mBatteryStatsHelper), any(), isNull(),
+                eq(previousCounters), any());
+    }
+
+    @Test
+    public void testLoadInBackground_policyChanged_checkAllApps() {
+        doReturn(new AnomalyCounters(STATS_START_TIME, POLICY_FINGERPRINT)).when(mAnomalyStore)
+                .getCounters();
+        doReturn(STATS_START_TIME).when(mBatteryStats).getStartClockTime();
+        doReturn(POLICY_FINGERPRINT + 1).when(mAnomalyDetectionPolicy).getDetectionFingerprint();
+        doReturn(mAnomalyDetectionEngine).when(
+                mAnomalyLoader.mAnomalyUtils).getAnomalyDetectionEngine();
+
+        mAnomalyLoader.loadInBackground();
+
+        verify(mAnomalyDetectionEngine).detectAnomalies(eq(mBatteryStatsHelper), any(), isNull(),
+                isNull(), any());
+    }
+
+    @Test
+    public void testLoadInBackground_freshPrecomputedAnomalies_returnThem() {
+        doReturn(mAnomalies).when(mAnomalyStore).getFreshAnomalies();
+        doReturn(mAnomalyAction).when(mAnomalyLoader.mAnomalyUtils).getAnomalyAction(any());
+        doReturn(true).when(mAnomalyAction).isActionActive(mWakeLockAnomaly);
+
+        List<Anomaly> anomalies = mAnomalyLoader.loadInBackground();
+
+        assertThat(anomalies).containsExactly(mWakeLockAnomaly);
+        verify(mAnomalyLoader.mAnomalyUtils, never()).getAnomalyDetectionEngine();
+    }
+
+    @Test
+    public void testLoadInBackground_sharedUidPackage_returnAnomaliesOfUid() {
+        mAnomalyLoader = new AnomalyLoader(mContext, mBatteryStatsHelper, SHARED_UID_PACKAGE_NAME,
+                mAnomalyDetectionPolicy);
+        mAnomalyLoader.mAnomalyUtils = spy(new AnomalyUtils(mContext));
+        doReturn(mAnomalyStore).when(mAnomalyLoader.mAnomalyUtils).getAnomalyStore();
+        doReturn(mBatteryUtils).when(mAnomalyLoader.mAnomalyUtils).getBatteryUtils();
+        doReturn(UID).when(mBatteryUtils).getPackageUid(SHARED_UID_PACKAGE_NAME);
+        final Anomaly otherAnomaly = new Anomaly.Builder()
+                .setType(Anomaly.AnomalyType.WAKE_LOCK)
+                .setUid(OTHER_UID)
+                .setPackageName(SHARED_UID_PACKAGE_NAME)
+                .build();
+        doReturn(Arrays.asList(mWakeLockAnomaly, otherAnomaly)).when(mAnomalyStore)
+                .getFreshAnomalies();
+        doReturn(mAnomalyAction).when(mAnomalyLoader.mAnomalyUtils).getAnomalyAction(any());
+        doReturn(true).when(mAnomalyAction).isActionActive(any());
+
+        List<Anomaly> anomalies = mAnomalyLoader.loadInBackground();
+
+        assertThat(anomalies).containsExactly(mWakeLockAnomaly);
     }
 
     private Anomaly createAnomaly(@Anomaly.AnomalyType int type) {
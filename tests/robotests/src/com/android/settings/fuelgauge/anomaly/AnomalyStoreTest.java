@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.util.AtomicFile;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Arrays;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AnomalyStoreTest {
+    private static final int UID = 111;
+    private static final int NORMAL_UID = 222;
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final long STATS_START_TIME = 1500000000000L;
+    private static final int POLICY_FINGERPRINT = 42;
+    private static final long WAKELOCK_TIME_MS = 2 * 60 * 60 * 1000L;
+    private static final long COUNTER = 1000L;
+
+    private Context mContext;
+    private AtomicFile mFile;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mFile = new AtomicFile(new File(mContext.getFilesDir(), "anomaly_store_test"));
+        mFile.delete();
+    }
+
+    @Test
+    public void testGetFreshAnomalies_nothingDetected_returnNull() {
+        final AnomalyStore anomalyStore = new AnomalyStore(mContext, mFile);
+
+        assertThat(anomalyStore.getFreshAnomalies()).isNull();
+        assertThat(anomalyStore.getCounters()).isNull();
+    }
+
+    @Test
+    public void testUpdate_readBackByNewStore() {
+        final AnomalyCounters counters = new AnomalyCounters(STATS_START_TIME, POLICY_FINGERPRINT);
+        counters.put(UID, Anomaly.AnomalyType.WAKE_LOCK, WAKELOCK_TIME_MS, true);
+        counters.put(NORMAL_UID, Anomaly.AnomalyType.BLUETOOTH_SCAN, COUNTER, false);
+        final Anomaly anomaly = new Anomaly.Builder()
+                .setType(Anomaly.AnomalyType.WAKE_LOCK)
+                .setUid(UID)
+                .setPackageName(PACKAGE_NAME)
+                .setWakeLockTimeMs(WAKELOCK_TIME_MS)
+                .build();
+        new AnomalyStore(mContext, mFile).update(counters, Arrays.asList(anomaly));
+
+        final AnomalyStore anomalyStore = new AnomalyStore(mContext, mFile);
+
+        assertThat(anomalyStore.getFreshAnomalies()).containsExactly(anomaly);
+        final AnomalyCounters readCounters = anomalyStore.getCounters();
+        assertThat(readCounters.getStatsStartTime()).isEqualTo(STATS_START_TIME);
+        assertThat(readCounters.getPolicyFingerprint()).isEqualTo(POLICY_FINGERPRINT);
+        assertThat(readCounters.size()).isEqualTo(2);
+        assertThat(readCounters.isSettled(UID, Anomaly.AnomalyType.WAKE_LOCK, WAKELOCK_TIME_MS))
+                .isFalse();
+        assertThat(readCounters.isSettled(NORMAL_UID, Anomaly.AnomalyType.BLUETOOTH_SCAN,
+                COUNTER)).isTrue();
+        assertThat(readCounters.isSettled(NORMAL_UID, Anomaly.AnomalyType.WAKE_LOCK, COUNTER))
+                .isFalse();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly.checker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.BatteryStats;
+
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.TestConfig;
+import com.android.settings.fuelgauge.BatteryUtils;
+import com.android.settings.fuelgauge.anomaly.Anomaly;
+import com.android.settings.fuelgauge.anomaly.AnomalyCounters;
+import com.android.settings.fuelgauge.anomaly.AnomalyUtils;
+import com.android.settings.fuelgauge.anomaly.action.AnomalyAction;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AnomalyDetectionEngineTest {
+    private static final int UID_1 = 111;
+    private static final int UID_2 = 222;
+    private static final int UID_3 = 333;
+    private static final String PACKAGE_NAME_1 = "com.android.app1";
+    private static final String PACKAGE_NAME_2 = "com.android.app2";
+    private static final long COUNTER = 1000L;
+    private static final long STATS_START_TIME = 1500000000000L;
+    private static final int POLICY_FINGERPRINT = 42;
+    @Mock
+    private BatteryStatsHelper mBatteryStatsHelper;
+    @Mock
+    private BatteryUtils mBatteryUtils;
+    @Mock
+    private AnomalyUtils mAnomalyUtils;
+    @Mock
+    private AnomalyAction mAnomalyAction;
+    @Mock
+    private AnomalyDetector mWakeLockDetector;
+    @Mock
+    private AnomalyDetector mBluetoothScanDetector;
+    private List<BatterySipper> mUsageList;
+    private AnomalyDetectionEngine mEngine;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        doReturn(BatteryUtils.UID_NULL).when(mBatteryUtils).getPackageUid(nullable(String.class));
+        doReturn(PACKAGE_NAME_1).when(mBatteryUtils).getPackageName(UID_1);
+        doReturn(PACKAGE_NAME_2).when(mBatteryUtils).getPackageName(UID_2);
+        doReturn(true).when(mAnomalyAction).isActionActive(any());
+        doReturn(mAnomalyAction).when(mAnomalyUtils).getAnomalyAction(any());
+        doReturn(true).when(mWakeLockDetector).prepare(any(), anyLong());
+        doReturn(true).when(mBluetoothScanDetector).prepare(any(), anyLong());
+        doReturn(Anomaly.AnomalyType.WAKE_LOCK).when(mWakeLockDetector).getAnomalyType();
+        doReturn(Anomaly.AnomalyType.BLUETOOTH_SCAN).when(mBluetoothScanDetector)
+                .getAnomalyType();
+
+        mUsageList = new ArrayList<>();
+        doReturn(mUsageList).when(mBatteryStatsHelper).getUsageList();
+
+        mEngine = new AnomalyDetectionEngine(RuntimeEnvironment.application, mBatteryUtils,
+                mAnomalyUtils);
+        mEngine.mExecutor = Runnable::run;
+    }
+
+    @Test
+    public void testDetectAnomalies_multipleDetectors_resolvePackageOncePerApp() {
+        final BatteryStats.Uid uid1 = addSipper(UID_1);
+        final BatteryStats.Uid uid2 = addSipper(UID_2);
+        addSipper(UID_3);
+        doReturn(createBuilder(UID_1, Anomaly.AnomalyType.WAKE_LOCK)).when(mWakeLockDetector)
+                .checkUid(eq(uid1), anyLong());
+        doReturn(createBuilder(UID_2, Anomaly.AnomalyType.WAKE_LOCK)).when(mWakeLockDetector)
+                .checkUid(eq(uid2), anyLong());
+        doReturn(createBuilder(UID_1, Anomaly.AnomalyType.BLUETOOTH_SCAN)).when(
+                mBluetoothScanDetector).checkUid(eq(uid1), anyLong());
+
+        final List<Anomaly> anomalies = mEngine.detectAnomalies(mBatteryStatsHelper,
+                Arrays.asList(mWakeLockDetector, mBluetoothScanDetector), null);
+
+        assertThat(anomalies).containsExactly(
+                createAnomaly(UID_1, Anomaly.AnomalyType.WAKE_LOCK, PACKAGE_NAME_1),
+                createAnomaly(UID_2, Anomaly.AnomalyType.WAKE_LOCK, PACKAGE_NAME_2),
+                createAnomaly(UID_1, Anomaly.AnomalyType.BLUETOOTH_SCAN, PACKAGE_NAME_1))
+                .inOrder();
+        verify(mBatteryUtils, times(1)).getPackageName(UID_1);
+        verify(mBluetoothScanDetector).completeAnomaly(any(), eq(UID_1), eq(PACKAGE_NAME_1));
+    }
+
+    @Test
+    public void testDetectAnomalies_detectorNotPrepared_skipIt() {
+        final BatteryStats.Uid uid1 = addSipper(UID_1);
+        doReturn(false).when(mBluetoothScanDetector).prepare(any(), anyLong());
+
+        mEngine.detectAnomalies(mBatteryStatsHelper,
+                Arrays.asList(mWakeLockDetector, mBluetoothScanDetector), null);
+
+        verify(mWakeLockDetector).checkUid(eq(uid1), anyLong());
+        verify(mBluetoothScanDetector, never()).checkUid(any(), anyLong());
+    }
+
+    @Test
+    public void testDetectAnomalies_manyApps_keepAppOrder() {
+        final int count = AnomalyDetectionEngine.MIN_SHARD_SIZE * 4 + 1;
+        for (int uid = 0; uid < count; uid++) {
+            addSipper(uid);
+        }
+        doReturn(PACKAGE_NAME_1).when(mBatteryUtils).getPackageName(anyInt());
+        doAnswer(invocation -> createBuilder(((BatteryStats.Uid) invocation.getArgument(0))
+                .getUid(), Anomaly.AnomalyType.WAKE_LOCK)).when(mWakeLockDetector)
+                .checkUid(any(), anyLong());
+
+        final List<Anomaly> anomalies = mEngine.detectAnomalies(mBatteryStatsHelper,
+                Arrays.asList(mWakeLockDetector), null);
+
+        assertThat(anomalies).hasSize(count);
+        for (int uid = 0; uid < count; uid++) {
+            assertThat(anomalies.get(uid).uid).isEqualTo(uid);
+        }
+    }
+
+    @Test
+    public void testDetectAnomalies_previousCounters_onlyCheckChangedApps() {
+        final BatteryStats.Uid uid1 = addSipper(UID_1);
+        final BatteryStats.Uid uid2 = addSipper(UID_2);
+        final BatteryStats.Uid uid3 = addSipper(UID_3);
+        doReturn(COUNTER).when(mWakeLockDetector).getCounter(any());
+        doReturn(COUNTER + 1).when(mWakeLockDetector).getCounter(uid2);
+        doReturn(createBuilder(UID_3, Anomaly.AnomalyType.WAKE_LOCK)).when(mWakeLockDetector)
+                .checkUid(eq(uid3), anyLong());
+        doReturn(PACKAGE_NAME_2).when(mBatteryUtils).getPackageName(UID_3);
+        final AnomalyCounters previousCounters = new AnomalyCounters(STATS_START_TIME,
+                POLICY_FINGERPRINT);
+        previousCounters.put(UID_1, Anomaly.AnomalyType.WAKE_LOCK, COUNTER, false);
+        previousCounters.put(UID_2, Anomaly.AnomalyType.WAKE_LOCK, COUNTER, false);
+        previousCounters.put(UID_3, Anomaly.AnomalyType.WAKE_LOCK, COUNTER, true);
+        final AnomalyCounters counters = new AnomalyCounters(STATS_START_TIME, POLICY_FINGERPRINT);
+
+        final List<Anomaly> anomalies = mEngine.detectAnomalies(mBatteryStatsHelper,
+                Arrays.asList(mWakeLockDetector), null, previousCounters, counters);
+
+        // Unchanged without anomaly, changed, unchanged with anomaly.
+        verify(mWakeLockDetector, never()).checkUid(eq(uid1), anyLong());
+        verify(mWakeLockDetector).checkUid(uid2, COUNTER + 1);
+        verify(mWakeLockDetector).checkUid(uid3, COUNTER);
+        assertThat(anomalies).hasSize(1);
+        assertThat(counters.isSettled(UID_1, Anomaly.AnomalyType.WAKE_LOCK, COUNTER)).isTrue();
+        assertThat(counters.isSettled(UID_2, Anomaly.AnomalyType.WAKE_LOCK, COUNTER + 1))
+                .isTrue();
+        assertThat(counters.isSettled(UID_3, Anomaly.AnomalyType.WAKE_LOCK, COUNTER)).isFalse();
+    }
+
+    private BatteryStats.Uid addSipper(int uidValue) {
+        final BatterySipper sipper = mock(BatterySipper.class);
+        final BatteryStats.Uid uid = mock(BatteryStats.Uid.class);
+        doReturn(uidValue).when(uid).getUid();
+        sipper.uidObj = uid;
+        mUsageList.add(sipper);
+        return uid;
+    }
+
+    private Anomaly.Builder createBuilder(int uid, @Anomaly.AnomalyType int type) {
+        return new Anomaly.Builder()
+                .setUid(uid)
+                .setType(type);
+    }
+
+    private Anomaly createAnomaly(int uid, @Anomaly.AnomalyType int type, String packageName) {
+        return createBuilder(uid, type)
+                .setPackageName(packageName)
+                .build();
+    }
+}
@@ -62,6 +62,7 @@ public class CursorToSearchResultConverterTest {
     private static final Intent INTENT = new Intent("com.android.settings");
     private static final int ICON = R.drawable.ic_search_24dp;
     private static final int BASE_RANK = 1;
+    private static final String[] RANKED_COLUMNS = getRankedColumns();
 
     @Mock(answer = Answers.RETURNS_DEEP_STUBS)
     private SiteMapManager mSiteMapManager;
@@ -78,31 +79,62 @@ public class CursorToSearchResultConverterTest {
 
     @Test
     public void testParseNullResults_ReturnsNull() {
-        final Set<SearchResult> results = mConverter.convertCursor(
-                mSiteMapManager, null, BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, null);
         assertThat(results).isNull();
     }
 
     @Test
     public void testParseCursor_NotNull() {
-        final Set<SearchResult> results = mConverter.convertCursor(
-                mSiteMapManager, getDummyCursor(), BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager,
+                getDummyCursor());
         assertThat(results).isNotNull();
     }
 
     @Test
     public void testParseCursor_MatchesRank() {
-        final Set<SearchResult> results = mConverter.convertCursor(
-                mSiteMapManager, getDummyCursor(), BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager,
+                getDummyCursor());
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(BASE_RANK);
         }
     }
 
+    @Test
+    public void testParseRankedCursor_usesRankFromEachRow() {
+        final MatrixCursor cursor = new MatrixCursor(RANKED_COLUMNS);
+        final byte[] payload = ResultPayloadUtils.marshall(new ResultPayload(INTENT));
+        for (int i = 0; i < DatabaseResultLoader.BASE_RANKS.length; i++) {
+            cursor.addRow(new Object[] {
+                    i + 1, // Doc ID
+                    TITLES.get(0), // Title
+                    SUMMARY, // Summary on
+                    SUMMARY, // summary off
+                    "", // classname
+                    "", // screen title
+                    null, // Icon
+                    INTENT.getAction(), // Intent action
+                    TARGET_PACKAGE, // target package
+                    TARGET_CLASS, // target class
+                    KEY + i, // Key
+                    Integer.toString(0), // Payload Type
+                    payload, // Payload
+                    DatabaseResultLoader.BASE_RANKS[i] // Base rank
+            });
+        }
+
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
+
+        assertThat(results.size()).isEqualTo(DatabaseResultLoader.BASE_RANKS.length);
+        for (SearchResult result : results) {
+            assertThat(result.rank)
+                    .isEqualTo(DatabaseResultLoader.BASE_RANKS[result.stableId - 1]);
+        }
+    }
+
     @Test
     public void testParseCursor_MatchesTitle() {
-        final Set<SearchResult> results = mConverter.convertCursor(
-                mSiteMapManager, getDummyCursor(), BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager,
+                getDummyCursor());
         for (SearchResult result : results) {
             assertThat(TITLES).contains(result.title);
         }
@@ -110,8 +142,8 @@ public class CursorToSearchResultConverterTest {
 
     @Test
     public void testParseCursor_MatchesSummary() {
-        final Set<SearchResult> results = mConverter.convertCursor(
-                mSiteMapManager, getDummyCursor(), BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager,
+                getDummyCursor());
         for (SearchResult result : results) {
             assertThat(result.summary).isEqualTo(SUMMARY);
         }
@@ -119,7 +151,7 @@ public class CursorToSearchResultConverterTest {
 
     @Test
     public void testParseCursor_MatchesIcon() {
-        final MatrixCursor cursor = new MatrixCursor(DatabaseResultLoader.SELECT_COLUMNS);
+        final MatrixCursor cursor = new MatrixCursor(RANKED_COLUMNS);
         final byte[] payload = ResultPayloadUtils.marshall(new ResultPayload(INTENT));
         final String BLANK = "";
         cursor.addRow(new Object[]{
@@ -135,11 +167,11 @@ public class CursorToSearchResultConverterTest {
                 BLANK,   // target class
                 KEY,   // Key
                 PayloadType.INTENT,       // Payload Type
-                payload     // Payload
+                payload,    // Payload
+                BASE_RANK   // Base rank
         });
 
-        final Set<SearchResult> results = mConverter.convertCursor(
-                mSiteMapManager, cursor, BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
 
         for (SearchResult result : results) {
             Drawable resultDrawable = result.icon;
@@ -150,8 +182,8 @@ public class CursorToSearchResultConverterTest {
 
     @Test
     public void testParseCursor_NoIcon() {
-        final Set<SearchResult> results = mConverter.convertCursor(
-                mSiteMapManager, getDummyCursor("noIcon" /* key */, "" /* className */), BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager,
+                getDummyCursor("noIcon" /* key */, "" /* className */));
         for (SearchResult result : results) {
             assertThat(result.icon).isNull();
         }
@@ -159,8 +191,8 @@ public class CursorToSearchResultConverterTest {
 
     @Test
     public void testParseCursor_MatchesPayloadType() {
-        final Set<SearchResult> results = mConverter.convertCursor(
-                mSiteMapManager, getDummyCursor(), BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager,
+                getDummyCursor());
         ResultPayload payload;
         for (SearchResult result : results) {
             payload = result.payload;
@@ -170,7 +202,7 @@ public class CursorToSearchResultConverterTest {
 
     @Test
     public void testLongTitle_PenalizedInRank() {
-        final MatrixCursor cursor = new MatrixCursor(DatabaseResultLoader.SELECT_COLUMNS);
+        final MatrixCursor cursor = new MatrixCursor(RANKED_COLUMNS);
         final byte[] payload = ResultPayloadUtils.marshall(new ResultPayload(INTENT));
         final String BLANK = "";
         cursor.addRow(new Object[]{
@@ -186,10 +218,10 @@ public class CursorToSearchResultConverterTest {
                 BLANK,   // target class
                 KEY,   // Key
                 PayloadType.INTENT,       // Payload Type
-                payload     // Payload
+                payload,    // Payload
+                BASE_RANK   // Base rank
         });
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(BASE_RANK + 1);
         }
@@ -197,8 +229,8 @@ public class CursorToSearchResultConverterTest {
 
     @Test
     public void testParseCursor_MatchesResultPayload() {
-        final Set<SearchResult> results = mConverter.convertCursor(
-                mSiteMapManager, getDummyCursor(), BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager,
+                getDummyCursor());
         ResultPayload payload;
         for (SearchResult result : results) {
             payload = result.payload;
@@ -210,7 +242,7 @@ public class CursorToSearchResultConverterTest {
 
     @Test
     public void testParseCursor_MatchesInlineSwitchPayload() {
-        MatrixCursor cursor = new MatrixCursor(DatabaseResultLoader.SELECT_COLUMNS);
+        MatrixCursor cursor = new MatrixCursor(RANKED_COLUMNS);
         final String BLANK = "";
         final String uri = "test.com";
         final int type = ResultPayload.PayloadType.INLINE_SWITCH;
@@ -235,10 +267,10 @@ public class CursorToSearchResultConverterTest {
                 BLANK,   // target class
                 KEY,   // Key
                 type,    // Payload Type
-                ResultPayloadUtils.marshall(payload) // Payload
+                ResultPayloadUtils.marshall(payload), // Payload
+                BASE_RANK // Base rank
         });
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
 
         for (SearchResult result : results) {
             final InlineSwitchPayload newPayload = (InlineSwitchPayload) result.payload;
@@ -259,20 +291,44 @@ public class CursorToSearchResultConverterTest {
     public void testWifiKey_PrioritizedResult() {
         final String key = "main_toggle_wifi";
         final Cursor cursor = getDummyCursor(key,  WifiSettings.class.getName());
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
 
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(SearchResult.TOP_RANK);
         }
     }
 
+    @Test
+    public void testGetUnmarshalledPayload_samePayload_reusesPayload() {
+        final int docId = 4242;
+        final byte[] marshalledPayload = ResultPayloadUtils.marshall(new ResultPayload(INTENT));
+
+        final ResultPayload payload = CursorToSearchResultConverter.getUnmarshalledPayload(docId,
+                marshalledPayload, PayloadType.INTENT);
+
+        assertThat(CursorToSearchResultConverter.getUnmarshalledPayload(docId,
+                marshalledPayload.clone(), PayloadType.INTENT)).isSameAs(payload);
+    }
+
+    @Test
+    public void testGetUnmarshalledPayload_payloadChanged_unmarshallsAgain() {
+        final int docId = 4343;
+        final ResultPayload payload = CursorToSearchResultConverter.getUnmarshalledPayload(docId,
+                ResultPayloadUtils.marshall(new ResultPayload(INTENT)), PayloadType.INTENT);
+
+        final ResultPayload newPayload = CursorToSearchResultConverter.getUnmarshalledPayload(
+                docId, ResultPayloadUtils.marshall(new ResultPayload(new Intent("new.action"))),
+                PayloadType.INTENT);
+
+        assertThat(newPayload).isNotSameAs(payload);
+        assertThat(newPayload.getIntent().getAction()).isEqualTo("new.action");
+    }
+
     @Test
     public void testBluetoothKey_PrioritizedResult() {
         final String key = "main_toggle_bluetooth";
         final Cursor cursor = getDummyCursor(key,  WifiSettings.class.getName());
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
 
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(SearchResult.TOP_RANK);
@@ -283,7 +339,7 @@ public class CursorToSearchResultConverterTest {
     public void testAirplaneKey_PrioritizedResult() {
         final String key = "toggle_airplane";
         final Cursor cursor = getDummyCursor(key,  WifiSettings.class.getName());
-        Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor, BASE_RANK);
+        Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(SearchResult.TOP_RANK);
         }
@@ -293,8 +349,7 @@ public class CursorToSearchResultConverterTest {
     public void testHotspotKey_PrioritizedResult() {
         final String key = "tether_settings";
         final Cursor cursor = getDummyCursor(key,  WifiSettings.class.getName());
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
 
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(SearchResult.TOP_RANK);
@@ -305,8 +360,7 @@ public class CursorToSearchResultConverterTest {
     public void testBatterySaverKey_PrioritizedResult() {
         final String key = "battery_saver";
         final Cursor cursor = getDummyCursor(key,  WifiSettings.class.getName());
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
 
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(SearchResult.TOP_RANK);
@@ -317,8 +371,7 @@ public class CursorToSearchResultConverterTest {
     public void testNFCKey_PrioritizedResult() {
         final String key = "toggle_nfc";
         final Cursor cursor = getDummyCursor(key,  WifiSettings.class.getName());
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
 
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(SearchResult.TOP_RANK);
@@ -329,8 +382,7 @@ public class CursorToSearchResultConverterTest {
     public void testDataSaverKey_PrioritizedResult() {
         final String key = "restrict_background";
         final Cursor cursor = getDummyCursor(key,  WifiSettings.class.getName());
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
 
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(SearchResult.TOP_RANK);
@@ -341,8 +393,7 @@ public class CursorToSearchResultConverterTest {
     public void testDataUsageKey_PrioritizedResult() {
         final String key = "data_usage_enable";
         final Cursor cursor = getDummyCursor(key,  WifiSettings.class.getName());
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(SearchResult.TOP_RANK);
         }
@@ -352,8 +403,7 @@ public class CursorToSearchResultConverterTest {
     public void testRoamingKey_PrioritizedResult() {
         final String key = "button_roaming_key";
         final Cursor cursor = getDummyCursor(key,  WifiSettings.class.getName());
-        final Set<SearchResult> results = mConverter.convertCursor(mSiteMapManager, cursor,
-                BASE_RANK);
+        final Set<SearchResult> results = mConverter.convertRankedCursor(mSiteMapManager, cursor);
 
         for (SearchResult result : results) {
             assertThat(result.rank).isEqualTo(SearchResult.TOP_RANK);
@@ -373,12 +423,12 @@ public class CursorToSearchResultConverterTest {
     }
 
     private MatrixCursor getDummyCursor(String[] keys, String className) {
-        MatrixCursor cursor = new MatrixCursor(DatabaseResultLoader.SELECT_COLUMNS);
+        MatrixCursor cursor = new MatrixCursor(RANKED_COLUMNS);
         final String BLANK = "";
         final byte[] payload = ResultPayloadUtils.marshall(new ResultPayload(INTENT));
 
         for (int i = 0; i < keys.length; i++) {
-            ArrayList<Object> item = new ArrayList<>(DatabaseResultLoader.SELECT_COLUMNS.length);
+            ArrayList<Object> item = new ArrayList<>(RANKED_COLUMNS.length);
             item.add(keys[i].hashCode()); // Doc ID
             item.add(TITLES.get(i)); // Title
             item.add(SUMMARY); // Summary on
@@ -392,9 +442,17 @@ public class CursorToSearchResultConverterTest {
             item.add(keys[i]); // Key
             item.add(Integer.toString(0));     // Payload Type
             item.add(payload); // Payload
+            item.add(BASE_RANK); // Base rank
 
             cursor.addRow(item);
         }
         return cursor;
     }
+
+    private static String[] getRankedColumns() {
+        final String[] columns = Arrays.copyOf(DatabaseResultLoader.SELECT_COLUMNS,
+                DatabaseResultLoader.SELECT_COLUMNS.length + 1);
+        columns[DatabaseResultLoader.COLUMN_INDEX_BASE_RANK] = "base_rank";
+        return columns;
+    }
 }
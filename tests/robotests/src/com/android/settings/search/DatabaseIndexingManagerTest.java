@@ -47,6 +47,7 @@ import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.provider.SearchIndexableData;
 import android.provider.SearchIndexableResource;
 import android.util.ArrayMap;
 
@@ -174,7 +175,8 @@ public class DatabaseIndexingManagerTest {
                 "data_key_reference",
                 "user_id",
                 "payload_type",
-                "payload"
+                "payload",
+                "data_package"
         }));
         // Prevent database schema regressions
         assertThat(columnNames).containsAllIn(expColumnNames);
@@ -854,24 +856,89 @@ public class DatabaseIndexingManagerTest {
     }
 
     @Test
-    public void testPerformIndexing_onPackageChange_shouldFullIndex() {
+    public void testPerformIndexing_onPackageChange_shouldReindexPackageOnly() {
         final List<ResolveInfo> providers = getDummyResolveInfo();
         final String buildNumber = Build.FINGERPRINT;
         final String locale = Locale.getDefault().toString();
         skipFullIndex(providers);
 
-        // This snapshot is already indexed. Should return false
-        assertThat(IndexDatabaseHelper.isFullIndex(
-                mContext, locale, buildNumber,
-                IndexDatabaseHelper.buildProviderVersionedNames(providers)))
-                .isFalse();
+        // This snapshot is already indexed.
+        assertThat(IndexDatabaseHelper.isFullIndex(mContext, locale, buildNumber)).isFalse();
+        assertThat(IndexDatabaseHelper.getChangedProviders(mContext,
+                IndexDatabaseHelper.buildProviderVersionedNames(providers))).isEmpty();
 
-        // Change provider version number, this should trigger full index.
+        // Change provider version number, this should only reindex the provider.
         providers.get(0).providerInfo.applicationInfo.versionCode++;
 
-        assertThat(IndexDatabaseHelper.isFullIndex(mContext, locale, buildNumber,
+        assertThat(IndexDatabaseHelper.isFullIndex(mContext, locale, buildNumber)).isFalse();
+        assertThat(IndexDatabaseHelper.getChangedProviders(mContext,
                 IndexDatabaseHelper.buildProviderVersionedNames(providers)))
-                .isTrue();
+                .containsExactly(PACKAGE_ONE);
+    }
+
+    @Test
+    public void testPerformIndexing_providerUpdated_onlyProviderDataReplaced() {
+        final List<ResolveInfo> providerInfo = getDummyResolveInfo();
+        skipFullIndex(providerInfo);
+        providerInfo.get(0).providerInfo.applicationInfo.versionCode++;
+        DummyProvider provider = new DummyProvider();
+        provider.onCreate();
+        ShadowContentResolver.registerProvider(AUTHORITY_ONE, provider);
+        when(mPackageManager.queryIntentContentProviders(any(Intent.class), anyInt()))
+                .thenReturn(providerInfo);
+        insertSpecialCase(TITLE_TWO, true /* enabled */, KEY_TWO, PACKAGE_ONE);
+        insertSpecialCase(TITLE_ONE, true /* enabled */, KEY_ONE, "other.package");
+
+        DatabaseIndexingManager manager =
+                spy(new DatabaseIndexingManager(mContext, PACKAGE_ONE));
+
+        manager.performIndexing();
+
+        verify(manager).addIndexablesFromRemoteProvider(PACKAGE_ONE, AUTHORITY_ONE);
+        verify(manager).updateDatabase(false /* isFullIndex */, Locale.getDefault().toString());
+        Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index WHERE data_title = ?",
+                new String[] {TITLE_TWO});
+        assertThat(cursor.getCount()).isEqualTo(0);
+        cursor = mDb.rawQuery("SELECT * FROM prefs_index WHERE data_package = ?",
+                new String[] {"other.package"});
+        assertThat(cursor.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetChangedProviders() {
+        assertThat(IndexDatabaseHelper.getChangedProviders(null, "a:1,b:2,"))
+                .containsExactly("a", "b");
+        assertThat(IndexDatabaseHelper.getChangedProviders("a:1,b:2,", "a:1,b:2,")).isEmpty();
+        assertThat(IndexDatabaseHelper.getChangedProviders("a:1,b:2,", "b:2,a:1,")).isEmpty();
+        assertThat(IndexDatabaseHelper.getChangedProviders("a:1,b:2,", "a:2,c:1,"))
+                .containsExactly("a", "b", "c");
+    }
+
+    @Test
+    public void testDeleteDataFromPackages_otherPackagesKept() {
+        insertSpecialCase(TITLE_ONE, true /* enabled */, KEY_ONE, PACKAGE_ONE);
+        insertSpecialCase(TITLE_TWO, true /* enabled */, KEY_TWO, packageName);
+
+        mManager.deleteDataFromPackages(mDb, new HashSet<>(Arrays.asList(PACKAGE_ONE)));
+
+        Cursor cursor = mDb.rawQuery("SELECT data_title FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0)).isEqualTo(TITLE_TWO);
+    }
+
+    @Test
+    public void testDeleteDataFromPackages_dataWithoutPackage_deletedWithOwnPackage() {
+        SearchIndexableRaw raw = getFakeRaw();
+        raw.packageName = null;
+        mManager.indexOneSearchIndexableData(mDb, localeStr, raw,
+                new HashMap<>()/* Non-indexable keys */);
+
+        mManager.deleteDataFromPackages(mDb,
+                new HashSet<>(Arrays.asList(mContext.getPackageName())));
+
+        Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(0);
     }
 
     @Test
@@ -979,6 +1046,43 @@ public class DatabaseIndexingManagerTest {
         assertThat(unmarshalledPayload).isInstanceOf(ResultPayload.class);
     }
 
+    @Test
+    public void testBuildRows_databaseNotModified() {
+        List<DatabaseIndexingManager.DatabaseRow> rows = mManager.buildRows(localeStr,
+                getFakeRaw(), new HashMap<>());
+
+        assertThat(rows).hasSize(1);
+        assertThat(rows.get(0).updatedTitle).isEqualTo(updatedTitle);
+        Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAddDataToDatabase_multipleData_allRowsInsertedInOrder() {
+        List<SearchIndexableData> data = new ArrayList<>();
+        for (int i = 0; i < DatabaseIndexingManager.MAX_INDEXING_THREADS * 2; i++) {
+            SearchIndexableRaw raw = getFakeRaw();
+            raw.key = key + i;
+            data.add(raw);
+        }
+        // Same key as the first item, it must replace it.
+        SearchIndexableRaw replacement = getFakeRaw();
+        replacement.key = key + 0;
+        replacement.title = TITLE_ONE;
+        data.add(replacement);
+
+        mManager.addDataToDatabase(mDb, localeStr, data, new HashMap<>());
+
+        Cursor cursor = mDb.rawQuery(
+                "SELECT data_title FROM prefs_index WHERE data_key_reference = ?",
+                new String[] {key + 0});
+        assertThat(cursor.getCount()).isEqualTo(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0)).isEqualTo(TITLE_ONE);
+        cursor = mDb.rawQuery("SELECT * FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(DatabaseIndexingManager.MAX_INDEXING_THREADS * 2);
+    }
+
     @Test
     public void testUpdateDataInDatabase_enabledResultsAreNonIndexable_becomeDisabled() {
         // Both results are enabled, and then TITLE_ONE gets disabled.
@@ -1152,6 +1256,11 @@ public class DatabaseIndexingManagerTest {
     }
 
     private void insertSpecialCase(String specialCase, boolean enabled, String key) {
+        insertSpecialCase(specialCase, enabled, key, null /* packageName */);
+    }
+
+    private void insertSpecialCase(String specialCase, boolean enabled, String key,
+            String packageName) {
         ContentValues values = new ContentValues();
         values.put(IndexDatabaseHelper.IndexColumns.DOCID, specialCase.hashCode());
         values.put(IndexDatabaseHelper.IndexColumns.LOCALE, localeStr);
@@ -1175,6 +1284,7 @@ public class DatabaseIndexingManagerTest {
         values.put(IndexDatabaseHelper.IndexColumns.USER_ID, 0);
         values.put(IndexDatabaseHelper.IndexColumns.PAYLOAD_TYPE, 0);
         values.put(IndexDatabaseHelper.IndexColumns.PAYLOAD, (String) null);
+        values.put(IndexDatabaseHelper.IndexColumns.DATA_PACKAGE, packageName);
 
         mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, values);
     }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.android.settings.search.DatabaseResultLoader.BASE_RANKS;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Intent;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class DatabaseResultCacheTest {
+
+    private static final String[] EMPTY = {"", "", "", ""};
+
+    @Test
+    public void testTokenize_matchesSimpleTokenizer() {
+        assertThat(DatabaseResultCache.tokenize("Wi-Fi & Calling"))
+                .isEqualTo(new String[] {"wi", "fi", "calling"});
+        assertThat(DatabaseResultCache.tokenize("priorités")).isEqualTo(new String[] {"priorités"});
+        assertThat(DatabaseResultCache.tokenize(" - ")).isEmpty();
+    }
+
+    @Test
+    public void testGetLikeBaseRank_firstWordOfTitle() {
+        final DatabaseResultCache.Entry entry = buildEntry("bluetooth pairing");
+        assertThat(DatabaseResultCache.getLikeBaseRank(entry, "Blue")).isEqualTo(BASE_RANKS[0]);
+    }
+
+    @Test
+    public void testGetLikeBaseRank_otherWordOfTitle() {
+        final DatabaseResultCache.Entry entry = buildEntry("use bluetooth");
+        assertThat(DatabaseResultCache.getLikeBaseRank(entry, "blue")).isEqualTo(BASE_RANKS[1]);
+    }
+
+    @Test
+    public void testGetLikeBaseRank_keywordsOnly() {
+        final DatabaseResultCache.Entry entry = new DatabaseResultCache.Entry(
+                buildResult(1, 1), "key", new String[] {"pairing", "pairing"}, EMPTY,
+                new String[] {"headset bluetooth", ""});
+        assertThat(DatabaseResultCache.getLikeBaseRank(entry, "blue")).isEqualTo(BASE_RANKS[3]);
+    }
+
+    @Test
+    public void testGetLikeBaseRank_noMatch() {
+        final DatabaseResultCache.Entry entry = buildEntry("bluetooth");
+        assertThat(DatabaseResultCache.getLikeBaseRank(entry, "lue")).isEqualTo(-1);
+    }
+
+    @Test
+    public void testGetFtsBaseRank_phrase() {
+        final DatabaseResultCache.Entry entry = buildEntry("wi-fi calling");
+        assertThat(DatabaseResultCache.getFtsBaseRank(entry,
+                DatabaseResultCache.tokenize("wi fi cal"))).isEqualTo(BASE_RANKS[0]);
+        assertThat(DatabaseResultCache.getFtsBaseRank(entry,
+                DatabaseResultCache.tokenize("fi cal"))).isEqualTo(BASE_RANKS[1]);
+        assertThat(DatabaseResultCache.getFtsBaseRank(entry,
+                DatabaseResultCache.tokenize("wi cal"))).isEqualTo(-1);
+    }
+
+    @Test
+    public void testGetRefinedResults_emptyCache_returnsNull() {
+        final DatabaseResultCache cache = new DatabaseResultCache();
+        assertThat(cache.getRefinedResults("blue", false /* useFtsMatch */)).isNull();
+    }
+
+    private static DatabaseResultCache.Entry buildEntry(String title) {
+        return new DatabaseResultCache.Entry(buildResult(1, BASE_RANKS[3]), "key",
+                new String[] {title, title}, EMPTY, new String[] {"", ""});
+    }
+
+    private static SearchResult buildResult(int id, int rank) {
+        return new SearchResult.Builder()
+                .setStableId(id)
+                .setTitle("title")
+                .setRank(rank)
+                .setPayload(new ResultPayload(new Intent()))
+                .build();
+    }
+}
@@ -43,6 +43,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.times;
@@ -86,6 +87,21 @@ public class DatabaseResultLoaderTest {
         verify(mSiteMapManager, times(2)).buildBreadCrumb(eq(mContext), anyString(), anyString());
     }
 
+    @Test
+    public void testLoad_logsStageLatencies() {
+        FakeFeatureFactory factory =
+                (FakeFeatureFactory) FakeFeatureFactory.getFactory(mMockContext);
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "title", mSiteMapManager);
+        loader.loadInBackground();
+
+        verify(factory.metricsFeatureProvider).histogram(eq(mContext),
+                eq(SearchLatencyLogger.DATABASE_QUERY), anyInt());
+        verify(factory.metricsFeatureProvider).histogram(eq(mContext),
+                eq(SearchLatencyLogger.RESULT_CONVERSION), anyInt());
+        verify(factory.metricsFeatureProvider).histogram(eq(mContext),
+                eq(SearchLatencyLogger.BREADCRUMBS), anyInt());
+    }
+
     @Test
     public void testMatchSummary() {
         DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "summary",
@@ -210,6 +226,33 @@ public class DatabaseResultLoaderTest {
         assertThat(loader.loadInBackground().size()).isEqualTo(1);
     }
 
+    @Test
+    public void testResultMatchedByMultipleQueries_convertedOnce() {
+        String key = "durr";
+        insertSameValueAllFieldsCase(key);
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, key, mSiteMapManager);
+
+        Set<? extends SearchResult> results = loader.loadInBackground();
+
+        assertThat(results.size()).isEqualTo(1);
+        assertThat(results.iterator().next().rank).isEqualTo(DatabaseResultLoader.BASE_RANKS[0]);
+        verify(mSiteMapManager, times(1)).buildBreadCrumb(eq(mContext), anyString(), anyString());
+    }
+
+    @Test
+    public void testFtsMatch_resultMatchedByMultipleQueries_convertedOnce() {
+        String key = "durr";
+        insertSameValueAllFieldsCase(key);
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, key, mSiteMapManager,
+                true /* useFtsMatch */);
+
+        Set<? extends SearchResult> results = loader.loadInBackground();
+
+        assertThat(results.size()).isEqualTo(1);
+        assertThat(results.iterator().next().rank).isEqualTo(DatabaseResultLoader.BASE_RANKS[0]);
+        verify(mSiteMapManager, times(1)).buildBreadCrumb(eq(mContext), anyString(), anyString());
+    }
+
     @Test
     public void testSpecialCaseTwoWords_multipleResults() {
         final String caseOne = "Apple pear";
@@ -226,6 +269,121 @@ public class DatabaseResultLoaderTest {
         assertThat(actualTitles).isEqualTo(expectedTitles);
     }
 
+    @Test
+    public void testFtsMatch_matchTitle() {
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "title", mSiteMapManager,
+                true /* useFtsMatch */);
+        assertThat(loader.loadInBackground().size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFtsMatch_matchKeywords() {
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "keywords",
+                mSiteMapManager, true /* useFtsMatch */);
+        assertThat(loader.loadInBackground().size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFtsMatch_firstWordPrefix_getsBestRank() {
+        insertSpecialCase("Apps Notifications");
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "App", mSiteMapManager,
+                true /* useFtsMatch */);
+        Set<? extends SearchResult> results = loader.loadInBackground();
+        assertThat(results.size()).isEqualTo(1);
+        assertThat(results.iterator().next().rank).isEqualTo(DatabaseResultLoader.BASE_RANKS[0]);
+    }
+
+    @Test
+    public void testFtsMatch_secondWordPrefix_matches() {
+        insertSpecialCase("Apps & Notifications");
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "No", mSiteMapManager,
+                true /* useFtsMatch */);
+        assertThat(loader.loadInBackground().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFtsMatch_nonPrefixSubstring_doesNotMatch() {
+        insertSpecialCase("Photos");
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "hot", mSiteMapManager,
+                true /* useFtsMatch */);
+        assertThat(loader.loadInBackground().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFtsMatch_multiWordQuery_matchesPhrase() {
+        insertSpecialCase("wi-fi calling");
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "wifi cal",
+                mSiteMapManager, true /* useFtsMatch */);
+        assertThat(loader.loadInBackground().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFtsMatch_queryWithSyntaxCharacters_doesNotThrow() {
+        insertSpecialCase("Apps Notifications");
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "\"apps* OR",
+                mSiteMapManager, true /* useFtsMatch */);
+        assertThat(loader.loadInBackground().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testResultCache_refinedQuery_servedFromCache() {
+        insertSpecialCase("Bluetooth");
+        final DatabaseResultCache cache = new DatabaseResultCache();
+        new DatabaseResultLoader(mContext, "blu", mSiteMapManager, true /* useFtsMatch */, cache)
+                .loadInBackground();
+        mDb.delete(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null /* whereClause */,
+                null /* whereArgs */);
+
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "blue", mSiteMapManager,
+                true /* useFtsMatch */, cache);
+
+        assertThat(loader.loadInBackground().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testResultCache_refinedQuery_narrowsResults() {
+        insertSpecialCase("Bluetooth");
+        insertSpecialCase("Blur");
+        final DatabaseResultCache cache = new DatabaseResultCache();
+        new DatabaseResultLoader(mContext, "blu", mSiteMapManager, false /* useFtsMatch */, cache)
+                .loadInBackground();
+
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "blue", mSiteMapManager,
+                false /* useFtsMatch */, cache);
+        Set<? extends SearchResult> results = loader.loadInBackground();
+
+        assertThat(results.size()).isEqualTo(1);
+        assertThat(results.iterator().next().title).isEqualTo("Bluetooth");
+    }
+
+    @Test
+    public void testResultCache_divergingQuery_queriesDatabase() {
+        insertSpecialCase("Bluetooth");
+        insertSpecialCase("Photos");
+        final DatabaseResultCache cache = new DatabaseResultCache();
+        new DatabaseResultLoader(mContext, "blu", mSiteMapManager, true /* useFtsMatch */, cache)
+                .loadInBackground();
+
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "pho", mSiteMapManager,
+                true /* useFtsMatch */, cache);
+
+        assertThat(loader.loadInBackground().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBuildFtsPhrase_dropsSeparators() {
+        assertThat(DatabaseResultLoader.buildFtsPhrase("Wi-Fi \"cal")).isEqualTo("Wi Fi cal*");
+        assertThat(DatabaseResultLoader.buildFtsPhrase("priorités")).isEqualTo("priorités*");
+        assertThat(DatabaseResultLoader.buildFtsPhrase(" * - ")).isNull();
+    }
+
+    @Test
+    public void testBuildFtsMatchExpression_firstToken() {
+        assertThat(DatabaseResultLoader.buildFtsMatchExpression(
+                DatabaseResultLoader.MATCH_COLUMNS_PRIMARY, "app*", true /* firstToken */))
+                .isEqualTo("data_title:\"^app*\" OR data_title_normalized:\"^app*\"");
+    }
+
     private void insertSpecialCase(String specialCase) {
         String normalized = DatabaseIndexingUtils.normalizeHyphen(specialCase);
         normalized = DatabaseIndexingUtils.normalizeString(normalized);
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.DatabaseTestUtils;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class IndexSnapshotTest {
+
+    private static final String LOCALE = "en_US";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String OWN_PACKAGE = "com.android.settings";
+    private static final String OTHER_PACKAGE = "com.other";
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDb = IndexDatabaseHelper.getInstance(mContext).getWritableDatabase();
+    }
+
+    @After
+    public void cleanUp() {
+        DatabaseTestUtils.clearDb(mContext);
+    }
+
+    @Test
+    public void testRestore_noSnapshot_returnsFalse() {
+        assertThat(IndexSnapshot.restore(mContext, mDb, LOCALE, FINGERPRINT)).isFalse();
+    }
+
+    @Test
+    public void testSaveAndRestore_ownRowsRestored() {
+        insertRow(1, "wifi", OWN_PACKAGE, new byte[] {1, 2, 3});
+        insertRow(2, "other", OTHER_PACKAGE, null);
+        insertSiteMapRow(3, "Parent", "Child");
+
+        IndexSnapshot.save(mContext, mDb, LOCALE, FINGERPRINT, OWN_PACKAGE,
+                Collections.emptyList());
+        IndexDatabaseHelper.getInstance(mContext).reconstruct(mDb);
+
+        assertThat(IndexSnapshot.restore(mContext, mDb, LOCALE, FINGERPRINT)).isTrue();
+
+        Cursor cursor = mDb.rawQuery("SELECT docid, data_title, payload FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getInt(0)).isEqualTo(1);
+        assertThat(cursor.getString(1)).isEqualTo("wifi");
+        assertThat(cursor.getBlob(2)).isEqualTo(new byte[] {1, 2, 3});
+        cursor.close();
+
+        cursor = mDb.rawQuery("SELECT parent_title, child_title FROM site_map", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0)).isEqualTo("Parent");
+        assertThat(cursor.getString(1)).isEqualTo("Child");
+        cursor.close();
+    }
+
+    @Test
+    public void testRestore_differentBuildOrLocale_returnsFalse() {
+        insertRow(1, "wifi", OWN_PACKAGE, null);
+        IndexSnapshot.save(mContext, mDb, LOCALE, FINGERPRINT, OWN_PACKAGE,
+                Collections.emptyList());
+
+        assertThat(IndexSnapshot.restore(mContext, mDb, LOCALE, "new build")).isFalse();
+        assertThat(IndexSnapshot.restore(mContext, mDb, "fr_FR", FINGERPRINT)).isFalse();
+    }
+
+    @Test
+    public void testSave_excludedRowsNotRestored() {
+        insertRow(1, "wifi", OWN_PACKAGE, null);
+        insertRow(2, "dynamic", OWN_PACKAGE, null);
+        insertRow(3, "other dynamic", OWN_PACKAGE, null);
+
+        IndexSnapshot.save(mContext, mDb, LOCALE, FINGERPRINT, OWN_PACKAGE, Arrays.asList(2, 3));
+        IndexDatabaseHelper.getInstance(mContext).reconstruct(mDb);
+
+        assertThat(IndexSnapshot.restore(mContext, mDb, LOCALE, FINGERPRINT)).isTrue();
+
+        Cursor cursor = mDb.rawQuery("SELECT docid FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+        cursor.moveToFirst();
+        assertThat(cursor.getInt(0)).isEqualTo(1);
+        cursor.close();
+    }
+
+    @Test
+    public void testSave_otherBuildSnapshotsDeleted() {
+        insertRow(1, "wifi", OWN_PACKAGE, null);
+        IndexSnapshot.save(mContext, mDb, "fr_FR", "old build", OWN_PACKAGE,
+                Collections.emptyList());
+
+        IndexSnapshot.save(mContext, mDb, LOCALE, FINGERPRINT, OWN_PACKAGE,
+                Collections.emptyList());
+
+        assertThat(snapshotExists("fr_FR")).isFalse();
+        assertThat(snapshotExists(LOCALE)).isTrue();
+    }
+
+    @Test
+    public void testSave_leastRecentLocalesDeleted() {
+        insertRow(1, "wifi", OWN_PACKAGE, null);
+        IndexSnapshot.save(mContext, mDb, "fr_FR", FINGERPRINT, OWN_PACKAGE,
+                Collections.emptyList());
+        IndexSnapshot.getSnapshotFile(mContext, "fr_FR").getBaseFile().setLastModified(1000L);
+        IndexSnapshot.save(mContext, mDb, "de_DE", FINGERPRINT, OWN_PACKAGE,
+                Collections.emptyList());
+        IndexSnapshot.getSnapshotFile(mContext, "de_DE").getBaseFile().setLastModified(2000L);
+
+        IndexSnapshot.save(mContext, mDb, LOCALE, FINGERPRINT, OWN_PACKAGE,
+                Collections.emptyList());
+
+        assertThat(snapshotExists(LOCALE)).isTrue();
+        assertThat(snapshotExists("de_DE")).isTrue();
+        assertThat(snapshotExists("fr_FR")).isFalse();
+        assertThat(new File(mContext.getFilesDir(), "search_index_snapshots").list())
+                .hasLength(IndexSnapshot.MAX_SNAPSHOT_COUNT);
+    }
+
+    private boolean snapshotExists(String locale) {
+        return IndexSnapshot.getSnapshotFile(mContext, locale).getBaseFile().exists();
+    }
+
+    private void insertRow(int docId, String title, String packageName, byte[] payload) {
+        ContentValues values = new ContentValues();
+        values.put(IndexDatabaseHelper.IndexColumns.DOCID, docId);
+        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, LOCALE);
+        values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE, title);
+        values.put(IndexDatabaseHelper.IndexColumns.ENABLED, true);
+        values.put(IndexDatabaseHelper.IndexColumns.PAYLOAD, payload);
+        values.put(IndexDatabaseHelper.IndexColumns.DATA_PACKAGE, packageName);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, values);
+    }
+
+    private void insertSiteMapRow(int docId, String parentTitle, String childTitle) {
+        ContentValues values = new ContentValues();
+        values.put(IndexDatabaseHelper.SiteMapColumns.DOCID, docId);
+        values.put(IndexDatabaseHelper.SiteMapColumns.PARENT_CLASS, "ParentClass");
+        values.put(IndexDatabaseHelper.SiteMapColumns.CHILD_CLASS, "ChildClass");
+        values.put(IndexDatabaseHelper.SiteMapColumns.PARENT_TITLE, parentTitle);
+        values.put(IndexDatabaseHelper.SiteMapColumns.CHILD_TITLE, childTitle);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, values);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.UserInfo;
+
+import com.android.settings.TestConfig;
+import com.android.settings.applications.PackageManagerWrapper;
+import com.android.settings.testutils.ApplicationTestUtils;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class InstalledAppIndexTest {
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private PackageManagerWrapper mPackageManagerWrapper;
+
+    private final UserInfo mUser = new UserInfo(0, "user", 0);
+    private InstalledAppIndex mIndex;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mPackageManagerWrapper.getInstalledApplicationsAsUser(anyInt(), anyInt()))
+                .thenReturn(Arrays.asList(
+                        ApplicationTestUtils.buildInfo(0 /* uid */, "app", 0 /* flags */,
+                                0 /* targetSdkVersion */)));
+        mIndex = new InstalledAppIndex(mPackageManagerWrapper);
+    }
+
+    @Test
+    public void getWordStarts_shouldSkipLeadingSymbolsOfWords() {
+        assertThat(InstalledAppIndex.getWordStarts("abc  (de) f")).isEqualTo(new int[] {0, 6, 10});
+        assertThat(InstalledAppIndex.getWordStarts("")).isEqualTo(new int[0]);
+    }
+
+    @Test
+    public void match_shouldMatchWordPrefixesOnce() {
+        final InstalledAppIndex.UserApps apps = buildUserApps(
+                "Bananas Apples", "BananasApples", "apple apple", "Carrot");
+
+        assertThat(apps.match("APP")).asList().containsExactly(0, 2);
+        assertThat(apps.match("ban")).asList().containsExactly(0, 1);
+        assertThat(apps.match("rot")).isEmpty();
+        assertThat(apps.match("")).isEmpty();
+        assertThat(apps.labelLengths).isEqualTo(new int[] {14, 13, 11, 6});
+    }
+
+    @Test
+    public void getApps_shouldBuildOncePerUserUntilInvalidated() {
+        mIndex.getApps(mUser);
+        mIndex.getApps(mUser);
+
+        verify(mPackageManagerWrapper, times(1)).getInstalledApplicationsAsUser(anyInt(), anyInt());
+
+        mIndex.invalidate();
+        mIndex.getApps(mUser);
+
+        verify(mPackageManagerWrapper, times(2)).getInstalledApplicationsAsUser(anyInt(), anyInt());
+    }
+
+    private static InstalledAppIndex.UserApps buildUserApps(String... labels) {
+        final ApplicationInfo[] apps = new ApplicationInfo[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            apps[i] = ApplicationTestUtils.buildInfo(0 /* uid */, "app" + i, 0 /* flags */,
+                    0 /* targetSdkVersion */);
+        }
+        return new InstalledAppIndex.UserApps(apps, labels);
+    }
+}
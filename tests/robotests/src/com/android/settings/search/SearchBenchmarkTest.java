@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.settings.TestConfig;
+import com.android.settings.dashboard.SiteMapManager;
+import com.android.settings.testutils.DatabaseTestUtils;
+import com.android.settings.testutils.FakeFeatureFactory;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the latency of database search queries against a synthetic index.
+ *
+ * Skipped unless the number of rows to index is given, e.g.
+ * {@code -Dsettings.search.benchmark.rows=100000}. Reports the p50 and p99 latency of each
+ * query mode on stdout.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SearchBenchmarkTest {
+
+    private static final String ROWS_PROPERTY = "settings.search.benchmark.rows";
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+    private static final long SEED = 42;
+
+    private static final String[] WORDS = {
+            "wifi", "network", "bluetooth", "display", "brightness", "sound", "volume", "battery",
+            "storage", "apps", "notifications", "location", "security", "accounts", "language",
+            "keyboard", "backup", "date", "time", "accessibility", "printing", "developer",
+            "data", "usage", "hotspot", "tethering", "airplane", "mode", "wallpaper", "font",
+            "screen", "lock", "fingerprint", "encryption", "users", "emergency", "gestures",
+            "ringtone", "vibrate", "alarm", "night", "light", "sleep", "cast", "nfc", "payment"
+    };
+
+    private static final String[] QUERIES = {"w", "wi", "net", "bat", "sto", "dis", "lock",
+            "data us", "night light", "scr", "xyz"};
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private Context mMockContext;
+    private Context mContext;
+    private SiteMapManager mSiteMapManager;
+    private int mRowCount;
+
+    @Before
+    public void setUp() {
+        mRowCount = Integer.getInteger(ROWS_PROPERTY, 0);
+        Assume.assumeTrue(mRowCount > 0);
+
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        FakeFeatureFactory.setupForTest(mMockContext);
+        mSiteMapManager = new SiteMapManager();
+        populateIndex(IndexDatabaseHelper.getInstance(mContext).getWritableDatabase());
+    }
+
+    @After
+    public void cleanUp() {
+        if (mContext != null) {
+            DatabaseTestUtils.clearDb(mContext);
+        }
+    }
+
+    @Test
+    public void benchmarkLikeQuery() {
+        runBenchmark("LIKE", false /* useFtsMatch */);
+    }
+
+    @Test
+    public void benchmarkFtsQuery() {
+        runBenchmark("FTS", true /* useFtsMatch */);
+    }
+
+    private void runBenchmark(String name, boolean useFtsMatch) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            runQuery(QUERIES[i % QUERIES.length], useFtsMatch);
+        }
+        final long[] latencies = new long[ITERATIONS];
+        int resultCount = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long startNanos = System.nanoTime();
+            resultCount += runQuery(QUERIES[i % QUERIES.length], useFtsMatch);
+            latencies[i] = System.nanoTime() - startNanos;
+        }
+        Arrays.sort(latencies);
+
+        assertThat(resultCount).isGreaterThan(0);
+        System.out.println(String.format(Locale.US,
+                "SearchBenchmark %s rows=%d p50=%.2fms p99=%.2fms", name, mRowCount,
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6));
+    }
+
+    private int runQuery(String query, boolean useFtsMatch) {
+        final DatabaseResultLoader loader = new DatabaseResultLoader(mContext, query,
+                mSiteMapManager, useFtsMatch);
+        return loader.loadInBackground().size();
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        final int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+
+    private void populateIndex(SQLiteDatabase db) {
+        final byte[] payload = ResultPayloadUtils.marshall(new ResultPayload(new Intent()));
+        final Random random = new Random(SEED);
+        final ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int docId = 1; docId <= mRowCount; docId++) {
+                final String title = randomPhrase(random, 1 + random.nextInt(3));
+                final String summary = randomPhrase(random, 3 + random.nextInt(5));
+                values.clear();
+                values.put(IndexDatabaseHelper.IndexColumns.DOCID, docId);
+                values.put(IndexDatabaseHelper.IndexColumns.LOCALE, "en-us");
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_RANK, 1);
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE, title);
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED, title);
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_ON, summary);
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_ON_NORMALIZED, summary);
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_OFF, summary);
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_OFF_NORMALIZED,
+                        summary);
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_ENTRIES,
+                        randomPhrase(random, 2));
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_KEYWORDS,
+                        randomPhrase(random, 3));
+                values.put(IndexDatabaseHelper.IndexColumns.CLASS_NAME,
+                        "com.android.settings.Screen" + random.nextInt(100));
+                values.put(IndexDatabaseHelper.IndexColumns.SCREEN_TITLE,
+                        randomPhrase(random, 1));
+                values.put(IndexDatabaseHelper.IndexColumns.INTENT_ACTION, "");
+                values.put(IndexDatabaseHelper.IndexColumns.INTENT_TARGET_PACKAGE, "");
+                values.put(IndexDatabaseHelper.IndexColumns.INTENT_TARGET_CLASS, "");
+                values.put(IndexDatabaseHelper.IndexColumns.ICON, "");
+                values.put(IndexDatabaseHelper.IndexColumns.ENABLED, true);
+                values.put(IndexDatabaseHelper.IndexColumns.DATA_KEY_REF, "key_" + docId);
+                values.put(IndexDatabaseHelper.IndexColumns.USER_ID, 0);
+                values.put(IndexDatabaseHelper.IndexColumns.PAYLOAD_TYPE, 0);
+                values.put(IndexDatabaseHelper.IndexColumns.PAYLOAD, payload);
+                db.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static String randomPhrase(Random random, int wordCount) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Loader;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Arrays;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SearchLoaderSchedulerTest {
+
+    @Mock
+    private Runnable mStartGeneration;
+    @Mock
+    private Loader<Object> mLoader1;
+    @Mock
+    private Loader<Object> mLoader2;
+
+    private SearchLoaderScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mScheduler = new SearchLoaderScheduler();
+    }
+
+    @Test
+    public void schedule_firstQuery_startsImmediately() {
+        mScheduler.schedule(mStartGeneration);
+
+        verify(mStartGeneration).run();
+    }
+
+    @Test
+    public void schedule_whileTyping_startsOnceAfterDelay() {
+        mScheduler.schedule(mStartGeneration);
+        mScheduler.schedule(mStartGeneration);
+        mScheduler.schedule(mStartGeneration);
+
+        verify(mStartGeneration, times(1)).run();
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(mStartGeneration, times(2)).run();
+    }
+
+    @Test
+    public void cancel_dropsScheduledGeneration() {
+        mScheduler.schedule(mStartGeneration);
+        mScheduler.schedule(mStartGeneration);
+        mScheduler.cancel();
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(mStartGeneration, times(1)).run();
+    }
+
+    @Test
+    public void schedule_cancelsLoadersOfCurrentGeneration() {
+        mScheduler.startGeneration(Arrays.asList(mLoader1, mLoader2));
+        mScheduler.onLoaderFinished(mLoader1);
+
+        mScheduler.schedule(mStartGeneration);
+
+        verify(mLoader1, never()).cancelLoad();
+        verify(mLoader2).cancelLoad();
+        assertThat(mScheduler.onLoaderFinished(mLoader2)).isFalse();
+    }
+
+    @Test
+    public void onLoaderFinished_generationFinishedAfterAllLoaders() {
+        mScheduler.startGeneration(Arrays.asList(mLoader1, null, mLoader2));
+
+        assertThat(mScheduler.onLoaderFinished(mLoader1)).isTrue();
+        assertThat(mScheduler.isGenerationFinished()).isFalse();
+        assertThat(mScheduler.onLoaderFinished(mLoader2)).isTrue();
+        assertThat(mScheduler.isGenerationFinished()).isTrue();
+    }
+}
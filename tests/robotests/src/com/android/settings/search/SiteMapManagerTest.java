@@ -46,6 +46,7 @@ import org.robolectric.annotation.Config;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.when;
@@ -131,6 +132,109 @@ public class SiteMapManagerTest {
         assertThat(breadcrumb.get(0)).isEqualTo(title);
     }
 
+    @Test
+    public void buildBreadCrumb_repeatedLookup_returnsSameBreadcrumb() {
+        final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        assertThat(mSiteMapManager.buildBreadCrumb(mContext, CLASS_PREFIX + 0, TITLE_PREFIX + 0))
+                .containsExactlyElementsIn(breadcrumb).inOrder();
+    }
+
+    @Test
+    public void buildBreadCrumb_cyclicSiteMap_shouldTerminate() {
+        final ContentValues siteMapPair = new ContentValues();
+        siteMapPair.put(SiteMapColumns.DOCID, STATIC_DB_DEPTH);
+        siteMapPair.put(SiteMapColumns.PARENT_CLASS, CLASS_PREFIX + 0);
+        siteMapPair.put(SiteMapColumns.PARENT_TITLE, TITLE_PREFIX + 0);
+        siteMapPair.put(SiteMapColumns.CHILD_CLASS, CLASS_PREFIX + STATIC_DB_DEPTH);
+        siteMapPair.put(SiteMapColumns.CHILD_TITLE, TITLE_PREFIX + STATIC_DB_DEPTH);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, siteMapPair);
+
+        final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        // The cycle is broken at one of its pages, which becomes a root.
+        assertThat(breadcrumb.size()).isEqualTo(STATIC_DB_DEPTH + 1);
+        assertThat(breadcrumb.get(breadcrumb.size() - 1)).isEqualTo(TITLE_PREFIX + 0);
+    }
+
+    @Test
+    public void buildBreadCrumb_multipleParents_firstParentWins() {
+        final ContentValues siteMapPair = new ContentValues();
+        siteMapPair.put(SiteMapColumns.DOCID, STATIC_DB_DEPTH);
+        siteMapPair.put(SiteMapColumns.PARENT_CLASS, "other_class");
+        siteMapPair.put(SiteMapColumns.PARENT_TITLE, "other_title");
+        siteMapPair.put(SiteMapColumns.CHILD_CLASS, CLASS_PREFIX + 0);
+        siteMapPair.put(SiteMapColumns.CHILD_TITLE, TITLE_PREFIX + 0);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, siteMapPair);
+
+        final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        assertThat(breadcrumb.size()).isEqualTo(STATIC_DB_DEPTH + 1);
+        assertThat(breadcrumb.get(0)).isEqualTo(TITLE_PREFIX + STATIC_DB_DEPTH);
+    }
+
+    @Test
+    public void buildBreadCrumb_afterRestart_shouldReadSavedSiteMap() {
+        mSiteMapManager.buildBreadCrumb(mContext, CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+        DatabaseTestUtils.clearSiteMap();
+        mDb.delete(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, null);
+
+        final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        assertThat(breadcrumb.size()).isEqualTo(STATIC_DB_DEPTH + 1);
+    }
+
+    @Test
+    public void buildBreadCrumb_afterLocaleChange_shouldRebuildSiteMap() {
+        final Locale locale = Locale.getDefault();
+        mSiteMapManager.buildBreadCrumb(mContext, CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+        DatabaseTestUtils.clearSiteMap();
+        mDb.delete(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, null);
+
+        try {
+            Locale.setDefault(Locale.FRANCE);
+            final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
+                    CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+            assertThat(breadcrumb).containsExactly(TITLE_PREFIX + 0);
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void buildBreadCrumb_afterRestart_shouldAddTilesUnderSavedHostPage() {
+        final String iaClass = SystemDashboardFragment.class.getName();
+        final String iaTitle = "ia_title";
+        ContentValues index = new ContentValues();
+        index.put(IndexDatabaseHelper.IndexColumns.CLASS_NAME, iaClass);
+        index.put(IndexDatabaseHelper.IndexColumns.SCREEN_TITLE, iaTitle);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, index);
+        mSiteMapManager.buildBreadCrumb(mContext, CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+        DatabaseTestUtils.clearSiteMap();
+        mDb.delete(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, null);
+
+        final DashboardCategory category = new DashboardCategory();
+        category.key = CategoryKey.CATEGORY_SYSTEM;
+        category.tiles.add(new Tile());
+        category.tiles.get(0).title = TITLE_PREFIX + STATIC_DB_DEPTH;
+        category.tiles.get(0).metaData = new Bundle();
+        category.tiles.get(0).metaData.putString(SettingsActivity.META_DATA_KEY_FRAGMENT_CLASS,
+                CLASS_PREFIX + STATIC_DB_DEPTH);
+        when(mFeatureFactory.dashboardFeatureProvider.getAllCategories())
+                .thenReturn(Arrays.asList(category));
+
+        final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        assertThat(breadcrumb.size()).isEqualTo(STATIC_DB_DEPTH + 2);
+        assertThat(breadcrumb.get(0)).isEqualTo(iaTitle);
+    }
+
     private void buildDb() {
         for (int i = 0; i < STATIC_DB_DEPTH; i++) {
             final ContentValues siteMapPair = new ContentValues();
@@ -18,6 +18,7 @@ package com.android.settings.testutils;
 
 import android.content.Context;
 
+import com.android.settings.dashboard.SiteMapManager;
 import com.android.settings.search.IndexDatabaseHelper;
 
 import java.lang.reflect.Field;
@@ -37,5 +38,21 @@ public class DatabaseTestUtils {
         } catch (Exception e) {
             throw new RuntimeException();
         }
+
+        // The site map is built from the database.
+        clearSiteMap();
+    }
+
+    /**
+     * Drops the site map loaded by {@link SiteMapManager}, so that it is loaded again.
+     */
+    public static void clearSiteMap() {
+        try {
+            final Field instance = SiteMapManager.class.getDeclaredField("sSiteMap");
+            instance.setAccessible(true);
+            instance.set(null, null);
+        } catch (Exception e) {
+            throw new RuntimeException();
+        }
     }
 }